@@ -0,0 +1,121 @@
+package com.jackflashtech.nci;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How a call to a device is to be made: the time it may take in all, how many
+ * times to send the command if a reply is corrupted, and how it may be
+ * cancelled. By default a call is sent once in the {@link Priority#INTERACTIVE}
+ * lane. A typical call at a checkout:
+ * <pre>
+ * CallOptions options = new CallOptions(500);
+ * options.setMaxAttempts(3);
+ * Weight weight = device.getWeight(options);
+ * </pre>
+ * Within its budget, a failed attempt whose exception is one of the retryable
+ * types, by default only {@link NCIParseException}, is sent again as soon as
+ * the line is quiet. A timeout is not retried by default, since it has already
+ * used up the time another attempt would need.
+ *
+ * The options hold no state of their own between calls, so one instance can
+ * be shared by many.
+ */
+public class CallOptions {
+	private final long budgetNanos;
+	private Priority priority = Priority.INTERACTIVE;
+	private int maxAttempts = 1;
+	private Set<Class<? extends NCIException>> retryOn = Collections.<Class<? extends NCIException>>singleton(NCIParseException.class);
+	private Cancellation cancellation = null;
+
+	/**
+	 * @param budgetMillis	How long the whole call may take, including waiting for the device and every attempt.
+	 */
+	public CallOptions(long budgetMillis) {
+		if (budgetMillis <= 0) throw new IllegalArgumentException("The budget must be positive, not " + budgetMillis + ".");
+		this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+	}
+
+	/**
+	 * @return	The deadline of a call started at the given time, from {@link System#nanoTime()}.
+	 */
+	public long getDeadline(long startNanos) {
+		return startNanos + budgetNanos;
+	}
+
+	public long getBudgetMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(budgetNanos);
+	}
+
+	/**
+	 * @param budgetMillis	The budget of the copy, such as what is left of this one's after waiting for the device.
+	 * @return	A copy of these options with another budget.
+	 */
+	public CallOptions withBudget(long budgetMillis) {
+		CallOptions copy = new CallOptions(budgetMillis);
+		copy.priority = priority;
+		copy.maxAttempts = maxAttempts;
+		copy.retryOn = retryOn;
+		copy.cancellation = cancellation;
+		return copy;
+	}
+
+	public Priority getPriority() {
+		return priority;
+	}
+
+	public void setPriority(Priority priority) {
+		this.priority = priority;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @param maxAttempts	The most times the command is sent, at least 1.
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		if (maxAttempts < 1) throw new IllegalArgumentException("There must be at least one attempt, not " + maxAttempts + ".");
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Sets the failures that are worth another attempt. An exception is
+	 * retryable if it is an instance of any of them.
+	 *
+	 * @param types	The types, such as {@link NCIParseException} and {@link NCITimeoutException}.
+	 */
+	@SafeVarargs
+	public final void setRetryOn(Class<? extends NCIException>... types) {
+		Set<Class<? extends NCIException>> retryOn = new HashSet<Class<? extends NCIException>>();
+		for (Class<? extends NCIException> type : types) {
+			retryOn.add(type);
+		}
+		this.retryOn = Collections.unmodifiableSet(retryOn);
+	}
+
+	public Set<Class<? extends NCIException>> getRetryOn() {
+		return retryOn;
+	}
+
+	public boolean isRetryable(NCIException exception) {
+		for (Class<? extends NCIException> type : retryOn) {
+			if (type.isInstance(exception)) return true;
+		}
+		return false;
+	}
+
+	public Cancellation getCancellation() {
+		return cancellation;
+	}
+
+	/**
+	 * @param cancellation	What cancels the call, or null if it cannot be cancelled.
+	 */
+	public void setCancellation(Cancellation cancellation) {
+		this.cancellation = cancellation;
+	}
+}
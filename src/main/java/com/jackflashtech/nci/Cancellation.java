@@ -0,0 +1,57 @@
+package com.jackflashtech.nci;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lets one thread give up on calls made by another, such as when the customer
+ * walks away from a checkout while its weight is being read. Pass it to the
+ * calls in their {@link CallOptions}; once {@link #cancel()} is called, every
+ * call using it, now or later, ends with an {@link NCICancelledException} as
+ * soon as it can, without waiting for the device.
+ */
+public class Cancellation {
+	private final List<Runnable> listeners = new ArrayList<Runnable>();
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Cancels the calls. This cannot be undone.
+	 */
+	public void cancel() {
+		Runnable[] notify;
+		synchronized (this) {
+			if (cancelled) return;
+			cancelled = true;
+			notify = listeners.toArray(new Runnable[listeners.size()]);
+			listeners.clear();
+		}
+		// Run outside the lock, since a listener wakes threads that may be checking this.
+		for (Runnable listener : notify) {
+			listener.run();
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Adds something to run when the calls are cancelled, such as waking the
+	 * threads waiting in them. If they already are, it is run at once.
+	 *
+	 * @param listener	What to run, once, on the thread that cancels.
+	 */
+	public void addListener(Runnable listener) {
+		synchronized (this) {
+			if (!cancelled) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+
+	public synchronized void removeListener(Runnable listener) {
+		listeners.remove(listener);
+	}
+}
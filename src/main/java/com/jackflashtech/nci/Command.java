@@ -0,0 +1,32 @@
+package com.jackflashtech.nci;
+
+/**
+ * This enum represents the NCI commands that can be sent to a device as part
+ * of a batch through {@link NCIDevice#executeBatch(java.util.List)}. Each
+ * value carries the single byte that is sent to the device, followed by a
+ * &lt;CR&gt;, to request the command.
+ */
+public enum Command {
+	WEIGHT('W'),
+	HIGH_RESOLUTION_WEIGHT('H'),
+	UNITS('U'),
+	STATUS('S'),
+	TARE('T'),
+	ZERO('Z'),
+	METROLOGY_RAW_COUNTS('M');
+
+	private final byte code;
+
+	private Command(char code) {
+		this.code = (byte) code;
+	}
+
+	/**
+	 * The byte sent to the device to request this command.
+	 *
+	 * @return	The byte identifying this command in the NCI protocol.
+	 */
+	public byte getCode() {
+		return code;
+	}
+}
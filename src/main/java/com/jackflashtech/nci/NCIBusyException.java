@@ -0,0 +1,21 @@
+package com.jackflashtech.nci;
+
+/**
+ * This is thrown when a command could not be sent because the device was busy
+ * with other commands, either because a {@link Priority#BACKGROUND} command was
+ * shed in favor of an {@link Priority#INTERACTIVE} one, or because the device
+ * did not become free in time. Nothing was sent to the device, so the command
+ * can safely be tried again.
+ */
+public class NCIBusyException extends NCIException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -2270618400571942953L;
+
+	public NCIBusyException(String string) {
+		super(string);
+	}
+
+}
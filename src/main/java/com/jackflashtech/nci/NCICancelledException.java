@@ -0,0 +1,23 @@
+package com.jackflashtech.nci;
+
+/**
+ * This is thrown when a call was given up because its {@link Cancellation} was
+ * cancelled or its thread was interrupted. If a command had been sent, its
+ * reply is thrown away when it arrives.
+ */
+public class NCICancelledException extends NCIException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1904458128203317736L;
+
+	public NCICancelledException(String string) {
+		super(string);
+	}
+
+	public NCICancelledException(String string, Throwable e) {
+		super(string, e);
+	}
+
+}
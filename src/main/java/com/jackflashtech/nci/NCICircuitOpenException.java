@@ -0,0 +1,20 @@
+package com.jackflashtech.nci;
+
+/**
+ * This is thrown at once, without sending anything, when a device has stopped
+ * answering and its circuit breaker is open, rather than waiting out another
+ * timeout. The breaker lets a command through again after its cool-down, so
+ * the same call can be made again later.
+ */
+public class NCICircuitOpenException extends NCIException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 4610237849461183245L;
+
+	public NCICircuitOpenException(String string) {
+		super(string);
+	}
+
+}
@@ -1,7 +1,10 @@
 package com.jackflashtech.nci;
 
+import java.util.List;
 import java.util.TooManyListenersException;
 
+import com.jackflashtech.nci.data.CommandResult;
+import com.jackflashtech.nci.data.Reading;
 import com.jackflashtech.nci.data.Status;
 import com.jackflashtech.nci.data.Weight;
 
@@ -10,6 +13,11 @@ import com.jackflashtech.nci.data.Weight;
  * Instances of this are constructed through the
  * {@link com.jackflashtech.nci.impl.NCIFactory}.
  * 
+ * The methods added since the first release have default implementations,
+ * so that devices written against it still compile: the lanes fall back to
+ * the plain command, and what cannot be done without the device's help
+ * throws an {@link NCIUnsupportedException}.
+ * 
  * @author Jonathan Card
  *
  */
@@ -30,12 +38,70 @@ public interface NCIDevice {
 	 */
 	public Weight getWeight() throws NCIException;
 	
+	/**
+	 * The same as {@link #getWeight()}, sent in the given lane. Use
+	 * {@link Priority#BACKGROUND} for polling, so that commands from an
+	 * operator are not held up behind it.
+	 * 
+	 * @param priority	The lane to send the request in.
+	 * @return The weight currently being registered by the device.
+	 * @throws	NCIException	This is thrown in the event that some exception happened during the request for the weight, including an {@link NCIBusyException} if it was shed.
+	 */
+	public default Weight getWeight(Priority priority) throws NCIException {
+		return getWeight();
+	}
+	
+	/**
+	 * The same as {@link #getWeight()}, within the time, attempts and
+	 * cancellation of the given options. A reply corrupted on the line can be
+	 * sent for again without the caller seeing it.
+	 * 
+	 * @param options	How to make the call.
+	 * @return The weight currently being registered by the device.
+	 * @throws	NCIException	This is thrown if the last attempt failed, including an {@link NCITimeoutException} if the time ran out and an {@link NCICancelledException} if the call was cancelled.
+	 */
+	public default Weight getWeight(CallOptions options) throws NCIException {
+		throw new NCIUnsupportedException("This device does not support call options.");
+	}
+	
 	public Weight getHighResolutionWeight() throws NCIException;
 	
 	public Units changeUnitsOfMeasure() throws NCIException;
 	
-	// This is not well tested. The return value in particular should be a collection of relevant strings. But the scale I'm developing this for doesn't support this function.
-	public void requestMetrologyRawCounts() throws NCIException;
+	/**
+	 * Requests the raw counts of the load cell, before calibration, zero or
+	 * tare are applied. To read counts continuously, use
+	 * {@link #subscribeRawCounts(RawCountListener, int, int)} instead.
+	 *
+	 * @return	The raw counts.
+	 * @throws NCIException	This is thrown if the request failed, including if the device does not support raw counts.
+	 */
+	public long requestMetrologyRawCounts() throws NCIException;
+
+	/**
+	 * Subscribes to a stream of raw counts. While anything is subscribed, the
+	 * device is asked for counts as fast as the link allows, with several
+	 * requests in flight, taking turns in the {@link Priority#BACKGROUND}
+	 * lane so other commands still get through. Each subscriber gets its own
+	 * decimation of the same stream.
+	 *
+	 * @param listener		The subscriber.
+	 * @param decimation	The number of raw counts averaged into each sample.
+	 * @param blockSize		The number of samples in each block delivered.
+	 * @throws NCIException	This is thrown if the listener is already subscribed, including an {@link NCIUnsupportedException} if the device cannot stream raw counts.
+	 */
+	public default void subscribeRawCounts(RawCountListener listener, int decimation, int blockSize) throws NCIException {
+		throw new NCIUnsupportedException("This device does not support streaming raw counts.");
+	}
+
+	/**
+	 * Ends a subscription to the raw counts. The stream stops when the last
+	 * subscriber leaves. Samples not yet in a full block are dropped.
+	 *
+	 * @param listener	The subscriber.
+	 */
+	public default void unsubscribeRawCounts(RawCountListener listener) {
+	}
 
 	// This is not well tested. The return value in particular should be a collection of relevant strings. But the scale I'm developing this for doesn't support this function.
 	public void requestAbout() throws NCIException;
@@ -52,6 +118,29 @@ public interface NCIDevice {
 	 */
 	public Status requestStatus() throws NCIException;
 	
+	/**
+	 * The same as {@link #requestStatus()}, sent in the given lane.
+	 * 
+	 * @param priority	The lane to send the request in.
+	 * @return	The status requested from the device.
+	 * @throws NCIException	This is thrown in the event that some exception happened during the request for the status, including an {@link NCIBusyException} if it was shed.
+	 */
+	public default Status requestStatus(Priority priority) throws NCIException {
+		return requestStatus();
+	}
+	
+	/**
+	 * The same as {@link #requestStatus()}, within the time, attempts and
+	 * cancellation of the given options.
+	 * 
+	 * @param options	How to make the call.
+	 * @return	The status requested from the device.
+	 * @throws NCIException	This is thrown if the last attempt failed, including an {@link NCITimeoutException} if the time ran out and an {@link NCICancelledException} if the call was cancelled.
+	 */
+	public default Status requestStatus(CallOptions options) throws NCIException {
+		throw new NCIUnsupportedException("This device does not support call options.");
+	}
+	
 	/**
 	 * Sets the tare on the device, making the returned weight net rather than gross.
 	 * 
@@ -68,12 +157,59 @@ public interface NCIDevice {
 	
 	/**
 	 * This returns the status as retrieved from the last successful
-	 * communication with the device. This does not supply a new status. If you
-	 * require a new status update, use {@link #requestStatus()}.
+	 * communication with the device that reported one, whatever the command.
+	 * This does not supply a new status. If you require a new status update,
+	 * use {@link #requestStatus()}. It need not be from the same reply as the
+	 * last weight; for a weight together with its status, use
+	 * {@link #latestReading()}.
 	 *
-	 * @return	The status reported during the most recent communication with the device. This may be null if there was an exception in the most recent communication.
+	 * @return	The status reported during the most recent successful communication with the device, or null if there has been none.
 	 */
 	public Status getStatus();
-	
+
+	/**
+	 * Returns the last weight read from the device, together with the status
+	 * from the same reply, without waiting or talking to the device. It is
+	 * meant for the many threads that only display or report the current
+	 * weight while others, such as a poller, do the reading.
+	 *
+	 * @return	The latest reading, or null if no weight has been read yet or the device keeps no readings.
+	 */
+	public default Reading latestReading() {
+		return null;
+	}
+
+	/**
+	 * Sends several commands to the device in a single write and parses the
+	 * replies in order. This saves a round trip for each command after the
+	 * first, such as when a tare is followed by a weight and a status. The
+	 * status of the last reply is also stored to be retrieved by
+	 * {@link #getStatus()}.
+	 *
+	 * @param commands	The commands to send, in the order they are to be executed.
+	 * @return	One result for each command, in the same order as the commands.
+	 * @throws NCIException	This is thrown in the event that some exception happened during any of the commands in the batch.
+	 */
+	public default List<CommandResult> executeBatch(List<Command> commands) throws NCIException {
+		throw new NCIUnsupportedException("This device does not support batches of commands.");
+	}
+
+	/**
+	 * The same as {@link #executeBatch(List)}, within the time, attempts and
+	 * cancellation of the given options. This is how any command is sent with
+	 * options, such as a tare with a deadline. A batch that failed with a
+	 * retryable exception is sent again whole; tare, zero and the requests are
+	 * safe to repeat, but a batch with {@link Command#UNITS} is only ever sent
+	 * once, since each change of units moves to the next.
+	 *
+	 * @param commands	The commands to send, in the order they are to be executed.
+	 * @param options	How to make the call.
+	 * @return	One result for each command, in the same order as the commands.
+	 * @throws NCIException	This is thrown if the last attempt failed, including an {@link NCITimeoutException} if the time ran out and an {@link NCICancelledException} if the call was cancelled.
+	 */
+	public default List<CommandResult> executeBatch(List<Command> commands, CallOptions options) throws NCIException {
+		throw new NCIUnsupportedException("This device does not support call options.");
+	}
+
 	public void closeDevice() throws NCIException;
 }
@@ -2,6 +2,7 @@ package com.jackflashtech.nci;
 
 import com.jackflashtech.nci.data.Status;
 import com.jackflashtech.nci.data.Weight;
+import com.jackflashtech.nci.data.ZeroStatistics;
 
 public interface NCIDeviceListener {
 	void deviceClosed();
@@ -11,4 +12,16 @@ public interface NCIDeviceListener {
 	void receviedMetrologyRawCounts();
 	void updatedUnits(Units units);
 	void updatedStatus(Status status);
+
+	/**
+	 * Called when a device's statistics at zero cross one of its configured
+	 * thresholds. It is called once per crossing, not on every reading, and
+	 * is called again only after the statistic has fallen back well below the
+	 * threshold and crossed it anew. By default it is ignored.
+	 *
+	 * @param alarm			The threshold that was crossed.
+	 * @param statistics	The statistics at the time of the crossing.
+	 */
+	default void statisticsAlarm(ZeroStatistics.Alarm alarm, ZeroStatistics statistics) {
+	}
 }
@@ -1,6 +1,5 @@
 package com.jackflashtech.nci;
 
-// TODO: Consider a sub-class of NCIException for parsing exceptions
 public class NCIException extends Exception {
 
 	/**
@@ -0,0 +1,23 @@
+package com.jackflashtech.nci;
+
+/**
+ * This is thrown when a reply arrived but could not be understood, such as a
+ * status byte that failed its parity check or a frame that was cut short. On
+ * a noisy line the same command usually succeeds when sent again.
+ */
+public class NCIParseException extends NCIException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 3318874562917005129L;
+
+	public NCIParseException(String string) {
+		super(string);
+	}
+
+	public NCIParseException(String string, Throwable e) {
+		super(string, e);
+	}
+
+}
@@ -0,0 +1,14 @@
+package com.jackflashtech.nci;
+
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+
+/**
+ * A listener for the results of the polling done by
+ * {@link com.jackflashtech.nci.impl.NCIPollingScheduler}. These methods are
+ * called on the scheduler's threads, so they should return quickly.
+ */
+public interface NCIPollingListener {
+	void polled(String name, Weight weight, Status status);
+	void pollFailed(String name, NCIException exception);
+}
@@ -0,0 +1,22 @@
+package com.jackflashtech.nci;
+
+/**
+ * This is thrown when the device did not answer in time. The command may or
+ * may not have reached the device.
+ */
+public class NCITimeoutException extends NCIException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -6601520389466123907L;
+
+	public NCITimeoutException(String string) {
+		super(string);
+	}
+
+	public NCITimeoutException(String string, Throwable e) {
+		super(string, e);
+	}
+
+}
@@ -0,0 +1,23 @@
+package com.jackflashtech.nci;
+
+/**
+ * This is thrown when the device replied "?" to a command, as a scale does to
+ * a command it does not implement, or when the implementation of
+ * {@link NCIDevice} does not support the method called at all.
+ */
+public class NCIUnsupportedException extends NCIException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 7702236870617284402L;
+
+	public NCIUnsupportedException(String string) {
+		super(string);
+	}
+
+	public NCIUnsupportedException(String string, Throwable e) {
+		super(string, e);
+	}
+
+}
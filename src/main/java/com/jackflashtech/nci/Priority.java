@@ -0,0 +1,15 @@
+package com.jackflashtech.nci;
+
+/**
+ * This enum represents the lanes a command to a device can be sent in. A device
+ * carries one exchange at a time. Commands in the {@link #INTERACTIVE} lane,
+ * such as an operator pressing tare, go ahead of every waiting
+ * {@link #BACKGROUND} command, such as a periodic poll. While an interactive
+ * command is waiting, background commands are shed with an
+ * {@link NCIBusyException} rather than queued, since a poll that is answered
+ * late is of little use anyway.
+ */
+public enum Priority {
+	INTERACTIVE,
+	BACKGROUND;
+}
@@ -0,0 +1,26 @@
+package com.jackflashtech.nci;
+
+import com.jackflashtech.nci.data.RawCountBlock;
+
+/**
+ * A subscriber to the metrology raw counts of a device, added with
+ * {@link NCIDevice#subscribeRawCounts(RawCountListener, int, int)}. These
+ * methods are called on the thread reading the counts, so a listener that
+ * returns slowly slows the stream for every subscriber.
+ */
+public interface RawCountListener {
+	/**
+	 * Called each time a block fills. The block is reused for the next one.
+	 *
+	 * @param block	The samples.
+	 */
+	void receivedRawCounts(RawCountBlock block);
+
+	/**
+	 * Called once if the stream stops because the device failed, such as by
+	 * not supporting raw counts. The listener is unsubscribed.
+	 *
+	 * @param exception	The failure.
+	 */
+	void rawCountsFailed(NCIException exception);
+}
@@ -5,15 +5,52 @@ package com.jackflashtech.nci;
  * It can be used in both the {@link com.jackflashtech.nci.data.Weight} class or
  * on its own reporting what units the scale is now reporting values after
  * calling {@link NCIDevice#changeUnitsOfMeasure()}.
- * 
+ *
+ * Each unit of mass also knows its exact size in micrograms, the canonical
+ * fixed-point representation returned by
+ * {@link com.jackflashtech.nci.data.Weight#getMicrograms()}. The size is kept as
+ * a fraction because an ounce is 28349523.125 micrograms. {@link #OTHER} has no
+ * known size; converting to it or from it yields 0 and {@link Double#NaN}.
+ *
  * @author Jonathan Card
  *
  */
 public enum Units {
-	LBS,
-	LBS_OZ,
-	OZ,
-	KG,
-	G,
-	OTHER;
+	LBS(453592370L, 1),
+	LBS_OZ(453592370L, 1),
+	OZ(226796185L, 8),
+	KG(1000000000L, 1),
+	G(1000000L, 1),
+	OTHER(0L, 1);
+
+	private final long micrograms;
+	private final long divisor;
+
+	private Units(long micrograms, long divisor) {
+		this.micrograms = micrograms;
+		this.divisor = divisor;
+	}
+
+	/**
+	 * Converts a value in these units to micrograms, rounded to the nearest
+	 * microgram. For {@link #LBS_OZ}, the value is in pounds.
+	 *
+	 * @param value	A value in these units.
+	 * @return	The value in micrograms.
+	 */
+	public long toMicrograms(double value) {
+		return Math.round(value * micrograms / divisor);
+	}
+
+	/**
+	 * Converts a value in micrograms to these units. For {@link #LBS_OZ}, the
+	 * value is in pounds.
+	 *
+	 * @param value	A value in micrograms.
+	 * @return	The value in these units.
+	 */
+	public double fromMicrograms(long value) {
+		if (micrograms == 0) return Double.NaN;
+		return (double) value * divisor / micrograms;
+	}
 }
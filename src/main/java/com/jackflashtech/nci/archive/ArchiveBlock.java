@@ -0,0 +1,146 @@
+package com.jackflashtech.nci.archive;
+
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+
+/**
+ * One decoded block of an archive: a run of readings in the order they were
+ * appended, held column by column in primitive arrays. The accessors taking
+ * an index read the arrays directly; {@link #getWeight(int)} and
+ * {@link #getStatus(int)} build objects for callers that want them.
+ */
+public class ArchiveBlock {
+	private static final Units[] UNITS = Units.values();
+
+	private final int size;
+	private final long[] timestamps;
+	private final long[] micrograms;
+	private final int[] statusBits;
+	private final Units[] units;
+
+	private ArchiveBlock(int size) {
+		this.size = size;
+		this.timestamps = new long[size];
+		this.micrograms = new long[size];
+		this.statusBits = new int[size];
+		this.units = new Units[size];
+	}
+
+	/**
+	 * Decodes the body of a block.
+	 *
+	 * @param size	The number of readings in the block.
+	 * @param input	The body, positioned at its first column.
+	 */
+	static ArchiveBlock decode(int size, ArchiveFormat.Input input) throws NCIException {
+		ArchiveBlock block = new ArchiveBlock(size);
+		decodeDeltas(input, block.timestamps, size);
+		decodeDeltas(input, block.micrograms, size);
+
+		int end = input.readLength() + input.position;
+		for (int i = 0; i < size;) {
+			int run = run(input, size - i);
+			int bits = (int) input.readVarLong() - 1;
+			for (int j = 0; j < run; j++) block.statusBits[i++] = bits;
+		}
+		if (input.position != end) throw new NCIException("The status column of a block is corrupt.");
+
+		end = input.readLength() + input.position;
+		int dictionarySize = (int) input.readVarLong();
+		if (dictionarySize > UNITS.length) throw new NCIException("The units column of a block is corrupt.");
+		Units[] dictionary = new Units[dictionarySize];
+		for (int i = 0; i < dictionarySize; i++) {
+			int ordinal = input.readByte();
+			if (ordinal >= UNITS.length) throw new NCIException("The archive has units unknown to this version.");
+			dictionary[i] = UNITS[ordinal];
+		}
+		for (int i = 0; i < size;) {
+			int run = run(input, size - i);
+			long index = input.readVarLong();
+			if (index >= dictionarySize) throw new NCIException("The units column of a block is corrupt.");
+			Units value = dictionary[(int) index];
+			for (int j = 0; j < run; j++) block.units[i++] = value;
+		}
+		if (input.position != end) throw new NCIException("The units column of a block is corrupt.");
+		return block;
+	}
+
+	private static void decodeDeltas(ArchiveFormat.Input input, long[] values, int size) throws NCIException {
+		int end = input.readLength() + input.position;
+		long value = 0;
+		for (int i = 0; i < size; i++) {
+			value += input.readSignedVarLong();
+			values[i] = value;
+		}
+		if (input.position != end) throw new NCIException("A delta column of a block is corrupt.");
+	}
+
+	private static int run(ArchiveFormat.Input input, int remaining) throws NCIException {
+		long run = input.readVarLong();
+		if (run < 1 || run > remaining) throw new NCIException("A run in a block is longer than the block.");
+		return (int) run;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getTimestamp(int index) {
+		return timestamps[index];
+	}
+
+	public long getMicrograms(int index) {
+		return micrograms[index];
+	}
+
+	public Units getUnits(int index) {
+		return units[index];
+	}
+
+	/**
+	 * @return	The status in the form of {@link Status#getBits()}, or -1 if the reading had none.
+	 */
+	public int getStatusBits(int index) {
+		return statusBits[index];
+	}
+
+	/**
+	 * @return	The weight as it was reported, in its units.
+	 */
+	public Weight getWeight(int index) {
+		Units units = this.units[index];
+		long micrograms = this.micrograms[index];
+		if (units == Units.LBS_OZ) return new Weight(Weight.getLbsPart(micrograms), Weight.getOzPart(micrograms));
+		if (units == Units.OTHER) return new Weight(0, Units.OTHER);
+		return new Weight(units.fromMicrograms(micrograms), units);
+	}
+
+	/**
+	 * @return	The status, or null if the reading had none.
+	 */
+	public Status getStatus(int index) {
+		return statusBits[index] < 0 ? null : Status.fromBits(statusBits[index]);
+	}
+
+	/**
+	 * Finds the first reading at or after a time.
+	 *
+	 * @param timestamp	The time to look for.
+	 * @return	The index of the reading, or {@link #size()} if every reading is before the time.
+	 */
+	public int indexOf(long timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps[middle] < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
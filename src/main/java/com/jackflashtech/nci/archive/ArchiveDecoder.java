@@ -0,0 +1,83 @@
+package com.jackflashtech.nci.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.jackflashtech.nci.NCIException;
+
+/**
+ * Reads an archive from the start, a block at a time, such as to replay it
+ * or copy it elsewhere. The index at the end is not needed, so an archive
+ * whose encoder was never closed can still be read up to its last complete
+ * block. {@link ArchiveFile} reads from the middle of a file instead.
+ */
+public class ArchiveDecoder implements AutoCloseable {
+	private final InputStream in;
+	private byte[] body = new byte[1024];
+	private boolean finished = false;
+
+	/**
+	 * @param in	The stream to read the archive from, which is closed with the decoder.
+	 * @throws NCIException	Thrown if the stream does not start with an archive header.
+	 */
+	public ArchiveDecoder(InputStream in) throws NCIException {
+		this.in = in;
+		byte[] header = new byte[ArchiveFormat.MAGIC.length + 1];
+		readFully(header, header.length, "The stream is not an archive.");
+		for (int i = 0; i < ArchiveFormat.MAGIC.length; i++) {
+			if (header[i] != ArchiveFormat.MAGIC[i]) throw new NCIException("The stream is not an archive.");
+		}
+		if (header[ArchiveFormat.MAGIC.length] != ArchiveFormat.VERSION) {
+			throw new NCIException("The archive is version " + header[ArchiveFormat.MAGIC.length] + ", which is not supported.");
+		}
+	}
+
+	/**
+	 * Reads the next block.
+	 *
+	 * @return	The block, or null after the last one.
+	 * @throws NCIException	Thrown if the stream cannot be read or the block is corrupt.
+	 */
+	public ArchiveBlock next() throws NCIException {
+		if (finished) return null;
+		try {
+			int tag = in.read();
+			if (tag < 0 || tag == ArchiveFormat.INDEX_TAG) {
+				finished = true;
+				return null;
+			}
+			if (tag != ArchiveFormat.BLOCK_TAG) throw new NCIException("The archive has an unknown section '" + (char) tag + "'.");
+			long count = ArchiveFormat.readVarLong(in, false);
+			long length = ArchiveFormat.readVarLong(in, false);
+			if (count < 1 || count > Integer.MAX_VALUE || length > Integer.MAX_VALUE) {
+				throw new NCIException("The archive has a block of " + count + " readings in " + length + " bytes.");
+			}
+			if (body.length < length) body = new byte[(int) length];
+			readFully(body, (int) length, "The archive ends in the middle of a block.");
+			return ArchiveBlock.decode((int) count, new ArchiveFormat.Input(body, 0, (int) length));
+		} catch (IOException e) {
+			throw new NCIException("The archive could not be read.", e);
+		}
+	}
+
+	private void readFully(byte[] bytes, int length, String message) throws NCIException {
+		try {
+			for (int read = 0; read < length;) {
+				int n = in.read(bytes, read, length - read);
+				if (n < 0) throw new NCIException(message);
+				read += n;
+			}
+		} catch (IOException e) {
+			throw new NCIException("The archive could not be read.", e);
+		}
+	}
+
+	@Override
+	public void close() throws NCIException {
+		try {
+			in.close();
+		} catch (IOException e) {
+			throw new NCIException("The archive could not be closed.", e);
+		}
+	}
+}
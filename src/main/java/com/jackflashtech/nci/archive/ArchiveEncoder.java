@@ -0,0 +1,234 @@
+package com.jackflashtech.nci.archive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+
+/**
+ * Writes readings to an archive as they arrive. Readings are gathered into a
+ * block of primitive columns and written when the block is full, so memory
+ * use stays fixed however long the archive grows:
+ * <pre>
+ * timestamps	zigzag varint deltas from the reading before
+ * weights		zigzag varint deltas of the micrograms from the reading before
+ * status		runs of equal {@link Status#getBits()}
+ * units		a dictionary of the units in the block, then runs of equal entries
+ * </pre>
+ * A scale at rest costs about two bytes per reading. Closing the encoder
+ * writes an index of the blocks that {@link ArchiveFile} uses to find a time
+ * without decoding the blocks before it.
+ *
+ * Timestamps are whatever the caller chooses, such as milliseconds since the
+ * epoch, but must not go backwards.
+ */
+public class ArchiveEncoder implements AutoCloseable {
+	private final OutputStream out;
+	private final int blockSize;
+
+	private final long[] timestamps;
+	private final long[] micrograms;
+	private final int[] statusBits;
+	private final Units[] units;
+	private int count = 0;
+
+	private final ArchiveFormat.Output block = new ArchiveFormat.Output(1024);
+	private final ArchiveFormat.Output column = new ArchiveFormat.Output(1024);
+	private final ArchiveFormat.Output index = new ArchiveFormat.Output(256);
+	private final int[] dictionary = new int[Units.values().length];
+
+	private long offset = 0;
+	private int blockCount = 0;
+	private long previousFirst = 0;
+	private long previousOffset = 0;
+	private long lastTimestamp = Long.MIN_VALUE;
+	private boolean closed = false;
+
+	public ArchiveEncoder(OutputStream out) throws NCIException {
+		this(out, ArchiveFormat.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param out		The stream to write the archive to, which is closed with the encoder.
+	 * @param blockSize	The number of readings in a block. Larger blocks compress a little better; smaller ones are found faster.
+	 * @throws NCIException	Thrown if the header cannot be written.
+	 */
+	public ArchiveEncoder(OutputStream out, int blockSize) throws NCIException {
+		if (blockSize < 1) throw new IllegalArgumentException("The block size must be positive, not " + blockSize + ".");
+		this.out = out;
+		this.blockSize = blockSize;
+		this.timestamps = new long[blockSize];
+		this.micrograms = new long[blockSize];
+		this.statusBits = new int[blockSize];
+		this.units = new Units[blockSize];
+
+		ArchiveFormat.Output header = new ArchiveFormat.Output(8);
+		for (byte b : ArchiveFormat.MAGIC) header.writeByte(b);
+		header.writeByte(ArchiveFormat.VERSION);
+		write(header);
+	}
+
+	/**
+	 * Adds a reading.
+	 *
+	 * @param timestamp	When it was read.
+	 * @param weight	The weight read.
+	 * @param status	The status read with it, or null if there was none.
+	 * @throws NCIException	Thrown if the time is before the last reading or a block cannot be written.
+	 */
+	public void append(long timestamp, Weight weight, Status status) throws NCIException {
+		append(timestamp, weight.getMicrograms(), weight.getUnits(), status == null ? -1 : status.getBits());
+	}
+
+	/**
+	 * Adds a reading without building its objects.
+	 *
+	 * @param timestamp		When it was read.
+	 * @param micrograms	The weight in micrograms.
+	 * @param units			The units it was reported in.
+	 * @param statusBits	The status in the form of {@link Status#getBits()}, or -1 if there was none.
+	 * @throws NCIException	Thrown if the time is before the last reading or a block cannot be written.
+	 */
+	public void append(long timestamp, long micrograms, Units units, int statusBits) throws NCIException {
+		if (closed) throw new NCIException("The archive has been closed.");
+		if (timestamp < lastTimestamp) {
+			throw new NCIException("The reading at " + timestamp + " is before the last one at " + lastTimestamp + ".");
+		}
+		lastTimestamp = timestamp;
+		timestamps[count] = timestamp;
+		this.micrograms[count] = micrograms;
+		this.statusBits[count] = statusBits < 0 ? -1 : statusBits;
+		this.units[count] = units;
+		if (++count == blockSize) writeBlock();
+	}
+
+	/**
+	 * Writes the readings gathered so far as a block of their own and flushes
+	 * the stream, so they are not lost if the process ends before the
+	 * encoder is closed. Flushing often makes smaller blocks.
+	 */
+	public void flush() throws NCIException {
+		if (closed) throw new NCIException("The archive has been closed.");
+		writeBlock();
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new NCIException("The archive could not be flushed.", e);
+		}
+	}
+
+	private void writeBlock() throws NCIException {
+		if (count == 0) return;
+		block.length = 0;
+
+		column.length = 0;
+		long previous = 0;
+		for (int i = 0; i < count; i++) {
+			column.writeSignedVarLong(timestamps[i] - previous);
+			previous = timestamps[i];
+		}
+		writeColumn();
+
+		column.length = 0;
+		previous = 0;
+		for (int i = 0; i < count; i++) {
+			column.writeSignedVarLong(micrograms[i] - previous);
+			previous = micrograms[i];
+		}
+		writeColumn();
+
+		column.length = 0;
+		for (int i = 0; i < count;) {
+			int start = i;
+			int bits = statusBits[i];
+			while (i < count && statusBits[i] == bits) i++;
+			column.writeVarLong(i - start);
+			column.writeVarLong(bits + 1L);
+		}
+		writeColumn();
+
+		column.length = 0;
+		Arrays.fill(dictionary, -1);
+		int dictionarySize = 0;
+		for (int i = 0; i < count; i++) {
+			int ordinal = units[i].ordinal();
+			if (dictionary[ordinal] < 0) dictionary[ordinal] = dictionarySize++;
+		}
+		column.writeVarLong(dictionarySize);
+		for (int entry = 0; entry < dictionarySize; entry++) {
+			for (int ordinal = 0; ordinal < dictionary.length; ordinal++) {
+				if (dictionary[ordinal] == entry) column.writeByte(ordinal);
+			}
+		}
+		for (int i = 0; i < count;) {
+			int start = i;
+			Units value = units[i];
+			while (i < count && units[i] == value) i++;
+			column.writeVarLong(i - start);
+			column.writeVarLong(dictionary[value.ordinal()]);
+		}
+		writeColumn();
+
+		ArchiveFormat.Output header = new ArchiveFormat.Output(24);
+		header.writeByte(ArchiveFormat.BLOCK_TAG);
+		header.writeVarLong(count);
+		header.writeVarLong(block.length);
+		long blockOffset = offset;
+		write(header);
+		write(block);
+
+		index.writeSignedVarLong(timestamps[0] - previousFirst);
+		index.writeVarLong(timestamps[count - 1] - timestamps[0]);
+		index.writeVarLong(blockOffset - previousOffset);
+		index.writeVarLong(count);
+		previousFirst = timestamps[0];
+		previousOffset = blockOffset;
+		blockCount++;
+		count = 0;
+	}
+
+	private void writeColumn() {
+		block.writeVarLong(column.length);
+		block.write(column);
+	}
+
+	private void write(ArchiveFormat.Output output) throws NCIException {
+		try {
+			out.write(output.bytes, 0, output.length);
+		} catch (IOException e) {
+			throw new NCIException("The archive could not be written.", e);
+		}
+		offset += output.length;
+	}
+
+	/**
+	 * Writes the last block and the index, then closes the stream.
+	 */
+	@Override
+	public void close() throws NCIException {
+		if (closed) return;
+		writeBlock();
+		closed = true;
+
+		long indexOffset = offset;
+		ArchiveFormat.Output trailer = new ArchiveFormat.Output(index.length + 32);
+		trailer.writeByte(ArchiveFormat.INDEX_TAG);
+		trailer.writeVarLong(blockCount);
+		trailer.write(index);
+		for (int shift = 56; shift >= 0; shift -= 8) trailer.writeByte((int) (indexOffset >>> shift));
+		for (byte b : ArchiveFormat.MAGIC) trailer.writeByte(b);
+		try {
+			write(trailer);
+		} finally {
+			try {
+				out.close();
+			} catch (IOException e) {
+				throw new NCIException("The archive could not be closed.", e);
+			}
+		}
+	}
+}
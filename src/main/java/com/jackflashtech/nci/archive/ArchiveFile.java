@@ -0,0 +1,156 @@
+package com.jackflashtech.nci.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.jackflashtech.nci.NCIException;
+
+/**
+ * A closed archive on disk, read block by block in any order. Opening it
+ * reads only the index at the end of the file; finding a time is a search
+ * of the index and then of the one block that holds it.
+ */
+public class ArchiveFile implements AutoCloseable {
+	private final FileChannel channel;
+	private final long[] firstTimestamps;
+	private final long[] lastTimestamps;
+	private final long[] offsets;
+	private final int[] counts;
+	private final long indexOffset;
+
+	/**
+	 * @param path	The archive, which must have been written by an {@link ArchiveEncoder} that was closed.
+	 * @throws NCIException	Thrown if the file cannot be read or has no index.
+	 */
+	public ArchiveFile(Path path) throws NCIException {
+		try {
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+		} catch (IOException e) {
+			throw new NCIException("The archive '" + path + "' could not be opened.", e);
+		}
+		try {
+			long size = channel.size();
+			if (size < ArchiveFormat.MAGIC.length + 1 + ArchiveFormat.TRAILER_LENGTH) {
+				throw new NCIException("The archive '" + path + "' is too short to have an index.");
+			}
+			ByteBuffer trailer = read(size - ArchiveFormat.TRAILER_LENGTH, ArchiveFormat.TRAILER_LENGTH);
+			indexOffset = trailer.getLong();
+			for (byte b : ArchiveFormat.MAGIC) {
+				if (trailer.get() != b) throw new NCIException("The archive '" + path + "' was not closed and has no index.");
+			}
+			if (indexOffset < 0 || indexOffset > size - ArchiveFormat.TRAILER_LENGTH) {
+				throw new NCIException("The archive '" + path + "' has an index outside the file.");
+			}
+
+			int length = (int) (size - ArchiveFormat.TRAILER_LENGTH - indexOffset);
+			ByteBuffer buffer = read(indexOffset, length);
+			ArchiveFormat.Input index = new ArchiveFormat.Input(buffer.array(), 0, length);
+			if (index.readByte() != ArchiveFormat.INDEX_TAG) throw new NCIException("The archive '" + path + "' has a corrupt index.");
+			long blockCount = index.readVarLong();
+			if (blockCount > length) throw new NCIException("The archive '" + path + "' has a corrupt index.");
+			firstTimestamps = new long[(int) blockCount];
+			lastTimestamps = new long[(int) blockCount];
+			offsets = new long[(int) blockCount];
+			counts = new int[(int) blockCount];
+			long first = 0;
+			long offset = 0;
+			for (int i = 0; i < blockCount; i++) {
+				first += index.readSignedVarLong();
+				firstTimestamps[i] = first;
+				lastTimestamps[i] = first + index.readVarLong();
+				offset += index.readVarLong();
+				offsets[i] = offset;
+				counts[i] = (int) index.readVarLong();
+			}
+		} catch (IOException e) {
+			close();
+			throw new NCIException("The archive '" + path + "' could not be read.", e);
+		} catch (NCIException e) {
+			close();
+			throw e;
+		}
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException, NCIException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) throw new NCIException("The archive ends early.");
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	public int getBlockCount() {
+		return counts.length;
+	}
+
+	public long getFirstTimestamp(int block) {
+		return firstTimestamps[block];
+	}
+
+	public long getLastTimestamp(int block) {
+		return lastTimestamps[block];
+	}
+
+	/**
+	 * @return	The number of readings in a block.
+	 */
+	public int getCount(int block) {
+		return counts[block];
+	}
+
+	/**
+	 * Finds the first block with readings at or after a time.
+	 *
+	 * @param timestamp	The time to look for.
+	 * @return	The index of the block, or {@link #getBlockCount()} if every reading is before the time.
+	 */
+	public int findBlock(long timestamp) {
+		int low = 0;
+		int high = lastTimestamps.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (lastTimestamps[middle] < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Reads and decodes one block.
+	 *
+	 * @param block	The index of the block.
+	 * @return	The block.
+	 * @throws NCIException	Thrown if the file cannot be read or the block is corrupt.
+	 */
+	public ArchiveBlock readBlock(int block) throws NCIException {
+		long start = offsets[block];
+		long end = block + 1 < offsets.length ? offsets[block + 1] : indexOffset;
+		try {
+			ByteBuffer buffer = read(start, (int) (end - start));
+			ArchiveFormat.Input input = new ArchiveFormat.Input(buffer.array(), 0, buffer.limit());
+			if (input.readByte() != ArchiveFormat.BLOCK_TAG) throw new NCIException("The index of the archive does not match its blocks.");
+			long count = input.readVarLong();
+			int length = input.readLength();
+			if (count != counts[block]) throw new NCIException("The index of the archive does not match its blocks.");
+			return ArchiveBlock.decode(counts[block], new ArchiveFormat.Input(input.bytes, input.position, input.position + length));
+		} catch (IOException e) {
+			throw new NCIException("The archive could not be read.", e);
+		}
+	}
+
+	@Override
+	public void close() throws NCIException {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			throw new NCIException("The archive could not be closed.", e);
+		}
+	}
+}
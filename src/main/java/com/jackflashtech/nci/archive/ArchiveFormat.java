@@ -0,0 +1,136 @@
+package com.jackflashtech.nci.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.jackflashtech.nci.NCIException;
+
+/**
+ * The constants of the archive format and the variable-length integers it is
+ * built from. A varint holds seven bits per byte, lowest first, with the top
+ * bit set on every byte but the last; signed values are zigzag-encoded first,
+ * so small negative deltas stay short.
+ */
+final class ArchiveFormat {
+	static final byte[] MAGIC = {'N', 'C', 'I', 'A'};
+	static final int VERSION = 1;
+	static final int BLOCK_TAG = 'B';
+	static final int INDEX_TAG = 'I';
+	/**
+	 * The index offset and the magic number that end the file.
+	 */
+	static final int TRAILER_LENGTH = 8 + 4;
+	static final int DEFAULT_BLOCK_SIZE = 4096;
+
+	private ArchiveFormat() {
+	}
+
+	static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * A growable byte array that varints are appended to.
+	 */
+	static final class Output {
+		byte[] bytes;
+		int length = 0;
+
+		Output(int capacity) {
+			bytes = new byte[capacity];
+		}
+
+		void writeByte(int b) {
+			if (length == bytes.length) grow(1);
+			bytes[length++] = (byte) b;
+		}
+
+		void writeVarLong(long value) {
+			if (length + 10 > bytes.length) grow(10);
+			while ((value & ~0x7FL) != 0) {
+				bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte) value;
+		}
+
+		void writeSignedVarLong(long value) {
+			writeVarLong(zigzag(value));
+		}
+
+		void write(Output other) {
+			if (length + other.length > bytes.length) grow(other.length);
+			System.arraycopy(other.bytes, 0, bytes, length, other.length);
+			length += other.length;
+		}
+
+		private void grow(int needed) {
+			byte[] larger = new byte[Math.max(bytes.length * 2, length + needed)];
+			System.arraycopy(bytes, 0, larger, 0, length);
+			bytes = larger;
+		}
+	}
+
+	/**
+	 * A position in a byte array that varints are read from.
+	 */
+	static final class Input {
+		final byte[] bytes;
+		int position;
+		final int limit;
+
+		Input(byte[] bytes, int position, int limit) {
+			this.bytes = bytes;
+			this.position = position;
+			this.limit = limit;
+		}
+
+		int readByte() throws NCIException {
+			if (position >= limit) throw new NCIException("The archive ends in the middle of a block.");
+			return bytes[position++] & 0xff;
+		}
+
+		long readVarLong() throws NCIException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				if (position >= limit) throw new NCIException("The archive ends in the middle of a number.");
+				byte b = bytes[position++];
+				value |= (long) (b & 0x7F) << shift;
+				if (b >= 0) return value;
+			}
+			throw new NCIException("The archive has a number longer than 64 bits.");
+		}
+
+		long readSignedVarLong() throws NCIException {
+			return unzigzag(readVarLong());
+		}
+
+		int readLength() throws NCIException {
+			long length = readVarLong();
+			if (length < 0 || length > limit - position) throw new NCIException("The archive has a column longer than its block.");
+			return (int) length;
+		}
+	}
+
+	/**
+	 * Reads a varint from a stream, or returns -1 at the end of the stream if
+	 * it is allowed there.
+	 */
+	static long readVarLong(InputStream in, boolean endAllowed) throws IOException, NCIException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				if (endAllowed && shift == 0) return -1;
+				throw new NCIException("The archive ends in the middle of a number.");
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new NCIException("The archive has a number longer than 64 bits.");
+	}
+}
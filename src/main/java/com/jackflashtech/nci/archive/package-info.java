@@ -0,0 +1,7 @@
+/**
+ * This package contains a compact file format for archiving a scale's
+ * readings for years. Readings are stored in blocks, column by column, and a
+ * block index at the end of the file finds the block holding any time. See
+ * {@link com.jackflashtech.nci.archive.ArchiveEncoder} for the layout.
+ */
+package com.jackflashtech.nci.archive;
@@ -0,0 +1,255 @@
+package com.jackflashtech.nci.board;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLock;
+
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Reading;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+
+/**
+ * One device's slot on a {@link ReadingBoard}. The owner of the device
+ * publishes to the slot it claimed; readers read the slot they found. The
+ * slot is guarded by a sequence lock: the owner makes the lock odd, writes
+ * the reading and makes it even again, and a reader keeps the copy it made
+ * only if the lock was the same even number before and after. Readers never
+ * block the owner.
+ */
+public final class BoardSlot implements AutoCloseable {
+	/**
+	 * How long a reader waits on the same write in progress before deciding
+	 * the owner stopped in the middle of it. A write takes well under a
+	 * microsecond unless the owner is descheduled.
+	 */
+	private static final long STUCK_NANOS = 1000000000L;
+	private static final Units[] UNITS = Units.values();
+
+	/**
+	 * The load and store fences of sun.misc.Unsafe, which order the plain
+	 * accesses to the mapped file, or null where it cannot be reached.
+	 */
+	private static final MethodHandle LOAD_FENCE;
+	private static final MethodHandle STORE_FENCE;
+	static {
+		MethodHandle loadFence = null;
+		MethodHandle storeFence = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			Object unsafe = field.get(null);
+			MethodType type = MethodType.methodType(void.class);
+			loadFence = MethodHandles.lookup().findVirtual(unsafeClass, "loadFence", type).bindTo(unsafe);
+			storeFence = MethodHandles.lookup().findVirtual(unsafeClass, "storeFence", type).bindTo(unsafe);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			loadFence = null;
+			storeFence = null;
+		}
+		LOAD_FENCE = loadFence;
+		STORE_FENCE = storeFence;
+	}
+
+	/**
+	 * In place of the fences where Unsafe cannot be reached: the writers
+	 * write it and read it back, and the readers only read it, so that
+	 * readers do not contend for it.
+	 */
+	private static volatile int fence;
+
+	private final ByteBuffer buffer;
+	private final int offset;
+	private final String name;
+	private final boolean writable;
+	/**
+	 * The lock on the slot held by its owner, or null if the slot was found
+	 * only to read or has been closed.
+	 */
+	private FileLock owner;
+	private long lastPublished = 0;
+
+	BoardSlot(ByteBuffer buffer, int offset, String name, FileLock owner) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.name = name;
+		this.writable = owner != null;
+		this.owner = owner;
+	}
+
+	/**
+	 * Keeps the loads before it from moving after the loads that follow it,
+	 * for a reader between reading the sequence lock and the slot.
+	 */
+	static void loadFence() {
+		if (LOAD_FENCE == null) {
+			if (fence != 0) throw new AssertionError();
+			return;
+		}
+		try {
+			LOAD_FENCE.invokeExact();
+		} catch (Throwable e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Keeps the accesses before it from moving after the stores that follow
+	 * it, for the owner between writing the sequence lock and the slot.
+	 */
+	static void storeFence() {
+		if (STORE_FENCE == null) {
+			fence = 0;
+			if (fence != 0) throw new AssertionError();
+			return;
+		}
+		try {
+			STORE_FENCE.invokeExact();
+		} catch (Throwable e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Marks the slot open for a new owner, and finishes any write the last
+	 * owner left half done.
+	 */
+	synchronized void open() {
+		long lock = buffer.getLong(offset + ReadingBoard.SEQUENCE_LOCK);
+		if ((lock & 1) != 0) lock++;
+		buffer.putLong(offset + ReadingBoard.SEQUENCE_LOCK, lock + 1);
+		storeFence();
+		buffer.putInt(offset + ReadingBoard.STATE, ReadingBoard.OPEN);
+		storeFence();
+		buffer.putLong(offset + ReadingBoard.SEQUENCE_LOCK, lock + 2);
+	}
+
+	/**
+	 * Publishes a reading, unless a later one has already been published.
+	 * Readings can be handed over by several threads, so one that arrives
+	 * after a later reading is dropped rather than replacing it, as is one
+	 * that arrives after the slot was closed.
+	 *
+	 * @param reading	The reading.
+	 */
+	public void publish(Reading reading) {
+		Status status = reading.getStatus();
+		Weight weight = reading.getWeight();
+		publish(weight.getMicrograms(), weight.getUnits(), status == null ? -1 : status.getBits(), reading.getSequence(), reading.getReceivedNanos());
+	}
+
+	/**
+	 * Publishes a reading without building its objects.
+	 *
+	 * @param micrograms	The weight in micrograms.
+	 * @param units			The units it was reported in.
+	 * @param statusBits	The status in the form of {@link Status#getBits()}, or -1 if there was none.
+	 * @param sequence		The number of the reading, which must be positive.
+	 * @param receivedNanos	When it was received, from {@link System#nanoTime()}.
+	 */
+	public synchronized void publish(long micrograms, Units units, int statusBits, long sequence, long receivedNanos) {
+		if (!writable) throw new IllegalStateException("The slot of device '" + name + "' was found only to read.");
+		if (owner == null || sequence <= lastPublished) return;
+		lastPublished = sequence;
+		long lock = buffer.getLong(offset + ReadingBoard.SEQUENCE_LOCK);
+		buffer.putLong(offset + ReadingBoard.SEQUENCE_LOCK, lock + 1);
+		storeFence();
+		buffer.putLong(offset + ReadingBoard.MICROGRAMS, micrograms);
+		buffer.putInt(offset + ReadingBoard.STATUS, statusBits < 0 ? -1 : statusBits);
+		buffer.putInt(offset + ReadingBoard.UNITS, units.ordinal());
+		buffer.putLong(offset + ReadingBoard.SEQUENCE, sequence);
+		buffer.putLong(offset + ReadingBoard.RECEIVED, receivedNanos);
+		buffer.putLong(offset + ReadingBoard.PUBLISHED, System.currentTimeMillis());
+		storeFence();
+		buffer.putLong(offset + ReadingBoard.SEQUENCE_LOCK, lock + 2);
+	}
+
+	/**
+	 * Reads the latest reading. Its received time is from the owner's
+	 * {@link System#nanoTime()}, which can only be compared with this
+	 * process's where both use the same clock, as they do on Linux.
+	 *
+	 * @return	The reading, or null if the owner has not published one.
+	 * @throws NCIException	Thrown if the owner stopped in the middle of writing the slot.
+	 */
+	public Reading read() throws NCIException {
+		long stuck = -1;
+		long stuckSince = 0;
+		while (true) {
+			long before = buffer.getLong(offset + ReadingBoard.SEQUENCE_LOCK);
+			if ((before & 1) != 0) {
+				if (before != stuck) {
+					stuck = before;
+					stuckSince = System.nanoTime();
+				} else if (System.nanoTime() - stuckSince > STUCK_NANOS) {
+					throw new NCIException("The owner of device '" + name + "' stopped in the middle of writing its slot.");
+				} else {
+					Thread.yield();
+				}
+				continue;
+			}
+			loadFence();
+			long micrograms = buffer.getLong(offset + ReadingBoard.MICROGRAMS);
+			int statusBits = buffer.getInt(offset + ReadingBoard.STATUS);
+			int units = buffer.getInt(offset + ReadingBoard.UNITS);
+			long sequence = buffer.getLong(offset + ReadingBoard.SEQUENCE);
+			long receivedNanos = buffer.getLong(offset + ReadingBoard.RECEIVED);
+			loadFence();
+			if (buffer.getLong(offset + ReadingBoard.SEQUENCE_LOCK) != before) continue;
+
+			if (sequence == 0) return null;
+			if (units < 0 || units >= UNITS.length) throw new NCIException("The slot of device '" + name + "' has units unknown to this version.");
+			return new Reading(toWeight(micrograms, UNITS[units]), statusBits < 0 ? null : Status.fromBits(statusBits), sequence, receivedNanos);
+		}
+	}
+
+	private static Weight toWeight(long micrograms, Units units) {
+		if (units == Units.LBS_OZ) return new Weight(Weight.getLbsPart(micrograms), Weight.getOzPart(micrograms));
+		if (units == Units.OTHER) return new Weight(0, Units.OTHER);
+		return new Weight(units.fromMicrograms(micrograms), units);
+	}
+
+	/**
+	 * @return	When the latest reading was published, in milliseconds since the epoch, or 0 if there has been none.
+	 */
+	public long getPublishedMillis() {
+		return buffer.getLong(offset + ReadingBoard.PUBLISHED);
+	}
+
+	/**
+	 * @return	Whether the owner has the device open. A slot stays open if its owner stopped without closing it.
+	 */
+	public boolean isOpen() {
+		return buffer.getInt(offset + ReadingBoard.STATE) == ReadingBoard.OPEN;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Marks the device closed, keeping its last reading for readers, and
+	 * frees the slot for another owner. Only the owner closes a slot.
+	 */
+	@Override
+	public synchronized void close() {
+		if (owner == null) return;
+		long lock = buffer.getLong(offset + ReadingBoard.SEQUENCE_LOCK);
+		buffer.putLong(offset + ReadingBoard.SEQUENCE_LOCK, lock + 1);
+		storeFence();
+		buffer.putInt(offset + ReadingBoard.STATE, ReadingBoard.CLOSED);
+		storeFence();
+		buffer.putLong(offset + ReadingBoard.SEQUENCE_LOCK, lock + 2);
+		try {
+			owner.release();
+		} catch (IOException e) {
+			// The board's file is gone, and the lock with it.
+		}
+		owner = null;
+	}
+}
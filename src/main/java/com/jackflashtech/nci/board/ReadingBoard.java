@@ -0,0 +1,303 @@
+package com.jackflashtech.nci.board;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.jackflashtech.nci.NCIException;
+
+/**
+ * A memory-mapped file holding the latest reading of each device that
+ * publishes to it, one fixed slot per device. The owner of a device
+ * {@link #claim(String)}s a slot by the device's name and writes each reading
+ * into it; a reader in any process {@link #open(Path)}s the file and
+ * {@link #find(String)}s the slot by the same name. Reading a slot is a few
+ * loads from shared memory, with no system call.
+ *
+ * The file is little-endian, so that readers in other languages can map it
+ * too:
+ * <pre>
+ * header		64 bytes: "NCIB", version, number of slots, length of a slot, as ints
+ * slot		128 bytes each, after the header:
+ *   0	long	the sequence lock: odd while the slot is being written
+ *   8	long	the weight in micrograms
+ *   16	int		the status in the form of {@link com.jackflashtech.nci.data.Status#getBits()}, or -1
+ *   20	int		the ordinal of the {@link com.jackflashtech.nci.Units}
+ *   24	long	the number of the reading, or 0 if there has been none
+ *   32	long	when it was received, from the owner's System.nanoTime()
+ *   40	long	when it was published, in milliseconds since the epoch
+ *   48	int		1 while the owner has the device open, 2 after it closed it
+ *   52	int		the length of the device's name; 0 for a free slot
+ *   56			the name, in up to 72 bytes of UTF-8
+ * </pre>
+ * A reader copies a slot's fields between two reads of the sequence lock and
+ * tries again if the lock changed or was odd. A slot has one owner at a time:
+ * the claim locks the slot's bytes of the file until the slot is closed, so
+ * two writers never share a sequence lock, and claims lock only the header
+ * while they look for a slot.
+ *
+ * A board stays mapped until it is garbage collected; there is nothing to
+ * close. Boards created in the same JVM for the same file are the same
+ * instance.
+ */
+public class ReadingBoard {
+	public static final int DEFAULT_SLOTS = 64;
+
+	static final int MAGIC = 'N' | 'C' << 8 | 'I' << 16 | 'B' << 24;
+	static final int VERSION = 1;
+	static final int HEADER_LENGTH = 64;
+	static final int SLOT_LENGTH = 128;
+	static final int SEQUENCE_LOCK = 0;
+	static final int MICROGRAMS = 8;
+	static final int STATUS = 16;
+	static final int UNITS = 20;
+	static final int SEQUENCE = 24;
+	static final int RECEIVED = 32;
+	static final int PUBLISHED = 40;
+	static final int STATE = 48;
+	static final int NAME_LENGTH = 52;
+	static final int NAME = 56;
+	static final int MAX_NAME_LENGTH = SLOT_LENGTH - NAME;
+	static final int OPEN = 1;
+	static final int CLOSED = 2;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/**
+	 * The boards created by this JVM, by file. File locks are held by the
+	 * whole JVM, so claims in the same JVM are also synchronized on this.
+	 */
+	private static final Map<Path, ReadingBoard> BOARDS = new HashMap<Path, ReadingBoard>();
+
+	private final Path path;
+	private final ByteBuffer buffer;
+	/**
+	 * The file, kept open by a board that was created to publish to, since
+	 * the locks of the slots' owners last only as long as it does.
+	 */
+	private final FileChannel channel;
+	private final int slots;
+	private final Map<String, BoardSlot> found = new ConcurrentHashMap<String, BoardSlot>();
+
+	private ReadingBoard(Path path, ByteBuffer buffer, FileChannel channel) throws NCIException {
+		this.path = path;
+		this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+		this.channel = channel;
+		if (buffer.capacity() < HEADER_LENGTH || buffer.getInt(0) != MAGIC) throw new NCIException("The file '" + path + "' is not a reading board.");
+		if (buffer.getInt(4) != VERSION) throw new NCIException("The reading board '" + path + "' is version " + buffer.getInt(4) + ", which is not supported.");
+		this.slots = buffer.getInt(8);
+		if (buffer.getInt(12) != SLOT_LENGTH || slots < 0 || buffer.capacity() < HEADER_LENGTH + (long) slots * SLOT_LENGTH) {
+			throw new NCIException("The reading board '" + path + "' is corrupt.");
+		}
+	}
+
+	/**
+	 * Opens a board to publish to, creating the file if it does not exist.
+	 *
+	 * @param path	The file.
+	 * @param slots	The number of devices the board holds, if it is created.
+	 * @return	The board.
+	 * @throws NCIException	Thrown if the file cannot be created or mapped, or is not a board.
+	 */
+	public static ReadingBoard create(Path path, int slots) throws NCIException {
+		if (slots < 1) throw new IllegalArgumentException("A board must have at least one slot, not " + slots + ".");
+		Path key = path.toAbsolutePath().normalize();
+		synchronized (BOARDS) {
+			ReadingBoard board = BOARDS.get(key);
+			if (board != null) return board;
+			FileChannel channel = null;
+			try {
+				channel = FileChannel.open(key, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+				FileLock lock = lockHeader(channel);
+				try {
+					if (channel.size() == 0) {
+						ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+						header.putInt(MAGIC).putInt(VERSION).putInt(slots).putInt(SLOT_LENGTH).rewind();
+						channel.write(header, 0);
+						channel.write(ByteBuffer.allocate(1), HEADER_LENGTH + (long) slots * SLOT_LENGTH - 1);
+					}
+					board = new ReadingBoard(key, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()), channel);
+				} finally {
+					lock.release();
+				}
+			} catch (IOException e) {
+				close(channel);
+				throw new NCIException("The reading board '" + path + "' could not be created.", e);
+			} catch (NCIException e) {
+				close(channel);
+				throw e;
+			}
+			BOARDS.put(key, board);
+			return board;
+		}
+	}
+
+	/**
+	 * Opens a board to read from.
+	 *
+	 * @param path	The file, which some owner has created.
+	 * @return	The board.
+	 * @throws NCIException	Thrown if the file cannot be mapped or is not a board.
+	 */
+	public static ReadingBoard open(Path path) throws NCIException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return new ReadingBoard(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), null);
+		} catch (IOException e) {
+			throw new NCIException("The reading board '" + path + "' could not be opened.", e);
+		}
+	}
+
+	/**
+	 * Takes the slot for a device, to publish its readings. If the device
+	 * already has a slot, such as from before its owner restarted, the same
+	 * slot is taken again, but not while another owner, in this process or
+	 * another, still holds it.
+	 *
+	 * @param name	The name of the device.
+	 * @return	The slot.
+	 * @throws NCIException	Thrown if the board was opened only to read, is full, cannot be locked, or the device's slot is held by another owner.
+	 */
+	public BoardSlot claim(String name) throws NCIException {
+		if (channel == null) throw new NCIException("The reading board '" + path + "' was opened only to read.");
+		byte[] encoded = encode(name);
+		synchronized (BOARDS) {
+			try {
+				FileLock lock = lockHeader(channel);
+				try {
+					int free = -1;
+					for (int i = 0; i < slots; i++) {
+						int length = buffer.getInt(offset(i) + NAME_LENGTH);
+						if (length == 0 && free < 0) free = i;
+						if (length == encoded.length && nameEquals(offset(i), encoded)) return open(i, name);
+					}
+					if (free < 0) throw new NCIException("The reading board '" + path + "' has no free slot for device '" + name + "'.");
+					FileLock owner = lockSlot(free, name);
+					int offset = offset(free);
+					for (int i = 0; i < encoded.length; i++) {
+						buffer.put(offset + NAME + i, encoded[i]);
+					}
+					BoardSlot.storeFence();
+					buffer.putInt(offset + NAME_LENGTH, encoded.length);
+					return open(free, name, owner);
+				} finally {
+					lock.release();
+				}
+			} catch (IOException e) {
+				throw new NCIException("The reading board '" + path + "' could not be locked.", e);
+			}
+		}
+	}
+
+	private BoardSlot open(int index, String name) throws NCIException, IOException {
+		return open(index, name, lockSlot(index, name));
+	}
+
+	private BoardSlot open(int index, String name, FileLock owner) {
+		BoardSlot slot = new BoardSlot(buffer, offset(index), name, owner);
+		slot.open();
+		return slot;
+	}
+
+	/**
+	 * Locks the header, which every claim holds while it looks for a slot.
+	 * Only the header is locked, so that claims are not held up by the locks
+	 * of the slots' owners.
+	 */
+	private static FileLock lockHeader(FileChannel channel) throws IOException {
+		return channel.lock(0, HEADER_LENGTH, false);
+	}
+
+	/**
+	 * Locks a slot for its owner until the slot is closed. The operating
+	 * system releases the lock if the owner's process ends, so the slot of an
+	 * owner that stopped without closing it can be taken again.
+	 *
+	 * @throws NCIException	Thrown if another owner holds the slot.
+	 */
+	private FileLock lockSlot(int index, String name) throws NCIException, IOException {
+		FileLock owner;
+		try {
+			owner = channel.tryLock(offset(index), SLOT_LENGTH, false);
+		} catch (OverlappingFileLockException e) {
+			owner = null;
+		}
+		if (owner == null) throw new NCIException("The slot of device '" + name + "' on the reading board '" + path + "' is held by another owner.");
+		return owner;
+	}
+
+	private static void close(FileChannel channel) {
+		if (channel == null) return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Nothing was mapped from it.
+		}
+	}
+
+	/**
+	 * Finds the slot of a device, to read its readings. A slot once found is
+	 * remembered, so this is cheap to call for every read.
+	 *
+	 * @param name	The name of the device.
+	 * @return	The slot, or null if the device has never published to this board.
+	 */
+	public BoardSlot find(String name) {
+		BoardSlot slot = found.get(name);
+		if (slot != null) return slot;
+		byte[] encoded;
+		try {
+			encoded = encode(name);
+		} catch (NCIException e) {
+			return null;
+		}
+		for (int i = 0; i < slots; i++) {
+			if (buffer.getInt(offset(i) + NAME_LENGTH) == encoded.length) {
+				BoardSlot.loadFence();
+				if (nameEquals(offset(i), encoded)) {
+					slot = new BoardSlot(buffer, offset(i), name, null);
+					found.put(name, slot);
+					return slot;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return	The number of devices the board can hold.
+	 */
+	public int getSlotCount() {
+		return slots;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	private static int offset(int index) {
+		return HEADER_LENGTH + index * SLOT_LENGTH;
+	}
+
+	private boolean nameEquals(int offset, byte[] encoded) {
+		for (int i = 0; i < encoded.length; i++) {
+			if (buffer.get(offset + NAME + i) != encoded[i]) return false;
+		}
+		return true;
+	}
+
+	private static byte[] encode(String name) throws NCIException {
+		byte[] encoded = name.getBytes(UTF8);
+		if (encoded.length == 0 || encoded.length > MAX_NAME_LENGTH) {
+			throw new NCIException("The device name '" + name + "' must be 1 to " + MAX_NAME_LENGTH + " bytes to fit a reading board.");
+		}
+		return encoded;
+	}
+}
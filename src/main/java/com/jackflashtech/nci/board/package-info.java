@@ -0,0 +1,10 @@
+/**
+ * This package contains the reading board: a small memory-mapped file with a
+ * fixed slot per device, which the process that owns a device writes each
+ * reading into and any other process on the host can read without a socket
+ * or the serial port. A {@link com.jackflashtech.nci.board.ReadingBoard} is
+ * the file, and a {@link com.jackflashtech.nci.board.BoardSlot} is one
+ * device's slot in it, guarded by a sequence lock so a reader never sees half
+ * of a reading.
+ */
+package com.jackflashtech.nci.board;
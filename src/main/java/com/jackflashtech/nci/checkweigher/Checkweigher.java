@@ -0,0 +1,231 @@
+package com.jackflashtech.nci.checkweigher;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.NCIPollingListener;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+import com.jackflashtech.nci.filter.SettleEstimator;
+
+/**
+ * Runs one scale as a checkweigher, following the items that cross its
+ * platter in the readings it is polled for. Add it to the scheduler that
+ * polls the scale, at {@link com.jackflashtech.nci.impl.NCIPollingScheduler.RateClass#FAST}
+ * so that no item is missed:
+ * <pre>
+ * Checkweigher checkweigher = new Checkweigher("line1", new Product("500g", 500000000, 15000000, 30000000));
+ * checkweigher.addCheckweigherListener(rejectArm);
+ * scheduler.register("line1", device, RateClass.FAST);
+ * scheduler.addPollingListener(checkweigher);
+ * </pre>
+ *
+ * An item arrives when the weight rises to the item threshold, by default
+ * half the product's lower limit. It is weighed by the first reading after
+ * that which is not in motion, and decided on and published at once, without
+ * waiting for it to leave. It has left when the scale reports being at zero
+ * or the weight falls below half the threshold, and the next item can then
+ * arrive. An item that leaves without ever settling is rejected as
+ * {@link Decision#UNSETTLED}.
+ *
+ * With {@link #setEarlySettle(long)}, an item can instead be weighed while
+ * the platter is still ringing, by a {@link SettleEstimator} fitted to the
+ * readings since it arrived, as soon as the whole of the estimate's bound
+ * falls to a single decision.
+ *
+ * The counts are kept in primitive fields and only copied into a
+ * {@link CheckweigherStatistics} when an item is decided or they are asked
+ * for.
+ */
+public class Checkweigher implements NCIPollingListener {
+	private final String name;
+	private final CopyOnWriteArrayList<CheckweigherListener> listeners = new CopyOnWriteArrayList<CheckweigherListener>();
+	private Product product;
+	private long thresholdMicrograms;
+	private boolean loaded = false;
+	private boolean weighed = false;
+	private long accepted = 0;
+	private long underweight = 0;
+	private long overweight = 0;
+	private long unsettled = 0;
+	private long giveAwayMicrograms = 0;
+	private final SettleEstimator estimator = new SettleEstimator();
+	private long earlySettleMicrograms = -1;
+
+	/**
+	 * @param name		The name the scale is polled under.
+	 * @param product	The product running on the line.
+	 */
+	public Checkweigher(String name, Product product) {
+		this.name = name;
+		setProduct(product);
+	}
+
+	public void addCheckweigherListener(CheckweigherListener listener) {
+		listeners.addIfAbsent(listener);
+	}
+
+	public void removeCheckweigherListener(CheckweigherListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Changes the product and starts a new run, with the counts at 0 and the
+	 * item threshold at half the new lower limit.
+	 */
+	public synchronized void setProduct(Product product) {
+		this.product = product;
+		this.thresholdMicrograms = product.getLowerLimitMicrograms() / 2;
+		reset();
+	}
+
+	public synchronized Product getProduct() {
+		return product;
+	}
+
+	/**
+	 * Sets the weight at which an item is taken to have arrived, such as when
+	 * the items of a product vary more than half its weight.
+	 */
+	public synchronized void setItemThreshold(long micrograms) {
+		if (micrograms <= 0) throw new IllegalArgumentException("The item threshold must be positive, not " + micrograms + ".");
+		this.thresholdMicrograms = micrograms;
+	}
+
+	public synchronized long getItemThreshold() {
+		return thresholdMicrograms;
+	}
+
+	/**
+	 * Weighs items by the predicted final weight before the scale is still,
+	 * once the bound of the prediction is no wider than the given one and
+	 * lies wholly within one decision. Off by default.
+	 *
+	 * @param maxBoundMicrograms	The widest bound to decide on, or a negative number to always wait for the scale.
+	 */
+	public synchronized void setEarlySettle(long maxBoundMicrograms) {
+		this.earlySettleMicrograms = maxBoundMicrograms;
+	}
+
+	public synchronized long getEarlySettle() {
+		return earlySettleMicrograms;
+	}
+
+	/**
+	 * Sets the counts back to 0 for a new run of the same product.
+	 */
+	public synchronized void reset() {
+		accepted = 0;
+		underweight = 0;
+		overweight = 0;
+		unsettled = 0;
+		giveAwayMicrograms = 0;
+	}
+
+	public synchronized CheckweigherStatistics getStatistics() {
+		return new CheckweigherStatistics(product, accepted, underweight, overweight, unsettled, giveAwayMicrograms);
+	}
+
+	@Override
+	public void polled(String name, Weight weight, Status status) {
+		if (!this.name.equals(name) || weight == null || status == null || weight.getUnits() == Units.OTHER) return;
+		reading(weight.getMicrograms(), status.isInMotion(), status.isScaleAtZero(), System.nanoTime());
+	}
+
+	@Override
+	public void pollFailed(String name, NCIException exception) {
+		// A missed reading is like a reading in motion: the item waits for the next one.
+	}
+
+	/**
+	 * Follows the platter through one reading, deciding on the item on it if
+	 * this is the reading it is weighed by or the one that shows it left
+	 * unweighed.
+	 *
+	 * @param micrograms	The weight read.
+	 * @param inMotion		Whether the scale reported motion.
+	 * @param atZero		Whether the scale reported being at zero.
+	 */
+	public void reading(long micrograms, boolean inMotion, boolean atZero) {
+		reading(micrograms, inMotion, atZero, System.nanoTime());
+	}
+
+	/**
+	 * Follows the platter through one reading, taken at the given time.
+	 *
+	 * @param micrograms	The weight read.
+	 * @param inMotion		Whether the scale reported motion.
+	 * @param atZero		Whether the scale reported being at zero.
+	 * @param nanoTime		When it was read, from {@link System#nanoTime()}.
+	 */
+	public void reading(long micrograms, boolean inMotion, boolean atZero, long nanoTime) {
+		Decision decision = null;
+		long item = 0;
+		CheckweigherStatistics statistics = null;
+		synchronized (this) {
+			if (!loaded) {
+				if (micrograms < thresholdMicrograms) return;
+				loaded = true;
+				weighed = false;
+				estimator.reset();
+			} else if (atZero || micrograms < thresholdMicrograms / 2) {
+				loaded = false;
+				if (weighed) return;
+				decision = Decision.UNSETTLED;
+				micrograms = 0;
+			}
+			if (decision == null) {
+				if (weighed) return;
+				if (inMotion) {
+					if (!settledEarly(micrograms, nanoTime)) return;
+					micrograms = estimator.getEstimateMicrograms();
+				} else if (micrograms < thresholdMicrograms) {
+					return;
+				}
+				weighed = true;
+				decision = product.classify(micrograms);
+			}
+			count(decision, micrograms);
+			item = accepted + underweight + overweight + unsettled;
+			statistics = getStatistics();
+		}
+		for (CheckweigherListener listener : listeners) {
+			try {
+				listener.itemClassified(name, item, decision, micrograms, statistics);
+			} catch (RuntimeException e) {
+				// A failing listener must not stop the others from hearing of the item.
+			}
+		}
+	}
+
+	/**
+	 * @return	Whether the item in motion can be weighed by its predicted final weight.
+	 */
+	private boolean settledEarly(long micrograms, long nanoTime) {
+		if (earlySettleMicrograms < 0 || !estimator.add(micrograms, true, nanoTime)) return false;
+		long estimate = estimator.getEstimateMicrograms();
+		long bound = estimator.getBoundMicrograms();
+		return bound <= earlySettleMicrograms && estimate >= thresholdMicrograms
+				&& product.classify(estimate - bound) == product.classify(estimate + bound);
+	}
+
+	private void count(Decision decision, long micrograms) {
+		switch (decision) {
+		case ACCEPT:
+			accepted++;
+			giveAwayMicrograms += micrograms - product.getTargetMicrograms();
+			break;
+		case UNDERWEIGHT:
+			underweight++;
+			break;
+		case OVERWEIGHT:
+			overweight++;
+			break;
+		case UNSETTLED:
+		default:
+			unsettled++;
+			break;
+		}
+	}
+}
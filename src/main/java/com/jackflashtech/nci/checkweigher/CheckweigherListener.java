@@ -0,0 +1,19 @@
+package com.jackflashtech.nci.checkweigher;
+
+/**
+ * Told of each item a {@link Checkweigher} decides on, such as to fire the
+ * reject arm. This is called on the thread that delivered the reading, which
+ * for a polled scale is one of the
+ * {@link com.jackflashtech.nci.impl.NCIPollingScheduler}'s, so it should
+ * return quickly.
+ */
+public interface CheckweigherListener {
+	/**
+	 * @param name			The name of the scale.
+	 * @param item			The number of the item in the current run, starting at 1.
+	 * @param decision		Whether the item is accepted, and if not why.
+	 * @param micrograms	The settled weight of the item, or 0 if it was {@link Decision#UNSETTLED}.
+	 * @param statistics	The counts of the run, including this item.
+	 */
+	void itemClassified(String name, long item, Decision decision, long micrograms, CheckweigherStatistics statistics);
+}
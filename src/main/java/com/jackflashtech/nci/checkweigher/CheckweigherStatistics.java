@@ -0,0 +1,86 @@
+package com.jackflashtech.nci.checkweigher;
+
+/**
+ * A snapshot of the counts of a {@link Checkweigher}'s run of one product.
+ * The give-away is the product given away in accepted items beyond the
+ * target, counting items under the target against it, so a line filling
+ * close to the target has a mean near 0.
+ */
+public class CheckweigherStatistics {
+	private final Product product;
+	private final long accepted;
+	private final long underweight;
+	private final long overweight;
+	private final long unsettled;
+	private final long giveAwayMicrograms;
+
+	public CheckweigherStatistics(Product product, long accepted, long underweight, long overweight, long unsettled, long giveAwayMicrograms) {
+		this.product = product;
+		this.accepted = accepted;
+		this.underweight = underweight;
+		this.overweight = overweight;
+		this.unsettled = unsettled;
+		this.giveAwayMicrograms = giveAwayMicrograms;
+	}
+
+	public Product getProduct() {
+		return product;
+	}
+
+	/**
+	 * @return	Every item decided on, accepted or not.
+	 */
+	public long getItems() {
+		return accepted + getRejected();
+	}
+
+	public long getAccepted() {
+		return accepted;
+	}
+
+	public long getRejected() {
+		return underweight + overweight + unsettled;
+	}
+
+	public long getCount(Decision decision) {
+		switch (decision) {
+		case ACCEPT:
+			return accepted;
+		case UNDERWEIGHT:
+			return underweight;
+		case OVERWEIGHT:
+			return overweight;
+		case UNSETTLED:
+		default:
+			return unsettled;
+		}
+	}
+
+	/**
+	 * @return	The share of the items accepted, from 0 to 1, or 0 if there have been none.
+	 */
+	public double getYield() {
+		long items = getItems();
+		return items == 0 ? 0 : (double) accepted / items;
+	}
+
+	/**
+	 * @return	The total weight of the accepted items beyond the target, in micrograms.
+	 */
+	public long getGiveAwayMicrograms() {
+		return giveAwayMicrograms;
+	}
+
+	/**
+	 * @return	The mean give-away of an accepted item, in micrograms, or 0 if none has been accepted.
+	 */
+	public double getMeanGiveAwayMicrograms() {
+		return accepted == 0 ? 0 : (double) giveAwayMicrograms / accepted;
+	}
+
+	@Override
+	public String toString() {
+		return product.getName() + ": " + getItems() + " items, " + accepted + " accepted, " + underweight + " under, " + overweight + " over, "
+				+ unsettled + " unsettled, mean give-away " + getMeanGiveAwayMicrograms() + "ug";
+	}
+}
@@ -0,0 +1,28 @@
+package com.jackflashtech.nci.checkweigher;
+
+/**
+ * What a {@link Checkweigher} decided about an item.
+ */
+public enum Decision {
+	/**
+	 * The item's weight was within the product's bands.
+	 */
+	ACCEPT,
+	/**
+	 * The item weighed less than the product's lower limit.
+	 */
+	UNDERWEIGHT,
+	/**
+	 * The item weighed more than the product's upper limit.
+	 */
+	OVERWEIGHT,
+	/**
+	 * The item left the platter before the scale settled, so it was never
+	 * weighed. It is rejected, since it cannot be shown to be in the bands.
+	 */
+	UNSETTLED;
+
+	public boolean isAccepted() {
+		return this == ACCEPT;
+	}
+}
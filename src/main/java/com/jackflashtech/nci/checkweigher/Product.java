@@ -0,0 +1,61 @@
+package com.jackflashtech.nci.checkweigher;
+
+/**
+ * The product running on a line: the weight each item should have and how far
+ * from it an item may be and still be accepted. The limits are inclusive.
+ */
+public class Product {
+	private final String name;
+	private final long targetMicrograms;
+	private final long lowerLimitMicrograms;
+	private final long upperLimitMicrograms;
+
+	/**
+	 * @param name					The name of the product, for reports.
+	 * @param targetMicrograms		The weight each item should have, such as the weight on its label.
+	 * @param underMicrograms		How far below the target an item is still accepted.
+	 * @param overMicrograms		How far above the target an item is still accepted.
+	 */
+	public Product(String name, long targetMicrograms, long underMicrograms, long overMicrograms) {
+		if (targetMicrograms <= 0) throw new IllegalArgumentException("The target of " + name + " must be positive, not " + targetMicrograms + ".");
+		if (underMicrograms < 0 || overMicrograms < 0) throw new IllegalArgumentException("The tolerances of " + name + " must not be negative.");
+		if (underMicrograms >= targetMicrograms) throw new IllegalArgumentException("The tolerance below the target of " + name + " must be less than the target.");
+		this.name = name;
+		this.targetMicrograms = targetMicrograms;
+		this.lowerLimitMicrograms = targetMicrograms - underMicrograms;
+		this.upperLimitMicrograms = targetMicrograms + overMicrograms;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getTargetMicrograms() {
+		return targetMicrograms;
+	}
+
+	public long getLowerLimitMicrograms() {
+		return lowerLimitMicrograms;
+	}
+
+	public long getUpperLimitMicrograms() {
+		return upperLimitMicrograms;
+	}
+
+	/**
+	 * Classifies a settled weight.
+	 *
+	 * @param micrograms	The weight of the item.
+	 * @return	{@link Decision#ACCEPT}, {@link Decision#UNDERWEIGHT} or {@link Decision#OVERWEIGHT}.
+	 */
+	public Decision classify(long micrograms) {
+		if (micrograms < lowerLimitMicrograms) return Decision.UNDERWEIGHT;
+		if (micrograms > upperLimitMicrograms) return Decision.OVERWEIGHT;
+		return Decision.ACCEPT;
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + lowerLimitMicrograms + " to " + upperLimitMicrograms + "ug)";
+	}
+}
@@ -0,0 +1,9 @@
+/**
+ * This package turns the polled readings of a scale on a packing line into a
+ * checkweigher: a {@link com.jackflashtech.nci.checkweigher.Checkweigher}
+ * follows each item across the platter, weighs it once it settles, and
+ * accepts or rejects it against the bands of the current
+ * {@link com.jackflashtech.nci.checkweigher.Product}, keeping the line's
+ * counts, yield and give-away as it goes.
+ */
+package com.jackflashtech.nci.checkweigher;
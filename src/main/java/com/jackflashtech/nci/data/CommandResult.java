@@ -0,0 +1,70 @@
+package com.jackflashtech.nci.data;
+
+import com.jackflashtech.nci.Command;
+import com.jackflashtech.nci.Units;
+
+/**
+ * This represents the reply to a single command in a batch sent with
+ * {@link com.jackflashtech.nci.NCIDevice#executeBatch(java.util.List)}. Every
+ * reply carries a status. The weight is only provided for
+ * {@link Command#WEIGHT} and {@link Command#HIGH_RESOLUTION_WEIGHT}, the
+ * units are only provided for {@link Command#UNITS}, and the raw counts are
+ * only provided for {@link Command#METROLOGY_RAW_COUNTS}; otherwise they are
+ * null.
+ */
+public class CommandResult {
+	private Command command;
+	private Weight weight;
+	private Units units;
+	private Status status;
+	private Long rawCounts;
+
+	/**
+	 * Constructor for this data transport object (DTO).
+	 *
+	 * @param command	The command this is the reply to.
+	 * @param weight	The weight reported in the reply, or null if the command does not report a weight.
+	 * @param units		The units reported in the reply, or null if the command does not report units.
+	 * @param status	The status reported in the reply.
+	 */
+	public CommandResult(Command command, Weight weight, Units units, Status status) {
+		this(command, weight, units, status, null);
+	}
+
+	/**
+	 * Constructor for this data transport object (DTO).
+	 *
+	 * @param command	The command this is the reply to.
+	 * @param weight	The weight reported in the reply, or null if the command does not report a weight.
+	 * @param units		The units reported in the reply, or null if the command does not report units.
+	 * @param status	The status reported in the reply.
+	 * @param rawCounts	The raw counts reported in the reply, or null if the command does not report them.
+	 */
+	public CommandResult(Command command, Weight weight, Units units, Status status, Long rawCounts) {
+		this.command = command;
+		this.weight = weight;
+		this.units = units;
+		this.status = status;
+		this.rawCounts = rawCounts;
+	}
+
+	public Command getCommand() {
+		return command;
+	}
+
+	public Weight getWeight() {
+		return weight;
+	}
+
+	public Units getUnits() {
+		return units;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public Long getRawCounts() {
+		return rawCounts;
+	}
+}
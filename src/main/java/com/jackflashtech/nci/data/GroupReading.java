@@ -0,0 +1,90 @@
+package com.jackflashtech.nci.data;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import com.jackflashtech.nci.NCIException;
+
+/**
+ * This represents one synchronized reading of every device in an
+ * {@link com.jackflashtech.nci.impl.NCIDeviceGroup}, such as the four corner
+ * scales of a platform. Each member either replied with a weight, replied with
+ * an error, or missed the deadline of the reading. The total is the sum of the
+ * members that replied with a weight, in micrograms (see
+ * {@link Weight#getMicrograms()}), so it is only the weight of the whole
+ * platform when {@link #isComplete()} is true.
+ *
+ * The timestamps are from {@link System#nanoTime()} when each reply was
+ * received, and the skew is the spread between the earliest and latest of them.
+ */
+public class GroupReading {
+	private Map<String, Weight> weights;
+	private Map<String, Status> statuses;
+	private Map<String, Long> timestamps;
+	private Map<String, NCIException> failures;
+	private Set<String> missed;
+	private long totalMicrograms;
+	private long skewNanos;
+
+	/**
+	 * Constructor for this data transport object (DTO). The collections are
+	 * keyed by the device names and are not copied.
+	 *
+	 * @param weights			The weight reported by each member that replied.
+	 * @param statuses			The status reported by each member that replied.
+	 * @param timestamps		The time, from {@link System#nanoTime()}, each reply was received.
+	 * @param failures			The exception for each member that replied with an error.
+	 * @param missed			The members that did not reply before the deadline.
+	 * @param totalMicrograms	The sum of the weights that were reported, in micrograms.
+	 * @param skewNanos			The time between the earliest and latest replies, in nanoseconds.
+	 */
+	public GroupReading(Map<String, Weight> weights, Map<String, Status> statuses, Map<String, Long> timestamps,
+			Map<String, NCIException> failures, Set<String> missed, long totalMicrograms, long skewNanos) {
+		this.weights = Collections.unmodifiableMap(weights);
+		this.statuses = Collections.unmodifiableMap(statuses);
+		this.timestamps = Collections.unmodifiableMap(timestamps);
+		this.failures = Collections.unmodifiableMap(failures);
+		this.missed = Collections.unmodifiableSet(missed);
+		this.totalMicrograms = totalMicrograms;
+		this.skewNanos = skewNanos;
+	}
+
+	public Map<String, Weight> getWeights() {
+		return weights;
+	}
+
+	public Map<String, Status> getStatuses() {
+		return statuses;
+	}
+
+	public Map<String, Long> getTimestamps() {
+		return timestamps;
+	}
+
+	public Map<String, NCIException> getFailures() {
+		return failures;
+	}
+
+	public Set<String> getMissed() {
+		return missed;
+	}
+
+	public long getTotalMicrograms() {
+		return totalMicrograms;
+	}
+
+	public long getSkewNanos() {
+		return skewNanos;
+	}
+
+	/**
+	 * Whether every member of the group replied with a weight before the
+	 * deadline.
+	 *
+	 * @return	True if there were no failures and no missed members.
+	 */
+	public boolean isComplete() {
+		return failures.isEmpty() && missed.isEmpty();
+	}
+}
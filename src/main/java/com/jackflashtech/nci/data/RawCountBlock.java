@@ -0,0 +1,84 @@
+package com.jackflashtech.nci.data;
+
+/**
+ * A block of load-cell counts from the metrology stream of a device, after
+ * decimation. Each sample is the mean of as many raw counts as the
+ * subscription's decimation, and is stamped with the time the last of them
+ * was received.
+ *
+ * A subscription fills the same block over and over, so the arrays are only
+ * valid during the call to
+ * {@link com.jackflashtech.nci.RawCountListener#receivedRawCounts(RawCountBlock)};
+ * a listener that keeps samples must copy them.
+ */
+public class RawCountBlock {
+	private final double[] counts;
+	private final long[] nanoTimes;
+	private int size = 0;
+	private long sequence = 0;
+	private Status status;
+
+	/**
+	 * @param capacity	The number of samples in a full block.
+	 */
+	public RawCountBlock(int capacity) {
+		this.counts = new double[capacity];
+		this.nanoTimes = new long[capacity];
+	}
+
+	/**
+	 * Adds a sample.
+	 *
+	 * @return	Whether the block is now full.
+	 */
+	public boolean add(double count, long nanoTime) {
+		counts[size] = count;
+		nanoTimes[size] = nanoTime;
+		return ++size == counts.length;
+	}
+
+	/**
+	 * Empties the block for the next one, numbering it after this one.
+	 */
+	public void clear() {
+		size = 0;
+		sequence++;
+	}
+
+	/**
+	 * The samples. Only the first {@link #size()} are part of this block.
+	 */
+	public double[] getCounts() {
+		return counts;
+	}
+
+	/**
+	 * When each sample was received, from {@link System#nanoTime()}. Only the
+	 * first {@link #size()} are part of this block.
+	 */
+	public long[] getNanoTimes() {
+		return nanoTimes;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return	The number of the block in its subscription, starting at 0, so a gap shows a block was lost.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return	The status of the device at the end of the block, or null if none was read.
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+}
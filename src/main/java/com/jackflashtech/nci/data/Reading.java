@@ -0,0 +1,68 @@
+package com.jackflashtech.nci.data;
+
+import com.jackflashtech.nci.Units;
+
+/**
+ * An immutable snapshot of one weight exchange with a device: the weight and
+ * the status that came with it in the same reply, never a mix of two. A
+ * device publishes a new one after each weight it reads, numbering them in
+ * sequence, so a reader can tell whether anything has changed since its last
+ * look without comparing weights.
+ */
+public class Reading {
+	private final Weight weight;
+	private final Status status;
+	private final long sequence;
+	private final long receivedNanos;
+
+	/**
+	 * @param weight			The weight read.
+	 * @param status			The status that came with it, which may be null.
+	 * @param sequence			The number of the reading, starting at 1 for the device's first.
+	 * @param receivedNanos		When the reply was received, from {@link System#nanoTime()}.
+	 */
+	public Reading(Weight weight, Status status, long sequence, long receivedNanos) {
+		this.weight = weight;
+		this.status = status;
+		this.sequence = sequence;
+		this.receivedNanos = receivedNanos;
+	}
+
+	public Weight getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @return	The status that came with the weight, or null if the reply had none.
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	public Units getUnits() {
+		return weight.getUnits();
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return	When the reply was received, from {@link System#nanoTime()}.
+	 */
+	public long getReceivedNanos() {
+		return receivedNanos;
+	}
+
+	/**
+	 * @return	How long ago the reply was received, in nanoseconds.
+	 */
+	public long getAgeNanos() {
+		return System.nanoTime() - receivedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "Reading " + sequence + ": " + weight.getMicrograms() + " ug in " + weight.getUnits() + "; " + status;
+	}
+}
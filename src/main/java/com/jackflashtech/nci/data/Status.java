@@ -132,6 +132,52 @@ public class Status {
 		return initialZeroError;
 	}
 
+	/**
+	 * Packs the values of this status into the low bits of an int, for
+	 * compact transmission or storage. From the lowest bit: in motion, at
+	 * zero, RAM error, EEPROM error, under capacity, over capacity, ROM error,
+	 * faulty calibration, high range, net weight and initial zero error. The
+	 * inverse is {@link #fromBits(int)}.
+	 * 
+	 * @return	The packed values.
+	 */
+	public int getBits() {
+		int bits = 0;
+		if (inMotion) bits |= 1 << 0;
+		if (scaleAtZero) bits |= 1 << 1;
+		if (RAMError) bits |= 1 << 2;
+		if (EEPROMError) bits |= 1 << 3;
+		if (underCapacity) bits |= 1 << 4;
+		if (overCapacity) bits |= 1 << 5;
+		if (ROMError) bits |= 1 << 6;
+		if (faultyCalibration) bits |= 1 << 7;
+		if (range == Range.HIGH) bits |= 1 << 8;
+		if (weightType == WeightType.NET) bits |= 1 << 9;
+		if (initialZeroError) bits |= 1 << 10;
+		return bits;
+	}
+	
+	/**
+	 * Unpacks a status packed by {@link #getBits()}.
+	 * 
+	 * @param bits	The packed values.
+	 * @return	The status the values represent.
+	 */
+	public static Status fromBits(int bits) {
+		return new Status(
+				(bits & 1 << 0) != 0,
+				(bits & 1 << 1) != 0,
+				(bits & 1 << 2) != 0,
+				(bits & 1 << 3) != 0,
+				(bits & 1 << 4) != 0,
+				(bits & 1 << 5) != 0,
+				(bits & 1 << 6) != 0,
+				(bits & 1 << 7) != 0,
+				(bits & 1 << 8) != 0 ? Range.HIGH : Range.LOW,
+				(bits & 1 << 9) != 0 ? WeightType.NET : WeightType.GROSS,
+				(bits & 1 << 10) != 0);
+	}
+
 	@Override
 	public String toString() {
 		return "In Motion: " + this.inMotion + "; At Zero: " + this.scaleAtZero + "; RAM Error: " + this.RAMError + "; EEPROM Error: " + this.EEPROMError + "; Under capacity: " + this.underCapacity + "; Over capacity: " + this.overCapacity + "; ROM Error: " + this.ROMError + "; Faulty calibration: " + this.faultyCalibration + "; Range: " + this.range + "; Weight Type: " + this.weightType + "; Initial zero error: " + this.initialZeroError;
@@ -15,6 +15,13 @@ import com.jackflashtech.nci.Units;
  * {@link Units#LBS_OZ}, and vice-versa. You can distinguish between these modes
  * with {@link #isLbsOz()}.
  * 
+ * Regardless of the units, every weight also carries a canonical fixed-point
+ * value in micrograms, computed once when the weight is parsed and available
+ * through {@link #getMicrograms()}. Readings from scales in different units can
+ * be compared and summed as plain longs, and converted back to any units with
+ * {@link #getWeightIn(Units)} or {@link Units#fromMicrograms(long)}, without
+ * exceptions or accumulated floating-point error.
+ * 
  * @author Jonathan Card
  *
  */
@@ -23,6 +30,7 @@ public class Weight {
 	private int lbs;
 	private double oz;
 	private Units units;
+	private long micrograms;
 	
 	/**
 	 * The constructor for most systems, where the weight is represented by a
@@ -34,20 +42,27 @@ public class Weight {
 	public Weight(double weight, Units units) {
 		this.weight = weight;
 		this.units = units;
+		this.micrograms = units.toMicrograms(weight);
 	}
 
 	/**
 	 * The constructor for the lbs-oz system. The weight is in two values, the
 	 * lbs value must be an integer, and the units are assumed to be
-	 * {@link Units#LBS_OZ}.
+	 * {@link Units#LBS_OZ}. A negative weight is negative in both parts, as
+	 * {@link #getLbsPart(long)} and {@link #getOzPart(long)} split it, so the
+	 * ounces of a weight with negative pounds are taken as negative whatever
+	 * their sign. A negative weight of less than a pound has 0 pounds and
+	 * negative ounces.
 	 * 
 	 * @param lbs	The pounds portion that this weight represents.
 	 * @param oz	The ounces portion that this weight represents.
 	 */
 	public Weight(int lbs, double oz) {
+		if (lbs < 0) oz = -Math.abs(oz);
 		this.lbs = lbs;
 		this.oz = oz;
 		this.units = Units.LBS_OZ;
+		this.micrograms = Units.LBS.toMicrograms(lbs) + Units.OZ.toMicrograms(oz);
 	}
 	
 	/**
@@ -112,4 +127,49 @@ public class Weight {
 	public Units getUnits() {
 		return units;
 	}
+	
+	/**
+	 * The canonical value of this weight in micrograms, whatever the units in
+	 * which it was reported. This is 0 for {@link Units#OTHER}.
+	 * 
+	 * @return	The weight in micrograms.
+	 */
+	public long getMicrograms() {
+		return micrograms;
+	}
+	
+	/**
+	 * The weight converted to the given units. Unlike {@link #getWeight()}, this
+	 * works for weights reported in {@link Units#LBS_OZ}, and when converting
+	 * to {@link Units#LBS_OZ} the value is in pounds; use
+	 * {@link #getLbsPart(long)} and {@link #getOzPart(long)} to split it.
+	 * 
+	 * @param units	The units to convert to.
+	 * @return	The weight in the given units.
+	 */
+	public double getWeightIn(Units units) {
+		return units.fromMicrograms(micrograms);
+	}
+	
+	/**
+	 * The pounds portion of a weight in micrograms, as it would be reported in
+	 * {@link Units#LBS_OZ}.
+	 * 
+	 * @param micrograms	A weight in micrograms.
+	 * @return	The whole pounds in the weight.
+	 */
+	public static int getLbsPart(long micrograms) {
+		return (int) (micrograms / Units.LBS.toMicrograms(1));
+	}
+	
+	/**
+	 * The ounces portion of a weight in micrograms, as it would be reported in
+	 * {@link Units#LBS_OZ}. This does not include the whole pounds.
+	 * 
+	 * @param micrograms	A weight in micrograms.
+	 * @return	The ounces remaining after the whole pounds.
+	 */
+	public static double getOzPart(long micrograms) {
+		return Units.OZ.fromMicrograms(micrograms % Units.LBS.toMicrograms(1));
+	}
 }
@@ -0,0 +1,68 @@
+package com.jackflashtech.nci.data;
+
+/**
+ * A snapshot of the running statistics a device keeps about its readings while
+ * the platter is empty, used to spot a scale drifting out of calibration or
+ * picking up vibration. The mean and standard deviation are of settled
+ * readings at zero over roughly the last minute; the drift is the trend of
+ * that mean over roughly the last ten minutes.
+ */
+public class ZeroStatistics {
+	/**
+	 * The thresholds whose crossing is reported to
+	 * {@link com.jackflashtech.nci.NCIDeviceListener#statisticsAlarm(Alarm, ZeroStatistics)}.
+	 */
+	public enum Alarm {
+		ZERO_DRIFT,
+		ZERO_NOISE,
+		MOTION_FLICKER
+	}
+
+	private final long samples;
+	private final double meanMicrograms;
+	private final double standardDeviationMicrograms;
+	private final double driftMicrogramsPerHour;
+	private final double motionFlickerPerMinute;
+
+	public ZeroStatistics(long samples, double meanMicrograms, double standardDeviationMicrograms, double driftMicrogramsPerHour, double motionFlickerPerMinute) {
+		this.samples = samples;
+		this.meanMicrograms = meanMicrograms;
+		this.standardDeviationMicrograms = standardDeviationMicrograms;
+		this.driftMicrogramsPerHour = driftMicrogramsPerHour;
+		this.motionFlickerPerMinute = motionFlickerPerMinute;
+	}
+
+	/**
+	 * @return	The number of settled readings at zero the statistics are drawn from.
+	 */
+	public long getSamples() {
+		return samples;
+	}
+
+	public double getMeanMicrograms() {
+		return meanMicrograms;
+	}
+
+	public double getStandardDeviationMicrograms() {
+		return standardDeviationMicrograms;
+	}
+
+	/**
+	 * @return	How fast the reading at zero is moving, in micrograms per hour; negative if it is falling.
+	 */
+	public double getDriftMicrogramsPerHour() {
+		return driftMicrogramsPerHour;
+	}
+
+	/**
+	 * @return	How often the scale reports going into motion while empty, per minute.
+	 */
+	public double getMotionFlickerPerMinute() {
+		return motionFlickerPerMinute;
+	}
+
+	@Override
+	public String toString() {
+		return "Samples: " + samples + "; Mean: " + meanMicrograms + " ug; Standard deviation: " + standardDeviationMicrograms + " ug; Drift: " + driftMicrogramsPerHour + " ug/h; Motion flicker: " + motionFlickerPerMinute + "/min";
+	}
+}
@@ -0,0 +1,298 @@
+package com.jackflashtech.nci.emulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.impl.BufferedTransport;
+import com.jackflashtech.nci.impl.NCITransport;
+import com.jackflashtech.nci.impl.NCITransportListener;
+
+/**
+ * Wraps the link to a device and corrupts its replies the way a noisy serial
+ * line does, so the driver can be exercised under faults without hardware:
+ * <pre>
+ * FaultInjectingTransport noisy = new FaultInjectingTransport(emulator.openLoopback(), 42);
+ * noisy.setRate(Fault.PARITY, 0.01);
+ * noisy.setLatency(5, 20);
+ * NCIDevice device = new NCIDeviceRxtx(noisy, true);
+ * </pre>
+ *
+ * Commands are passed through untouched. Replies are collected up to each
+ * &lt;ETX&gt;, and each one is then delayed, replaced, dropped or mangled
+ * according to the rates of the {@link Fault}s, before being handed to the
+ * driver. The faults are drawn from a {@link Random} seeded at construction,
+ * one decision after another in the order the replies arrive, so the same
+ * seed and the same commands inject the same faults on every run.
+ */
+public class FaultInjectingTransport extends BufferedTransport {
+	/**
+	 * The ways a reply can be corrupted. The rates of {@link #DROP} and
+	 * {@link #DUPLICATE} are per byte; the others are per reply.
+	 */
+	public enum Fault {
+		/**
+		 * The reply arrives in two pieces, as when the serial port's driver
+		 * hands over part of it before the rest has been received.
+		 */
+		SPLIT,
+		/**
+		 * A byte of the reply is lost.
+		 */
+		DROP,
+		/**
+		 * A byte of the reply is received twice.
+		 */
+		DUPLICATE,
+		/**
+		 * The parity bit of one of the status bytes is inverted.
+		 */
+		PARITY,
+		/**
+		 * The reply is "?", as if the device did not understand the command.
+		 */
+		UNSUPPORTED,
+		/**
+		 * There is no reply at all.
+		 */
+		SILENCE
+	}
+
+	private static final byte LF = NCIScaleEmulator.LF;
+	private static final byte CR = NCIScaleEmulator.CR;
+	private static final byte ETX = NCIScaleEmulator.ETX;
+	private static final byte PARITY_BIT = (byte) 0x80;
+	private static final byte[] UNSUPPORTED_REPLY = {LF, '?', CR, ETX};
+
+	private static final ScheduledExecutorService DELIVERIES = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "NCI fault injection");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final NCITransport inner;
+	private final Random random;
+	private final Map<Fault, Double> rates = new EnumMap<Fault, Double>(Fault.class);
+	private final Map<Fault, Long> injected = new EnumMap<Fault, Long>(Fault.class);
+	private final byte[] readBuffer = new byte[64];
+	private byte[] frame = new byte[64];
+	private int framed = 0;
+	private final Queue<byte[]> pieces = new ArrayDeque<byte[]>();
+	private final Runnable delivery = new Runnable() {
+		@Override
+		public void run() {
+			deliverNext();
+		}
+	};
+	private volatile long latencyNanos = 0;
+	private volatile long jitterNanos = 0;
+	private volatile long splitGapNanos = TimeUnit.MILLISECONDS.toNanos(2);
+	private long lastDueNanos = 0;
+
+	/**
+	 * @param inner	The link to the device, which this transport takes over.
+	 * @param seed	The seed of the faults.
+	 */
+	public FaultInjectingTransport(NCITransport inner, long seed) {
+		this.inner = inner;
+		this.random = new Random(seed);
+		for (Fault fault : Fault.values()) {
+			rates.put(fault, 0.0);
+			injected.put(fault, 0L);
+		}
+		inner.setTransportListener(new NCITransportListener() {
+			@Override
+			public void dataAvailable() {
+				receive();
+			}
+		});
+	}
+
+	/**
+	 * Sets how often a fault is injected. Every rate starts at 0.
+	 *
+	 * @param fault	The fault.
+	 * @param rate	The chance of it, from 0 to 1, for each reply or for each byte.
+	 */
+	public synchronized void setRate(Fault fault, double rate) {
+		if (rate < 0 || rate > 1) throw new IllegalArgumentException("The rate of " + fault + " must be from 0 to 1, not " + rate + ".");
+		rates.put(fault, rate);
+	}
+
+	public synchronized double getRate(Fault fault) {
+		return rates.get(fault);
+	}
+
+	/**
+	 * Sets the delay added to every reply on top of the device's own, in the
+	 * manner of {@link NCIScaleEmulator#setLatency(long, long)}. Replies are
+	 * still handed over in the order they arrived.
+	 *
+	 * @param latencyMillis	The fixed part of the delay, in milliseconds.
+	 * @param jitterMillis	The most random delay added to it, in milliseconds.
+	 */
+	public void setLatency(long latencyMillis, long jitterMillis) {
+		this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+		this.jitterNanos = TimeUnit.MILLISECONDS.toNanos(jitterMillis);
+	}
+
+	/**
+	 * Sets the time between the two pieces of a {@link Fault#SPLIT} reply. The
+	 * default is 2 ms.
+	 */
+	public void setSplitGap(long splitGapMillis) {
+		this.splitGapNanos = TimeUnit.MILLISECONDS.toNanos(splitGapMillis);
+	}
+
+	/**
+	 * @return	How many times the fault has been injected, counting each byte dropped or duplicated.
+	 */
+	public synchronized long getInjected(Fault fault) {
+		return injected.get(fault);
+	}
+
+	@Override
+	protected void send(byte[] b, int off, int len) throws IOException {
+		OutputStream out = inner.getOutputStream();
+		out.write(b, off, len);
+		out.flush();
+	}
+
+	/**
+	 * Reads whatever the device has sent and handles each reply it completes.
+	 */
+	private void receive() {
+		synchronized (readBuffer) {
+			try {
+				InputStream in = inner.getInputStream();
+				int read;
+				while ((read = in.read(readBuffer, 0, readBuffer.length)) > 0) {
+					for (int i = 0; i < read; i++) {
+						if (framed == frame.length) frame = Arrays.copyOf(frame, frame.length * 2);
+						frame[framed++] = readBuffer[i];
+						if (readBuffer[i] == ETX) {
+							corrupt(Arrays.copyOf(frame, framed));
+							framed = 0;
+						}
+					}
+				}
+			} catch (IOException e) {
+				// The device is gone; the driver will time out waiting for it.
+			}
+		}
+	}
+
+	/**
+	 * Decides the faults of one reply and schedules what is left of it.
+	 */
+	private synchronized void corrupt(byte[] reply) {
+		if (isClosed()) return;
+		if (roll(Fault.SILENCE)) return;
+		if (roll(Fault.UNSUPPORTED)) {
+			reply = UNSUPPORTED_REPLY.clone();
+		} else if (hasStatus(reply) && roll(Fault.PARITY)) {
+			flipParity(reply);
+		}
+		if (rates.get(Fault.DROP) > 0 || rates.get(Fault.DUPLICATE) > 0) {
+			byte[] mangled = new byte[reply.length * 2];
+			int length = 0;
+			for (byte b : reply) {
+				if (roll(Fault.DROP)) continue;
+				mangled[length++] = b;
+				if (roll(Fault.DUPLICATE)) mangled[length++] = b;
+			}
+			reply = Arrays.copyOf(mangled, length);
+		}
+		long jitter = jitterNanos;
+		long delay = latencyNanos + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+		if (reply.length > 1 && roll(Fault.SPLIT)) {
+			int split = 1 + random.nextInt(reply.length - 1);
+			schedule(Arrays.copyOfRange(reply, 0, split), delay);
+			schedule(Arrays.copyOfRange(reply, split, reply.length), delay + splitGapNanos);
+		} else {
+			schedule(reply, delay);
+		}
+	}
+
+	/**
+	 * Finds the status bytes, which are those between the last &lt;LF&gt; of
+	 * the reply and the &lt;CR&gt; before its &lt;ETX&gt;.
+	 *
+	 * @return	The index of the first, or -1 if the reply has none, such as "?".
+	 */
+	private static int statusStart(byte[] reply) {
+		if (reply.length < 4 || reply[reply.length - 2] != CR) return -1;
+		int start = reply.length - 2;
+		while (start > 0 && reply[start - 1] != LF) start--;
+		if (start == 0 || start == reply.length - 2 || reply[start] == '?') return -1;
+		return start;
+	}
+
+	private static boolean hasStatus(byte[] reply) {
+		return statusStart(reply) >= 0;
+	}
+
+	private void flipParity(byte[] reply) {
+		int start = statusStart(reply);
+		reply[start + random.nextInt(reply.length - 2 - start)] ^= PARITY_BIT;
+	}
+
+	private boolean roll(Fault fault) {
+		double rate = rates.get(fault);
+		if (rate <= 0 || random.nextDouble() >= rate) return false;
+		injected.put(fault, injected.get(fault) + 1);
+		return true;
+	}
+
+	private void schedule(byte[] piece, long delayNanos) {
+		long now = System.nanoTime();
+		// A later piece is never due before an earlier one, so jitter cannot reorder them.
+		long due = Math.max(now + delayNanos, lastDueNanos);
+		lastDueNanos = due;
+		synchronized (pieces) {
+			pieces.add(piece);
+		}
+		DELIVERIES.schedule(delivery, due - now, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Hands the oldest piece to the driver. Each piece schedules one call, and
+	 * the pieces come due in order, so taking the head keeps them in order.
+	 */
+	private void deliverNext() {
+		byte[] piece;
+		synchronized (pieces) {
+			piece = pieces.poll();
+		}
+		if (piece == null || isClosed()) return;
+		try {
+			deliver(piece, 0, piece.length);
+		} catch (IOException e) {
+			// Closed since it was checked; the piece is dropped with the rest.
+		}
+	}
+
+	@Override
+	public void close() throws NCIException {
+		super.close();
+		synchronized (pieces) {
+			pieces.clear();
+		}
+		inner.setTransportListener(null);
+		inner.close();
+	}
+}
@@ -0,0 +1,19 @@
+package com.jackflashtech.nci.emulator;
+
+/**
+ * The load on an emulated scale's platter over time. The emulator samples the
+ * model each time the driver asks for a weight or a status.
+ */
+public interface LoadModel {
+	/**
+	 * @param nanoTime	The time of the sample, from {@link System#nanoTime()}.
+	 * @return	The gross weight on the platter, in micrograms.
+	 */
+	long getMicrograms(long nanoTime);
+
+	/**
+	 * @param nanoTime	The time of the sample, from {@link System#nanoTime()}.
+	 * @return	True if the load has not yet settled.
+	 */
+	boolean isInMotion(long nanoTime);
+}
@@ -0,0 +1,35 @@
+package com.jackflashtech.nci.emulator;
+
+import java.io.IOException;
+
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.impl.BufferedTransport;
+
+/**
+ * Connects a driver in the same process to an {@link NCIScaleEmulator}.
+ * Commands written by the driver go straight to the emulator, and replies are
+ * buffered until the driver reads them, as a serial port's driver would.
+ */
+class LoopbackTransport extends BufferedTransport implements NCIScaleEmulator.ReplySink {
+	private final NCIScaleEmulator emulator;
+
+	LoopbackTransport(NCIScaleEmulator emulator) {
+		this.emulator = emulator;
+	}
+
+	@Override
+	protected void send(byte[] b, int off, int len) {
+		emulator.receive(b, off, len);
+	}
+
+	@Override
+	public void reply(byte[] frame) throws IOException {
+		deliver(frame, 0, frame.length);
+	}
+
+	@Override
+	public void close() throws NCIException {
+		super.close();
+		emulator.disconnect(this);
+	}
+}
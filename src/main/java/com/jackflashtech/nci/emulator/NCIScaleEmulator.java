@@ -0,0 +1,460 @@
+package com.jackflashtech.nci.emulator;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.jackflashtech.nci.Command;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Weight;
+import com.jackflashtech.nci.impl.NCITransport;
+
+/**
+ * Emulates the device side of the NCI protocol as handled by
+ * {@link com.jackflashtech.nci.impl.NCIDeviceRxtx}: weight, high resolution
+ * weight, status, tare, zero, change of units and metrology raw counts,
+ * replying "?" to anything else, with the &lt;LF&gt;, &lt;CR&gt; and &lt;ETX&gt; framing and status
+ * bytes of even parity.
+ *
+ * The weight on the platter comes from a {@link LoadModel}, which decides how
+ * the reading moves and how noisy it is. Replies are sent after a configurable
+ * latency plus a random jitter, always in the order the commands arrived.
+ * Every emulator in the process shares one small pool of threads for sending
+ * replies, so hundreds can run at once.
+ *
+ * An emulator is connected to one driver at a time, either in the same
+ * process with {@link #openLoopback()}:
+ * <pre>
+ * NCIDevice device = new NCIDeviceRxtx(emulator.openLoopback(), true);
+ * </pre>
+ * or in another process over a pseudo-terminal with {@link #serve(Path)}. Java
+ * cannot allocate a pseudo-terminal itself, so the pair is created with socat,
+ * and the driver is pointed at the other end, which RXTX must be told about:
+ * <pre>
+ * socat pty,raw,echo=0,link=/tmp/ttyEMU0 pty,raw,echo=0,link=/tmp/ttyNCI0 &amp;
+ * java -Dgnu.io.rxtx.SerialPorts=/tmp/ttyNCI0 ...	(nci.scale.commport=/tmp/ttyNCI0)
+ * </pre>
+ */
+public class NCIScaleEmulator {
+	static final byte LF = 0x0a;
+	static final byte CR = 0x0d;
+	static final byte ETX = 0x03;
+	/**
+	 * The bits set in every status byte.
+	 */
+	private static final int STATUS_ALWAYS = 1 << 4 | 1 << 5;
+	private static final int STATUS_FOLLOWS = 1 << 6;
+	private static final int STATUS_PARITY = 1 << 7;
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final int SENDER_THREADS = 2;
+	/**
+	 * The raw counts of an empty platter, before the emulator was ever zeroed.
+	 */
+	static final long RAW_COUNTS_AT_ZERO = 100000;
+	/**
+	 * The raw counts per gram on the platter.
+	 */
+	static final long RAW_COUNTS_PER_GRAM = 10;
+
+	private static final ScheduledExecutorService SENDERS = Executors.newScheduledThreadPool(SENDER_THREADS, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "NCI scale emulator");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Where replies are sent: the loopback or the pseudo-terminal.
+	 */
+	interface ReplySink {
+		void reply(byte[] frame) throws IOException;
+	}
+
+	private final LoadModel load;
+	private final Random random = new Random();
+	private final Queue<byte[]> replies = new ArrayDeque<byte[]>();
+	private final Runnable sender = new Runnable() {
+		@Override
+		public void run() {
+			send();
+		}
+	};
+	private volatile ReplySink sink;
+	private volatile long latencyNanos = 0;
+	private volatile long jitterNanos = 0;
+	private volatile int decimals = 2;
+	private volatile long capacityMicrograms = Units.KG.toMicrograms(100);
+	private volatile Set<Command> supported = EnumSet.allOf(Command.class);
+	private Units[] unitsCycle = {Units.LBS, Units.KG};
+	private int unitsIndex = 0;
+	private long zeroMicrograms = 0;
+	private long tareMicrograms = 0;
+	private boolean tared = false;
+	private int pendingCommand = -1;
+	private long lastDueNanos = 0;
+	private InputStream served;
+
+	/**
+	 * Creates an emulator with an empty platter that settles instantly and
+	 * has no noise.
+	 */
+	public NCIScaleEmulator() {
+		this(new SettlingLoad(0, 0, 0, 0));
+	}
+
+	public NCIScaleEmulator(LoadModel load) {
+		this.load = load;
+	}
+
+	public LoadModel getLoad() {
+		return load;
+	}
+
+	/**
+	 * Sets how long the emulator takes to reply to each command.
+	 *
+	 * @param latencyMillis	The fixed part of the delay, in milliseconds.
+	 * @param jitterMillis	The most random delay added to it, in milliseconds.
+	 */
+	public void setLatency(long latencyMillis, long jitterMillis) {
+		this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+		this.jitterNanos = TimeUnit.MILLISECONDS.toNanos(jitterMillis);
+	}
+
+	/**
+	 * Sets the units the emulator reports in and the order {@link Command#UNITS}
+	 * steps through them. The first is the current units.
+	 *
+	 * @param units	The units, not including {@link Units#OTHER}.
+	 */
+	public synchronized void setUnits(Units... units) {
+		if (units.length == 0) throw new IllegalArgumentException("At least one unit is required.");
+		if (Arrays.asList(units).contains(Units.OTHER)) throw new IllegalArgumentException("The emulator cannot report in " + Units.OTHER + ".");
+		this.unitsCycle = units.clone();
+		this.unitsIndex = 0;
+	}
+
+	public synchronized Units getUnits() {
+		return unitsCycle[unitsIndex];
+	}
+
+	/**
+	 * Sets the number of decimal places in a weight. A high resolution weight
+	 * has one more. In {@link Units#LBS_OZ}, this applies to the ounces.
+	 */
+	public void setDecimals(int decimals) {
+		this.decimals = decimals;
+	}
+
+	/**
+	 * Sets the gross weight above which the scale reports that it is over
+	 * capacity. The default is 100 kg.
+	 */
+	public void setCapacity(long micrograms) {
+		this.capacityMicrograms = micrograms;
+	}
+
+	/**
+	 * Sets the commands the emulator answers. It replies "?" to the others, as
+	 * a scale does to a command it does not implement.
+	 */
+	public void setSupportedCommands(Command... commands) {
+		Set<Command> supported = EnumSet.noneOf(Command.class);
+		supported.addAll(Arrays.asList(commands));
+		this.supported = supported;
+	}
+
+	/**
+	 * Connects a driver in this process to the emulator.
+	 *
+	 * @return	The link to pass to {@link com.jackflashtech.nci.impl.NCIDeviceRxtx#NCIDeviceRxtx(NCITransport, boolean)}.
+	 * @throws NCIException	Thrown if the emulator is already connected.
+	 */
+	public NCITransport openLoopback() throws NCIException {
+		LoopbackTransport transport = new LoopbackTransport(this);
+		connect(transport);
+		return transport;
+	}
+
+	/**
+	 * Serves a driver in another process over one end of a pseudo-terminal
+	 * pair, until {@link #close()} is called.
+	 *
+	 * @param pty	The emulator's end of the pair.
+	 * @throws NCIException	Thrown if the emulator is already connected or the file cannot be opened.
+	 */
+	public void serve(Path pty) throws NCIException {
+		try {
+			serve(new FileInputStream(pty.toFile()), new FileOutputStream(pty.toFile()));
+		} catch (IOException e) {
+			throw new NCIException("Exception opening " + pty + ".", e);
+		}
+	}
+
+	/**
+	 * Serves a driver over a pair of streams, reading commands on a thread of
+	 * its own until the input ends or {@link #close()} is called.
+	 *
+	 * @param in	The commands from the driver.
+	 * @param out	Where to send the replies.
+	 * @throws NCIException	Thrown if the emulator is already connected.
+	 */
+	public synchronized void serve(final InputStream in, final OutputStream out) throws NCIException {
+		connect(new ReplySink() {
+			@Override
+			public void reply(byte[] frame) throws IOException {
+				out.write(frame);
+				out.flush();
+			}
+		});
+		this.served = in;
+		Thread server = new Thread("NCI scale emulator server") {
+			@Override
+			public void run() {
+				byte[] buffer = new byte[64];
+				try {
+					int read;
+					while ((read = in.read(buffer)) >= 0) {
+						receive(buffer, 0, read);
+					}
+				} catch (IOException e) {
+					// The driver went away; the emulator stops serving it.
+				} finally {
+					try {
+						in.close();
+						out.close();
+					} catch (IOException e) {
+						// Nothing is left to do with the streams.
+					}
+				}
+			}
+		};
+		server.setDaemon(true);
+		server.start();
+	}
+
+	/**
+	 * Disconnects the driver and stops serving. Replies not yet sent are
+	 * dropped.
+	 */
+	public void close() {
+		InputStream served;
+		synchronized (this) {
+			served = this.served;
+			this.served = null;
+			this.sink = null;
+			this.pendingCommand = -1;
+		}
+		synchronized (replies) {
+			replies.clear();
+		}
+		if (served != null) {
+			try {
+				served.close();
+			} catch (IOException e) {
+				// The server thread stops on its next read either way.
+			}
+		}
+	}
+
+	private synchronized void connect(ReplySink sink) throws NCIException {
+		if (this.sink != null) throw new NCIException("The emulator is already connected to a driver.");
+		this.sink = sink;
+	}
+
+	synchronized void disconnect(ReplySink sink) {
+		if (this.sink == sink) this.sink = null;
+	}
+
+	/**
+	 * Accepts bytes sent by the driver. A command is the last byte before each
+	 * &lt;CR&gt;; several may arrive in one write.
+	 */
+	void receive(byte[] data, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			byte b = data[i];
+			byte[] frame = null;
+			synchronized (this) {
+				if (b == CR) {
+					if (pendingCommand >= 0) frame = reply((byte) pendingCommand);
+					pendingCommand = -1;
+				} else if (b != LF) {
+					pendingCommand = b;
+				}
+			}
+			if (frame != null) schedule(frame);
+		}
+	}
+
+	private void schedule(byte[] frame) {
+		long jitter = jitterNanos;
+		long delay = latencyNanos + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+		long now = System.nanoTime();
+		long due;
+		synchronized (replies) {
+			// A later reply is never due before an earlier one, so jitter cannot reorder them.
+			due = Math.max(now + delay, lastDueNanos);
+			lastDueNanos = due;
+			replies.add(frame);
+		}
+		SENDERS.schedule(sender, due - now, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Sends the oldest reply. Each reply schedules one call, and the replies
+	 * come due in order, so taking the head keeps them in order even when two
+	 * calls run at once.
+	 */
+	private void send() {
+		synchronized (sender) {
+			byte[] frame;
+			synchronized (replies) {
+				frame = replies.poll();
+			}
+			ReplySink sink = this.sink;
+			if (frame == null || sink == null) return;
+			try {
+				sink.reply(frame);
+			} catch (IOException e) {
+				disconnect(sink);
+			}
+		}
+	}
+
+	/**
+	 * Builds the reply to a command as it would be sent by a scale.
+	 *
+	 * @param code	The command byte.
+	 * @return	The whole reply, through the &lt;ETX&gt;.
+	 */
+	synchronized byte[] reply(byte code) {
+		Command command = null;
+		for (Command candidate : supported) {
+			if (candidate.getCode() == code) command = candidate;
+		}
+		if (command == null) return new byte[] {LF, '?', CR, ETX};
+		long now = System.nanoTime();
+		long gross = load.getMicrograms(now) - zeroMicrograms;
+		switch (command) {
+		case WEIGHT:
+			return frame(formatWeight(getNet(gross), decimals), status(gross, now));
+		case HIGH_RESOLUTION_WEIGHT:
+			return frame(formatWeight(getNet(gross), decimals + 1), status(gross, now));
+		case UNITS:
+			unitsIndex = (unitsIndex + 1) % unitsCycle.length;
+			return frame(getLabel(unitsCycle[unitsIndex]), status(gross, now));
+		case TARE:
+			tareMicrograms = gross;
+			tared = true;
+			return frame(null, status(gross, now));
+		case ZERO:
+			zeroMicrograms += gross;
+			tared = false;
+			return frame(null, status(0, now));
+		case METROLOGY_RAW_COUNTS:
+			// The counts are those of the load cell, so zero and tare do not change them.
+			long counts = RAW_COUNTS_AT_ZERO + Math.round(load.getMicrograms(now) * (double) RAW_COUNTS_PER_GRAM / Units.G.toMicrograms(1));
+			return frame(Long.toString(counts), status(gross, now));
+		case STATUS:
+		default:
+			return frame(null, status(gross, now));
+		}
+	}
+
+	private long getNet(long gross) {
+		return tared ? gross - tareMicrograms : gross;
+	}
+
+	/**
+	 * @param data		The data before the status bytes, or null if there is none.
+	 * @param status	The status bytes.
+	 */
+	private static byte[] frame(String data, byte[] status) {
+		byte[] dataBytes = data == null ? new byte[0] : data.getBytes(ASCII);
+		int dataLength = data == null ? 0 : dataBytes.length + 2;
+		byte[] frame = new byte[dataLength + status.length + 3];
+		int i = 0;
+		if (data != null) {
+			frame[i++] = LF;
+			System.arraycopy(dataBytes, 0, frame, i, dataBytes.length);
+			i += dataBytes.length;
+			frame[i++] = CR;
+		}
+		frame[i++] = LF;
+		System.arraycopy(status, 0, frame, i, status.length);
+		i += status.length;
+		frame[i++] = CR;
+		frame[i] = ETX;
+		return frame;
+	}
+
+	private String formatWeight(long micrograms, int decimals) {
+		Units units = unitsCycle[unitsIndex];
+		if (units == Units.LBS_OZ) {
+			// The sign is shown once, on the pounds, even when there are none.
+			return String.format(Locale.US, "%s%dlb %." + decimals + "foz", micrograms < 0 ? "-" : "",
+					Math.abs(Weight.getLbsPart(micrograms)), Math.abs(Weight.getOzPart(micrograms)));
+		}
+		return String.format(Locale.US, "%." + decimals + "f%s", units.fromMicrograms(micrograms), getLabel(units));
+	}
+
+	private static String getLabel(Units units) {
+		switch (units) {
+		case KG:
+			return "kg";
+		case G:
+			return "g";
+		case OZ:
+			return "oz";
+		case LBS:
+		case LBS_OZ:
+		default:
+			return "lb";
+		}
+	}
+
+	/**
+	 * The three status bytes for a reading. The scale is at zero within a
+	 * quarter of a displayed division, and under capacity more than 20
+	 * divisions below zero.
+	 */
+	private byte[] status(long gross, long nanoTime) {
+		Units units = unitsCycle[unitsIndex];
+		long division = (units == Units.LBS_OZ ? Units.OZ : units).toMicrograms(Math.pow(10, -decimals));
+		boolean inMotion = load.isInMotion(nanoTime);
+		boolean atZero = Math.abs(gross) * 4 < division;
+		boolean underCapacity = gross < -20 * division;
+		boolean overCapacity = gross > capacityMicrograms;
+		return new byte[] {
+				statusByte((inMotion ? 1 << 0 : 0) | (atZero ? 1 << 1 : 0)),
+				statusByte((underCapacity ? 1 << 0 : 0) | (overCapacity ? 1 << 1 : 0) | STATUS_FOLLOWS),
+				statusByte(tared ? 1 << 2 : 0)};
+	}
+
+	/**
+	 * Adds the bits every status byte carries and the bit for even parity.
+	 */
+	static byte statusByte(int bits) {
+		int b = bits | STATUS_ALWAYS;
+		if (Integer.bitCount(b) % 2 != 0) b |= STATUS_PARITY;
+		return (byte) b;
+	}
+}
@@ -0,0 +1,69 @@
+package com.jackflashtech.nci.emulator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link LoadModel} of items placed on and taken off the platter. After each
+ * change the reading approaches the new weight exponentially, as a platter's
+ * mechanics settle, and is in motion until it is within the motion band of
+ * the new weight. Gaussian noise is added to every sample.
+ */
+public class SettlingLoad implements LoadModel {
+	private final long settleNanos;
+	private final long noiseMicrograms;
+	private final long motionBandMicrograms;
+	private final Random random;
+	private long startMicrograms;
+	private long targetMicrograms;
+	private long changeNanoTime;
+
+	/**
+	 * Creates an empty platter.
+	 *
+	 * @param settleMillis			The time constant of the settling, in milliseconds; 0 for an instant change.
+	 * @param noiseMicrograms		The standard deviation of the noise, in micrograms.
+	 * @param motionBandMicrograms	How far from the new weight a reading is still in motion, in micrograms.
+	 * @param seed					The seed of the noise, so runs can be repeated.
+	 */
+	public SettlingLoad(long settleMillis, long noiseMicrograms, long motionBandMicrograms, long seed) {
+		this.settleNanos = TimeUnit.MILLISECONDS.toNanos(settleMillis);
+		this.noiseMicrograms = noiseMicrograms;
+		this.motionBandMicrograms = motionBandMicrograms;
+		this.random = new Random(seed);
+		this.changeNanoTime = System.nanoTime();
+	}
+
+	/**
+	 * Changes the load on the platter, starting a new period of motion from
+	 * wherever the reading is now.
+	 *
+	 * @param micrograms	The new gross weight, in micrograms.
+	 */
+	public synchronized void place(long micrograms) {
+		long now = System.nanoTime();
+		this.startMicrograms = targetMicrograms + getTransient(now);
+		this.targetMicrograms = micrograms;
+		this.changeNanoTime = now;
+	}
+
+	@Override
+	public synchronized long getMicrograms(long nanoTime) {
+		long noise = noiseMicrograms == 0 ? 0 : Math.round(random.nextGaussian() * noiseMicrograms);
+		return targetMicrograms + getTransient(nanoTime) + noise;
+	}
+
+	@Override
+	public synchronized boolean isInMotion(long nanoTime) {
+		return Math.abs(getTransient(nanoTime)) > motionBandMicrograms;
+	}
+
+	/**
+	 * The part of the reading that has not yet settled.
+	 */
+	private long getTransient(long nanoTime) {
+		if (settleNanos == 0) return 0;
+		double elapsed = Math.max(0, nanoTime - changeNanoTime);
+		return Math.round((startMicrograms - targetMicrograms) * Math.exp(-elapsed / settleNanos));
+	}
+}
@@ -0,0 +1,11 @@
+/**
+ * This package contains an emulator of the device side of the NCI protocol,
+ * for testing the driver without scales attached. Each
+ * {@link com.jackflashtech.nci.emulator.NCIScaleEmulator} can be connected to
+ * an {@link com.jackflashtech.nci.impl.NCIDeviceRxtx} in the same process, or
+ * served over a pseudo-terminal to a driver in another process, and hundreds
+ * can run at once on a developer's machine. A
+ * {@link com.jackflashtech.nci.emulator.FaultInjectingTransport} between the
+ * two adds the latency and corruption of a noisy serial line.
+ */
+package com.jackflashtech.nci.emulator;
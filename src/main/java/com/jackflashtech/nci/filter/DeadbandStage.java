@@ -0,0 +1,37 @@
+package com.jackflashtech.nci.filter;
+
+/**
+ * Passes a reading only if its weight has moved more than the deadband from
+ * the last reading passed, or its status has changed, so a weight wandering
+ * within a few divisions is reported once.
+ */
+public class DeadbandStage implements FilterStage {
+	private final long deadbandMicrograms;
+	private boolean passed = false;
+	private long lastMicrograms;
+	private int lastStatusBits;
+
+	/**
+	 * @param deadbandMicrograms	How far the weight must move to be passed again.
+	 */
+	public DeadbandStage(long deadbandMicrograms) {
+		if (deadbandMicrograms < 0) throw new IllegalArgumentException("The deadband must not be negative.");
+		this.deadbandMicrograms = deadbandMicrograms;
+	}
+
+	@Override
+	public boolean process(Sample sample) {
+		long micrograms = sample.getMicrograms();
+		int statusBits = sample.getStatusBits();
+		if (passed && Math.abs(micrograms - lastMicrograms) <= deadbandMicrograms && statusBits == lastStatusBits) return false;
+		passed = true;
+		lastMicrograms = micrograms;
+		lastStatusBits = statusBits;
+		return true;
+	}
+
+	@Override
+	public void reset() {
+		passed = false;
+	}
+}
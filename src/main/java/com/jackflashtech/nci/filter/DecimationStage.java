@@ -0,0 +1,31 @@
+package com.jackflashtech.nci.filter;
+
+/**
+ * Passes one reading in every few, starting with the first. Placed after a
+ * median, it lowers the rate of readings without the aliasing of simply
+ * polling slower.
+ */
+public class DecimationStage implements FilterStage {
+	private final int factor;
+	private int count = 0;
+
+	/**
+	 * @param factor	Pass one reading in this many.
+	 */
+	public DecimationStage(int factor) {
+		if (factor < 1) throw new IllegalArgumentException("The factor must be at least 1.");
+		this.factor = factor;
+	}
+
+	@Override
+	public boolean process(Sample sample) {
+		boolean pass = count == 0;
+		count = (count + 1) % factor;
+		return pass;
+	}
+
+	@Override
+	public void reset() {
+		count = 0;
+	}
+}
@@ -0,0 +1,103 @@
+package com.jackflashtech.nci.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+
+/**
+ * The stages a device's readings pass through, in order, before they are
+ * published. A reading stops at the first stage that drops it. The stages
+ * work on a single reused {@link Sample}; only a reading whose weight a stage
+ * changed needs a new {@link Weight} to publish.
+ *
+ * A pipeline is usually described in "nci.properties" as a comma-separated
+ * list of stages:
+ * <pre>
+ * median:&lt;n&gt;			A moving median over n readings; see {@link MedianStage}.
+ * hampel:&lt;n&gt;:&lt;k&gt;		A Hampel filter over n readings with a threshold of k deviations.
+ * deadband:&lt;grams&gt;		Only changes of more than the deadband; see {@link DeadbandStage}.
+ * decimate:&lt;n&gt;		One reading in n; see {@link DecimationStage}.
+ * statusedge[:&lt;mask&gt;]	Only changes of status; see {@link StatusEdgeStage}.
+ * </pre>
+ * such as "hampel:7:3,deadband:2". A weight in {@link Units#OTHER} cannot be
+ * filtered and is passed through.
+ */
+public class FilterPipeline {
+	private final FilterStage[] stages;
+	private final Sample sample = new Sample();
+
+	public FilterPipeline(FilterStage... stages) {
+		this.stages = stages.clone();
+	}
+
+	/**
+	 * Builds a pipeline from its description.
+	 *
+	 * @param description	The stages, such as "median:5,decimate:4".
+	 * @return	The pipeline.
+	 * @throws NCIException	Thrown if a stage is unknown or its arguments are not valid.
+	 */
+	public static FilterPipeline parse(String description) throws NCIException {
+		List<FilterStage> stages = new ArrayList<FilterStage>();
+		for (String stage : description.split(",")) {
+			String[] parts = stage.trim().split(":");
+			String name = parts[0].trim().toLowerCase();
+			try {
+				if (name.equals("median") && parts.length == 2) {
+					stages.add(new MedianStage(Integer.parseInt(parts[1].trim()), 0));
+				} else if (name.equals("hampel") && parts.length == 3) {
+					stages.add(new MedianStage(Integer.parseInt(parts[1].trim()), Double.parseDouble(parts[2].trim())));
+				} else if (name.equals("deadband") && parts.length == 2) {
+					stages.add(new DeadbandStage(Units.G.toMicrograms(Double.parseDouble(parts[1].trim()))));
+				} else if (name.equals("decimate") && parts.length == 2) {
+					stages.add(new DecimationStage(Integer.parseInt(parts[1].trim())));
+				} else if (name.equals("statusedge") && parts.length == 1) {
+					stages.add(new StatusEdgeStage());
+				} else if (name.equals("statusedge") && parts.length == 2) {
+					stages.add(new StatusEdgeStage(Integer.decode(parts[1].trim())));
+				} else {
+					throw new NCIException("Unknown filter stage '" + stage.trim() + "' in '" + description + "'.");
+				}
+			} catch (IllegalArgumentException e) {
+				throw new NCIException("The filter stage '" + stage.trim() + "' is not valid: " + e.getMessage(), e);
+			}
+		}
+		return new FilterPipeline(stages.toArray(new FilterStage[stages.size()]));
+	}
+
+	/**
+	 * Runs a reading through the stages.
+	 *
+	 * @param weight	The weight read.
+	 * @param status	The status read with it, or null if there was none.
+	 * @param nanoTime	When it was read, from {@link System#nanoTime()}.
+	 * @return	The weight to publish, which is the same object unless a stage changed it, or null if the reading was dropped.
+	 */
+	public synchronized Weight filter(Weight weight, Status status, long nanoTime) {
+		if (weight.getUnits() == Units.OTHER) return weight;
+		long micrograms = weight.getMicrograms();
+		sample.set(micrograms, status == null ? 0 : status.getBits(), nanoTime);
+		for (FilterStage stage : stages) {
+			if (!stage.process(sample)) return null;
+		}
+		long filtered = sample.getMicrograms();
+		if (filtered == micrograms) return weight;
+		Units units = weight.getUnits();
+		if (units == Units.LBS_OZ) return new Weight(Weight.getLbsPart(filtered), Weight.getOzPart(filtered));
+		return new Weight(units.fromMicrograms(filtered), units);
+	}
+
+	/**
+	 * Forgets every reading seen so far, such as after the device was
+	 * reconnected.
+	 */
+	public synchronized void reset() {
+		for (FilterStage stage : stages) {
+			stage.reset();
+		}
+	}
+}
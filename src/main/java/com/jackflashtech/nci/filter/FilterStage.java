@@ -0,0 +1,21 @@
+package com.jackflashtech.nci.filter;
+
+/**
+ * One step of a {@link FilterPipeline}. A stage keeps whatever state it
+ * needs between readings in fields allocated when it is created, and is only
+ * called by one thread at a time.
+ */
+public interface FilterStage {
+	/**
+	 * Filters a reading, possibly changing its weight.
+	 *
+	 * @param sample	The reading, as left by the stages before this one.
+	 * @return	Whether the reading should go on to the next stage.
+	 */
+	boolean process(Sample sample);
+
+	/**
+	 * Forgets every reading seen so far.
+	 */
+	void reset();
+}
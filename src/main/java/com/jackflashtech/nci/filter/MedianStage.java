@@ -0,0 +1,83 @@
+package com.jackflashtech.nci.filter;
+
+/**
+ * A moving median over the last few readings, or a Hampel filter built on
+ * it. As a moving median, every weight is replaced by the median of the
+ * window, which removes single spikes at the cost of half a window of delay.
+ * As a Hampel filter, a weight is replaced by the median only if it is
+ * further from it than the threshold times the scaled median absolute
+ * deviation of the window; other weights pass unchanged and undelayed.
+ *
+ * The window is sorted by insertion into a second array, which is quick for
+ * the small windows this is meant for.
+ */
+public class MedianStage implements FilterStage {
+	/**
+	 * Scales the median absolute deviation to the standard deviation of
+	 * normally distributed noise.
+	 */
+	private static final double MAD_SCALE = 1.4826;
+
+	private final long[] window;
+	private final long[] sorted;
+	private final double threshold;
+	private int count = 0;
+	private int next = 0;
+
+	/**
+	 * @param size		The number of readings in the window.
+	 * @param threshold	The deviations from the median beyond which a weight is an outlier, or 0 for a moving median.
+	 */
+	public MedianStage(int size, double threshold) {
+		if (size < 1) throw new IllegalArgumentException("The window must hold at least one reading.");
+		if (threshold < 0 || Double.isNaN(threshold)) throw new IllegalArgumentException("The threshold must not be negative.");
+		this.window = new long[size];
+		this.sorted = new long[size];
+		this.threshold = threshold;
+	}
+
+	@Override
+	public boolean process(Sample sample) {
+		long micrograms = sample.getMicrograms();
+		window[next] = micrograms;
+		next = (next + 1) % window.length;
+		if (count < window.length) count++;
+
+		System.arraycopy(window, 0, sorted, 0, count);
+		long median = median();
+		if (threshold == 0) {
+			sample.setMicrograms(median);
+			return true;
+		}
+		for (int i = 0; i < count; i++) {
+			sorted[i] = Math.abs(window[i] - median);
+		}
+		long deviation = median();
+		if (Math.abs(micrograms - median) > threshold * MAD_SCALE * deviation) sample.setMicrograms(median);
+		return true;
+	}
+
+	/**
+	 * Sorts the first count entries of the sorted array and returns their median.
+	 */
+	private long median() {
+		for (int i = 1; i < count; i++) {
+			long value = sorted[i];
+			int j = i - 1;
+			while (j >= 0 && sorted[j] > value) {
+				sorted[j + 1] = sorted[j];
+				j--;
+			}
+			sorted[j + 1] = value;
+		}
+		int middle = count / 2;
+		if (count % 2 == 1) return sorted[middle];
+		return sorted[middle - 1] + (sorted[middle] - sorted[middle - 1]) / 2;
+	}
+
+	@Override
+	public void reset() {
+		count = 0;
+		next = 0;
+	}
+}
@@ -0,0 +1,44 @@
+package com.jackflashtech.nci.filter;
+
+/**
+ * The reading a {@link FilterPipeline} passes from stage to stage. One
+ * instance is reused for every reading, so the stages allocate nothing.
+ */
+public final class Sample {
+	private long micrograms;
+	private int statusBits;
+	private long nanoTime;
+
+	void set(long micrograms, int statusBits, long nanoTime) {
+		this.micrograms = micrograms;
+		this.statusBits = statusBits;
+		this.nanoTime = nanoTime;
+	}
+
+	public long getMicrograms() {
+		return micrograms;
+	}
+
+	/**
+	 * Replaces the weight passed to the later stages and the listeners.
+	 *
+	 * @param micrograms	The new weight, in micrograms.
+	 */
+	public void setMicrograms(long micrograms) {
+		this.micrograms = micrograms;
+	}
+
+	/**
+	 * @return	The status in the form of {@link com.jackflashtech.nci.data.Status#getBits()}, or 0 if the reading had none.
+	 */
+	public int getStatusBits() {
+		return statusBits;
+	}
+
+	/**
+	 * @return	When the reading was taken, from {@link System#nanoTime()}.
+	 */
+	public long getNanoTime() {
+		return nanoTime;
+	}
+}
@@ -0,0 +1,294 @@
+package com.jackflashtech.nci.filter;
+
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+
+/**
+ * Predicts the weight a moving scale will settle at, with a confidence bound,
+ * from the readings taken while it is still in motion. A platter settling
+ * after a load is placed rings down as a damped oscillation, or, if heavily
+ * damped, as a plain exponential; either way the readings approach the final
+ * weight W in a way that evenly spaced samples describe with a linear
+ * recurrence:
+ * <pre>
+ * x[n] - W = a1 (x[n-1] - W) + a2 (x[n-2] - W)	(a damped oscillation)
+ * x[n] - W = a (x[n-1] - W)						(an exponential)
+ * </pre>
+ * Each is fitted to the window of recent samples by least squares, with W
+ * recovered from the fitted constant, and the one with the tighter bound is
+ * reported. A fit whose recurrence does not decay is not a settling platter
+ * and gives no estimate. The bound is about two standard errors of W, from
+ * the scatter of the fit carried through to W, so the final weight lies
+ * within it about 95% of the time when the model holds.
+ *
+ * The recurrences assume the samples are evenly spaced, as polls at a fixed
+ * rate or the metrology stream are. A gap of more than twice the usual
+ * spacing, such as a missed poll, starts the window again, as does motion
+ * starting after the scale was still, which is a new load. Once the scale
+ * reports that it is still, the estimate is simply the reading, with no
+ * bound.
+ *
+ * The window is kept in primitive arrays allocated once, and the fits are
+ * solved in closed form, so each sample costs a few hundred arithmetic
+ * operations and no garbage.
+ */
+public class SettleEstimator {
+	/**
+	 * The standard errors in the bound.
+	 */
+	static final double CONFIDENCE = 2;
+	/**
+	 * How much larger than the usual spacing a gap between samples may be
+	 * before the window starts again.
+	 */
+	private static final double MAX_GAP = 2;
+	/**
+	 * Below this, relative to its diagonal, the determinant of a fit's normal
+	 * equations is taken to be singular, as it is for the oscillating fit to
+	 * a plain exponential.
+	 */
+	private static final double SINGULAR = 1e-9;
+	public static final int DEFAULT_WINDOW = 16;
+
+	private final double[] window;
+	private int count = 0;
+	private int next = 0;
+	private long lastNanoTime;
+	private double meanSpacingNanos;
+	private boolean inMotion = false;
+	private boolean available = false;
+	private long estimateMicrograms;
+	private long boundMicrograms;
+	private int order;
+
+	public SettleEstimator() {
+		this(DEFAULT_WINDOW);
+	}
+
+	/**
+	 * @param size	The number of recent samples fitted, at least 6.
+	 */
+	public SettleEstimator(int size) {
+		if (size < 6) throw new IllegalArgumentException("The window must hold at least 6 samples, not " + size + ".");
+		this.window = new double[size];
+	}
+
+	/**
+	 * Adds a polled reading.
+	 *
+	 * @return	Whether there is an estimate.
+	 */
+	public boolean add(Weight weight, Status status, long nanoTime) {
+		if (weight == null || status == null || weight.getUnits() == Units.OTHER) return available;
+		return add(weight.getMicrograms(), status.isInMotion(), nanoTime);
+	}
+
+	/**
+	 * Adds a sample and fits the window again.
+	 *
+	 * @param micrograms	The weight read.
+	 * @param inMotion		Whether the scale reported motion.
+	 * @param nanoTime		When it was read, from {@link System#nanoTime()}.
+	 * @return	Whether there is an estimate.
+	 */
+	public boolean add(long micrograms, boolean inMotion, long nanoTime) {
+		if (!inMotion) {
+			this.inMotion = false;
+			count = 0;
+			available = true;
+			estimateMicrograms = micrograms;
+			boundMicrograms = 0;
+			order = 0;
+			return true;
+		}
+		if (!this.inMotion) {
+			// Motion after stillness is a new load; what came before says nothing about it.
+			this.inMotion = true;
+			count = 0;
+		}
+		if (count > 0) {
+			long spacing = nanoTime - lastNanoTime;
+			if (count > 1 && spacing > MAX_GAP * meanSpacingNanos) {
+				count = 0;
+			} else if (count == 1) {
+				meanSpacingNanos = spacing;
+			} else {
+				meanSpacingNanos += (spacing - meanSpacingNanos) / count;
+			}
+		}
+		if (count == 0) next = 0;
+		lastNanoTime = nanoTime;
+		window[next] = micrograms;
+		next = (next + 1) % window.length;
+		if (count < window.length) count++;
+		available = fit();
+		return available;
+	}
+
+	/**
+	 * Forgets every sample, such as when the item on the platter is taken
+	 * off.
+	 */
+	public void reset() {
+		count = 0;
+		next = 0;
+		inMotion = false;
+		available = false;
+	}
+
+	/**
+	 * @return	Whether there is an estimate: the scale is still, or enough samples of its motion fit a settling platter.
+	 */
+	public boolean isAvailable() {
+		return available;
+	}
+
+	/**
+	 * @return	The predicted final weight, in micrograms, if {@link #isAvailable()}.
+	 */
+	public long getEstimateMicrograms() {
+		return estimateMicrograms;
+	}
+
+	/**
+	 * @return	How far the final weight may be from the estimate, in micrograms; 0 once the scale is still.
+	 */
+	public long getBoundMicrograms() {
+		return boundMicrograms;
+	}
+
+	/**
+	 * @return	Whether the estimate is within the given distance of the final weight, with the confidence of the bound.
+	 */
+	public boolean isWithin(long toleranceMicrograms) {
+		return available && boundMicrograms <= toleranceMicrograms;
+	}
+
+	/**
+	 * @return	The order of the recurrence of the estimate: 2 for an oscillation, 1 for an exponential, or 0 if the scale is still.
+	 */
+	public int getOrder() {
+		return order;
+	}
+
+	/**
+	 * @return	The sample the given number of places back from the newest.
+	 */
+	private double sample(int age) {
+		int index = next - 1 - age;
+		if (index < 0) index += window.length;
+		return window[index];
+	}
+
+	/**
+	 * Fits both recurrences and keeps the estimate with the tighter bound.
+	 */
+	private boolean fit() {
+		double reference = sample(0);
+		double best = Double.POSITIVE_INFINITY;
+		double bestEstimate = 0;
+		int bestOrder = 0;
+		double[] second = fitSecondOrder(reference);
+		if (second != null && second[1] < best) {
+			best = second[1];
+			bestEstimate = second[0];
+			bestOrder = 2;
+		}
+		double[] first = fitFirstOrder(reference);
+		if (first != null && first[1] < best) {
+			best = first[1];
+			bestEstimate = first[0];
+			bestOrder = 1;
+		}
+		if (bestOrder == 0) return false;
+		estimateMicrograms = Math.round(reference + bestEstimate);
+		boundMicrograms = (long) Math.ceil(CONFIDENCE * best);
+		order = bestOrder;
+		return true;
+	}
+
+	/**
+	 * Fits x[n] = c + a1 x[n-1] + a2 x[n-2].
+	 *
+	 * @return	The final weight relative to the reference and its standard error, or null if there is no decaying fit.
+	 */
+	private double[] fitSecondOrder(double reference) {
+		int rows = count - 2;
+		if (rows - 3 < 2) return null;
+		// The normal equations, over the regressors 1, x[n-1] and x[n-2].
+		double s1 = 0, s2 = 0, s11 = 0, s12 = 0, s22 = 0, sy = 0, s1y = 0, s2y = 0, syy = 0;
+		for (int age = 0; age < rows; age++) {
+			double y = sample(age) - reference;
+			double x1 = sample(age + 1) - reference;
+			double x2 = sample(age + 2) - reference;
+			s1 += x1;
+			s2 += x2;
+			s11 += x1 * x1;
+			s12 += x1 * x2;
+			s22 += x2 * x2;
+			sy += y;
+			s1y += x1 * y;
+			s2y += x2 * y;
+			syy += y * y;
+		}
+		double n = rows;
+		// The inverse of the symmetric matrix [[n, s1, s2], [s1, s11, s12], [s2, s12, s22]] by cofactors.
+		double c00 = s11 * s22 - s12 * s12;
+		double c01 = s2 * s12 - s1 * s22;
+		double c02 = s1 * s12 - s2 * s11;
+		double c11 = n * s22 - s2 * s2;
+		double c12 = s1 * s2 - n * s12;
+		double c22 = n * s11 - s1 * s1;
+		double determinant = n * c00 + s1 * c01 + s2 * c02;
+		if (!(Math.abs(determinant) > SINGULAR * n * s11 * s22)) return null;
+		double c = (c00 * sy + c01 * s1y + c02 * s2y) / determinant;
+		double a1 = (c01 * sy + c11 * s1y + c12 * s2y) / determinant;
+		double a2 = (c02 * sy + c12 * s1y + c22 * s2y) / determinant;
+		// Both roots of z^2 - a1 z - a2 inside the unit circle: the recurrence decays.
+		if (!(Math.abs(a2) < 1 && Math.abs(a1) < 1 - a2)) return null;
+		double residual = syy - c * sy - a1 * s1y - a2 * s2y;
+		double variance = Math.max(0, residual) / (rows - 3);
+		double remaining = 1 - a1 - a2;
+		double w = c / remaining;
+		// The delta method: the gradient of W = c / (1 - a1 - a2) through the covariance of the fit.
+		double gc = 1 / remaining;
+		double ga = c / (remaining * remaining);
+		double quadratic = gc * gc * c00 + ga * ga * (c11 + c22 + 2 * c12) + 2 * gc * ga * (c01 + c02);
+		return new double[] {w, Math.sqrt(Math.max(0, variance * quadratic / determinant))};
+	}
+
+	/**
+	 * Fits x[n] = c + a x[n-1].
+	 *
+	 * @return	The final weight relative to the reference and its standard error, or null if there is no decaying fit.
+	 */
+	private double[] fitFirstOrder(double reference) {
+		int rows = count - 1;
+		if (rows - 2 < 2) return null;
+		double s1 = 0, s11 = 0, sy = 0, s1y = 0, syy = 0;
+		for (int age = 0; age < rows; age++) {
+			double y = sample(age) - reference;
+			double x1 = sample(age + 1) - reference;
+			s1 += x1;
+			s11 += x1 * x1;
+			sy += y;
+			s1y += x1 * y;
+			syy += y * y;
+		}
+		double n = rows;
+		double determinant = n * s11 - s1 * s1;
+		if (!(Math.abs(determinant) > SINGULAR * n * s11)) return null;
+		double c = (s11 * sy - s1 * s1y) / determinant;
+		double a = (n * s1y - s1 * sy) / determinant;
+		if (!(Math.abs(a) < 1)) return null;
+		double residual = syy - c * sy - a * s1y;
+		double variance = Math.max(0, residual) / (rows - 2);
+		double remaining = 1 - a;
+		double w = c / remaining;
+		double gc = 1 / remaining;
+		double ga = c / (remaining * remaining);
+		double quadratic = gc * gc * s11 - 2 * gc * ga * s1 + ga * ga * n;
+		return new double[] {w, Math.sqrt(Math.max(0, variance * quadratic / determinant))};
+	}
+}
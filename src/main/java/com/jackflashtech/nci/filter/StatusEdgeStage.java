@@ -0,0 +1,40 @@
+package com.jackflashtech.nci.filter;
+
+/**
+ * Passes a reading only when its status differs from the reading before it
+ * in one of the watched bits, such as the scale settling or going over
+ * capacity, and always passes the first. The weight is not looked at.
+ */
+public class StatusEdgeStage implements FilterStage {
+	private final int mask;
+	private boolean seen = false;
+	private int lastStatusBits;
+
+	/**
+	 * @param mask	The bits of {@link com.jackflashtech.nci.data.Status#getBits()} to watch.
+	 */
+	public StatusEdgeStage(int mask) {
+		this.mask = mask;
+	}
+
+	/**
+	 * Watches every bit of the status.
+	 */
+	public StatusEdgeStage() {
+		this(~0);
+	}
+
+	@Override
+	public boolean process(Sample sample) {
+		int statusBits = sample.getStatusBits();
+		boolean pass = !seen || ((statusBits ^ lastStatusBits) & mask) != 0;
+		seen = true;
+		lastStatusBits = statusBits;
+		return pass;
+	}
+
+	@Override
+	public void reset() {
+		seen = false;
+	}
+}
@@ -0,0 +1,11 @@
+/**
+ * This package contains the filters applied to a device's polled readings
+ * before they reach the listeners, to keep the jitter of a vibrating scale
+ * from flooding them. A {@link com.jackflashtech.nci.filter.FilterPipeline}
+ * runs its stages in order over each reading, working on primitive state
+ * allocated once, and any stage may drop the reading or adjust its weight.
+ * A {@link com.jackflashtech.nci.filter.SettleEstimator} instead predicts the
+ * weight a scale still in motion will settle at, so it can be acted on before
+ * the scale is still.
+ */
+package com.jackflashtech.nci.filter;
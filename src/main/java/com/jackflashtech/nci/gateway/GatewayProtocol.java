@@ -0,0 +1,75 @@
+package com.jackflashtech.nci.gateway;
+
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+
+/**
+ * The encoding of the payloads in the gateway's line protocol, shared by the
+ * server and the client. See {@link NCIGatewayServer} for the protocol.
+ */
+class GatewayProtocol {
+	static final String OK = "OK";
+	static final String ERR = "ERR";
+	static final String EVENT = "*";
+	static final String EVENT_WEIGHT = "W";
+	static final String EVENT_ERROR = "E";
+	static final String SUBSCRIBE = "SUB";
+	static final String UNSUBSCRIBE = "UNSUB";
+	/**
+	 * Written in place of a status that is not known.
+	 */
+	static final String NO_STATUS = "-";
+
+	private GatewayProtocol() {
+	}
+
+	/**
+	 * @return	"&lt;units&gt; &lt;value&gt; &lt;micrograms&gt; &lt;status&gt;", where the value is "&lt;lbs&gt;:&lt;oz&gt;" in {@link Units#LBS_OZ}.
+	 */
+	static String formatWeight(Weight weight, Status status) throws NCIException {
+		String value = weight.isLbsOz() ? weight.getLbs() + ":" + weight.getOz() : Double.toString(weight.getWeight());
+		return weight.getUnits() + " " + value + " " + weight.getMicrograms() + " " + formatStatus(status);
+	}
+
+	static String formatStatus(Status status) {
+		return status == null ? NO_STATUS : Integer.toString(status.getBits());
+	}
+
+	/**
+	 * Parses a weight formatted by {@link #formatWeight(Weight, Status)},
+	 * starting at the given token.
+	 */
+	static Weight parseWeight(String[] tokens, int start) throws NCIException {
+		if (tokens.length < start + 2) throw new NCIException("The gateway sent a weight without units or value.");
+		try {
+			Units units = Units.valueOf(tokens[start]);
+			String value = tokens[start + 1];
+			if (units == Units.LBS_OZ) {
+				int separator = value.indexOf(':');
+				return new Weight(Integer.parseInt(value.substring(0, separator)), Double.parseDouble(value.substring(separator + 1)));
+			}
+			return new Weight(Double.parseDouble(value), units);
+		} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+			throw new NCIException("The gateway sent a weight that could not be parsed: " + tokens[start] + " " + tokens[start + 1], e);
+		}
+	}
+
+	static Status parseStatus(String token) throws NCIException {
+		if (token == null || token.equals(NO_STATUS)) return null;
+		try {
+			return Status.fromBits(Integer.parseInt(token));
+		} catch (NumberFormatException e) {
+			throw new NCIException("The gateway sent a status that could not be parsed: " + token, e);
+		}
+	}
+
+	/**
+	 * Makes a message safe to send as the rest of a line.
+	 */
+	static String toLine(String message) {
+		if (message == null) return "";
+		return message.replace('\r', ' ').replace('\n', ' ');
+	}
+}
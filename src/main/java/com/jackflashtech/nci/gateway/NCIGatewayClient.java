@@ -0,0 +1,235 @@
+package com.jackflashtech.nci.gateway;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.NCIPollingListener;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+import com.jackflashtech.nci.impl.NCIPollingScheduler.RateClass;
+
+/**
+ * A client of an {@link NCIGatewayServer} on the same host. The methods block
+ * like those of {@link com.jackflashtech.nci.NCIDevice}, and may be called from
+ * several threads at once. Events for subscribed devices are delivered to the
+ * {@link NCIPollingListener}s on the client's reader thread, so listeners
+ * should return quickly.
+ */
+public class NCIGatewayClient {
+	/**
+	 * How long to wait for a reply. The gateway may have to wait for the
+	 * device to finish another command before sending this one.
+	 */
+	private static final long TIMEOUT = 10000;
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private final Socket socket;
+	private final OutputStream out;
+	private final Thread reader;
+	private final AtomicLong nextId = new AtomicLong();
+	private final Map<String, BlockingQueue<String[]>> pending = new ConcurrentHashMap<String, BlockingQueue<String[]>>();
+	private final CopyOnWriteArrayList<NCIPollingListener> listeners = new CopyOnWriteArrayList<NCIPollingListener>();
+	private volatile boolean closed = false;
+
+	/**
+	 * Connects to a gateway on {@link NCIGatewayServer#DEFAULT_PORT}.
+	 *
+	 * @throws NCIException	Thrown if the gateway cannot be reached.
+	 */
+	public NCIGatewayClient() throws NCIException {
+		this(NCIGatewayServer.DEFAULT_PORT);
+	}
+
+	/**
+	 * Connects to a gateway on this host.
+	 *
+	 * @param port	The port the gateway listens on.
+	 * @throws NCIException	Thrown if the gateway cannot be reached.
+	 */
+	public NCIGatewayClient(int port) throws NCIException {
+		try {
+			this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+			this.socket.setTcpNoDelay(true);
+			this.out = socket.getOutputStream();
+			final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), ASCII));
+			this.reader = new Thread("NCI gateway client") {
+				@Override
+				public void run() {
+					read(in);
+				}
+			};
+		} catch (IOException e) {
+			throw new NCIException("Exception connecting to the gateway on port " + port + ".", e);
+		}
+		this.reader.setDaemon(true);
+		this.reader.start();
+	}
+
+	public void addPollingListener(NCIPollingListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removePollingListener(NCIPollingListener listener) {
+		listeners.remove(listener);
+	}
+
+	public Weight getWeight(String device) throws NCIException {
+		return GatewayProtocol.parseWeight(request("W", device, null), 2);
+	}
+
+	public Weight getHighResolutionWeight(String device) throws NCIException {
+		return GatewayProtocol.parseWeight(request("H", device, null), 2);
+	}
+
+	public Status requestStatus(String device) throws NCIException {
+		return GatewayProtocol.parseStatus(getPayload(request("S", device, null)));
+	}
+
+	public Units changeUnitsOfMeasure(String device) throws NCIException {
+		String units = getPayload(request("U", device, null));
+		try {
+			return Units.valueOf(units);
+		} catch (IllegalArgumentException | NullPointerException e) {
+			throw new NCIException("The gateway sent units that could not be parsed: " + units, e);
+		}
+	}
+
+	/**
+	 * @return	The status of the device after the tare.
+	 */
+	public Status tare(String device) throws NCIException {
+		return GatewayProtocol.parseStatus(getPayload(request("T", device, null)));
+	}
+
+	/**
+	 * @return	The status of the device after zeroing.
+	 */
+	public Status zero(String device) throws NCIException {
+		return GatewayProtocol.parseStatus(getPayload(request("Z", device, null)));
+	}
+
+	/**
+	 * Asks for the device's weight to be sent to this client's listeners each
+	 * time the gateway polls it.
+	 *
+	 * @param device	The name of the device.
+	 * @param rate		The rate to poll at. The gateway may poll faster for another client.
+	 * @throws NCIException	Thrown if the device cannot be opened.
+	 */
+	public void subscribe(String device, RateClass rate) throws NCIException {
+		request(GatewayProtocol.SUBSCRIBE, device, rate.name());
+	}
+
+	public void unsubscribe(String device) throws NCIException {
+		request(GatewayProtocol.UNSUBSCRIBE, device, null);
+	}
+
+	/**
+	 * Disconnects from the gateway, which drops this client's subscriptions.
+	 */
+	public void close() {
+		closed = true;
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// The connection is being dropped either way.
+		}
+	}
+
+	private static String getPayload(String[] reply) {
+		return reply.length > 2 ? reply[2] : null;
+	}
+
+	/**
+	 * @return	The tokens of an OK reply, starting with the id.
+	 */
+	private String[] request(String command, String device, String argument) throws NCIException {
+		if (device.isEmpty() || device.matches(".*\\s.*")) throw new NCIException("Invalid device name: '" + device + "'.");
+		String id = Long.toString(nextId.incrementAndGet());
+		BlockingQueue<String[]> reply = new ArrayBlockingQueue<String[]>(1);
+		pending.put(id, reply);
+		try {
+			String line = id + " " + command + " " + device + (argument == null ? "" : " " + argument) + "\n";
+			synchronized (out) {
+				out.write(line.getBytes(ASCII));
+				out.flush();
+			}
+			String[] tokens = reply.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+			if (tokens == null) {
+				if (closed) throw new NCIException("The connection to the gateway is closed.");
+				throw new NCIException("The gateway did not reply within " + TIMEOUT + " ms.");
+			}
+			if (tokens.length < 2) throw new NCIException("The connection to the gateway is closed.");
+			if (tokens[1].equals(GatewayProtocol.ERR)) throw new NCIException(tokens.length > 2 ? tokens[2] : "The gateway reported an error.");
+			return tokens;
+		} catch (IOException e) {
+			throw new NCIException("Exception sending to the gateway.", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NCIException("Interrupted while waiting for the gateway.", e);
+		} finally {
+			pending.remove(id);
+		}
+	}
+
+	private void read(BufferedReader in) {
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith(GatewayProtocol.EVENT + " ")) {
+					event(line);
+					continue;
+				}
+				String[] tokens = line.split(" ", 3);
+				if (tokens.length < 2 || tokens[0].equals("-")) continue;
+				BlockingQueue<String[]> reply = pending.get(tokens[0]);
+				if (reply != null) reply.offer(tokens[1].equals(GatewayProtocol.OK) ? line.split(" ") : tokens);
+			}
+		} catch (IOException e) {
+			// Treated the same as the gateway closing the connection.
+		}
+		closed = true;
+		for (BlockingQueue<String[]> reply : pending.values()) {
+			reply.offer(new String[0]);
+		}
+	}
+
+	private void event(String line) {
+		String[] tokens = line.split(" ", 4);
+		if (tokens.length < 4) return;
+		String device = tokens[2];
+		if (tokens[1].equals(GatewayProtocol.EVENT_ERROR)) {
+			NCIException exception = new NCIException(tokens[3]);
+			for (NCIPollingListener listener : listeners) {
+				listener.pollFailed(device, exception);
+			}
+			return;
+		}
+		try {
+			String[] weightTokens = tokens[3].split(" ");
+			Weight weight = GatewayProtocol.parseWeight(weightTokens, 0);
+			Status status = GatewayProtocol.parseStatus(weightTokens.length > 3 ? weightTokens[3] : null);
+			for (NCIPollingListener listener : listeners) {
+				listener.polled(device, weight, status);
+			}
+		} catch (NCIException e) {
+			for (NCIPollingListener listener : listeners) {
+				listener.pollFailed(device, e);
+			}
+		}
+	}
+}
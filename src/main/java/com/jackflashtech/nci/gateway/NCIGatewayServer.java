@@ -0,0 +1,553 @@
+package com.jackflashtech.nci.gateway;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.NCIPollingListener;
+import com.jackflashtech.nci.data.Reading;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+import com.jackflashtech.nci.impl.NCIFactory;
+import com.jackflashtech.nci.impl.NCIPollingScheduler;
+import com.jackflashtech.nci.impl.NCIPollingScheduler.RateClass;
+
+/**
+ * Serves the devices of an {@link NCIFactory} to other processes on the same
+ * host. The server listens on the loopback interface only, and a single thread
+ * multiplexes every connection with a {@link Selector}, so idle clients cost no
+ * threads. Commands that talk to a device block for the length of an exchange,
+ * so they run on a small pool of worker threads and their replies are handed
+ * back to the selector thread to write.
+ *
+ * The protocol is ASCII text, one message per line ending in &lt;LF&gt;:
+ * <pre>
+ * Requests:	&lt;id&gt; &lt;command&gt; &lt;device&gt; [&lt;argument&gt;]
+ * Replies:	&lt;id&gt; OK [&lt;payload&gt;]
+ * 		&lt;id&gt; ERR &lt;message&gt;
+ * Events:	* W &lt;device&gt; &lt;weight&gt;
+ * 		* E &lt;device&gt; &lt;message&gt;
+ *
+ * Command	Payload of the reply
+ * W		&lt;weight&gt;, from {@link NCIDevice#getWeight()}
+ * H		&lt;weight&gt;, from {@link NCIDevice#getHighResolutionWeight()}
+ * S		&lt;status&gt;, from {@link NCIDevice#requestStatus()}
+ * U		&lt;units&gt;, from {@link NCIDevice#changeUnitsOfMeasure()}
+ * T		&lt;status&gt; after {@link NCIDevice#tare()}
+ * Z		&lt;status&gt; after {@link NCIDevice#zero()}
+ * SUB		None. Sends an event for each poll of the device, at the
+ * 		{@link RateClass} given as the argument, or NORMAL.
+ * UNSUB	None. Stops the events for the device.
+ *
+ * &lt;weight&gt;	&lt;units&gt; &lt;value&gt; &lt;micrograms&gt; &lt;status&gt;
+ * &lt;value&gt;	The weight in its units, or &lt;lbs&gt;:&lt;oz&gt; for LBS_OZ.
+ * &lt;status&gt;	The decimal {@link Status#getBits()}, or "-" if unknown.
+ * </pre>
+ *
+ * The id is any token chosen by the client and is only echoed back, so a
+ * client may have several requests outstanding; replies may come back in a
+ * different order than the requests were sent. Subscriptions to a device are
+ * shared: the device is polled once, at the fastest rate any of its current
+ * subscribers asked for, and every subscriber receives the same events. The
+ * rate is worked out again whenever a client subscribes, unsubscribes or
+ * disconnects, so it falls back once the client that asked for it is gone. Events are dropped for a
+ * client that is not reading them rather than buffered without bound, and a
+ * client that keeps sending requests without reading the replies is
+ * disconnected.
+ */
+public class NCIGatewayServer implements NCIPollingListener {
+	/**
+	 * The port the gateway listens on if none is given.
+	 */
+	public static final int DEFAULT_PORT = 4651;
+	/**
+	 * The longest request line accepted; a client that sends a longer one is
+	 * disconnected.
+	 */
+	static final int MAX_LINE_LENGTH = 256;
+	/**
+	 * The most messages waiting to be written to a client before events for it
+	 * are dropped.
+	 */
+	static final int MAX_QUEUED_MESSAGES = 1024;
+	/**
+	 * The most requests a client may have outstanding, counting those whose
+	 * replies are not yet written to it; a client that sends more is
+	 * disconnected.
+	 */
+	static final int MAX_PENDING_REQUESTS = 64;
+	private static final int WORKER_THREADS = 4;
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private final NCIFactory factory;
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final ExecutorService workers;
+	private final NCIPollingScheduler scheduler;
+	private final Thread selectorThread;
+	private final Map<String, NCIDevice> devices = new HashMap<String, NCIDevice>();
+	private final Map<String, Set<Connection>> subscribers = new HashMap<String, Set<Connection>>();
+	private final Map<String, RateClass> subscribedRates = new HashMap<String, RateClass>();
+	private final ConcurrentLinkedQueue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+	private volatile boolean running = true;
+	private volatile IOException failure;
+
+	/**
+	 * Starts a gateway on {@link #DEFAULT_PORT}.
+	 *
+	 * @param factory	The factory the served devices are opened from.
+	 * @throws NCIException	Thrown if the port cannot be bound.
+	 */
+	public NCIGatewayServer(NCIFactory factory) throws NCIException {
+		this(factory, DEFAULT_PORT);
+	}
+
+	/**
+	 * Starts a gateway on the loopback interface.
+	 *
+	 * @param factory	The factory the served devices are opened from.
+	 * @param port		The port to listen on, or 0 for any free port; see {@link #getPort()}.
+	 * @throws NCIException	Thrown if the port cannot be bound.
+	 */
+	public NCIGatewayServer(NCIFactory factory, int port) throws NCIException {
+		this.factory = factory;
+		try {
+			this.selector = Selector.open();
+			this.serverChannel = ServerSocketChannel.open();
+			this.serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+			this.serverChannel.configureBlocking(false);
+			this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			throw new NCIException("Exception starting the gateway on port " + port + ".", e);
+		}
+		this.workers = Executors.newFixedThreadPool(WORKER_THREADS, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "NCI gateway worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.scheduler = new NCIPollingScheduler(WORKER_THREADS);
+		this.scheduler.addPollingListener(this);
+		this.selectorThread = new Thread("NCI gateway") {
+			@Override
+			public void run() {
+				select();
+			}
+		};
+		this.selectorThread.setDaemon(true);
+		this.selectorThread.start();
+	}
+
+	/**
+	 * @return	The port the gateway is listening on.
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Disconnects every client, stops polling, and closes the devices the
+	 * gateway opened.
+	 */
+	public void close() {
+		running = false;
+		selector.wakeup();
+		try {
+			selectorThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (SelectionKey key : selector.keys()) {
+			closeQuietly(key);
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			// Nothing is left to do with the selector.
+		}
+		scheduler.shutdown();
+		workers.shutdownNow();
+		synchronized (devices) {
+			for (NCIDevice device : devices.values()) {
+				try {
+					device.closeDevice();
+				} catch (NCIException e) {
+					// The other devices should still be closed.
+				}
+			}
+			devices.clear();
+		}
+	}
+
+	/**
+	 * Serves the connections until the gateway is closed. If the selector
+	 * itself fails, nothing more can be served: the gateway stops, and every
+	 * client is disconnected rather than left waiting.
+	 */
+	private void select() {
+		while (running) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				failure = e;
+				running = false;
+				for (SelectionKey key : selector.keys()) {
+					closeQuietly(key);
+				}
+				return;
+			}
+			Connection pending;
+			while ((pending = pendingWrites.poll()) != null) {
+				if (pending.key.isValid()) pending.key.interestOps(pending.key.interestOps() | SelectionKey.OP_WRITE);
+			}
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				try {
+					if (!key.isValid()) continue;
+					if (key.isAcceptable()) accept();
+					if (key.isValid() && key.isReadable()) ((Connection) key.attachment()).read();
+					if (key.isValid() && key.isWritable()) ((Connection) key.attachment()).write();
+				} catch (IOException e) {
+					closeQuietly(key);
+				}
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) return;
+		channel.configureBlocking(false);
+		Connection connection = new Connection(channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+	}
+
+	private void closeQuietly(SelectionKey key) {
+		key.cancel();
+		if (key.attachment() instanceof Connection) disconnected((Connection) key.attachment());
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// The connection is being dropped either way.
+		}
+	}
+
+	private void handle(final Connection connection, String line) throws IOException {
+		if (connection.pending.incrementAndGet() > MAX_PENDING_REQUESTS) {
+			throw new IOException("The client has more than " + MAX_PENDING_REQUESTS + " requests outstanding.");
+		}
+		final String[] tokens = line.trim().split("\\s+");
+		if (tokens.length < 3) {
+			connection.send((tokens[0].isEmpty() ? "-" : tokens[0]) + " " + GatewayProtocol.ERR + " Expected: <id> <command> <device> [<argument>]", true);
+			return;
+		}
+		try {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					String reply;
+					try {
+						reply = GatewayProtocol.OK + execute(connection, tokens);
+					} catch (NCIException e) {
+						reply = GatewayProtocol.ERR + " " + GatewayProtocol.toLine(e.getMessage());
+					} catch (RuntimeException e) {
+						reply = GatewayProtocol.ERR + " " + GatewayProtocol.toLine(e.toString());
+					}
+					connection.send(tokens[0] + " " + reply, true);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The gateway is closing.
+		}
+	}
+
+	/**
+	 * @return	The payload of the reply, with a leading space, or an empty string.
+	 */
+	private String execute(Connection connection, String[] tokens) throws NCIException {
+		String command = tokens[1].toUpperCase();
+		String name = tokens[2];
+		if (command.equals(GatewayProtocol.SUBSCRIBE)) {
+			RateClass rate;
+			try {
+				rate = tokens.length > 3 ? RateClass.valueOf(tokens[3].toUpperCase()) : RateClass.NORMAL;
+			} catch (IllegalArgumentException e) {
+				throw new NCIException("The rate is not one of FAST, NORMAL, SLOW or ADAPTIVE: " + tokens[3]);
+			}
+			subscribe(connection, name, rate);
+			return "";
+		}
+		if (command.equals(GatewayProtocol.UNSUBSCRIBE)) {
+			unsubscribe(connection, name);
+			return "";
+		}
+		NCIDevice device = getDevice(name);
+		if (command.equals("W")) {
+			return " " + formatReading(device, device.getWeight());
+		} else if (command.equals("H")) {
+			return " " + formatReading(device, device.getHighResolutionWeight());
+		} else if (command.equals("S")) {
+			return " " + GatewayProtocol.formatStatus(device.requestStatus());
+		} else if (command.equals("U")) {
+			return " " + device.changeUnitsOfMeasure();
+		} else if (command.equals("T")) {
+			device.tare();
+			return " " + GatewayProtocol.formatStatus(device.getStatus());
+		} else if (command.equals("Z")) {
+			device.zero();
+			return " " + GatewayProtocol.formatStatus(device.getStatus());
+		}
+		throw new NCIException("Unknown command: " + tokens[1]);
+	}
+
+	/**
+	 * Formats a weight just read together with the status from the same
+	 * reply, which the device's latest reading holds. If a later reading has
+	 * already replaced it, the later reading is formatted instead, so that a
+	 * weight is never sent with the status of another reply.
+	 */
+	private static String formatReading(NCIDevice device, Weight weight) throws NCIException {
+		Reading reading = device.latestReading();
+		if (reading == null) return GatewayProtocol.formatWeight(weight, null);
+		return GatewayProtocol.formatWeight(reading.getWeight(), reading.getStatus());
+	}
+
+	/**
+	 * The gateway holds one handle to each device it serves, opened on first
+	 * use and closed with the gateway.
+	 */
+	private NCIDevice getDevice(String name) throws NCIException {
+		synchronized (devices) {
+			if (failure != null) throw new NCIException("The gateway stopped after an exception waiting for its connections.", failure);
+			if (!running) throw new NCIException("The gateway is closed.");
+			NCIDevice device = devices.get(name);
+			if (device == null) {
+				device = factory.getDevice(name);
+				devices.put(name, device);
+			}
+			return device;
+		}
+	}
+
+	private void subscribe(Connection connection, String name, RateClass rate) throws NCIException {
+		NCIDevice device = getDevice(name);
+		synchronized (subscribers) {
+			// The client may have disconnected while the device was opened, and would never unsubscribe.
+			if (connection.closed) return;
+			Set<Connection> connections = subscribers.get(name);
+			if (connections == null) {
+				scheduler.register(name, device, rate);
+				connections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+				subscribers.put(name, connections);
+				subscribedRates.put(name, rate);
+			}
+			connections.add(connection);
+			connection.subscriptions.put(name, rate);
+			updateRate(name, connections);
+		}
+	}
+
+	/**
+	 * Polls the device at the fastest rate its remaining subscribers asked
+	 * for. Called with the subscribers locked.
+	 */
+	private void updateRate(String name, Set<Connection> connections) throws NCIException {
+		RateClass fastest = null;
+		for (Connection connection : connections) {
+			RateClass rate = connection.subscriptions.get(name);
+			if (rate != null && (fastest == null || isFaster(rate, fastest))) fastest = rate;
+		}
+		if (fastest == null || fastest == subscribedRates.get(name)) return;
+		scheduler.setRateClass(name, fastest);
+		subscribedRates.put(name, fastest);
+	}
+
+	/**
+	 * @return	The rate the device is polled at for its subscribers, or null if it has none.
+	 */
+	RateClass getSubscribedRate(String name) {
+		synchronized (subscribers) {
+			return subscribedRates.get(name);
+		}
+	}
+
+	/**
+	 * The fastest rate wins. At the same rate a fixed rate wins over
+	 * {@link RateClass#ADAPTIVE}, which is only that fast while the reading moves.
+	 */
+	private static boolean isFaster(RateClass rate, RateClass current) {
+		if (rate.getHertz() != current.getHertz()) return rate.getHertz() > current.getHertz();
+		return current == RateClass.ADAPTIVE && rate != RateClass.ADAPTIVE;
+	}
+
+	private void unsubscribe(Connection connection, String name) {
+		synchronized (subscribers) {
+			connection.subscriptions.remove(name);
+			Set<Connection> connections = subscribers.get(name);
+			if (connections == null) return;
+			connections.remove(connection);
+			if (connections.isEmpty()) {
+				scheduler.unregister(name);
+				subscribers.remove(name);
+				subscribedRates.remove(name);
+				return;
+			}
+			try {
+				updateRate(name, connections);
+			} catch (NCIException e) {
+				// Only if the device is no longer registered, which it is while it has subscribers.
+			}
+		}
+	}
+
+	private void disconnected(Connection connection) {
+		synchronized (subscribers) {
+			connection.closed = true;
+		}
+		for (String name : connection.subscriptions.keySet()) {
+			unsubscribe(connection, name);
+		}
+	}
+
+	private Set<Connection> getSubscribers(String name) {
+		synchronized (subscribers) {
+			Set<Connection> connections = subscribers.get(name);
+			return connections == null ? Collections.<Connection>emptySet() : connections;
+		}
+	}
+
+	@Override
+	public void polled(String name, Weight weight, Status status) {
+		String event;
+		try {
+			event = GatewayProtocol.EVENT + " " + GatewayProtocol.EVENT_WEIGHT + " " + name + " " + GatewayProtocol.formatWeight(weight, status);
+		} catch (NCIException e) {
+			pollFailed(name, e);
+			return;
+		}
+		for (Connection connection : getSubscribers(name)) {
+			connection.send(event, false);
+		}
+	}
+
+	@Override
+	public void pollFailed(String name, NCIException exception) {
+		String event = GatewayProtocol.EVENT + " " + GatewayProtocol.EVENT_ERROR + " " + name + " " + GatewayProtocol.toLine(exception.getMessage());
+		for (Connection connection : getSubscribers(name)) {
+			connection.send(event, false);
+		}
+	}
+
+	/**
+	 * The state of one client. Reading and writing happen only on the selector
+	 * thread; any thread may queue a message with {@link #send(String, boolean)}.
+	 */
+	private class Connection {
+		private final SocketChannel channel;
+		private final ByteBuffer input = ByteBuffer.allocate(MAX_LINE_LENGTH);
+		private final ConcurrentLinkedQueue<Message> output = new ConcurrentLinkedQueue<Message>();
+		private final AtomicInteger queued = new AtomicInteger();
+		/**
+		 * The requests read from this client whose replies are not yet written.
+		 */
+		private final AtomicInteger pending = new AtomicInteger();
+		/**
+		 * The rate this client asked for each device it subscribes to.
+		 */
+		private final Map<String, RateClass> subscriptions = new ConcurrentHashMap<String, RateClass>();
+		private SelectionKey key;
+		/**
+		 * Set with the subscribers locked once the client is gone, so that it
+		 * is not subscribed to anything after it was unsubscribed from all.
+		 */
+		private volatile boolean closed = false;
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		void read() throws IOException {
+			if (channel.read(input) < 0) throw new IOException("The client closed the connection.");
+			input.flip();
+			int lineStart = 0;
+			for (int i = 0; i < input.limit(); i++) {
+				if (input.get(i) != '\n') continue;
+				byte[] line = new byte[i - lineStart];
+				input.position(lineStart);
+				input.get(line);
+				input.get();
+				lineStart = i + 1;
+				String request = new String(line, ASCII).trim();
+				if (!request.isEmpty()) handle(this, request);
+			}
+			input.position(lineStart);
+			input.compact();
+			if (!input.hasRemaining()) throw new IOException("The client sent a line longer than " + MAX_LINE_LENGTH + " bytes.");
+		}
+
+		void write() throws IOException {
+			Message message;
+			while ((message = output.peek()) != null) {
+				channel.write(message.buffer);
+				if (message.buffer.hasRemaining()) return;
+				output.poll();
+				queued.decrementAndGet();
+				if (message.reply) pending.decrementAndGet();
+			}
+			key.interestOps(SelectionKey.OP_READ);
+			// A message queued after the queue was seen empty still needs writing.
+			if (!output.isEmpty()) key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+
+		/**
+		 * @param message	The line to send, without the &lt;LF&gt;.
+		 * @param reply		False if the message may be dropped when the client is behind.
+		 */
+		void send(String message, boolean reply) {
+			if (closed) return;
+			if (!reply && queued.get() >= MAX_QUEUED_MESSAGES) return;
+			queued.incrementAndGet();
+			output.add(new Message(ByteBuffer.wrap((message + "\n").getBytes(ASCII)), reply));
+			pendingWrites.add(this);
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * A line waiting to be written to a client, and whether it is the reply
+	 * to one of its requests rather than an event.
+	 */
+	private static class Message {
+		private final ByteBuffer buffer;
+		private final boolean reply;
+
+		Message(ByteBuffer buffer, boolean reply) {
+			this.buffer = buffer;
+			this.reply = reply;
+		}
+	}
+}
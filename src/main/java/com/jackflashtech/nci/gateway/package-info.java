@@ -0,0 +1,10 @@
+/**
+ * This package contains an optional gateway that lets several processes on a
+ * host share the devices opened by one {@link com.jackflashtech.nci.impl.NCIFactory},
+ * since only one process can own a serial port. The
+ * {@link com.jackflashtech.nci.gateway.NCIGatewayServer} runs in the process
+ * that owns the ports, and other processes connect to it over a local socket,
+ * with {@link com.jackflashtech.nci.gateway.NCIGatewayClient} or with the line
+ * protocol documented on the server.
+ */
+package com.jackflashtech.nci.gateway;
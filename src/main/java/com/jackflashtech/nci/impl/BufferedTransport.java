@@ -0,0 +1,132 @@
+package com.jackflashtech.nci.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.jackflashtech.nci.NCIException;
+
+/**
+ * A transport whose incoming bytes are handed to it rather than read from a
+ * port. Bytes passed to {@link #deliver(byte[], int, int)} are buffered until
+ * the driver reads them, as a serial port's driver would, and the listener is
+ * told each time; bytes the driver writes go to {@link #send(byte[], int, int)}.
+ */
+public abstract class BufferedTransport implements NCITransport {
+	private final Object lock = new Object();
+	private byte[] buffer = new byte[64];
+	private int buffered = 0;
+	private volatile NCITransportListener listener;
+	private volatile boolean closed = false;
+
+	private final InputStream input = new InputStream() {
+		@Override
+		public int read() {
+			synchronized (lock) {
+				if (buffered == 0) return -1;
+				int b = buffer[0] & 0xff;
+				take(1);
+				return b;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			synchronized (lock) {
+				int n = Math.min(len, buffered);
+				System.arraycopy(buffer, 0, b, off, n);
+				take(n);
+				return n;
+			}
+		}
+
+		@Override
+		public int available() {
+			synchronized (lock) {
+				return buffered;
+			}
+		}
+	};
+
+	private final OutputStream output = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (closed) throw new IOException("The transport is closed.");
+			send(b, off, len);
+		}
+	};
+
+	private void take(int n) {
+		System.arraycopy(buffer, n, buffer, 0, buffered - n);
+		buffered -= n;
+	}
+
+	/**
+	 * Passes bytes the driver wrote on to wherever they are going.
+	 *
+	 * @param b		The bytes written.
+	 * @param off	Where they start in the array.
+	 * @param len	How many there are.
+	 * @throws IOException	Thrown if they could not be sent.
+	 */
+	protected abstract void send(byte[] b, int off, int len) throws IOException;
+
+	/**
+	 * Buffers bytes for the driver to read and tells its listener. The listener
+	 * is called on the caller's thread, so the caller must not hold a lock the
+	 * driver may be waiting on.
+	 *
+	 * @param b		The bytes received.
+	 * @param off	Where they start in the array.
+	 * @param len	How many there are.
+	 * @throws IOException	Thrown if the transport is closed.
+	 */
+	protected void deliver(byte[] b, int off, int len) throws IOException {
+		if (closed) throw new IOException("The transport is closed.");
+		synchronized (lock) {
+			if (buffered + len > buffer.length) {
+				byte[] larger = new byte[Math.max(buffer.length * 2, buffered + len)];
+				System.arraycopy(buffer, 0, larger, 0, buffered);
+				buffer = larger;
+			}
+			System.arraycopy(b, off, buffer, buffered, len);
+			buffered += len;
+		}
+		NCITransportListener listener = this.listener;
+		if (listener != null) listener.dataAvailable();
+	}
+
+	protected boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return input;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return output;
+	}
+
+	@Override
+	public void setTransportListener(NCITransportListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Stops accepting bytes either way. Subclasses that hold resources should
+	 * release them and call this.
+	 */
+	@Override
+	public void close() throws NCIException {
+		closed = true;
+		listener = null;
+	}
+}
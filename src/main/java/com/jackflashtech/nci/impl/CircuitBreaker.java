@@ -0,0 +1,159 @@
+package com.jackflashtech.nci.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import com.jackflashtech.nci.NCICircuitOpenException;
+
+/**
+ * Stops a device that has gone quiet, such as an unplugged scale, from holding
+ * every caller for a full timeout. An exchange that ends without any reply
+ * from the device, by timing out or by an I/O error, is a failure; one that
+ * got any reply, even an unparseable one, shows the device is there and
+ * resets the count. After the configured number of failures in a row the
+ * breaker opens and every command is refused with an
+ * {@link NCICircuitOpenException}, without being sent or waiting for the
+ * device. Once the cool-down has passed, the next command is let through as a
+ * probe: if it is answered the breaker closes, and if not it opens for another
+ * cool-down.
+ *
+ * The settings are read from the device's configuration:
+ * <pre>
+ * nci.&lt;name&gt;.breakerthreshold	The failures in a row that open the breaker. Defaults to 3; 0 never opens it.
+ * nci.&lt;name&gt;.breakercooldown	How long the breaker stays open before a probe, in milliseconds. Defaults to 5000.
+ * </pre>
+ */
+public class CircuitBreaker {
+	public enum State {
+		/**
+		 * Commands are sent.
+		 */
+		CLOSED,
+		/**
+		 * Commands are refused until the cool-down has passed.
+		 */
+		OPEN,
+		/**
+		 * One command has been let through to see whether the device is back,
+		 * and the others are refused until it is answered or fails.
+		 */
+		HALF_OPEN
+	}
+
+	static final int DEFAULT_THRESHOLD = 3;
+	static final long DEFAULT_COOL_DOWN_MILLIS = 5000;
+
+	private final int threshold;
+	private final long coolDownNanos;
+	private State state = State.CLOSED;
+	private int failures = 0;
+	private long openedNanos;
+
+	/**
+	 * A breaker with the default settings.
+	 */
+	public CircuitBreaker() {
+		this(DEFAULT_THRESHOLD, DEFAULT_COOL_DOWN_MILLIS);
+	}
+
+	/**
+	 * @param threshold			The failures in a row that open the breaker, or 0 for it never to open.
+	 * @param coolDownMillis	How long the breaker stays open before it lets a probe through.
+	 */
+	public CircuitBreaker(int threshold, long coolDownMillis) {
+		if (threshold < 0) throw new IllegalArgumentException("The threshold must not be negative, not " + threshold + ".");
+		if (coolDownMillis < 0) throw new IllegalArgumentException("The cool-down must not be negative, not " + coolDownMillis + ".");
+		this.threshold = threshold;
+		this.coolDownNanos = TimeUnit.MILLISECONDS.toNanos(coolDownMillis);
+	}
+
+	public static CircuitBreaker fromConfiguration(DeviceConfiguration configuration) {
+		return new CircuitBreaker(configuration.getBreakerThreshold(), configuration.getBreakerCoolDown());
+	}
+
+	/**
+	 * The state, with an open breaker whose cool-down has passed reported as
+	 * {@link State#HALF_OPEN}, since the next command will be let through.
+	 */
+	public synchronized State getState() {
+		if (state == State.OPEN && coolingDown() == 0) return State.HALF_OPEN;
+		return state;
+	}
+
+	/**
+	 * @return	The exchanges in a row that have ended without a reply.
+	 */
+	public synchronized int getConsecutiveFailures() {
+		return failures;
+	}
+
+	/**
+	 * Refuses a command while the breaker is open or a probe is under way,
+	 * without changing the state. This is checked before waiting for the
+	 * device, so a caller does not queue behind an exchange that is likely to
+	 * time out.
+	 *
+	 * @throws NCICircuitOpenException	Thrown if the command would be refused.
+	 */
+	synchronized void check() throws NCICircuitOpenException {
+		if (state == State.HALF_OPEN) throw new NCICircuitOpenException("The device is not answering; another command is checking whether it is back.");
+		long remaining = coolingDown();
+		if (remaining > 0) throw refusal(remaining);
+	}
+
+	/**
+	 * Admits a command that holds the device, making it the probe if the
+	 * cool-down has passed. Every successful call must be followed by
+	 * {@link #succeeded()}, {@link #failed()} or {@link #abandoned()} before
+	 * the device is released.
+	 *
+	 * @throws NCICircuitOpenException	Thrown if the breaker is open.
+	 */
+	synchronized void allow() throws NCICircuitOpenException {
+		if (state == State.CLOSED) return;
+		long remaining = coolingDown();
+		if (remaining > 0) throw refusal(remaining);
+		state = State.HALF_OPEN;
+	}
+
+	/**
+	 * Records an exchange the device answered, which closes the breaker.
+	 */
+	synchronized void succeeded() {
+		failures = 0;
+		state = State.CLOSED;
+	}
+
+	/**
+	 * Records an exchange the device did not answer, which opens the breaker
+	 * if it was a probe or was the last failure allowed.
+	 */
+	synchronized void failed() {
+		failures++;
+		if (state == State.HALF_OPEN || (threshold > 0 && failures >= threshold)) {
+			state = State.OPEN;
+			openedNanos = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Records an exchange that was given up by the caller, which says nothing
+	 * about the device. An abandoned probe leaves the breaker open with its
+	 * cool-down passed, so the next command is the probe instead.
+	 */
+	synchronized void abandoned() {
+		if (state == State.HALF_OPEN) state = State.OPEN;
+	}
+
+	/**
+	 * @return	The nanoseconds left in the cool-down, or 0 if the breaker is not open or the cool-down has passed.
+	 */
+	private long coolingDown() {
+		if (state != State.OPEN) return 0;
+		return Math.max(0, coolDownNanos - (System.nanoTime() - openedNanos));
+	}
+
+	private NCICircuitOpenException refusal(long remainingNanos) {
+		return new NCICircuitOpenException("The device has not answered the last " + failures + " commands; it will be tried again in "
+				+ TimeUnit.NANOSECONDS.toMillis(remainingNanos) + "ms.");
+	}
+}
@@ -0,0 +1,74 @@
+package com.jackflashtech.nci.impl;
+
+import com.jackflashtech.nci.Cancellation;
+import com.jackflashtech.nci.NCIBusyException;
+import com.jackflashtech.nci.NCICancelledException;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Priority;
+
+/**
+ * This admits the commands to a device one exchange at a time, in
+ * {@link Priority} order. An interactive command waits only for the exchange in
+ * progress, ahead of any background command. A background command waits its
+ * turn behind other background commands, but is shed as soon as an interactive
+ * command is waiting.
+ */
+class CommandLanes {
+	private boolean busy = false;
+	private int interactiveWaiting = 0;
+
+	/**
+	 * Waits for the device to be free for a command in the given lane. Every
+	 * successful call must be followed by a call to {@link #release()}.
+	 * 
+	 * @param priority		The lane of the command.
+	 * @param timeoutMillis	The longest time to wait for the device.
+	 * @throws NCIBusyException	Thrown if the command was shed or the device was not free in time.
+	 * @throws NCIException		Thrown if the thread was interrupted while waiting.
+	 */
+	void acquire(Priority priority, long timeoutMillis) throws NCIException {
+		acquire(priority, timeoutMillis, null);
+	}
+
+	/**
+	 * The same as {@link #acquire(Priority, long)}, giving up if the
+	 * cancellation is cancelled while waiting. The caller must wake this with
+	 * {@link #notifyAll()} when it is.
+	 *
+	 * @param priority		The lane of the command.
+	 * @param timeoutMillis	The longest time to wait for the device.
+	 * @param cancellation	What cancels the wait, or null.
+	 * @throws NCICancelledException	Thrown if the wait was cancelled.
+	 */
+	synchronized void acquire(Priority priority, long timeoutMillis, Cancellation cancellation) throws NCIException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		boolean interactive = priority == Priority.INTERACTIVE;
+		if (interactive) interactiveWaiting++;
+		try {
+			while (busy || (!interactive && interactiveWaiting > 0)) {
+				if (cancellation != null && cancellation.isCancelled()) {
+					throw new NCICancelledException("The call was cancelled while waiting for the device.");
+				}
+				if (!interactive && interactiveWaiting > 0) {
+					throw new NCIBusyException("This background command was shed because an interactive command is waiting.");
+				}
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					throw new NCIBusyException("This device is in the middle of a communication and did not become free in time.");
+				}
+				this.wait(remaining);
+			}
+			busy = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NCICancelledException("Interrupted while waiting for the device.", e);
+		} finally {
+			if (interactive) interactiveWaiting--;
+		}
+	}
+
+	synchronized void release() {
+		busy = false;
+		this.notifyAll();
+	}
+}
@@ -0,0 +1,313 @@
+package com.jackflashtech.nci.impl;
+
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.filter.FilterPipeline;
+import com.jackflashtech.nci.impl.NCIPollingScheduler.RateClass;
+
+/**
+ * The parsed, validated settings of a single device from "nci.properties". The
+ * values common to every device are typed; any other setting a specific
+ * implementation of {@link com.jackflashtech.nci.NCIDevice} needs can still be
+ * read from {@link #getProperties()}, which holds only this device's entries,
+ * still under their full "nci.&lt;name&gt;." keys.
+ *
+ * The recognized settings are:
+ * <pre>
+ * nci.&lt;name&gt;.implclass		The class implementing the device. Required.
+ * nci.&lt;name&gt;.commport		The port the device is on.
+ * nci.&lt;name&gt;.autodiscovery	"true" to search the ports for the device instead.
+ * nci.&lt;name&gt;.checkparity		"true" or "false".
+ * nci.&lt;name&gt;.baudrate		The baud rate of the port. Defaults to 115200.
+ * nci.&lt;name&gt;.pollrate		FAST, NORMAL, SLOW or ADAPTIVE; see {@link RateClass}.
+ * nci.&lt;name&gt;.filter		The filters for polled readings; see {@link FilterPipeline}.
+ * nci.&lt;name&gt;.lazy			"true" to open the device in the background; see {@link LazyDevice}.
+ * nci.&lt;name&gt;.address		The device's address on a bus shared over its commport; see {@link NCIBus}.
+ * nci.&lt;name&gt;.bustimeout		How long the bus waits for the device to reply, in milliseconds.
+ * nci.&lt;name&gt;.board			The file of a {@link com.jackflashtech.nci.board.ReadingBoard} to publish readings to.
+ * nci.&lt;name&gt;.breakerthreshold	The failures in a row that open the device's {@link CircuitBreaker}.
+ * nci.&lt;name&gt;.breakercooldown	How long the breaker stays open, in milliseconds.
+ * nci.&lt;name&gt;.zeroband		How far from zero, in grams, a reading is empty; see {@link ZeroDriftMonitor}.
+ * nci.&lt;name&gt;.driftlimit		The drift of the zero that raises an alarm, in grams per hour.
+ * nci.&lt;name&gt;.noiselimit		The noise at zero that raises an alarm, in grams.
+ * nci.&lt;name&gt;.flickerlimit		The transitions into motion at zero that raise an alarm, per minute.
+ * </pre>
+ *
+ * Instances are immutable and are compared by value, so a reloaded
+ * configuration can be checked for devices whose settings changed.
+ */
+public final class DeviceConfiguration {
+	private final String name;
+	private final String implClass;
+	private final String commPort;
+	private final boolean autoDiscovery;
+	private final Boolean checkParity;
+	private final int baudRate;
+	private final RateClass pollRate;
+	private final boolean lazy;
+	private final String filter;
+	private final String address;
+	private final long busTimeout;
+	private final String board;
+	private final int breakerThreshold;
+	private final long breakerCoolDown;
+	private final double zeroBand;
+	private final double driftLimit;
+	private final double noiseLimit;
+	private final double flickerLimit;
+	private final Properties properties;
+
+	/**
+	 * Parses the settings of one device. The properties are expected to hold
+	 * only this device's entries, as collected by
+	 * {@link NCIConfiguration#parse(Properties)}.
+	 *
+	 * @param name			The name of the device.
+	 * @param properties	The entries for the device, under their full keys.
+	 * @throws NCIException	Thrown if a setting is missing or cannot be parsed.
+	 */
+	DeviceConfiguration(String name, Properties properties) throws NCIException {
+		this.name = name;
+		this.properties = properties;
+		this.implClass = getTrimmed("implclass");
+		if (implClass == null) throw new NCIException("There was no class name found to instantiate with name '" + name + "'.");
+		this.commPort = getTrimmed("commport");
+		Boolean autoDiscovery = parseBoolean("autodiscovery");
+		this.autoDiscovery = autoDiscovery != null && autoDiscovery;
+		this.checkParity = parseBoolean("checkparity");
+		String baudRateString = getTrimmed("baudrate");
+		try {
+			this.baudRate = baudRateString == null ? NCIPollingScheduler.DEFAULT_BAUD_RATE : Integer.parseInt(baudRateString);
+		} catch (NumberFormatException e) {
+			throw new NCIException("The baudrate of device '" + name + "' is not a number: " + baudRateString, e);
+		}
+		if (this.baudRate <= 0) throw new NCIException("The baudrate of device '" + name + "' must be positive: " + baudRateString);
+		String pollRateString = getTrimmed("pollrate");
+		try {
+			this.pollRate = pollRateString == null ? null : RateClass.valueOf(pollRateString.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new NCIException("The pollrate of device '" + name + "' is not one of FAST, NORMAL, SLOW or ADAPTIVE: " + pollRateString, e);
+		}
+		this.filter = getTrimmed("filter");
+		if (filter != null) FilterPipeline.parse(filter);
+		Boolean lazy = parseBoolean("lazy");
+		this.lazy = lazy != null && lazy;
+		this.address = getTrimmed("address");
+		this.busTimeout = parseLong("bustimeout", NCIBus.DEFAULT_EXCHANGE_TIMEOUT);
+		if (this.busTimeout == 0) throw new NCIException("The bustimeout of device '" + name + "' must be positive: " + getTrimmed("bustimeout"));
+		this.board = getTrimmed("board");
+		long breakerThreshold = parseLong("breakerthreshold", CircuitBreaker.DEFAULT_THRESHOLD);
+		if (breakerThreshold > Integer.MAX_VALUE) throw new NCIException("The breakerthreshold of device '" + name + "' is too large: " + breakerThreshold);
+		this.breakerThreshold = (int) breakerThreshold;
+		this.breakerCoolDown = parseLong("breakercooldown", CircuitBreaker.DEFAULT_COOL_DOWN_MILLIS);
+		this.zeroBand = parseDouble("zeroband", 0);
+		this.driftLimit = parseDouble("driftlimit", Double.POSITIVE_INFINITY);
+		this.noiseLimit = parseDouble("noiselimit", Double.POSITIVE_INFINITY);
+		this.flickerLimit = parseDouble("flickerlimit", Double.POSITIVE_INFINITY);
+	}
+
+	private String getTrimmed(String key) {
+		String value = properties.getProperty("nci." + name + "." + key);
+		return value == null ? null : value.trim();
+	}
+
+	private Boolean parseBoolean(String key) throws NCIException {
+		String value = getTrimmed(key);
+		if (value == null) return null;
+		if (value.equalsIgnoreCase("true")) return Boolean.TRUE;
+		if (value.equalsIgnoreCase("false")) return Boolean.FALSE;
+		throw new NCIException("The " + key + " of device '" + name + "' must be true or false: " + value);
+	}
+
+	private long parseLong(String key, long defaultValue) throws NCIException {
+		String value = getTrimmed(key);
+		if (value == null) return defaultValue;
+		long parsed;
+		try {
+			parsed = Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new NCIException("The " + key + " of device '" + name + "' is not a whole number: " + value, e);
+		}
+		if (parsed < 0) throw new NCIException("The " + key + " of device '" + name + "' must not be negative: " + value);
+		return parsed;
+	}
+
+	private double parseDouble(String key, double defaultValue) throws NCIException {
+		String value = getTrimmed(key);
+		if (value == null) return defaultValue;
+		double parsed;
+		try {
+			parsed = Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new NCIException("The " + key + " of device '" + name + "' is not a number: " + value, e);
+		}
+		if (parsed < 0 || Double.isNaN(parsed)) throw new NCIException("The " + key + " of device '" + name + "' must not be negative: " + value);
+		return parsed;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getImplClass() {
+		return implClass;
+	}
+
+	/**
+	 * @return	The port the device is on, or null if it was not set.
+	 */
+	public String getCommPort() {
+		return commPort;
+	}
+
+	public boolean isAutoDiscovery() {
+		return autoDiscovery;
+	}
+
+	/**
+	 * @return	Whether to check the parity of status bytes, or null if it was not set.
+	 */
+	public Boolean getCheckParity() {
+		return checkParity;
+	}
+
+	public int getBaudRate() {
+		return baudRate;
+	}
+
+	/**
+	 * @return	The rate to poll the device at, or null if it was not set.
+	 */
+	public RateClass getPollRate() {
+		return pollRate;
+	}
+
+	/**
+	 * Builds the filters for the device's polled readings. Each call returns
+	 * a new pipeline, with no readings seen.
+	 *
+	 * @return	The filters, or null if none are configured.
+	 * @throws NCIException	Not thrown in practice, since the filters were checked when the configuration was parsed.
+	 */
+	public FilterPipeline createFilter() throws NCIException {
+		return filter == null ? null : FilterPipeline.parse(filter);
+	}
+
+	/**
+	 * @return	Whether the device is opened in the background rather than by the caller asking for it.
+	 */
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	/**
+	 * @return	The device's address on a bus, or null if it has a port of its own.
+	 */
+	public String getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return	How long the bus waits for the device to reply, in milliseconds; {@link NCIBus#DEFAULT_EXCHANGE_TIMEOUT} if it was not set.
+	 */
+	public long getBusTimeout() {
+		return busTimeout;
+	}
+
+	/**
+	 * @return	The file of the board to publish readings to, or null if it was not set.
+	 */
+	public String getBoard() {
+		return board;
+	}
+
+	/**
+	 * @return	The failures in a row that open the device's breaker, or 0 for it never to open.
+	 */
+	public int getBreakerThreshold() {
+		return breakerThreshold;
+	}
+
+	/**
+	 * @return	How long the device's breaker stays open before it lets a probe through, in milliseconds.
+	 */
+	public long getBreakerCoolDown() {
+		return breakerCoolDown;
+	}
+
+	/**
+	 * @return	How far from zero a reading is still empty, in grams.
+	 */
+	public double getZeroBand() {
+		return zeroBand;
+	}
+
+	/**
+	 * @return	The drift of the zero that raises an alarm, in grams per hour, or infinity for none.
+	 */
+	public double getDriftLimit() {
+		return driftLimit;
+	}
+
+	/**
+	 * @return	The standard deviation at zero that raises an alarm, in grams, or infinity for none.
+	 */
+	public double getNoiseLimit() {
+		return noiseLimit;
+	}
+
+	/**
+	 * @return	The transitions into motion at zero that raise an alarm, per minute, or infinity for none.
+	 */
+	public double getFlickerLimit() {
+		return flickerLimit;
+	}
+
+	/**
+	 * The raw entries for this device. The returned copy may be modified
+	 * freely.
+	 *
+	 * @return	This device's entries, under their full "nci.&lt;name&gt;." keys.
+	 */
+	public Properties getProperties() {
+		Properties copy = new Properties();
+		copy.putAll(properties);
+		return copy;
+	}
+
+	/**
+	 * The keys of the settings given for this device, without the
+	 * "nci.&lt;name&gt;." prefix.
+	 *
+	 * @return	The keys of this device's settings.
+	 */
+	public Set<String> getKeys() {
+		Set<String> keys = new HashSet<String>();
+		String prefix = "nci." + name + ".";
+		for (String key : properties.stringPropertyNames()) {
+			keys.add(key.substring(prefix.length()));
+		}
+		return keys;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof DeviceConfiguration)) return false;
+		DeviceConfiguration other = (DeviceConfiguration) obj;
+		return name.equals(other.name) && properties.equals(other.properties);
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode() * 31 + properties.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "Device: " + this.name + "; Class: " + this.implClass + "; Port: " + this.commPort + "; Auto-discovery: " + this.autoDiscovery + "; Check parity: " + this.checkParity + "; Baud rate: " + this.baudRate + "; Poll rate: " + this.pollRate;
+	}
+}
@@ -0,0 +1,337 @@
+package com.jackflashtech.nci.impl;
+
+import java.util.List;
+import java.util.TooManyListenersException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.jackflashtech.nci.CallOptions;
+import com.jackflashtech.nci.Cancellation;
+import com.jackflashtech.nci.Command;
+import com.jackflashtech.nci.NCICancelledException;
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIDeviceListener;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.NCITimeoutException;
+import com.jackflashtech.nci.Priority;
+import com.jackflashtech.nci.RawCountListener;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.CommandResult;
+import com.jackflashtech.nci.data.Reading;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+
+/**
+ * A device that is opened in the background, for devices configured with
+ * "lazy" set to true. It is created at once, without touching the port, and
+ * starts opening the real device on another thread, followed by a status
+ * request to warm the link up. A command waits only until the opening has
+ * finished, so startup is not held up by a slow or missing scale; if the
+ * opening failed, the commands that waited for it fail with its error, and
+ * a command that finds it already failed tries again rather than failing
+ * with an error that may be long out of date.
+ *
+ * A command waits for the opening no longer than its {@link CallOptions}
+ * budget, or than {@link #OPEN_TIMEOUT} if it has none, and no longer than
+ * until it is cancelled; it is then sent with what is left of its budget. A
+ * command that gives up waiting leaves the device opening for the next.
+ *
+ * A device listener added before the device is open is added to it once it
+ * opens, and {@link #getStatus()} returns null until then.
+ */
+class LazyDevice implements NCIDevice {
+	private static final ExecutorService OPENER = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "NCI device opener");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	/**
+	 * How long a command without a budget waits for the device to open, in
+	 * milliseconds: long enough for a port to open and answer the warm-up.
+	 */
+	static final long OPEN_TIMEOUT = RxtxTransport.COMM_TIMEOUT + NCIDeviceRxtx.TIMEOUT;
+
+	private final DeviceConfiguration configuration;
+	private final NCIDeviceProvider provider;
+	private Future<NCIDevice> opening;
+	private NCIDevice opened = null;
+	private NCIDeviceListener listener = null;
+	private boolean closed = false;
+
+	LazyDevice(DeviceConfiguration configuration, NCIDeviceProvider provider) {
+		this.configuration = configuration;
+		this.provider = provider;
+		this.opening = open();
+	}
+
+	/**
+	 * Starts opening the device, waking the commands waiting for it when it
+	 * has finished.
+	 */
+	private Future<NCIDevice> open() {
+		FutureTask<NCIDevice> task = new FutureTask<NCIDevice>(new Opener()) {
+			@Override
+			protected void done() {
+				synchronized (LazyDevice.this) {
+					LazyDevice.this.notifyAll();
+				}
+			}
+		};
+		OPENER.execute(task);
+		return task;
+	}
+
+	/**
+	 * Opens the device and warms it up, then hands it the listener added in
+	 * the meantime. A device whose handle was closed while it was opening is
+	 * closed again.
+	 */
+	private class Opener implements Callable<NCIDevice> {
+		@Override
+		public NCIDevice call() throws Exception {
+			NCIDevice device = provider.createDevice(configuration);
+			try {
+				device.requestStatus(Priority.BACKGROUND);
+			} catch (NCIException e) {
+				// Only a warm-up; the device's first real command reports any problem.
+			}
+			synchronized (LazyDevice.this) {
+				if (closed) {
+					device.closeDevice();
+					throw new NCIException("Device '" + configuration.getName() + "' was closed while opening.");
+				}
+				if (listener != null) {
+					try {
+						device.addDeviceListener(listener);
+					} catch (TooManyListenersException e) {
+						device.closeDevice();
+						throw new NCIException("Device '" + configuration.getName() + "' would not take its listener.", e);
+					}
+				}
+				opened = device;
+			}
+			return device;
+		}
+	}
+
+	/**
+	 * @return	Whether the device has finished opening, successfully or not.
+	 */
+	synchronized boolean isOpened() {
+		return opening.isDone();
+	}
+
+	private NCIDevice getDevice() throws NCIException {
+		return getDevice(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(OPEN_TIMEOUT), null);
+	}
+
+	/**
+	 * Waits for the device to open.
+	 *
+	 * @param deadline		When to give up, from {@link System#nanoTime()}.
+	 * @param cancellation	What cancels the wait, or null.
+	 * @return	The device.
+	 * @throws NCIException	Thrown if the device could not be opened, or did not open before the deadline or the cancellation.
+	 */
+	private NCIDevice getDevice(long deadline, final Cancellation cancellation) throws NCIException {
+		Future<NCIDevice> opening;
+		synchronized (this) {
+			if (closed) throw new NCIException("Device '" + configuration.getName() + "' has been closed.");
+			if (opened != null) return opened;
+			// An opening that finished without opening the device failed.
+			if (this.opening.isDone()) this.opening = open();
+			opening = this.opening;
+		}
+		Runnable wake = null;
+		if (cancellation != null) {
+			wake = new Runnable() {
+				@Override
+				public void run() {
+					synchronized (LazyDevice.this) {
+						LazyDevice.this.notifyAll();
+					}
+				}
+			};
+			cancellation.addListener(wake);
+		}
+		try {
+			synchronized (this) {
+				while (!opening.isDone()) {
+					if (cancellation != null && cancellation.isCancelled()) {
+						throw new NCICancelledException("The call was cancelled while waiting for device '" + configuration.getName() + "' to open.");
+					}
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) throw new NCITimeoutException("Device '" + configuration.getName() + "' did not open in the time for the call.");
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				}
+			}
+			return opening.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NCICancelledException("Interrupted while waiting for device '" + configuration.getName() + "' to open.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof NCIException) throw (NCIException) cause;
+			throw new NCIException("Device '" + configuration.getName() + "' could not be opened.", cause);
+		} finally {
+			if (wake != null) cancellation.removeListener(wake);
+		}
+	}
+
+	/**
+	 * @return	The options with what is left of their budget at the deadline.
+	 */
+	private static CallOptions remaining(CallOptions options, long deadline) throws NCITimeoutException {
+		long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+		if (remaining <= 0) throw new NCITimeoutException("The time for the call ran out while the device was opening.");
+		return options.withBudget(remaining);
+	}
+
+	@Override
+	public void addDeviceListener(NCIDeviceListener listener) throws TooManyListenersException {
+		NCIDevice device;
+		synchronized (this) {
+			if (opened == null) {
+				if (this.listener != null) throw new TooManyListenersException();
+				this.listener = listener;
+				return;
+			}
+			device = opened;
+		}
+		device.addDeviceListener(listener);
+	}
+
+	@Override
+	public Weight getWeight() throws NCIException {
+		return getDevice().getWeight();
+	}
+
+	@Override
+	public Weight getWeight(Priority priority) throws NCIException {
+		return getDevice().getWeight(priority);
+	}
+
+	@Override
+	public Weight getWeight(CallOptions options) throws NCIException {
+		long deadline = options.getDeadline(System.nanoTime());
+		return getDevice(deadline, options.getCancellation()).getWeight(remaining(options, deadline));
+	}
+
+	@Override
+	public Weight getHighResolutionWeight() throws NCIException {
+		return getDevice().getHighResolutionWeight();
+	}
+
+	@Override
+	public Units changeUnitsOfMeasure() throws NCIException {
+		return getDevice().changeUnitsOfMeasure();
+	}
+
+	@Override
+	public long requestMetrologyRawCounts() throws NCIException {
+		return getDevice().requestMetrologyRawCounts();
+	}
+
+	@Override
+	public void subscribeRawCounts(RawCountListener listener, int decimation, int blockSize) throws NCIException {
+		getDevice().subscribeRawCounts(listener, decimation, blockSize);
+	}
+
+	@Override
+	public void unsubscribeRawCounts(RawCountListener listener) {
+		NCIDevice device;
+		synchronized (this) {
+			device = opened;
+		}
+		if (device != null) device.unsubscribeRawCounts(listener);
+	}
+
+	@Override
+	public void requestAbout() throws NCIException {
+		getDevice().requestAbout();
+	}
+
+	@Override
+	public void requestDiagnostics() throws NCIException {
+		getDevice().requestDiagnostics();
+	}
+
+	@Override
+	public Status requestStatus() throws NCIException {
+		return getDevice().requestStatus();
+	}
+
+	@Override
+	public Status requestStatus(Priority priority) throws NCIException {
+		return getDevice().requestStatus(priority);
+	}
+
+	@Override
+	public Status requestStatus(CallOptions options) throws NCIException {
+		long deadline = options.getDeadline(System.nanoTime());
+		return getDevice(deadline, options.getCancellation()).requestStatus(remaining(options, deadline));
+	}
+
+	@Override
+	public void tare() throws NCIException {
+		getDevice().tare();
+	}
+
+	@Override
+	public void zero() throws NCIException {
+		getDevice().zero();
+	}
+
+	@Override
+	public Status getStatus() {
+		NCIDevice device;
+		synchronized (this) {
+			device = opened;
+		}
+		return device == null ? null : device.getStatus();
+	}
+
+	@Override
+	public Reading latestReading() {
+		NCIDevice device;
+		synchronized (this) {
+			device = opened;
+		}
+		return device == null ? null : device.latestReading();
+	}
+
+	@Override
+	public List<CommandResult> executeBatch(List<Command> commands) throws NCIException {
+		return getDevice().executeBatch(commands);
+	}
+
+	@Override
+	public List<CommandResult> executeBatch(List<Command> commands, CallOptions options) throws NCIException {
+		long deadline = options.getDeadline(System.nanoTime());
+		return getDevice(deadline, options.getCancellation()).executeBatch(commands, remaining(options, deadline));
+	}
+
+	/**
+	 * Closes the device if it has opened; one still opening is closed as soon
+	 * as it finishes.
+	 */
+	@Override
+	public void closeDevice() throws NCIException {
+		NCIDevice device;
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+			device = opened;
+		}
+		if (device != null) device.closeDevice();
+	}
+}
@@ -0,0 +1,414 @@
+package com.jackflashtech.nci.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIException;
+
+/**
+ * A multi-drop bus, such as RS-485, carrying several addressed NCI devices on
+ * one port. The bus owns the port; each device on it is an ordinary
+ * {@link NCIDeviceRxtx} speaking over a channel for its address, opened with
+ * {@link #openDevice(String, boolean)} or {@link #openChannel(String)}.
+ *
+ * Every command a channel sends is prefixed with its address, and only the
+ * addressed device answers. NCI replies do not carry the address, so the bus
+ * keeps a single exchange outstanding at a time and hands every byte received
+ * to the channel that sent it, until as many &lt;ETX&gt;s have arrived as the
+ * exchange had commands. An exchange that is not answered within the exchange
+ * timeout is abandoned, and the bus is then held quiet until the rest of its
+ * reply has arrived or the line has been silent for the guard interval, so
+ * that a late reply is thrown away rather than taken for the next device's.
+ * Anything else arriving while no exchange is outstanding is thrown away too.
+ *
+ * Channels with commands waiting take turns, one exchange each, so a device
+ * waits behind at most one exchange per other device on the bus however busy
+ * they are. Each turn, the exchange timeout and guard together, is cut to the
+ * device timeout of {@link NCIDeviceRxtx} shared among the open channels, so
+ * that a device's reply always comes before it gives up on it; a channel
+ * cannot be opened once the share would be no longer than the guard. A
+ * channel's commands are always sent in the order written.
+ *
+ * Devices created from "nci.properties" share a bus when they name the same
+ * commport and set an address:
+ * <pre>
+ * nci.&lt;name&gt;.address		The address prefixed to the device's commands.
+ * nci.&lt;name&gt;.bustimeout	How long to wait for an exchange on the bus, in milliseconds. Defaults to 500.
+ * </pre>
+ * Such a bus is opened with the first of its devices and closed with the
+ * last, and its devices must agree on its baudrate and bustimeout. The bus does not drive the line direction; RS-485 adapters that switch
+ * it on their own are assumed.
+ */
+public class NCIBus implements NCITransportListener {
+	/**
+	 * The default time to wait for an exchange to be answered, in milliseconds.
+	 */
+	public static final long DEFAULT_EXCHANGE_TIMEOUT = 500;
+	/**
+	 * The default time the line must be silent after an abandoned exchange
+	 * before the next is sent, in milliseconds.
+	 */
+	public static final long DEFAULT_GUARD = 50;
+	private static final long DEVICE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(NCIDeviceRxtx.TIMEOUT);
+	private static final byte CR = 0x0d;
+	private static final byte ETX = 0x03;
+	/**
+	 * The buses opened from configuration, by port.
+	 */
+	private static final Map<String, NCIBus> PORTS = new HashMap<String, NCIBus>();
+
+	private final NCITransport port;
+	private final long exchangeTimeoutNanos;
+	private final long guardNanos;
+	private final Object lock = new Object();
+	private final Map<String, Channel> channels = new HashMap<String, Channel>();
+	/**
+	 * The channels with exchanges waiting, in the order of their turns.
+	 */
+	private final Deque<Channel> turns = new ArrayDeque<Channel>();
+	private final byte[] readBuffer = new byte[256];
+	private final Thread arbiter;
+	/**
+	 * The port and baud rate this bus was opened on from configuration, or
+	 * null if it was created directly.
+	 */
+	private String portName;
+	private int baudRate;
+	private Channel current;
+	private int awaiting;
+	/**
+	 * The &lt;ETX&gt;s still to come from an abandoned exchange, while the bus is
+	 * held quiet after it.
+	 */
+	private int abandoned;
+	private long lastReceivedNanos;
+	private boolean running = true;
+
+	/**
+	 * Creates a bus over the given port, which it takes ownership of.
+	 *
+	 * @param port					The link to the bus.
+	 * @param exchangeTimeoutMillis	How long to wait for an exchange to be answered.
+	 * @param guardMillis			How long the line must be silent after an abandoned exchange.
+	 */
+	public NCIBus(NCITransport port, long exchangeTimeoutMillis, long guardMillis) {
+		if (exchangeTimeoutMillis <= 0) throw new IllegalArgumentException("The exchange timeout must be positive.");
+		if (guardMillis <= 0 || guardMillis >= NCIDeviceRxtx.TIMEOUT) throw new IllegalArgumentException("The guard must be positive and shorter than the device timeout.");
+		this.port = port;
+		this.exchangeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(exchangeTimeoutMillis);
+		this.guardNanos = TimeUnit.MILLISECONDS.toNanos(guardMillis);
+		this.arbiter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				arbitrate();
+			}
+		}, "NCI bus arbiter");
+		this.arbiter.setDaemon(true);
+		port.setTransportListener(this);
+		this.arbiter.start();
+	}
+
+	public NCIBus(NCITransport port, long exchangeTimeoutMillis) {
+		this(port, exchangeTimeoutMillis, DEFAULT_GUARD);
+	}
+
+	public NCIBus(NCITransport port) {
+		this(port, DEFAULT_EXCHANGE_TIMEOUT, DEFAULT_GUARD);
+	}
+
+	/**
+	 * Opens the channel for the device at an address on the bus from its
+	 * configuration, opening the bus itself if this is its first device.
+	 *
+	 * @param configuration	The device's configuration, with a commport and an address.
+	 * @return	The channel for the device.
+	 * @throws NCIException	Thrown if the port cannot be opened, the settings disagree with the bus's, or the address is taken.
+	 */
+	static NCITransport openChannel(DeviceConfiguration configuration) throws NCIException {
+		String name = configuration.getName();
+		String portName = configuration.getCommPort();
+		if (portName == null) throw new NCIException("Device '" + name + "' has an address but no commport for its bus.");
+		String address = configuration.getAddress();
+		long timeout = configuration.getBusTimeout();
+		synchronized (PORTS) {
+			NCIBus bus = PORTS.get(portName);
+			if (bus == null) {
+				bus = new NCIBus(RxtxTransport.open(portName, "NCI bus: " + portName, configuration.getBaudRate()), timeout);
+				bus.portName = portName;
+				bus.baudRate = configuration.getBaudRate();
+				PORTS.put(portName, bus);
+			} else if (bus.baudRate != configuration.getBaudRate()) {
+				throw new NCIException("Device '" + name + "' has a baud rate of " + configuration.getBaudRate() + " but the bus on " + portName + " is open at " + bus.baudRate + ".");
+			} else if (bus.exchangeTimeoutNanos != TimeUnit.MILLISECONDS.toNanos(timeout)) {
+				throw new NCIException("Device '" + name + "' has a bustimeout of " + timeout + "ms but the bus on " + portName + " is open with "
+						+ TimeUnit.NANOSECONDS.toMillis(bus.exchangeTimeoutNanos) + "ms.");
+			}
+			try {
+				return bus.openChannel(address);
+			} catch (NCIException e) {
+				bus.closeIfUnused();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Opens a device at an address on the bus.
+	 *
+	 * @param address		The address prefixed to the device's commands.
+	 * @param checkParity	Whether to check the parity of status bytes.
+	 * @return	The device. Closing it frees the address.
+	 * @throws NCIException	Thrown if the address is taken or the bus is closed.
+	 */
+	public NCIDevice openDevice(String address, boolean checkParity) throws NCIException {
+		return new NCIDeviceRxtx(openChannel(address), checkParity);
+	}
+
+	/**
+	 * Opens the channel to the device at an address on the bus.
+	 *
+	 * @param address	The address prefixed to the device's commands.
+	 * @return	The channel. Closing it frees the address.
+	 * @throws NCIException	Thrown if the address is taken or invalid, the bus is closed, or it has no room for another device's turn.
+	 */
+	public NCITransport openChannel(String address) throws NCIException {
+		if (address.isEmpty() || address.indexOf(CR) >= 0) throw new NCIException("The address '" + address + "' must be non-empty and contain no carriage return.");
+		synchronized (lock) {
+			if (!running) throw new NCIException("The bus is closed.");
+			if (channels.containsKey(address)) throw new NCIException("The address '" + address + "' is already open on the bus.");
+			if (DEVICE_TIMEOUT_NANOS / (channels.size() + 1) <= guardNanos) {
+				throw new NCIException("The bus cannot fit a turn for " + (channels.size() + 1) + " devices within the device timeout of " + NCIDeviceRxtx.TIMEOUT + "ms.");
+			}
+			Channel channel = new Channel(address);
+			channels.put(address, channel);
+			return channel;
+		}
+	}
+
+	/**
+	 * Stops the bus and closes its port. Its channels stay open but can no
+	 * longer send.
+	 *
+	 * @throws NCIException	Thrown if the port could not be closed.
+	 */
+	public void close() throws NCIException {
+		synchronized (lock) {
+			if (!running) return;
+			running = false;
+			turns.clear();
+			current = null;
+			abandoned = 0;
+			lock.notifyAll();
+		}
+		port.close();
+	}
+
+	/**
+	 * Closes a bus opened from configuration once it has no channels left.
+	 * The port is closed before the bus is let go of, so a device opened on
+	 * the same port meanwhile waits to open it again rather than finding it
+	 * still owned.
+	 */
+	private void closeIfUnused() throws NCIException {
+		synchronized (PORTS) {
+			if (portName == null) return;
+			synchronized (lock) {
+				if (!channels.isEmpty()) return;
+			}
+			if (PORTS.get(portName) == this) PORTS.remove(portName);
+			close();
+		}
+	}
+
+	private void submit(Channel channel, byte[] frame, int replies) throws IOException {
+		synchronized (lock) {
+			if (!running) throw new IOException("The bus is closed.");
+			channel.exchanges.add(new Exchange(frame, replies));
+			if (!channel.queued) {
+				channel.queued = true;
+				turns.add(channel);
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private void arbitrate() {
+		while (true) {
+			Channel channel;
+			Exchange exchange;
+			synchronized (lock) {
+				try {
+					while (running && turns.isEmpty()) lock.wait();
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (!running) return;
+				channel = turns.poll();
+				exchange = channel.exchanges.poll();
+				if (channel.exchanges.isEmpty()) {
+					channel.queued = false;
+				} else {
+					turns.add(channel);
+				}
+				current = channel;
+				awaiting = exchange.replies;
+			}
+			long start = System.nanoTime();
+			try {
+				OutputStream os = port.getOutputStream();
+				os.write(exchange.frame);
+				os.flush();
+			} catch (IOException e) {
+				// The device will time out waiting for its reply.
+				synchronized (lock) {
+					if (current == channel) current = null;
+				}
+				continue;
+			}
+			synchronized (lock) {
+				long deadline = start + turnNanos() - guardNanos;
+				try {
+					while (running && current == channel) {
+						long remaining = deadline - System.nanoTime();
+						if (remaining <= 0) {
+							current = null;
+							abandoned = awaiting;
+							lastReceivedNanos = Math.max(lastReceivedNanos, System.nanoTime());
+							break;
+						}
+						TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+					}
+					while (running && abandoned > 0) {
+						long remaining = lastReceivedNanos + guardNanos - System.nanoTime();
+						if (remaining <= 0) {
+							abandoned = 0;
+							break;
+						}
+						TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return	The longest an exchange may hold the bus, guard included, for each open channel to have its turn within the device timeout.
+	 */
+	private long turnNanos() {
+		return Math.min(exchangeTimeoutNanos + guardNanos, DEVICE_TIMEOUT_NANOS / Math.max(1, channels.size()));
+	}
+
+	@Override
+	public void dataAvailable() {
+		try {
+			InputStream is = port.getInputStream();
+			int n;
+			while ((n = is.read(readBuffer, 0, readBuffer.length)) > 0) {
+				// A read can end one reply and carry on into what follows it, which is routed on its own.
+				int off = 0;
+				while (off < n) {
+					Channel target;
+					int end = n;
+					synchronized (lock) {
+						lastReceivedNanos = System.nanoTime();
+						target = current;
+						for (int i = off; i < n; i++) {
+							if (readBuffer[i] != ETX) continue;
+							if (target != null ? --awaiting == 0 : abandoned > 0 && --abandoned == 0) {
+								end = i + 1;
+								current = null;
+								lock.notifyAll();
+								break;
+							}
+						}
+					}
+					if (target != null) {
+						try {
+							target.deliver(readBuffer, off, end - off);
+						} catch (IOException e) {
+							// The channel was closed while its exchange was outstanding.
+						}
+					}
+					off = end;
+				}
+			}
+		} catch (IOException e) {
+			// Nothing to route; the exchange will time out.
+		}
+	}
+
+	private static class Exchange {
+		private final byte[] frame;
+		private final int replies;
+
+		private Exchange(byte[] frame, int replies) {
+			this.frame = frame;
+			this.replies = replies;
+		}
+	}
+
+	/**
+	 * The transport for one address. Commands are collected up to their
+	 * &lt;CR&gt;, and those completed by one write go out as one exchange, so a
+	 * batch is not interleaved with other devices' commands.
+	 */
+	private class Channel extends BufferedTransport {
+		private final String address;
+		private final Deque<Exchange> exchanges = new ArrayDeque<Exchange>();
+		private boolean queued = false;
+		private byte[] partial = new byte[0];
+
+		private Channel(String address) {
+			this.address = address;
+		}
+
+		@Override
+		protected synchronized void send(byte[] b, int off, int len) throws IOException {
+			byte[] prefix = address.getBytes("US-ASCII");
+			byte[] frame = new byte[(partial.length + len) * (prefix.length + 1)];
+			int length = 0;
+			int replies = 0;
+			int start = 0;
+			byte[] pending = new byte[partial.length + len];
+			System.arraycopy(partial, 0, pending, 0, partial.length);
+			System.arraycopy(b, off, pending, partial.length, len);
+			for (int i = 0; i < pending.length; i++) {
+				if (pending[i] != CR) continue;
+				System.arraycopy(prefix, 0, frame, length, prefix.length);
+				length += prefix.length;
+				System.arraycopy(pending, start, frame, length, i + 1 - start);
+				length += i + 1 - start;
+				start = i + 1;
+				replies++;
+			}
+			partial = new byte[pending.length - start];
+			System.arraycopy(pending, start, partial, 0, partial.length);
+			if (replies == 0) return;
+			byte[] exchange = new byte[length];
+			System.arraycopy(frame, 0, exchange, 0, length);
+			submit(this, exchange, replies);
+		}
+
+		@Override
+		public void close() throws NCIException {
+			if (isClosed()) return;
+			super.close();
+			synchronized (lock) {
+				channels.remove(address);
+				exchanges.clear();
+				turns.remove(this);
+				queued = false;
+			}
+			closeIfUnused();
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package com.jackflashtech.nci.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import com.jackflashtech.nci.NCIException;
+
+/**
+ * An immutable snapshot of "nci.properties", parsed once into a
+ * {@link DeviceConfiguration} for each device it names. The file is read in a
+ * single pass, grouping the "nci.&lt;name&gt;.&lt;key&gt;" entries by device,
+ * so parsing and looking up a device do not grow with the number of other
+ * devices in the file. Entries that do not start with "nci." are ignored.
+ *
+ * A configuration is never changed once parsed; reloading the file produces a
+ * new instance, which {@link NCIFactory} swaps in whole.
+ */
+public final class NCIConfiguration {
+	/**
+	 * The name of the resource on the classpath the default configuration is
+	 * loaded from.
+	 */
+	public static final String RESOURCE_NAME = "nci.properties";
+
+	private final Map<String, DeviceConfiguration> devices;
+
+	private NCIConfiguration(Map<String, DeviceConfiguration> devices) {
+		this.devices = Collections.unmodifiableMap(devices);
+	}
+
+	/**
+	 * Parses and validates every device in the given properties.
+	 *
+	 * @param settings	The contents of "nci.properties".
+	 * @return	The parsed configuration.
+	 * @throws NCIException	Thrown if the settings of any device are missing or cannot be parsed.
+	 */
+	public static NCIConfiguration parse(Properties settings) throws NCIException {
+		Map<String, Properties> entries = new HashMap<String, Properties>();
+		for (String key : settings.stringPropertyNames()) {
+			if (!key.startsWith("nci.")) continue;
+			int keyStart = key.lastIndexOf('.');
+			if (keyStart <= "nci.".length()) continue;
+			String name = key.substring("nci.".length(), keyStart);
+			Properties deviceEntries = entries.get(name);
+			if (deviceEntries == null) {
+				deviceEntries = new Properties();
+				entries.put(name, deviceEntries);
+			}
+			deviceEntries.setProperty(key, settings.getProperty(key));
+		}
+		Map<String, DeviceConfiguration> devices = new LinkedHashMap<String, DeviceConfiguration>();
+		for (Map.Entry<String, Properties> entry : entries.entrySet()) {
+			devices.put(entry.getKey(), new DeviceConfiguration(entry.getKey(), entry.getValue()));
+		}
+		return new NCIConfiguration(devices);
+	}
+
+	/**
+	 * Loads and parses "nci.properties" from the root of the classpath.
+	 *
+	 * @return	The parsed configuration.
+	 * @throws NCIException	Thrown if the file cannot be found, read, or parsed.
+	 */
+	public static NCIConfiguration load() throws NCIException {
+		InputStream inStream = NCIConfiguration.class.getClassLoader().getResourceAsStream(RESOURCE_NAME);
+		if (inStream == null) throw new NCIException("No " + RESOURCE_NAME + " was found on the classpath.");
+		return load(inStream);
+	}
+
+	/**
+	 * Loads and parses a properties file.
+	 *
+	 * @param file	The file to load.
+	 * @return	The parsed configuration.
+	 * @throws NCIException	Thrown if the file cannot be read or parsed.
+	 */
+	public static NCIConfiguration load(Path file) throws NCIException {
+		try {
+			return load(Files.newInputStream(file));
+		} catch (IOException e) {
+			throw new NCIException("Exception reading " + file + ".", e);
+		}
+	}
+
+	private static NCIConfiguration load(InputStream inStream) throws NCIException {
+		Properties settings = new Properties();
+		try {
+			try {
+				settings.load(inStream);
+			} finally {
+				inStream.close();
+			}
+		} catch (IOException e) {
+			throw new NCIException("Exception reading " + RESOURCE_NAME + ".", e);
+		}
+		return parse(settings);
+	}
+
+	/**
+	 * @param name	The name of a device.
+	 * @return	The settings of the device, or null if there is no device with that name.
+	 */
+	public DeviceConfiguration getDeviceConfiguration(String name) {
+		return devices.get(name);
+	}
+
+	public Set<String> getDeviceNames() {
+		return devices.keySet();
+	}
+}
@@ -0,0 +1,28 @@
+package com.jackflashtech.nci.impl;
+
+import com.jackflashtech.nci.NCIException;
+
+/**
+ * A listener for changes to the configuration of an {@link NCIFactory} that is
+ * watching its file; see {@link NCIFactory#watchConfiguration()}. These methods
+ * are called on the watching thread.
+ */
+public interface NCIConfigurationListener {
+	/**
+	 * Called after a new configuration has been swapped in. Compare the
+	 * {@link DeviceConfiguration} of each device to find what was added,
+	 * removed, or changed.
+	 * 
+	 * @param previous	The configuration that was replaced.
+	 * @param current	The configuration now in use.
+	 */
+	void configurationChanged(NCIConfiguration previous, NCIConfiguration current);
+
+	/**
+	 * Called when the file changed but could not be parsed. The previous
+	 * configuration stays in use.
+	 * 
+	 * @param exception	The reason the file could not be parsed.
+	 */
+	void configurationFailed(NCIException exception);
+}
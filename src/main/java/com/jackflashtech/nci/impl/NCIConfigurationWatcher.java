@@ -0,0 +1,96 @@
+package com.jackflashtech.nci.impl;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.jackflashtech.nci.NCIException;
+
+/**
+ * This watches a configuration file and swaps a freshly parsed
+ * {@link NCIConfiguration} into the given reference whenever the file changes.
+ * A file that fails to parse leaves the previous configuration in place.
+ */
+class NCIConfigurationWatcher implements Runnable {
+	/**
+	 * The time to let further changes to the file arrive before reading it, so
+	 * a file that is still being written is not parsed half-way through.
+	 */
+	private static final long SETTLE_MILLIS = 200;
+
+	private final Path file;
+	private final AtomicReference<NCIConfiguration> configuration;
+	private final List<NCIConfigurationListener> listeners;
+	private final WatchService watchService;
+	private final Thread thread;
+
+	NCIConfigurationWatcher(Path file, AtomicReference<NCIConfiguration> configuration, List<NCIConfigurationListener> listeners) throws NCIException {
+		this.file = file.toAbsolutePath();
+		this.configuration = configuration;
+		this.listeners = listeners;
+		try {
+			this.watchService = FileSystems.getDefault().newWatchService();
+			this.file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException e) {
+			throw new NCIException("Exception watching " + file + ".", e);
+		}
+		this.thread = new Thread(this, "NCI configuration watcher");
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	void stop() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			// The thread is finished either way.
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				boolean changed = false;
+				while (key != null) {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (file.getFileName().equals(event.context())) changed = true;
+					}
+					key.reset();
+					key = changed ? watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS) : null;
+				}
+				if (changed) reload();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// Stopped.
+		}
+	}
+
+	void reload() {
+		NCIConfiguration current;
+		try {
+			current = NCIConfiguration.load(file);
+		} catch (NCIException e) {
+			for (NCIConfigurationListener listener : listeners) {
+				listener.configurationFailed(e);
+			}
+			return;
+		}
+		NCIConfiguration previous = configuration.getAndSet(current);
+		for (NCIConfigurationListener listener : listeners) {
+			listener.configurationChanged(previous, current);
+		}
+	}
+}
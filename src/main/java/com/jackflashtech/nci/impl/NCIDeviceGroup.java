@@ -0,0 +1,171 @@
+package com.jackflashtech.nci.impl;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.data.GroupReading;
+import com.jackflashtech.nci.data.Reading;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+
+/**
+ * This reads several devices at the same time, such as the scales under each
+ * corner of a platform or every scale on a host. The weight is requested from
+ * every member at once, on a thread per member, and the results are collected
+ * under a single deadline, so reading the group takes about as long as reading
+ * its slowest member rather than the sum of all of them. Instances are usually
+ * created through {@link NCIFactory#getDeviceGroup(String...)}.
+ */
+public class NCIDeviceGroup {
+	/**
+	 * This is the deadline used by {@link #getWeight()}. It matches the time
+	 * an individual device waits for a reply.
+	 */
+	private static final long TIMEOUT = 2000;
+
+	private final Map<String, NCIDevice> members;
+	private final ExecutorService executor;
+
+	/**
+	 * Creates a group of the given devices. The group takes ownership of the
+	 * devices, and closes them in {@link #closeGroup()}.
+	 *
+	 * @param members	The devices in the group, keyed by name.
+	 */
+	public NCIDeviceGroup(Map<String, NCIDevice> members) {
+		this.members = new LinkedHashMap<String, NCIDevice>(members);
+		this.executor = Executors.newFixedThreadPool(Math.max(1, members.size()), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "NCI device group");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public Map<String, NCIDevice> getMembers() {
+		return members;
+	}
+
+	/**
+	 * Reads the weight of every member, waiting at most the default timeout.
+	 *
+	 * @return	The combined reading of the group.
+	 * @throws NCIException	Thrown if the calling thread is interrupted while waiting.
+	 * @see #getWeight(long)
+	 */
+	public GroupReading getWeight() throws NCIException {
+		return getWeight(TIMEOUT);
+	}
+
+	/**
+	 * Reads the weight of every member at the same time. Members that reply
+	 * with an error are reported in {@link GroupReading#getFailures()}, and
+	 * members that have not replied by the deadline are interrupted and
+	 * reported in {@link GroupReading#getMissed()}; neither fails the whole
+	 * reading.
+	 *
+	 * @param timeoutMillis	The time to wait for all of the members, in milliseconds.
+	 * @return	The combined reading of the group.
+	 * @throws NCIException	Thrown if the calling thread is interrupted while waiting.
+	 */
+	public GroupReading getWeight(long timeoutMillis) throws NCIException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		Map<String, Future<Sample>> futures = new LinkedHashMap<String, Future<Sample>>();
+		for (Map.Entry<String, NCIDevice> member : members.entrySet()) {
+			final NCIDevice device = member.getValue();
+			futures.put(member.getKey(), executor.submit(new Callable<Sample>() {
+				@Override
+				public Sample call() throws Exception {
+					Weight weight = device.getWeight();
+					// The status and the time are only known from the reading of this reply, which holds the
+					// same weight. Another call may have recorded a later reading since, and then neither is.
+					Reading reading = device.latestReading();
+					if (reading == null || reading.getWeight() != weight) return new Sample(weight, null, System.nanoTime());
+					return new Sample(weight, reading.getStatus(), reading.getReceivedNanos());
+				}
+			}));
+		}
+
+		Map<String, Weight> weights = new LinkedHashMap<String, Weight>();
+		Map<String, Status> statuses = new LinkedHashMap<String, Status>();
+		Map<String, Long> timestamps = new LinkedHashMap<String, Long>();
+		Map<String, NCIException> failures = new LinkedHashMap<String, NCIException>();
+		Set<String> missed = new LinkedHashSet<String>();
+		long totalMicrograms = 0;
+		long earliest = Long.MAX_VALUE;
+		long latest = Long.MIN_VALUE;
+		try {
+			for (Map.Entry<String, Future<Sample>> future : futures.entrySet()) {
+				String name = future.getKey();
+				try {
+					Sample sample = future.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+					weights.put(name, sample.weight);
+					if (sample.status != null) statuses.put(name, sample.status);
+					timestamps.put(name, sample.timestamp);
+					totalMicrograms += sample.weight.getMicrograms();
+					earliest = Math.min(earliest, sample.timestamp);
+					latest = Math.max(latest, sample.timestamp);
+				} catch (TimeoutException e) {
+					future.getValue().cancel(true);
+					missed.add(name);
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					failures.put(name, cause instanceof NCIException ? (NCIException) cause : new NCIException(cause));
+				}
+			}
+		} catch (InterruptedException e) {
+			for (Future<Sample> future : futures.values()) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new NCIException("Interrupted while waiting for the devices in the group.", e);
+		}
+
+		long skewNanos = timestamps.isEmpty() ? 0 : latest - earliest;
+		return new GroupReading(weights, statuses, timestamps, failures, missed, totalMicrograms, skewNanos);
+	}
+
+	/**
+	 * Stops the threads used to read the group and closes every member.
+	 *
+	 * @throws NCIException	The first exception thrown closing a member. The remaining members are still closed.
+	 */
+	public void closeGroup() throws NCIException {
+		executor.shutdownNow();
+		NCIException firstException = null;
+		for (NCIDevice device : members.values()) {
+			try {
+				device.closeDevice();
+			} catch (NCIException e) {
+				if (firstException == null) firstException = e;
+			}
+		}
+		if (firstException != null) throw firstException;
+	}
+
+	private static class Sample {
+		final Weight weight;
+		final Status status;
+		final long timestamp;
+
+		Sample(Weight weight, Status status, long timestamp) {
+			this.weight = weight;
+			this.status = status;
+			this.timestamp = timestamp;
+		}
+	}
+}
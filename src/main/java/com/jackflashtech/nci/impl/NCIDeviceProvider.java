@@ -0,0 +1,43 @@
+package com.jackflashtech.nci.impl;
+
+import java.util.Set;
+
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIException;
+
+/**
+ * The service through which {@link NCIFactory} creates devices. Implementations
+ * are discovered with {@link java.util.ServiceLoader}, so an alternative
+ * {@link NCIDevice} can be shipped in its own jar by listing its provider in
+ * "META-INF/services/com.jackflashtech.nci.impl.NCIDeviceProvider". The
+ * providers are loaded once, and a device whose "implclass" names one of them
+ * is created without any reflection.
+ */
+public interface NCIDeviceProvider {
+	/**
+	 * The values of "implclass" this provider creates devices for, usually the
+	 * fully-qualified and simple names of the implementing class.
+	 * 
+	 * @return	The names this provider answers to.
+	 */
+	Set<String> getImplClassNames();
+
+	/**
+	 * The settings this provider reads, without the "nci.&lt;name&gt;." prefix.
+	 * The settings common to every device, listed in
+	 * {@link DeviceConfiguration}, need not be included. A device configured
+	 * with any other setting is rejected, which catches misspelled keys.
+	 * 
+	 * @return	The keys of the settings this provider reads, or null if the settings should not be checked.
+	 */
+	Set<String> getConfigurationKeys();
+
+	/**
+	 * Creates and opens a device.
+	 * 
+	 * @param configuration	The settings of the device.
+	 * @return	The opened device.
+	 * @throws NCIException	Thrown if the device cannot be created or opened.
+	 */
+	NCIDevice createDevice(DeviceConfiguration configuration) throws NCIException;
+}
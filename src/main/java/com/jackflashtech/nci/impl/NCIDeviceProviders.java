@@ -0,0 +1,134 @@
+package com.jackflashtech.nci.impl;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIException;
+
+/**
+ * The registry of {@link NCIDeviceProvider} instances, keyed by the values of
+ * "implclass" they answer to. The providers found by
+ * {@link ServiceLoader} are loaded the first time a device is created. An
+ * "implclass" that no provider answers to is resolved by reflection once, as
+ * {@link NCIFactory} always did, and the resulting constructor is cached as a
+ * provider of its own.
+ */
+class NCIDeviceProviders {
+	/**
+	 * The settings read by {@link DeviceConfiguration} for every device.
+	 */
+	static final Set<String> COMMON_KEYS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+			"implclass", "commport", "autodiscovery", "checkparity", "baudrate", "pollrate", "lazy", "filter")));
+
+	private static final ConcurrentHashMap<String, NCIDeviceProvider> PROVIDERS = new ConcurrentHashMap<String, NCIDeviceProvider>();
+	static {
+		for (NCIDeviceProvider provider : ServiceLoader.load(NCIDeviceProvider.class, NCIDeviceProviders.class.getClassLoader())) {
+			register(provider);
+		}
+	}
+
+	private NCIDeviceProviders() {
+	}
+
+	static void register(NCIDeviceProvider provider) {
+		for (String implClass : provider.getImplClassNames()) {
+			PROVIDERS.put(implClass, provider);
+		}
+	}
+
+	/**
+	 * Finds the provider for a device and checks the device has no settings
+	 * the provider does not read.
+	 * 
+	 * @param configuration	The settings of the device.
+	 * @return	The provider for the device's "implclass".
+	 * @throws NCIException	Thrown if no provider can be found, or the device has unknown settings.
+	 */
+	static NCIDeviceProvider getProvider(DeviceConfiguration configuration) throws NCIException {
+		String implClass = configuration.getImplClass();
+		NCIDeviceProvider provider = PROVIDERS.get(implClass);
+		if (provider == null) {
+			provider = new ReflectiveDeviceProvider(implClass);
+			NCIDeviceProvider existing = PROVIDERS.putIfAbsent(implClass, provider);
+			if (existing != null) provider = existing;
+		}
+		Set<String> providerKeys = provider.getConfigurationKeys();
+		if (providerKeys != null) {
+			for (String key : configuration.getKeys()) {
+				if (!COMMON_KEYS.contains(key) && !providerKeys.contains(key)) {
+					throw new NCIException("Device '" + configuration.getName() + "' has a setting '" + key + "' that " + implClass + " does not recognize.");
+				}
+			}
+		}
+		return provider;
+	}
+
+	/**
+	 * A provider for an implementation that is not registered with
+	 * {@link ServiceLoader}. Its constructor taking a
+	 * {@link DeviceConfiguration}, or else the older one taking its settings
+	 * as {@link Properties} and its name, is looked up once. It does not
+	 * declare its settings, so they are not checked.
+	 */
+	static class ReflectiveDeviceProvider implements NCIDeviceProvider {
+		private final String implClass;
+		private Constructor<? extends NCIDevice> configurationConstructor = null;
+		private Constructor<? extends NCIDevice> propertiesConstructor = null;
+
+		ReflectiveDeviceProvider(String implClass) throws NCIException {
+			this.implClass = implClass;
+			try {
+				Class<?> objClass = NCIDeviceProviders.class.getClassLoader().loadClass(implClass);
+				Class<? extends NCIDevice> deviceClassObj = objClass.asSubclass(NCIDevice.class);
+				try {
+					this.configurationConstructor = deviceClassObj.getDeclaredConstructor(DeviceConfiguration.class);
+					this.configurationConstructor.setAccessible(true);
+				} catch (NoSuchMethodException e) {
+					this.propertiesConstructor = deviceClassObj.getDeclaredConstructor(Properties.class, String.class);
+					this.propertiesConstructor.setAccessible(true);
+				}
+			} catch (ClassNotFoundException |
+					ClassCastException |
+					NoSuchMethodException |
+					SecurityException e) {
+				throw new NCIException("No device class could be resolved with name: " + implClass, e);
+			}
+		}
+
+		@Override
+		public Set<String> getImplClassNames() {
+			return Collections.singleton(implClass);
+		}
+
+		@Override
+		public Set<String> getConfigurationKeys() {
+			return null;
+		}
+
+		@Override
+		public NCIDevice createDevice(DeviceConfiguration configuration) throws NCIException {
+			try {
+				if (configurationConstructor != null) {
+					return configurationConstructor.newInstance(configuration);
+				} else {
+					return propertiesConstructor.newInstance(configuration.getProperties(), configuration.getName());
+				}
+			} catch (InvocationTargetException e) {
+				if (e.getCause() instanceof NCIException) throw (NCIException) e.getCause();
+				throw new NCIException("Exception constructing the device instance.", e);
+			} catch (InstantiationException |
+					IllegalAccessException |
+					IllegalArgumentException e) {
+				throw new NCIException("Exception constructing the device instance.", e);
+			}
+		}
+	}
+}
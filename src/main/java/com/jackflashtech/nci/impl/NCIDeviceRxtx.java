@@ -3,46 +3,63 @@ package com.jackflashtech.nci.impl;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 import java.util.TooManyListenersException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import com.jackflashtech.nci.CallOptions;
+import com.jackflashtech.nci.Cancellation;
+import com.jackflashtech.nci.Command;
+import com.jackflashtech.nci.NCICancelledException;
+import com.jackflashtech.nci.NCICircuitOpenException;
 import com.jackflashtech.nci.NCIDevice;
 import com.jackflashtech.nci.NCIDeviceListener;
 import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.NCIParseException;
+import com.jackflashtech.nci.NCITimeoutException;
+import com.jackflashtech.nci.NCIUnsupportedException;
+import com.jackflashtech.nci.Priority;
+import com.jackflashtech.nci.RawCountListener;
 import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.board.BoardSlot;
+import com.jackflashtech.nci.board.ReadingBoard;
+import com.jackflashtech.nci.data.CommandResult;
+import com.jackflashtech.nci.data.Reading;
 import com.jackflashtech.nci.data.Status;
 import com.jackflashtech.nci.data.Weight;
+import com.jackflashtech.nci.data.ZeroStatistics;
 
 import gnu.io.CommPortIdentifier;
-import gnu.io.NoSuchPortException;
 import gnu.io.PortInUseException;
 import gnu.io.SerialPort;
-import gnu.io.SerialPortEvent;
-import gnu.io.SerialPortEventListener;
-import gnu.io.UnsupportedCommOperationException;
 
 // TODO: If a synchronous method is called, then times out, then another
 // function is called, then the original function returns, the new state will be
 // parsed as it if it is the response to the new call. I do not see a valid way
 // to respond to this, with this architecture or any other.
-public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
-	/**
-	 * This is the timeout when waiting to get the COM port.
-	 */
-	private static final int COMM_TIMEOUT = 2000;
+public class NCIDeviceRxtx implements NCIDevice, NCITransportListener {
 	/**
 	 * This is the timeout when waiting for a response from the device.
 	 */
-	private final static int TIMEOUT = 2000;
+	final static int TIMEOUT = 2000;
 	/**
 	 * The allocated length of the message from the device. This is almost
 	 * certainly too small to support advanced messages like from Request About
 	 * or Request Diag.
 	 */
 	private final static int INPUT_BUFFER_LENGTH = 30;
+	/**
+	 * How long to wait before sending a command again after a corrupted
+	 * reply, for the rest of the reply to arrive and be thrown away.
+	 */
+	private final static long RESEND_QUIET_MILLIS = 5;
 	
 	/**
 	 * This is a {@link Map} of the String representation of the units to the
@@ -72,22 +89,47 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 	private final ITransmissionState STATUS_STATE = new SimpleStatusTransmissionState();
 	private final ITransmissionState WEIGHT_STATE = new GeneralTransmissionState(new WeightTransmissionState(STATUS_STATE));
 	private final ITransmissionState UNITS_STATE = new GeneralTransmissionState(new UnitsTransmissionState(STATUS_STATE));
-	// TODO: I did not create a metrology state. I was going to reuse the WeightTransmissionState until I figured it out, and that never completed because my scale doesn't implement this.
+	private final ITransmissionState METROLOGY_STATE = new GeneralTransmissionState(new MetrologyTransmissionState(STATUS_STATE));
 	private final ITransmissionState ABOUT_STATE = new GeneralTransmissionState(new AboutTransmissionState(STATUS_STATE));
 	private final ITransmissionState DIAGNOSTICS_STATE = new GeneralTransmissionState(new DiagnosticsTransmissionState(STATUS_STATE));
 	
-	private SerialPort port;
+	private NCITransport transport;
 	private IPrimaryState currentState = null;
+	private final CommandLanes lanes = new CommandLanes();
+	private volatile CircuitBreaker breaker = new CircuitBreaker();
+	/**
+	 * Whether any input has arrived since the current command was admitted,
+	 * which tells the breaker the device is there.
+	 */
+	private volatile boolean answered = false;
 	boolean checkParity;
-	NCIDeviceListener listener = null;
+	volatile NCIDeviceListener listener = null;
+	private ZeroDriftMonitor monitor = new ZeroDriftMonitor();
 
 	// These are holding values for coordinating between the threads that call in and out of this class.
 	volatile Weight weight = null;
 	volatile Units units = null;
 	volatile NCIException transmissionException;
-	volatile Weight metrology = null;
+	volatile Long metrology = null;
 	// TODO: Presumably, there will be other DTOs for the About, Diagnostic, Metrology states, etc.
 	volatile Status status = null;
+	/**
+	 * The status of the last reply that had one, for {@link #getStatus()}.
+	 * Unlike {@link #status}, it is never cleared.
+	 */
+	private volatile Status lastStatus = null;
+	/**
+	 * When the last reply was completely received, from {@link System#nanoTime()}.
+	 */
+	volatile long receivedNanos;
+	/**
+	 * When the serial event being parsed arrived, from {@link System#nanoTime()}.
+	 */
+	private long arrivedNanos;
+	private final AtomicReference<Reading> latestReading = new AtomicReference<Reading>();
+	private volatile BoardSlot board = null;
+	private final RawCountStreamer rawCountStreamer = new RawCountStreamer(this);
+	private RawCountTransmissionState rawCountState = null;
 	
 	/**
 	 * Do not use this. It is only for running unit tests.
@@ -98,101 +140,255 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 		this.checkParity = checkParity;
 	}
 	
-	NCIDeviceRxtx(Properties deviceProperties, String name) throws NCIException {
+	/**
+	 * Creates a device that speaks over the given link instead of an RXTX
+	 * serial port, such as the loopback to a
+	 * {@link com.jackflashtech.nci.emulator.NCIScaleEmulator}. The device takes
+	 * ownership of the transport and closes it in {@link #closeDevice()}.
+	 *
+	 * @param transport		The link to the device.
+	 * @param checkParity	Whether to check the parity of status bytes.
+	 */
+	public NCIDeviceRxtx(NCITransport transport, boolean checkParity) {
+		this.checkParity = checkParity;
+		this.transport = transport;
+		transport.setTransportListener(this);
+	}
+	
+	NCIDeviceRxtx(DeviceConfiguration configuration) throws NCIException {
+		String name = configuration.getName();
 		String portName = null;
 		try {
-			portName = deviceProperties.getProperty("nci." + name + ".commport");
-			String autoDiscovery = deviceProperties.getProperty("nci." + name + ".autodiscovery");
-			// TODO: If autoDiscovery is provided but not parseable, then this is an error.
+			portName = configuration.getCommPort();
 			// TODO: if autoDiscovery is provided but false, then this is nonsense.
-			if (portName == null && autoDiscovery == null) throw new NCIException("No port name found.");
-			String checkParityString = deviceProperties.getProperty("nci." + name + ".checkparity");
-			if (checkParityString == null) throw new NCIException("Did not find a value for checkparity.");
+			if (portName == null && !configuration.isAutoDiscovery()) throw new NCIException("No port name found.");
+			if (configuration.getCheckParity() == null) throw new NCIException("Did not find a value for checkparity.");
+			// Every setting is read before the port is opened, so that a bad one does not leave the port owned.
+			ZeroDriftMonitor monitor = ZeroDriftMonitor.fromConfiguration(configuration);
+			CircuitBreaker breaker = CircuitBreaker.fromConfiguration(configuration);
+			String board = configuration.getBoard();
 			
-			if (portName != null) {
-				CommPortIdentifier portId = CommPortIdentifier.getPortIdentifier(portName);
-				this.port = (SerialPort) portId.open("NCI Driver: " + name, COMM_TIMEOUT);
-				port.setSerialPortParams(115200, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
-				port.setDTR(false);
-				port.setRTS(false);
-				port.addEventListener(this);
-				port.notifyOnDataAvailable(true);
-			} else if(Boolean.parseBoolean(autoDiscovery)) { // TODO: Realistically, there should be a better test that autoDiscovery is parseable and isn't an error.
+			if (configuration.getAddress() != null) {
+				this.transport = NCIBus.openChannel(configuration);
+				this.transport.setTransportListener(this);
+			} else if (portName != null) {
+				this.transport = RxtxTransport.open(portName, "NCI Driver: " + name, configuration.getBaudRate());
+				this.transport.setTransportListener(this);
+			} else if(configuration.isAutoDiscovery()) {
 				Enumeration<?> ids = CommPortIdentifier.getPortIdentifiers();
 				while (ids.hasMoreElements()) {
 					CommPortIdentifier id = (CommPortIdentifier)ids.nextElement();
 					if (!id.isCurrentlyOwned()) {
-						SerialPort port = (SerialPort)id.open("NCI Driver: " + name,  COMM_TIMEOUT);
+						SerialPort port = (SerialPort)id.open("NCI Driver: " + name,  RxtxTransport.COMM_TIMEOUT);
 						//port.setSerialPortParams(115200, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
-						port.setDTR(false);
-						port.setRTS(false);
-						port.addEventListener(this);
-						port.notifyOnDataAvailable(true);
-						this.port = port;
+						this.transport = new RxtxTransport(port);
+						this.transport.setTransportListener(this);
+						// Each port gets a breaker of its own, so a few silent ports do not refuse the rest.
+						this.breaker = new CircuitBreaker();
 						Status status;
 						try {
 							status = this.requestStatus();
 							if (status == null) {
-								this.port.close();
-								this.port = null;
+								this.transport.close();
+								this.transport = null;
 							} else {
 								break;
 							}
 						} catch (NCIException e) {
-							this.port.close();
-							this.port = null;
+							this.transport.close();
+							this.transport = null;
 						}
 					}
 				}
-				if (this.port == null) throw new NCIException("No devices were found that correctly responded as NCI devices.");
+				if (this.transport == null) throw new NCIException("No devices were found that correctly responded as NCI devices.");
 			} else {
 				// TODO: There should be an error condition here.
 			}
-			this.checkParity = Boolean.parseBoolean(checkParityString);	
-		} catch (NoSuchPortException e) {
-			throw new NCIException("There is no COM port named " + portName + ".", e);
+			this.checkParity = configuration.getCheckParity();
+			this.monitor = monitor;
+			this.breaker = breaker;
+			if (board != null) {
+				try {
+					publishTo(ReadingBoard.create(Paths.get(board.trim()), ReadingBoard.DEFAULT_SLOTS).claim(name));
+				} catch (NCIException | RuntimeException e) {
+					try {
+						this.transport.close();
+					} catch (NCIException suppressed) {
+						e.addSuppressed(suppressed);
+					}
+					throw e;
+				}
+			}
 		} catch (PortInUseException e) {
 			throw new NCIException("COM port named " + portName + " is in use.", e);
-		} catch (TooManyListenersException e) {
-			this.port.close();
-			throw new NCIException("The underlying port will not accept more listeners, so this device object will not work.", e);
-		} catch (UnsupportedCommOperationException e) {
-			this.port.close();
-			throw new NCIException("Bonkers.");
 		}
 	}
 
 	public void addDeviceListener(NCIDeviceListener listener) throws TooManyListenersException {
-		if (listener != null) throw new TooManyListenersException();
+		if (this.listener != null) throw new TooManyListenersException();
 		this.listener = listener;
 	}
 
+	/**
+	 * The running statistics of this device's readings at zero. See
+	 * {@link ZeroDriftMonitor} for how they are kept and configured.
+	 *
+	 * @return	A snapshot of the statistics.
+	 */
+	public ZeroStatistics getZeroStatistics() {
+		return monitor.getStatistics();
+	}
+
+	/**
+	 * Publishes a reading as the latest, adds it to the statistics at zero,
+	 * and tells the listener of any threshold it crossed. This is called by
+	 * the thread that asked for the reading, after the port is released, so
+	 * a reading can arrive here after a later one; it is then not published.
+	 */
+	private void recordReading(Weight weight, Status status, long receivedNanos) {
+		if (weight == null) return;
+		while (true) {
+			Reading previous = this.latestReading.get();
+			if (previous != null && previous.getReceivedNanos() - receivedNanos > 0) break;
+			Reading reading = new Reading(weight, status, previous == null ? 1 : previous.getSequence() + 1, receivedNanos);
+			if (this.latestReading.compareAndSet(previous, reading)) {
+				BoardSlot board = this.board;
+				if (board != null) board.publish(reading);
+				break;
+			}
+		}
+		List<ZeroStatistics.Alarm> alarms = monitor.record(weight, status, System.nanoTime());
+		NCIDeviceListener listener = this.listener;
+		if (alarms.isEmpty() || listener == null) return;
+		ZeroStatistics statistics = monitor.getStatistics();
+		for (ZeroStatistics.Alarm alarm : alarms) {
+			listener.statisticsAlarm(alarm, statistics);
+		}
+	}
+
+	/**
+	 * Publishes each reading to a slot of a {@link ReadingBoard} as well, for
+	 * other processes to read. The slot is closed with the device. A device
+	 * configured with "board", the path of the board's file, publishes to it
+	 * under its own name.
+	 *
+	 * @param slot	The slot claimed for this device.
+	 */
+	public void publishTo(BoardSlot slot) {
+		this.board = slot;
+		Reading reading = this.latestReading.get();
+		if (reading != null) slot.publish(reading);
+	}
+
+	/**
+	 * The breaker that refuses commands while this device is not answering.
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return breaker;
+	}
+
+	/**
+	 * Replaces the breaker, such as with one of other settings from
+	 * {@link CircuitBreaker#fromConfiguration(DeviceConfiguration)}.
+	 */
+	public void setCircuitBreaker(CircuitBreaker breaker) {
+		this.breaker = breaker;
+	}
+
+	/**
+	 * Admits a command to the device: refused at once if the breaker is open,
+	 * then in its lane, and then by the breaker again in case it opened while
+	 * the command waited. Every successful call must be followed by a call to
+	 * {@link #exit()} or {@link #abandon()}.
+	 */
+	private void enter(Priority priority) throws NCIException {
+		enter(priority, TIMEOUT, null);
+	}
+
+	private void enter(Priority priority, long timeoutMillis, Cancellation cancellation) throws NCIException {
+		CircuitBreaker breaker = this.breaker;
+		breaker.check();
+		this.lanes.acquire(priority, timeoutMillis, cancellation);
+		try {
+			breaker.allow();
+		} catch (NCIException e) {
+			this.lanes.release();
+			throw e;
+		}
+		this.answered = false;
+	}
+
+	/**
+	 * Tells the breaker whether the device answered the command, and frees
+	 * the device for the next.
+	 */
+	private void exit() {
+		if (this.answered) this.breaker.succeeded();
+		else this.breaker.failed();
+		this.lanes.release();
+	}
+
+	/**
+	 * Frees the device after a command the caller gave up on. Unless the
+	 * device answered, this tells the breaker nothing, since the device may
+	 * only have been slow.
+	 */
+	private void abandon() {
+		if (this.answered) this.breaker.succeeded();
+		else this.breaker.abandoned();
+		this.lanes.release();
+	}
+
 	public Weight getWeight() throws NCIException {
+		return getWeight(Priority.INTERACTIVE);
+	}
+
+	@Override
+	public Reading latestReading() {
+		return this.latestReading.get();
+	}
+
+	@Override
+	public Weight getWeight(Priority priority) throws NCIException {
 		Weight returnValue;
-		this.weight = null;
-		this.transmissionException = null;
-		
-		if (this.currentState != null) throw new NCIException("This device is in the middle of a communication and does not support concurrent operations.");
-		synchronized (this) {
-			byte[] outputMessage = {'W', 0x0d};
-			try {
-				this.port.getOutputStream().write(outputMessage);
-				this.port.getOutputStream().flush();
-				this.currentState = new SynchronousTransmissionState(WEIGHT_STATE);
-				this.wait(TIMEOUT);
-				if (this.transmissionException != null) throw this.transmissionException;
-				if (weight == null) {
-					throw new NCIException("There was a timeout or a failure to parse the response. No weight available.");
-				}
-				returnValue = this.weight;
-			} catch (IOException | InterruptedException e) {
-				throw new NCIException(e);
-			} finally {
-				this.weight = null;
-				this.transmissionException = null;
-				this.currentState = null;
+		Status returnStatus;
+		long returnReceived;
+		enter(priority);
+		boolean abandoned = false;
+		try {
+			this.weight = null;
+			this.transmissionException = null;
+			synchronized (this) {
+				byte[] outputMessage = {'W', 0x0d};
+				try {
+					this.transport.getOutputStream().write(outputMessage);
+					this.transport.getOutputStream().flush();
+					this.currentState = new SynchronousTransmissionState(WEIGHT_STATE);
+					this.wait(TIMEOUT);
+					if (this.transmissionException != null) throw this.transmissionException;
+					if (weight == null) {
+						throw new NCITimeoutException("There was a timeout or a failure to parse the response. No weight available.");
+					}
+					returnValue = this.weight;
+					returnStatus = this.status;
+					returnReceived = this.receivedNanos;
+				} catch (IOException e) {
+					throw new NCIException(e);
+				} catch (InterruptedException e) {
+					abandoned = true;
+					Thread.currentThread().interrupt();
+					throw new NCICancelledException("Interrupted while waiting for the device.", e);
+				} finally {
+					this.weight = null;
+					this.transmissionException = null;
+					this.currentState = null;
+				}
 			}
+		} finally {
+			if (abandoned) abandon();
+			else exit();
 		}
+		recordReading(returnValue, returnStatus, returnReceived);
 
 		return returnValue;
 	}
@@ -200,29 +396,43 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 	@Override
 	public Weight getHighResolutionWeight() throws NCIException {
 		Weight returnValue;
-		this.weight = null;
-		
-		if (this.currentState != null) throw new NCIException("This device is in the middle of a communication and does not support concurrent operations.");
-		synchronized (this) {
-			byte[] outputMessage = {'H', 0x0d};
-			try {
-				this.port.getOutputStream().write(outputMessage);
-				this.port.getOutputStream().flush();
-				this.currentState = new SynchronousTransmissionState(WEIGHT_STATE);
-				this.wait(TIMEOUT);
-				if (this.transmissionException != null) throw this.transmissionException;
-				if (weight == null) {
-					throw new NCIException("There was a timeout or a failure to parse the response. No weight available.");
-				}
-				returnValue = this.weight;
-			} catch (IOException | InterruptedException e) {
-				throw new NCIException(e);
-			} finally {
-				this.weight = null;
-				this.transmissionException = null;
-				this.currentState = null;
+		Status returnStatus;
+		long returnReceived;
+		enter(Priority.INTERACTIVE);
+		boolean abandoned = false;
+		try {
+			this.weight = null;
+			synchronized (this) {
+				byte[] outputMessage = {'H', 0x0d};
+				try {
+					this.transport.getOutputStream().write(outputMessage);
+					this.transport.getOutputStream().flush();
+					this.currentState = new SynchronousTransmissionState(WEIGHT_STATE);
+					this.wait(TIMEOUT);
+					if (this.transmissionException != null) throw this.transmissionException;
+					if (weight == null) {
+						throw new NCITimeoutException("There was a timeout or a failure to parse the response. No weight available.");
+					}
+					returnValue = this.weight;
+					returnStatus = this.status;
+					returnReceived = this.receivedNanos;
+				} catch (IOException e) {
+					throw new NCIException(e);
+				} catch (InterruptedException e) {
+					abandoned = true;
+					Thread.currentThread().interrupt();
+					throw new NCICancelledException("Interrupted while waiting for the device.", e);
+				} finally {
+					this.weight = null;
+					this.transmissionException = null;
+					this.currentState = null;
+				}
 			}
+		} finally {
+			if (abandoned) abandon();
+			else exit();
 		}
+		recordReading(returnValue, returnStatus, returnReceived);
 
 		return returnValue;
 	}
@@ -230,87 +440,178 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 	@Override
 	public Units changeUnitsOfMeasure() throws NCIException {
 		Units returnValue;
-		this.units = null;
-		
-		if (this.currentState != null) throw new NCIException("This device is in the middle of a communication and does not support concurrent operations.");
-		synchronized (this) {
-			byte[] outputMessage = {'U', 0x0d};
-			try {
-				this.port.getOutputStream().write(outputMessage);
-				this.port.getOutputStream().flush();
-				this.currentState = new SynchronousTransmissionState(UNITS_STATE);
-				this.wait(TIMEOUT);
-				if (this.transmissionException != null) throw this.transmissionException;
-				if (this.units == null) {
-					throw new NCIException("There was a timeout or a failure to parse the response. The change of units is unknown.");
-				}
-				returnValue = this.units;
-			} catch (IOException | InterruptedException e) {
-				throw new NCIException(e);
-			} finally {
-				this.units = null;
-				this.transmissionException = null;
-				this.currentState = null;
+		enter(Priority.INTERACTIVE);
+		boolean abandoned = false;
+		try {
+			this.units = null;
+			synchronized (this) {
+				byte[] outputMessage = {'U', 0x0d};
+				try {
+					this.transport.getOutputStream().write(outputMessage);
+					this.transport.getOutputStream().flush();
+					this.currentState = new SynchronousTransmissionState(UNITS_STATE);
+					this.wait(TIMEOUT);
+					if (this.transmissionException != null) throw this.transmissionException;
+					if (this.units == null) {
+						throw new NCITimeoutException("There was a timeout or a failure to parse the response. The change of units is unknown.");
+					}
+					returnValue = this.units;
+				} catch (IOException e) {
+					throw new NCIException(e);
+				} catch (InterruptedException e) {
+					abandoned = true;
+					Thread.currentThread().interrupt();
+					throw new NCICancelledException("Interrupted while waiting for the device.", e);
+				} finally {
+					this.units = null;
+					this.transmissionException = null;
+					this.currentState = null;
+				}
 			}
+		} finally {
+			if (abandoned) abandon();
+			else exit();
 		}
 
 		return returnValue;
 	}
 
-	// TODO: This is not right. It got half-implemented and it turns out this scale does not support it.
 	@Override
-	public void requestMetrologyRawCounts() throws NCIException {
-		this.units = null;
-		
-		if (this.currentState != null) throw new NCIException("This device is in the middle of a communication and does not support concurrent operations.");
-		synchronized (this) {
-			byte[] outputMessage = {'M', 0x0d};
-			try {
-				OutputStream os = this.port.getOutputStream();
-				os.write(outputMessage);
-				os.flush();
-				this.currentState = new SynchronousTransmissionState(WEIGHT_STATE);
-				this.wait(TIMEOUT);
-				if (this.transmissionException != null) throw this.transmissionException;
-				if (this.metrology == null) {
-					throw new NCIException("There was a timeout or a failure to parse the response. The request for metrology counts failed.");
-				}
-			} catch (IOException | InterruptedException e) {
-				throw new NCIException(e);
-			} finally {
-				this.transmissionException = null;
-				this.currentState = null;
+	public long requestMetrologyRawCounts() throws NCIException {
+		long returnValue;
+		enter(Priority.INTERACTIVE);
+		boolean abandoned = false;
+		try {
+			this.metrology = null;
+			synchronized (this) {
+				byte[] outputMessage = {'M', 0x0d};
+				try {
+					OutputStream os = this.transport.getOutputStream();
+					os.write(outputMessage);
+					os.flush();
+					this.currentState = new SynchronousTransmissionState(METROLOGY_STATE);
+					this.wait(TIMEOUT);
+					if (this.transmissionException != null) throw this.transmissionException;
+					if (this.metrology == null) {
+						throw new NCITimeoutException("There was a timeout or a failure to parse the response. The request for metrology counts failed.");
+					}
+					returnValue = this.metrology;
+				} catch (IOException e) {
+					throw new NCIException(e);
+				} catch (InterruptedException e) {
+					abandoned = true;
+					Thread.currentThread().interrupt();
+					throw new NCICancelledException("Interrupted while waiting for the device.", e);
+				} finally {
+					this.metrology = null;
+					this.transmissionException = null;
+					this.currentState = null;
+				}
 			}
+		} finally {
+			if (abandoned) abandon();
+			else exit();
 		}
-		//Weight returnValue = this.metrology;
-		//this.units = null;
-		//return returnValue;
+		return returnValue;
+	}
+
+	@Override
+	public void subscribeRawCounts(RawCountListener listener, int decimation, int blockSize) throws NCIException {
+		rawCountStreamer.subscribe(listener, decimation, blockSize);
+	}
+
+	@Override
+	public void unsubscribeRawCounts(RawCountListener listener) {
+		rawCountStreamer.unsubscribe(listener);
+	}
+
+	/**
+	 * Reads raw counts for {@link RawCountStreamer} as fast as the device
+	 * answers. Up to {@link RawCountTransmissionState#PIPELINE_DEPTH} requests
+	 * are kept in flight, so the link is never idle waiting for a reply to be
+	 * parsed before the next request is sent.
+	 *
+	 * @param counts	Where to put the counts.
+	 * @param nanoTimes	Where to put when each was received, from {@link System#nanoTime()}: when the serial event that completed its reply arrived, which replies received together share.
+	 * @param max		The number of counts to read.
+	 * @return	The status of the last reply.
+	 * @throws NCIException	Thrown if the lane is not free, a reply is late, or a reply cannot be parsed.
+	 */
+	Status pullRawCounts(long[] counts, long[] nanoTimes, int max) throws NCIException {
+		Status returnStatus;
+		enter(Priority.BACKGROUND);
+		boolean abandoned = false;
+		try {
+			synchronized (this) {
+				if (this.rawCountState == null) this.rawCountState = new RawCountTransmissionState();
+				RawCountTransmissionState state = this.rawCountState;
+				try {
+					this.transmissionException = null;
+					this.status = null;
+					state.start(counts, nanoTimes, max);
+					this.currentState = state;
+					state.sendRequests();
+					while (!state.isDone() && this.transmissionException == null) {
+						int replies = state.getReplies();
+						this.wait(TIMEOUT);
+						if (state.getReplies() == replies && !state.isDone() && this.transmissionException == null) {
+							throw new NCITimeoutException("There was a timeout waiting for raw counts. " + replies + " of " + max + " replies were received.");
+						}
+					}
+					if (this.transmissionException != null) throw this.transmissionException;
+					if (state.getFailure() != null) throw state.getFailure();
+					returnStatus = this.status;
+				} catch (IOException e) {
+					throw new NCIException(e);
+				} catch (InterruptedException e) {
+					abandoned = true;
+					Thread.currentThread().interrupt();
+					throw new NCICancelledException("Interrupted while waiting for the device.", e);
+				} finally {
+					this.transmissionException = null;
+					this.currentState = null;
+				}
+			}
+		} finally {
+			if (abandoned) abandon();
+			else exit();
+		}
+		return returnStatus;
 	}
 
 	// This is not well tested. The return value in particular should be a collection of relevant strings. But the scale I'm developing this for doesn't support this function.
 	@Override
 	public void requestAbout() throws NCIException {
-		this.units = null;
-		
-		if (this.currentState != null) throw new NCIException("This device is in the middle of a communication and does not support concurrent operations.");
-		synchronized (this) {
-			byte[] outputMessage = {'A', 0x0d};
-			try {
-				OutputStream os = this.port.getOutputStream();
-				os.write(outputMessage);
-				os.flush();
-				this.currentState = new SynchronousTransmissionState(ABOUT_STATE);
-				this.wait(TIMEOUT);
-				if (this.transmissionException != null) throw this.transmissionException;
-				if (this.metrology == null) {
-					throw new NCIException("There was a timeout or a failure to parse the response. The request for metrology counts failed.");
-				}
-			} catch (IOException | InterruptedException e) {
-				throw new NCIException(e);
-			} finally {
-				this.transmissionException = null;
-				this.currentState = null;
+		enter(Priority.INTERACTIVE);
+		boolean abandoned = false;
+		try {
+			this.units = null;
+			synchronized (this) {
+				byte[] outputMessage = {'A', 0x0d};
+				try {
+					OutputStream os = this.transport.getOutputStream();
+					os.write(outputMessage);
+					os.flush();
+					this.currentState = new SynchronousTransmissionState(ABOUT_STATE);
+					this.wait(TIMEOUT);
+					if (this.transmissionException != null) throw this.transmissionException;
+					if (this.metrology == null) {
+						throw new NCITimeoutException("There was a timeout or a failure to parse the response. The request for metrology counts failed.");
+					}
+				} catch (IOException e) {
+					throw new NCIException(e);
+				} catch (InterruptedException e) {
+					abandoned = true;
+					Thread.currentThread().interrupt();
+					throw new NCICancelledException("Interrupted while waiting for the device.", e);
+				} finally {
+					this.transmissionException = null;
+					this.currentState = null;
+				}
 			}
+		} finally {
+			if (abandoned) abandon();
+			else exit();
 		}
 		//Weight returnValue = this.metrology;
 		//this.units = null;
@@ -319,27 +620,36 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 
 	@Override
 	public void requestDiagnostics() throws NCIException {
-		this.units = null;
-		
-		if (this.currentState != null) throw new NCIException("This device is in the middle of a communication and does not support concurrent operations.");
-		synchronized (this) {
-			byte[] outputMessage = {'D', 0x0d};
-			try {
-				OutputStream os = this.port.getOutputStream();
-				os.write(outputMessage);
-				os.flush();
-				this.currentState = new SynchronousTransmissionState(DIAGNOSTICS_STATE);
-				this.wait(TIMEOUT);
-				if (this.transmissionException != null) throw this.transmissionException;
-				if (this.metrology == null) {
-					throw new NCIException("There was a timeout or a failure to parse the response. The request for metrology counts failed.");
-				}
-			} catch (IOException | InterruptedException e) {
-				throw new NCIException(e);
-			} finally {
-				this.transmissionException = null;
-				this.currentState = null;
+		enter(Priority.INTERACTIVE);
+		boolean abandoned = false;
+		try {
+			this.units = null;
+			synchronized (this) {
+				byte[] outputMessage = {'D', 0x0d};
+				try {
+					OutputStream os = this.transport.getOutputStream();
+					os.write(outputMessage);
+					os.flush();
+					this.currentState = new SynchronousTransmissionState(DIAGNOSTICS_STATE);
+					this.wait(TIMEOUT);
+					if (this.transmissionException != null) throw this.transmissionException;
+					if (this.metrology == null) {
+						throw new NCITimeoutException("There was a timeout or a failure to parse the response. The request for metrology counts failed.");
+					}
+				} catch (IOException e) {
+					throw new NCIException(e);
+				} catch (InterruptedException e) {
+					abandoned = true;
+					Thread.currentThread().interrupt();
+					throw new NCICancelledException("Interrupted while waiting for the device.", e);
+				} finally {
+					this.transmissionException = null;
+					this.currentState = null;
+				}
 			}
+		} finally {
+			if (abandoned) abandon();
+			else exit();
 		}
 		//Weight returnValue = this.metrology;
 		//this.units = null;
@@ -348,109 +658,299 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 	
 	@Override
 	public Status requestStatus() throws NCIException {
-		if (this.currentState != null) throw new NCIException("This device is in the middle of a communication and does not support concurrent operations.");
-		synchronized (this) {
-			this.status = null;
-			byte[] outputMessage = {'S', 0x0d};
-			try {
-				OutputStream os = this.port.getOutputStream();
-				os.write(outputMessage);
-				os.flush();
-				this.currentState = new SynchronousTransmissionState(STATUS_STATE);
-				this.wait(TIMEOUT);
-				if (this.transmissionException != null) throw this.transmissionException;
-				if (this.status == null) {
-					throw new NCIException("There was a timeout or a failure to parse the response. The request for a new status failed.");
-				}
-			} catch (IOException | InterruptedException e) {
-				throw new NCIException(e);
-			} finally {
-				this.transmissionException = null;
-				this.currentState = null;
+		return requestStatus(Priority.INTERACTIVE);
+	}
+
+	@Override
+	public Status requestStatus(Priority priority) throws NCIException {
+		Status returnValue;
+		enter(priority);
+		boolean abandoned = false;
+		try {
+			synchronized (this) {
+				this.status = null;
+				byte[] outputMessage = {'S', 0x0d};
+				try {
+					OutputStream os = this.transport.getOutputStream();
+					os.write(outputMessage);
+					os.flush();
+					this.currentState = new SynchronousTransmissionState(STATUS_STATE);
+					this.wait(TIMEOUT);
+					if (this.transmissionException != null) throw this.transmissionException;
+					if (this.status == null) {
+						throw new NCITimeoutException("There was a timeout or a failure to parse the response. The request for a new status failed.");
+					}
+					returnValue = this.status;
+				} catch (IOException e) {
+					throw new NCIException(e);
+				} catch (InterruptedException e) {
+					abandoned = true;
+					Thread.currentThread().interrupt();
+					throw new NCICancelledException("Interrupted while waiting for the device.", e);
+				} finally {
+					this.transmissionException = null;
+					this.currentState = null;
+				}
 			}
+		} finally {
+			if (abandoned) abandon();
+			else exit();
 		}
-		return this.status;
+		return returnValue;
 	}
 
 	public void tare() throws NCIException {
-		this.weight = null;
-		
-		if (this.currentState != null) throw new NCIException("This device is in the middle of a communication and does not support concurrent operations.");
-		synchronized (this) {
-			this.status = null;
-			byte[] outputMessage = {'T', 0x0d};
-			try {
-				OutputStream os = this.port.getOutputStream();
-				os.write(outputMessage);
-				os.flush();
-				this.currentState = new SynchronousTransmissionState(STATUS_STATE);
-				this.wait(TIMEOUT);
-				if (this.transmissionException != null) throw this.transmissionException;
-				if (this.status == null) {
-					throw new NCIException("There was a timeout or a failure to parse the response. The request for a new status failed.");
-				}
-			} catch (IOException | InterruptedException e) {
-				throw new NCIException(e);
-			} finally {
-				this.transmissionException = null;
-				this.currentState = null;
+		enter(Priority.INTERACTIVE);
+		boolean abandoned = false;
+		try {
+			this.weight = null;
+			synchronized (this) {
+				this.status = null;
+				byte[] outputMessage = {'T', 0x0d};
+				try {
+					OutputStream os = this.transport.getOutputStream();
+					os.write(outputMessage);
+					os.flush();
+					this.currentState = new SynchronousTransmissionState(STATUS_STATE);
+					this.wait(TIMEOUT);
+					if (this.transmissionException != null) throw this.transmissionException;
+					if (this.status == null) {
+						throw new NCITimeoutException("There was a timeout or a failure to parse the response. The request for a new status failed.");
+					}
+				} catch (IOException e) {
+					throw new NCIException(e);
+				} catch (InterruptedException e) {
+					abandoned = true;
+					Thread.currentThread().interrupt();
+					throw new NCICancelledException("Interrupted while waiting for the device.", e);
+				} finally {
+					this.transmissionException = null;
+					this.currentState = null;
+				}
 			}
+		} finally {
+			if (abandoned) abandon();
+			else exit();
 		}
 	}
 
 	public void zero() throws NCIException {
-		this.weight = null;
-		
-		if (this.currentState != null) throw new NCIException("This device is in the middle of a communication and does not support concurrent operations.");
-		synchronized (this) {
-			byte[] outputMessage = {'Z', 0x0d};
+		enter(Priority.INTERACTIVE);
+		boolean abandoned = false;
+		try {
+			this.weight = null;
+			synchronized (this) {
+				byte[] outputMessage = {'Z', 0x0d};
+				try {
+					OutputStream os = this.transport.getOutputStream();
+					os.write(outputMessage);
+					os.flush();
+					this.currentState = new SynchronousTransmissionState(STATUS_STATE);
+					this.wait(TIMEOUT);
+					if (this.transmissionException != null) throw this.transmissionException;
+				} catch (IOException e) {
+					throw new NCIException(e);
+				} catch (InterruptedException e) {
+					abandoned = true;
+					Thread.currentThread().interrupt();
+					throw new NCICancelledException("Interrupted while waiting for the device.", e);
+				} finally {
+					this.transmissionException = null;
+					this.currentState = null;
+				}
+			}
+		} finally {
+			if (abandoned) abandon();
+			else exit();
+		}
+	}
+	
+	@Override
+	public List<CommandResult> executeBatch(List<Command> commands) throws NCIException {
+		if (commands.isEmpty()) return Collections.emptyList();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT * commands.size());
+		return exchange(commands, Priority.INTERACTIVE, deadline, null);
+	}
+
+	@Override
+	public List<CommandResult> executeBatch(List<Command> commands, CallOptions options) throws NCIException {
+		if (commands.isEmpty()) return Collections.emptyList();
+		long deadline = options.getDeadline(System.nanoTime());
+		Cancellation cancellation = options.getCancellation();
+		// A change of units cannot be sent twice without changing the units twice.
+		int attempts = commands.contains(Command.UNITS) ? 1 : options.getMaxAttempts();
+		for (int attempt = 1; ; attempt++) {
 			try {
-				OutputStream os = this.port.getOutputStream();
-				os.write(outputMessage);
-				os.flush();
-				this.currentState = new SynchronousTransmissionState(STATUS_STATE);
-				this.wait(TIMEOUT);
-				if (this.transmissionException != null) throw this.transmissionException;
-			} catch (IOException | InterruptedException e) {
-				throw new NCIException(e);
+				return exchange(commands, options.getPriority(), deadline, cancellation);
+			} catch (NCICancelledException | NCICircuitOpenException e) {
+				throw e;
+			} catch (NCIException e) {
+				if (attempt >= attempts || !options.isRetryable(e)) throw e;
+				if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESEND_QUIET_MILLIS) >= deadline) throw e;
+				try {
+					// Let the rest of a corrupted reply arrive and be thrown away, so it is not taken for the next.
+					Thread.sleep(RESEND_QUIET_MILLIS);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw new NCICancelledException("Interrupted before sending the command again.", interrupted);
+				}
+				if (cancellation != null && cancellation.isCancelled()) throw new NCICancelledException("The call was cancelled before sending the command again.", e);
+			}
+		}
+	}
+
+	@Override
+	public Weight getWeight(CallOptions options) throws NCIException {
+		return executeBatch(Collections.singletonList(Command.WEIGHT), options).get(0).getWeight();
+	}
+
+	@Override
+	public Status requestStatus(CallOptions options) throws NCIException {
+		return executeBatch(Collections.singletonList(Command.STATUS), options).get(0).getStatus();
+	}
+
+	/**
+	 * Sends the commands once, in a single write, and parses the replies in
+	 * order, giving up at the deadline or when cancelled. A reply given up on
+	 * is thrown away when it arrives.
+	 *
+	 * @param commands		The commands, not empty.
+	 * @param priority		The lane to send them in.
+	 * @param deadline		When to give up, from {@link System#nanoTime()}.
+	 * @param cancellation	What cancels the exchange, or null.
+	 * @return	One result for each command.
+	 * @throws NCIException	Thrown if the exchange failed, was cancelled, or did not finish in time.
+	 */
+	private List<CommandResult> exchange(List<Command> commands, Priority priority, long deadline, Cancellation cancellation) throws NCIException {
+		List<CommandResult> results;
+		long returnReceived;
+		long laneTimeout = Math.min(TIMEOUT, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+		if (laneTimeout <= 0) throw new NCITimeoutException("The time for the call ran out before the command was sent.");
+		Runnable wake = null;
+		if (cancellation != null) {
+			wake = new Runnable() {
+				@Override
+				public void run() {
+					synchronized (NCIDeviceRxtx.this) {
+						NCIDeviceRxtx.this.notifyAll();
+					}
+					synchronized (lanes) {
+						lanes.notifyAll();
+					}
+				}
+			};
+			cancellation.addListener(wake);
+		}
+		try {
+			enter(priority, laneTimeout, cancellation);
+			boolean abandoned = false;
+			try {
+				this.weight = null;
+				this.units = null;
+				this.metrology = null;
+				synchronized (this) {
+					this.status = null;
+					// All of the commands go out in one write so the device can answer them back-to-back.
+					byte[] outputMessage = new byte[commands.size() * 2];
+					for (int i = 0; i < commands.size(); i++) {
+						outputMessage[i * 2] = commands.get(i).getCode();
+						outputMessage[i * 2 + 1] = 0x0d;
+					}
+					BatchTransmissionState batchState = new BatchTransmissionState(commands);
+					try {
+						OutputStream os = this.transport.getOutputStream();
+						os.write(outputMessage);
+						os.flush();
+						this.currentState = batchState;
+						long remaining = deadline - System.nanoTime();
+						while (!batchState.isComplete() && this.transmissionException == null && remaining > 0) {
+							if (cancellation != null && cancellation.isCancelled()) break;
+							TimeUnit.NANOSECONDS.timedWait(this, remaining);
+							remaining = deadline - System.nanoTime();
+						}
+						if (this.transmissionException != null) throw this.transmissionException;
+						if (!batchState.isComplete() && cancellation != null && cancellation.isCancelled()) {
+							abandoned = true;
+							throw new NCICancelledException("The call was cancelled. " + batchState.getResults().size() + " of " + commands.size() + " replies were received.");
+						}
+						if (!batchState.isComplete()) {
+							throw new NCITimeoutException("There was a timeout waiting for the replies to the batch. " + batchState.getResults().size() + " of " + commands.size() + " replies were received.");
+						}
+						results = batchState.getResults();
+						returnReceived = this.receivedNanos;
+					} catch (IOException e) {
+						throw new NCIException(e);
+					} catch (InterruptedException e) {
+						abandoned = true;
+						Thread.currentThread().interrupt();
+						throw new NCICancelledException("Interrupted while waiting for the device.", e);
+					} finally {
+						this.weight = null;
+						this.units = null;
+						this.transmissionException = null;
+						this.currentState = null;
+					}
+				}
 			} finally {
-				this.transmissionException = null;
-				this.currentState = null;
+				if (abandoned) abandon();
+				else exit();
 			}
+		} finally {
+			if (wake != null) cancellation.removeListener(wake);
+		}
+		for (CommandResult result : results) {
+			recordReading(result.getWeight(), result.getStatus(), returnReceived);
 		}
+		return results;
 	}
-	
+
+	/**
+	 * Returns the parser for the reply to the given command. The replies to
+	 * tare and zero are the same as the reply to a status request.
+	 */
+	ITransmissionState getTransmissionState(Command command) {
+		switch (command) {
+		case WEIGHT:
+		case HIGH_RESOLUTION_WEIGHT:
+			return WEIGHT_STATE;
+		case UNITS:
+			return UNITS_STATE;
+		case METROLOGY_RAW_COUNTS:
+			return METROLOGY_STATE;
+		case STATUS:
+		case TARE:
+		case ZERO:
+		default:
+			return STATUS_STATE;
+		}
+	}
+
 	public void closeDevice() throws NCIException {
-		port.removeEventListener();
-		this.port.close();	
+		rawCountStreamer.stop();
+		BoardSlot board = this.board;
+		if (board != null) board.close();
+		this.transport.close();
 	}
 
-	public void serialEvent(SerialPortEvent event) {
+	@Override
+	public void dataAvailable() {
+		this.answered = true;
+		// Taken before the lock, which the thread sending a command may be holding.
+		long arrived = System.nanoTime();
 		synchronized (this) {
+			this.arrivedNanos = arrived;
 			if (this.currentState != null) {
-				switch (event.getEventType()) {
-				case SerialPortEvent.BI:
-				case SerialPortEvent.OE:
-				case SerialPortEvent.FE:
-				case SerialPortEvent.PE:
-				case SerialPortEvent.CD:
-				case SerialPortEvent.CTS:
-				case SerialPortEvent.DSR:
-				case SerialPortEvent.RI:
-				case SerialPortEvent.OUTPUT_BUFFER_EMPTY:
-					break;
-				case SerialPortEvent.DATA_AVAILABLE:
-					this.currentState.parseInput();
+				if (this.currentState.parseInput()) {
+					this.receivedNanos = System.nanoTime();
+					this.currentState = null;
 				}
-
-				this.currentState = null;
 			} else {
 				// Throwing away data. There doesn't seem to be anyway to know what
 				// else to do; presumably this happened because the wait() call was
 				// interrupted and I've already thrown an exception, but the data
 				// came back anyway.
 				try {
-					InputStream is = NCIDeviceRxtx.this.port.getInputStream();
+					InputStream is = NCIDeviceRxtx.this.transport.getInputStream();
 					while(is.read() > 0) {}
 				} catch (IOException e) {
 					// Nothing really to be done here. There is no state, so the
@@ -461,11 +961,14 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 	}
 	
 	/**
-	 * The status of the device as reported by the last communication. This does
-	 * not initiate a new connection to fetch the status. 
+	 * The status of the device as reported by the last reply that had one,
+	 * whatever the command. This does not initiate a new connection to fetch
+	 * the status. It is not cleared by a failed exchange or one in progress,
+	 * but it need not be from the same reply as the latest weight; use
+	 * {@link #latestReading()} for a weight and its status together.
 	 */
 	public Status getStatus() {
-		return status;
+		return lastStatus;
 	}
 		
 	public interface ITransmissionState {
@@ -487,13 +990,13 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 		
 		public void parseInput(int bytesRead, int startByte, byte[] inputMessage) throws NCIException {
 			if (bytesRead <= startByte) {
-				throw new NCIException("No bytes were read, though no error was thrown.");
+				throw new NCIParseException("No bytes were read, though no error was thrown.");
 			} 
 			if (inputMessage[0] != 0x0a) {
-				throw new NCIException("The first byte is supposed to be LF.");
+				throw new NCIParseException("The first byte is supposed to be LF.");
 			}
 			if (inputMessage[1] == '?') {
-				throw new NCIException("This function is not supported on this scale.");
+				throw new NCIUnsupportedException("This function is not supported on this scale.");
 			}
 			this.internalState.parseInput(bytesRead, 1, inputMessage);
 		}
@@ -513,7 +1016,7 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 				}
 			}
 			if (endByte == 0) // This means there was no content between the <LF> and <CR>.
-				throw new NCIException("Message was misformatted and no weight information was found.");
+				throw new NCIParseException("Message was misformatted and no weight information was found.");
 			// assert: endByte is the index of the last byte of the weight plus the units. It is not the index of the <CR>.
 				
 			int lastNumber = 0;
@@ -524,7 +1027,7 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 				}
 			}
 			if (lastNumber == 0)
-				throw new NCIException("Message was misformatted and the weight was not reported with any numerals.");
+				throw new NCIParseException("Message was misformatted and the weight was not reported with any numerals.");
 			// assert: lastNumber is the index of the last digit found in the bytes. As the number starts with 1, it is also the length of the numerical content, and can be used to compute the coordinates of the units. In the exceptional case that there were no units, lastNumber + 1 will be the <CR> and the length will be 0, so unitsWeight will be "" and the error condition will be reported later.
 			
 			String unitsString = (new String(inputMessage, lastNumber + 1, endByte - lastNumber)).trim();
@@ -550,7 +1053,7 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 						break;
 					}
 				}
-				if (additionalUnitsLastNumber == 0) throw new NCIException("No numerical value provided for lbs in lbs-oz mode.");
+				if (additionalUnitsLastNumber == 0) throw new NCIParseException("No numerical value provided for lbs in lbs-oz mode.");
 
 				String lbsString = new String(inputMessage, 1, additionalUnitsLastNumber);
 				String ozString = new String(inputMessage, additionalUnitsEndByte + 1, lastNumber - additionalUnitsEndByte);
@@ -559,25 +1062,27 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 				try {
 					lbs = Integer.parseInt(lbsString);
 				} catch (NumberFormatException e) {
-					throw new NCIException("Exception parsing the weight in lbs: " + lbsString, e);
+					throw new NCIParseException("Exception parsing the weight in lbs: " + lbsString, e);
 				}
 				try {
 					oz = Double.parseDouble(ozString);
 				} catch (NumberFormatException e) {
-					throw new NCIException("Exception parsing the weight in oz: " + ozString, e);
+					throw new NCIParseException("Exception parsing the weight in oz: " + ozString, e);
 				}
+				// The sign is only on the pounds, and "-0" pounds parses as 0, so it is carried to the ounces here.
+				if (lbsString.trim().startsWith("-")) oz = -Math.abs(oz);
 				
 				NCIDeviceRxtx.this.weight = new Weight(lbs, oz);
 			} else {
 				Units units = UNITS_LOOKUP.get(unitsString);
-				if (units == null) throw new NCIException("Units not recognized by this driver: " + unitsString);
+				if (units == null) throw new NCIParseException("Units not recognized by this driver: " + unitsString);
 
 				String weightString = new String(inputMessage, 1, lastNumber);
 				double weight;
 				try {
 					weight = Double.parseDouble(weightString);
 				} catch (NumberFormatException e) {
-					throw new NCIException("Exception parsing weight: " + weightString, e);
+					throw new NCIParseException("Exception parsing weight: " + weightString, e);
 				}
 				
 				NCIDeviceRxtx.this.weight = new Weight(weight, units);
@@ -586,7 +1091,7 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 			
 			if (this.internalState != null) {
 				int newStartByte = endByte + 2; // The justification for this being +2 is that the <CR> was detected already, and the start of parsing should be at +2.
-				if (newStartByte >= bytesRead) throw new NCIException("Parser configuration indicates more data should be expected, but not enough bytes were read. Aborting.");
+				if (newStartByte >= bytesRead) throw new NCIParseException("Parser configuration indicates more data should be expected, but not enough bytes were read. Aborting.");
 				this.internalState.parseInput(bytesRead, newStartByte, inputMessage);
 			}
 		}
@@ -606,25 +1111,205 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 				}
 			}
 			if (endByte == bytesRead) // This is suspicious; perhaps it should go back for more bytes, but we're going to throw an exception.
-				throw new NCIException("Message was misformatted and the weight not parsed.");
+				throw new NCIParseException("Message was misformatted and the weight not parsed.");
 			if (endByte == 0) // This means there was no content between the <LF> and <CR>.
-				throw new NCIException("Message was misformatted and no weight information was found.");
+				throw new NCIParseException("Message was misformatted and no weight information was found.");
 			// assert: endByte is the index of the last byte of the units. It is not the index of the <CR>.
 								
 			String unitsString = (new String(inputMessage, 1, endByte)).trim();
 			Units units = UNITS_LOOKUP.get(unitsString);
-			if (units == null) throw new NCIException("Units not recognized by this driver: " + unitsString);
+			if (units == null) throw new NCIParseException("Units not recognized by this driver: " + unitsString);
 			NCIDeviceRxtx.this.units = units;
 
 			if (this.internalState != null) {
 				int newStartByte = endByte + 2; // The justification for this being +2 is that the <CR> was detected already, and the start of parsing should be at +2.
-				if (newStartByte >= bytesRead) throw new NCIException("Parser configuration indicates more data should be expected, but not enough bytes were read. Aborting.");
+				if (newStartByte >= bytesRead) throw new NCIParseException("Parser configuration indicates more data should be expected, but not enough bytes were read. Aborting.");
 				this.internalState.parseInput(bytesRead, newStartByte, inputMessage);
 			}
 		}
 	}
 	
-	// TODO: Not bothering with metrology counts, as this isn't supported on the one I'm doing.
+	public class MetrologyTransmissionState extends WrapperTransmissionState {
+		public MetrologyTransmissionState(ITransmissionState state) {
+			super(state);
+		}
+
+		public void parseInput(int bytesRead, int startByte, byte[] inputMessage) throws NCIException {
+			int crByte = -1;
+			for (int i = startByte; i < bytesRead; i++) {
+				if (inputMessage[i] == 0x0d) {
+					crByte = i;
+					break;
+				}
+			}
+			if (crByte < 0) throw new NCIParseException("Message was misformatted and the raw counts were not terminated.");
+			NCIDeviceRxtx.this.metrology = parseRawCounts(inputMessage, startByte, crByte);
+
+			if (this.internalState != null) {
+				int newStartByte = crByte + 1;
+				if (newStartByte >= bytesRead) throw new NCIParseException("Parser configuration indicates more data should be expected, but not enough bytes were read. Aborting.");
+				this.internalState.parseInput(bytesRead, newStartByte, inputMessage);
+			}
+		}
+	}
+
+	/**
+	 * Parses raw counts, a whole number that may be signed and padded with
+	 * spaces, straight from the bytes, so the stream of counts does not build
+	 * a String for each.
+	 *
+	 * @param inputMessage	The reply.
+	 * @param startByte		The first byte of the counts.
+	 * @param endByte		The byte after the last, normally the &lt;CR&gt;.
+	 */
+	static long parseRawCounts(byte[] inputMessage, int startByte, int endByte) throws NCIException {
+		int i = startByte;
+		while (i < endByte && inputMessage[i] == ' ') i++;
+		boolean negative = false;
+		if (i < endByte && (inputMessage[i] == '-' || inputMessage[i] == '+')) negative = inputMessage[i++] == '-';
+		int firstDigit = i;
+		long counts = 0;
+		while (i < endByte && inputMessage[i] >= '0' && inputMessage[i] <= '9' && i - firstDigit < 18) {
+			counts = counts * 10 + (inputMessage[i++] - '0');
+		}
+		int lastDigit = i;
+		while (i < endByte && inputMessage[i] == ' ') i++;
+		if (lastDigit == firstDigit || i != endByte) {
+			throw new NCIParseException("Message was misformatted and the raw counts were not a number: " + new String(inputMessage, startByte, endByte - startByte));
+		}
+		return negative ? -counts : counts;
+	}
+
+	/**
+	 * This is created for {@link NCIDeviceRxtx#pullRawCounts(long[], long[], int)}.
+	 * Like {@link BatchTransmissionState}, it accumulates replies that may be
+	 * split across serial events, but it sends another request each time a
+	 * reply arrives, until as many have been sent as are wanted, and it parses
+	 * the counts into the caller's arrays without building any objects. Only
+	 * the status of the last reply is parsed. It is reused for every pull.
+	 */
+	public class RawCountTransmissionState implements IPrimaryState {
+		/**
+		 * The most requests in flight at once. Enough to cover the time it
+		 * takes to parse a reply and send the next request; more would only
+		 * fill the device's input buffer.
+		 */
+		static final int PIPELINE_DEPTH = 4;
+
+		private final byte[] requests = new byte[PIPELINE_DEPTH * 2];
+		private final byte[] inputMessage = new byte[INPUT_BUFFER_LENGTH * PIPELINE_DEPTH * 2];
+		private int bytesBuffered = 0;
+		private long[] counts;
+		private long[] nanoTimes;
+		private int max;
+		private int sent;
+		private int replies;
+		private int received;
+		private NCIException failure;
+
+		RawCountTransmissionState() {
+			for (int i = 0; i < PIPELINE_DEPTH; i++) {
+				requests[i * 2] = 'M';
+				requests[i * 2 + 1] = 0x0d;
+			}
+		}
+
+		void start(long[] counts, long[] nanoTimes, int max) {
+			this.counts = counts;
+			this.nanoTimes = nanoTimes;
+			this.max = max;
+			this.sent = 0;
+			this.replies = 0;
+			this.received = 0;
+			this.bytesBuffered = 0;
+			this.failure = null;
+		}
+
+		/**
+		 * The pull is done when every count has been read or, after a reply
+		 * failed, when the replies to the requests still in flight have been
+		 * read and thrown away, so none is left to be taken as the reply to
+		 * the next command.
+		 */
+		boolean isDone() {
+			return failure == null ? received == max : replies == sent;
+		}
+
+		int getReplies() {
+			return replies;
+		}
+
+		NCIException getFailure() {
+			return failure;
+		}
+
+		/**
+		 * Sends as many requests as fit in the pipeline.
+		 */
+		void sendRequests() throws IOException {
+			int requests = Math.min(PIPELINE_DEPTH - (sent - replies), max - sent);
+			if (requests <= 0 || failure != null) return;
+			OutputStream os = NCIDeviceRxtx.this.transport.getOutputStream();
+			os.write(this.requests, 0, requests * 2);
+			os.flush();
+			sent += requests;
+		}
+
+		@Override
+		public boolean parseInput() {
+			synchronized (NCIDeviceRxtx.this) {
+				try {
+					InputStream is = NCIDeviceRxtx.this.transport.getInputStream();
+					int read;
+					do {
+						read = is.read(inputMessage, bytesBuffered, inputMessage.length - bytesBuffered);
+						if (read > 0) bytesBuffered += read;
+					} while (read > 0 && bytesBuffered < inputMessage.length);
+					parseBuffered();
+					sendRequests();
+				} catch (IOException e) {
+					NCIDeviceRxtx.this.transmissionException = new NCIException("IOException retrieving data.", e);
+				}
+				NCIDeviceRxtx.this.notify();
+				return isDone() || NCIDeviceRxtx.this.transmissionException != null;
+			}
+		}
+
+		private void parseBuffered() {
+			int frameStart = 0;
+			for (int i = 0; i < bytesBuffered && !isDone(); i++) {
+				if (inputMessage[i] != 0x03) continue;
+				replies++;
+				if (failure == null) {
+					try {
+						parseFrame(frameStart, i);
+					} catch (NCIException e) {
+						failure = e;
+					}
+				}
+				frameStart = i + 1;
+			}
+			if (!isDone() && frameStart == 0 && bytesBuffered == inputMessage.length) {
+				if (failure == null) failure = new NCIParseException("A reply with raw counts did not fit in the input buffer. Aborting.");
+				bytesBuffered = 0;
+				return;
+			}
+			System.arraycopy(inputMessage, frameStart, inputMessage, 0, bytesBuffered - frameStart);
+			bytesBuffered -= frameStart;
+		}
+
+		private void parseFrame(int frameStart, int etxByte) throws NCIException {
+			if (inputMessage[frameStart] != 0x0a) throw new NCIParseException("The first byte is supposed to be LF.");
+			if (inputMessage[frameStart + 1] == '?') throw new NCIUnsupportedException("This function is not supported on this scale.");
+			int crByte = frameStart + 1;
+			while (crByte < etxByte && inputMessage[crByte] != 0x0d) crByte++;
+			if (crByte == etxByte) throw new NCIParseException("Message was misformatted and the raw counts were not terminated.");
+			counts[received] = parseRawCounts(inputMessage, frameStart + 1, crByte);
+			nanoTimes[received] = NCIDeviceRxtx.this.arrivedNanos;
+			received++;
+			if (received == max) STATUS_STATE.parseInput(etxByte + 1, crByte + 1, inputMessage);
+		}
+	}
 	
 	public class AboutTransmissionState extends WrapperTransmissionState {
 		public AboutTransmissionState(ITransmissionState state) {
@@ -678,11 +1363,11 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 			boolean netWeight = false;
 			boolean initialZeroError = false;
 			
-			if (startByte >= bytesRead) throw new NCIException("Parser configuration indicates more data should be expected, but not enough bytes were read. Aborting.");
-			if (inputMessage[startByte] != 0x0a) throw new NCIException("Status bytes should start with \\r. Found: " + inputMessage[startByte]);
+			if (startByte >= bytesRead) throw new NCIParseException("Parser configuration indicates more data should be expected, but not enough bytes were read. Aborting.");
+			if (inputMessage[startByte] != 0x0a) throw new NCIParseException("Status bytes should start with \\r. Found: " + inputMessage[startByte]);
 			
 			int parityCheck = 0;
-			if (startByte + 1 >= bytesRead) throw new NCIException("Misformatted status bytes. First status byte not included in message.");
+			if (startByte + 1 >= bytesRead) throw new NCIParseException("Misformatted status bytes. First status byte not included in message.");
 			byte firstByte = inputMessage[startByte + 1];
 			if ((firstByte & MOTION_INMOTION) != 0) {
 				parityCheck++;
@@ -704,13 +1389,13 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 				parityCheck++;
 			}
 			if (NCIDeviceRxtx.this.checkParity && (parityCheck % 2) > 0) {
-				throw new NCIException("Parity failure on the first status byte.");
+				throw new NCIParseException("Parity failure on the first status byte.");
 			}
 			
 			parityCheck = 0;
 			boolean thirdByteExists = false;
 			if (startByte + 2 >= bytesRead) {
-				throw new NCIException("Misformatted status bytes. Second status byte not included in message.");
+				throw new NCIParseException("Misformatted status bytes. Second status byte not included in message.");
 			}
 			byte secondByte = inputMessage[startByte + 2];
 			if ((secondByte & CAPACITY_UNDER) != 0) {
@@ -737,21 +1422,21 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 				parityCheck++;
 			}
 			if (NCIDeviceRxtx.this.checkParity && (parityCheck % 2) > 0) {
-				throw new NCIException("Parity failure on the second status byte.");
+				throw new NCIParseException("Parity failure on the second status byte.");
 			}
 			
 			if (thirdByteExists) {
 				parityCheck = 0;
 				if (startByte + 3 >= bytesRead) {
-					throw new NCIException("Misformatted status bytes. Third status byte not included in message.");
+					throw new NCIParseException("Misformatted status bytes. Third status byte not included in message.");
 				}
 				byte thirdByte = inputMessage[startByte +3];
-				if (thirdByte == 0x0d) throw new NCIException("0x0d is not a valid third byte. This probably indicates a faulty follows bit in the second byte.");
+				if (thirdByte == 0x0d) throw new NCIParseException("0x0d is not a valid third byte. This probably indicates a faulty follows bit in the second byte.");
 				if ((thirdByte & RANGE_HIGH) == RANGE_HIGH) {
 					parityCheck += 2;
 					highRange = true;
 				} else if ((thirdByte & RANGE_HIGH) != 0) {
-					throw new NCIException("Misformatted status bytes. Third status byte has unknown state with regard to range.");
+					throw new NCIParseException("Misformatted status bytes. Third status byte has unknown state with regard to range.");
 				}
 				if ((thirdByte & WEIGHT_NET) != 0) {
 					parityCheck++;
@@ -769,7 +1454,7 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 					parityCheck++;
 				}
 				if (NCIDeviceRxtx.this.checkParity && (parityCheck % 2) > 0) {
-					throw new NCIException("Parity failure on the third status byte.");
+					throw new NCIParseException("Parity failure on the third status byte.");
 				}
 			}
 			
@@ -786,12 +1471,18 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 					highRange ? Status.Range.HIGH : Status.Range.LOW,
 					netWeight ? Status.WeightType.NET : Status.WeightType.GROSS,
 					initialZeroError);
+			NCIDeviceRxtx.this.lastStatus = NCIDeviceRxtx.this.status;
 		}
 
 	}
 	
 	public interface IPrimaryState {
-		void parseInput();
+		/**
+		 * Reads and parses the input available on the port.
+		 * 
+		 * @return	True if the exchange is finished, false if more input is expected.
+		 */
+		boolean parseInput();
 	}
 	
 	/**
@@ -809,13 +1500,13 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 		}
 
 		@Override
-		public void parseInput() {
+		public boolean parseInput() {
 			synchronized (NCIDeviceRxtx.this) {
 				byte[] inputMessage = new byte[INPUT_BUFFER_LENGTH];
 				try {
 					int bytesRead = 0;
 					int oldBytesRead = 0;
-					InputStream is = NCIDeviceRxtx.this.port.getInputStream();
+					InputStream is = NCIDeviceRxtx.this.transport.getInputStream();
 					do {
 						oldBytesRead = bytesRead;
 						bytesRead += is.read(inputMessage, bytesRead, INPUT_BUFFER_LENGTH - bytesRead);
@@ -828,10 +1519,100 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 				} finally {
 					NCIDeviceRxtx.this.notify();
 				}
+				return true;
 			}
 		}		
 	}
 	
+	/**
+	 * This is created for {@link NCIDeviceRxtx#executeBatch(List)}. The replies
+	 * to the commands in the batch arrive back-to-back, each terminated by an
+	 * &lt;ETX&gt;, and may be split across several serial events. The input is
+	 * accumulated until all of the replies have arrived, and each reply is
+	 * handed to the same {@link ITransmissionState} that would parse it if the
+	 * command had been sent on its own.
+	 */
+	public class BatchTransmissionState implements IPrimaryState {
+		private final List<Command> commands;
+		private final List<CommandResult> results;
+		private final byte[] inputMessage;
+		private int bytesBuffered = 0;
+		
+		public BatchTransmissionState(List<Command> commands) {
+			this.commands = commands;
+			this.results = new ArrayList<CommandResult>(commands.size());
+			this.inputMessage = new byte[INPUT_BUFFER_LENGTH * commands.size()];
+		}
+		
+		public boolean isComplete() {
+			return this.results.size() == this.commands.size();
+		}
+		
+		public List<CommandResult> getResults() {
+			return this.results;
+		}
+
+		@Override
+		public boolean parseInput() {
+			synchronized (NCIDeviceRxtx.this) {
+				try {
+					InputStream is = NCIDeviceRxtx.this.transport.getInputStream();
+					int read;
+					do {
+						read = is.read(inputMessage, bytesBuffered, inputMessage.length - bytesBuffered);
+						if (read > 0) bytesBuffered += read;
+					} while (read > 0 && bytesBuffered < inputMessage.length);
+					parseBuffered();
+				} catch (NCIException e) {
+					NCIDeviceRxtx.this.transmissionException = e;
+				} catch (IOException e) {
+					NCIDeviceRxtx.this.transmissionException = new NCIException("IOException retrieving data.", e);
+				}
+				if (isComplete() || NCIDeviceRxtx.this.transmissionException != null) {
+					NCIDeviceRxtx.this.notify();
+					return true;
+				}
+				return false;
+			}
+		}
+		
+		/**
+		 * Parses every complete reply in the buffer, leaving any partial reply
+		 * at the start of the buffer for the next serial event.
+		 */
+		void parseBuffered() throws NCIException {
+			int frameStart = 0;
+			for (int i = 0; i < bytesBuffered && !isComplete(); i++) {
+				if (inputMessage[i] != 0x03) continue;
+				int frameLength = i + 1 - frameStart;
+				byte[] frame = new byte[frameLength];
+				System.arraycopy(inputMessage, frameStart, frame, 0, frameLength);
+				Command command = commands.get(results.size());
+				NCIDeviceRxtx.this.weight = null;
+				NCIDeviceRxtx.this.units = null;
+				NCIDeviceRxtx.this.metrology = null;
+				getTransmissionState(command).parseInput(frameLength, 0, frame);
+				results.add(new CommandResult(command, NCIDeviceRxtx.this.weight, NCIDeviceRxtx.this.units, NCIDeviceRxtx.this.status, NCIDeviceRxtx.this.metrology));
+				frameStart = i + 1;
+			}
+			if (!isComplete() && frameStart == 0 && bytesBuffered == inputMessage.length) {
+				throw new NCIParseException("A reply in the batch did not fit in the input buffer. Aborting.");
+			}
+			System.arraycopy(inputMessage, frameStart, inputMessage, 0, bytesBuffered - frameStart);
+			bytesBuffered -= frameStart;
+		}
+		
+		/**
+		 * Adds input to the buffer as if it had been read from the port. This is
+		 * only for running unit tests.
+		 */
+		void bufferInput(byte[] input, int length) throws NCIException {
+			System.arraycopy(input, 0, inputMessage, bytesBuffered, length);
+			bytesBuffered += length;
+			parseBuffered();
+		}
+	}
+	
 	// DO NOT USE! This is a placeholder to demonstrate why I am doing what I did do. Asynchronous communication is not implemented yet.
 	public class AsynchronousTransmissionState implements IPrimaryState {
 		private ITransmissionState internalState;
@@ -841,12 +1622,12 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 		}
 
 		@Override
-		public void parseInput() {
+		public boolean parseInput() {
 			byte[] inputMessage = new byte[INPUT_BUFFER_LENGTH];
 			try {
 				int bytesRead = 0;
 				int oldBytesRead = 0;
-				InputStream is = NCIDeviceRxtx.this.port.getInputStream();
+				InputStream is = NCIDeviceRxtx.this.transport.getInputStream();
 				do {
 					oldBytesRead = bytesRead;
 					bytesRead += is.read(inputMessage, bytesRead, INPUT_BUFFER_LENGTH - bytesRead);
@@ -858,6 +1639,7 @@ public class NCIDeviceRxtx implements NCIDevice, SerialPortEventListener {
 			} catch (IOException e) {
 				// TODO: Call the exception event on the listener
 			}
+			return true;
 		}
 
 	}
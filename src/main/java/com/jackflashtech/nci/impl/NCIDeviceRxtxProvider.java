@@ -0,0 +1,36 @@
+package com.jackflashtech.nci.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIException;
+
+/**
+ * The provider for {@link NCIDeviceRxtx}, registered with
+ * {@link java.util.ServiceLoader} in this library's jar.
+ */
+public class NCIDeviceRxtxProvider implements NCIDeviceProvider {
+	private static final Set<String> IMPL_CLASS_NAMES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+			NCIDeviceRxtx.class.getName(), NCIDeviceRxtx.class.getSimpleName())));
+	private static final Set<String> CONFIGURATION_KEYS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+			"commport", "autodiscovery", "checkparity", "zeroband", "driftlimit", "noiselimit", "flickerlimit",
+			"address", "bustimeout", "board", "breakerthreshold", "breakercooldown")));
+
+	@Override
+	public Set<String> getImplClassNames() {
+		return IMPL_CLASS_NAMES;
+	}
+
+	@Override
+	public Set<String> getConfigurationKeys() {
+		return CONFIGURATION_KEYS;
+	}
+
+	@Override
+	public NCIDevice createDevice(DeviceConfiguration configuration) throws NCIException {
+		return new NCIDeviceRxtx(configuration);
+	}
+}
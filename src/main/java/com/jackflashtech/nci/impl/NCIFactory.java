@@ -1,10 +1,14 @@
 package com.jackflashtech.nci.impl;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.util.Properties;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.jackflashtech.nci.NCIDevice;
 import com.jackflashtech.nci.NCIException;
@@ -18,53 +22,170 @@ import com.jackflashtech.nci.NCIException;
  * <br>
  * <pre>
  * nci.brecknell.implclass=NCIDeviceRxtx
- * nci.brecknell.paritycheck=false
+ * nci.brecknell.checkparity=false
  * nci.brecknell.commport=COM6
  * </pre>
  * 
  * Other than "implclass", the other properties should be documented in the
- * specific implementation of NCIDevice specified in "implclass".
+ * specific implementation of NCIDevice specified in "implclass". The settings
+ * common to every device are listed in {@link DeviceConfiguration}. Each
+ * "implclass" is matched to the {@link NCIDeviceProvider} that creates it.
+ * 
+ * The file is parsed once into an {@link NCIConfiguration}, which is shared by
+ * every factory created with {@link #NCIFactory()}, and can be reloaded
+ * without restarting through {@link #watchConfiguration()}.
  * 
  * @author Jonathan Card
  *
  */
 public class NCIFactory {
-	Properties settings;
+	/**
+	 * The configuration loaded from the classpath, shared by every factory
+	 * created with {@link #NCIFactory()} so the file is only parsed once.
+	 */
+	private static final AtomicReference<NCIConfiguration> DEFAULT_CONFIGURATION = new AtomicReference<NCIConfiguration>();
+
+	private final AtomicReference<NCIConfiguration> configuration;
+	private final NCIException configurationException;
+	private final CopyOnWriteArrayList<NCIConfigurationListener> listeners = new CopyOnWriteArrayList<NCIConfigurationListener>();
+	private NCIConfigurationWatcher watcher = null;
 	
+	/**
+	 * Creates a factory for the devices in "nci.properties" on the classpath.
+	 * If the file could not be loaded, the factory reports why when it is
+	 * used, and the next factory created tries to load it again.
+	 */
 	public NCIFactory() {
-		try {
-			this.settings = new Properties();
-			InputStream inStream = NCIFactory.class.getClassLoader().getResourceAsStream("nci.properties");
-			settings.load(inStream);
-		} catch (IOException e) {
-			this.settings = null;
+		NCIException exception = null;
+		synchronized (DEFAULT_CONFIGURATION) {
+			if (DEFAULT_CONFIGURATION.get() == null) {
+				try {
+					DEFAULT_CONFIGURATION.set(NCIConfiguration.load());
+				} catch (NCIException e) {
+					exception = e;
+				}
+			}
 		}
+		this.configuration = DEFAULT_CONFIGURATION;
+		this.configurationException = exception;
 	}
 
+	/**
+	 * Creates a factory for the devices in the given configuration, rather than
+	 * the one in "nci.properties" on the classpath.
+	 * 
+	 * @param configuration	The configuration of the devices.
+	 */
+	public NCIFactory(NCIConfiguration configuration) {
+		this.configuration = new AtomicReference<NCIConfiguration>(configuration);
+		this.configurationException = null;
+	}
+
+	/**
+	 * The configuration currently in use. If the configuration is being
+	 * watched, this is replaced whenever the file changes.
+	 * 
+	 * @return	The current configuration.
+	 * @throws NCIException	Thrown if the configuration could not be loaded.
+	 */
+	public NCIConfiguration getConfiguration() throws NCIException {
+		if (configurationException != null) throw new NCIException("This factory was not initialized correctly. This probably comes from not finding nci.properties.", configurationException);
+		return configuration.get();
+	}
+
+	/**
+	 * Returns a handle to the named device. The device is shared across the
+	 * whole process: it is opened by the first call for its name, later calls
+	 * return new handles to the same device, and it is closed once every
+	 * handle has been closed with {@link NCIDevice#closeDevice()}.
+	 * 
+	 * @param name	The name of the device in the configuration.
+	 * @return	A handle to the device.
+	 * @throws NCIException	Thrown if the device is not configured or cannot be opened.
+	 */
 	public NCIDevice getDevice(String name) throws NCIException {
-		if (settings == null) throw new NCIException("This factory was not initialized correctly. This probably comes from not finding nci.properties.");
-		Properties deviceProperties = new Properties();
-		String deviceClassName = this.settings.getProperty("nci." + name + ".implclass");
-		if (deviceClassName == null) throw new NCIException("There was no class name found to instantiate with name '" + name + "'.");
-		for (String propName : this.settings.stringPropertyNames()) {
-			deviceProperties.put(propName, this.settings.get(propName));
+		DeviceConfiguration deviceConfiguration = getConfiguration().getDeviceConfiguration(name);
+		if (deviceConfiguration == null) throw new NCIException("There was no class name found to instantiate with name '" + name + "'.");
+		return SharedDevices.acquire(deviceConfiguration);
+	}
+
+	public void addConfigurationListener(NCIConfigurationListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeConfigurationListener(NCIConfigurationListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Watches "nci.properties" on the classpath and reloads it when it
+	 * changes. This only works when the file is in a directory rather than in
+	 * a jar.
+	 * 
+	 * @throws NCIException	Thrown if the file cannot be watched.
+	 * @see #watchConfiguration(Path)
+	 */
+	public void watchConfiguration() throws NCIException {
+		URL resource = NCIFactory.class.getClassLoader().getResource(NCIConfiguration.RESOURCE_NAME);
+		if (resource == null) throw new NCIException("No " + NCIConfiguration.RESOURCE_NAME + " was found on the classpath.");
+		try {
+			watchConfiguration(Paths.get(resource.toURI()));
+		} catch (URISyntaxException | FileSystemNotFoundException | IllegalArgumentException e) {
+			throw new NCIException(NCIConfiguration.RESOURCE_NAME + " is not a file that can be watched: " + resource, e);
+		}
+	}
+
+	/**
+	 * Watches a configuration file on a background thread. Whenever it
+	 * changes, it is parsed again and swapped in whole, so devices created
+	 * afterwards use the new settings and every
+	 * {@link NCIConfigurationListener} is told what changed, for example to
+	 * open added devices, or an {@link NCIPollingScheduler} to poll at a new
+	 * rate. Devices that were already created are not changed. If the file fails to parse, the previous
+	 * configuration stays in use.
+	 * 
+	 * @param file	The file to watch.
+	 * @throws NCIException	Thrown if the file cannot be watched.
+	 */
+	public synchronized void watchConfiguration(Path file) throws NCIException {
+		stopWatchingConfiguration();
+		NCIConfigurationWatcher watcher = new NCIConfigurationWatcher(file, this.configuration, this.listeners);
+		watcher.start();
+		this.watcher = watcher;
+	}
+
+	public synchronized void stopWatchingConfiguration() {
+		if (this.watcher != null) {
+			this.watcher.stop();
+			this.watcher = null;
 		}
+	}
+
+	/**
+	 * Creates a group of the named devices that can be read at the same time.
+	 * If any of the devices cannot be created, the ones that were already
+	 * created are closed.
+	 * 
+	 * @param names	The names of the devices in the group.
+	 * @return	A group of the named devices.
+	 * @throws NCIException	Thrown if any of the devices cannot be created.
+	 */
+	public NCIDeviceGroup getDeviceGroup(String... names) throws NCIException {
+		Map<String, NCIDevice> members = new LinkedHashMap<String, NCIDevice>();
 		try {
-			Class<?> objClass =
-					this.getClass().getClassLoader().loadClass(deviceClassName);
-			if(objClass == null) throw new NCIException("No class found with name: " + deviceClassName);
-			Class<? extends NCIDevice> deviceClassObj = objClass.asSubclass(NCIDevice.class);
-			Constructor<? extends NCIDevice> deviceConstructor =
-					deviceClassObj.getDeclaredConstructor(Properties.class, String.class);
-			return deviceConstructor.newInstance(deviceProperties, name);
-		} catch (ClassNotFoundException |
-				NoSuchMethodException |
-				SecurityException |
-				InstantiationException |
-				IllegalAccessException |
-				IllegalArgumentException |
-				InvocationTargetException e) {
-			throw new NCIException("Exception constructing the device instance.", e);
+			for (String name : names) {
+				members.put(name, getDevice(name));
+			}
+		} catch (NCIException e) {
+			for (NCIDevice device : members.values()) {
+				try {
+					device.closeDevice();
+				} catch (NCIException closeException) {
+					// The original exception is the one worth reporting.
+				}
+			}
+			throw e;
 		}
+		return new NCIDeviceGroup(members);
 	}
 }
@@ -0,0 +1,537 @@
+package com.jackflashtech.nci.impl;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.jackflashtech.nci.NCIBusyException;
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.NCIPollingListener;
+import com.jackflashtech.nci.Priority;
+import com.jackflashtech.nci.data.Reading;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+import com.jackflashtech.nci.filter.FilterPipeline;
+
+/**
+ * This polls the weight of many devices from a shared pool of threads, in
+ * place of each caller running its own loop around
+ * {@link NCIDevice#getWeight()}. Each device is registered with a
+ * {@link RateClass}, and the results are published to every
+ * {@link NCIPollingListener} added to the scheduler.
+ *
+ * The polls of devices in the same rate class are spread across the period,
+ * with a little jitter, so they do not all land on the same tick. A device is
+ * also never polled faster than its serial link can carry the exchange; at
+ * 9600 baud, for example, a device registered as {@link RateClass#FAST} is
+ * slowed to what the link can sustain. Devices registered on the same link,
+ * such as the devices of a bus on one port, share what it can carry between
+ * them. Polls are sent in the
+ * {@link Priority#BACKGROUND} lane, and a poll that is shed for an interactive
+ * command is skipped rather than reported as a failure.
+ *
+ * A device registered as {@link RateClass#ADAPTIVE} is polled fast only while
+ * it is in use; see {@link #getAdaptiveRate(Weight, Status, boolean, long)}.
+ * Polling is demand-driven: while no listener is added to the scheduler, no
+ * device is polled at all, and polling resumes when one is added.
+ *
+ * A device may be registered with a {@link FilterPipeline}, which every
+ * successful poll passes through before it is published; a reading the
+ * filters drop is not published at all. Adaptive polling still follows the
+ * unfiltered weight.
+ *
+ * Added to a factory that watches its configuration, with
+ * {@link NCIFactory#addConfigurationListener(NCIConfigurationListener)}, the
+ * scheduler moves each device whose poll rate is changed in the file to its
+ * new rate.
+ */
+public class NCIPollingScheduler implements NCIConfigurationListener {
+	/**
+	 * The baud rate {@link NCIDeviceRxtx} opens its port with.
+	 */
+	public static final int DEFAULT_BAUD_RATE = 115200;
+	/**
+	 * One start bit, eight data bits and one stop bit.
+	 */
+	private static final int BITS_PER_BYTE = 10;
+	/**
+	 * The 'W' and the &lt;CR&gt;.
+	 */
+	private static final int REQUEST_BYTES = 2;
+	/**
+	 * The longest reply to 'W' in practice: &lt;LF&gt;, the weight and units,
+	 * &lt;CR&gt;&lt;LF&gt;, three status bytes, &lt;CR&gt; and &lt;ETX&gt;.
+	 */
+	private static final int REPLY_BYTES = 18;
+	/**
+	 * The share of a link's capacity that polling may use, leaving room for
+	 * commands like tare and zero.
+	 */
+	private static final double MAX_LINK_UTILIZATION = 0.8;
+	/**
+	 * The largest jitter added to a phase, as a share of the period.
+	 */
+	private static final double MAX_JITTER = 0.05;
+	/**
+	 * The fractional part of the golden ratio. Successive multiples of it
+	 * spread the phases evenly however many devices are registered.
+	 */
+	private static final double PHASE_STEP = 0.6180339887498949;
+	/**
+	 * How long an adaptive device stays at the fast rate after its reading
+	 * last moved, so the settled weight is seen promptly.
+	 */
+	static final long ADAPTIVE_HOLD_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * The rates at which a device can be polled.
+	 */
+	public enum RateClass {
+		FAST(50),
+		NORMAL(5),
+		SLOW(1),
+		/**
+		 * Polled at the rate of {@link #FAST} while the reading is moving,
+		 * {@link #NORMAL} while it is steady under a load, and {@link #SLOW}
+		 * while it is steady at zero.
+		 */
+		ADAPTIVE(50);
+
+		private final int hertz;
+
+		private RateClass(int hertz) {
+			this.hertz = hertz;
+		}
+
+		/**
+		 * @return	The rate of polling, or the fastest rate for {@link #ADAPTIVE}.
+		 */
+		public int getHertz() {
+			return hertz;
+		}
+
+		public long getPeriodNanos() {
+			return TimeUnit.SECONDS.toNanos(1) / hertz;
+		}
+	}
+
+	private final ScheduledExecutorService executor;
+	private final Map<String, Registration> registrations = new ConcurrentHashMap<String, Registration>();
+	private final Map<RateClass, Integer> rateCounts = new EnumMap<RateClass, Integer>(RateClass.class);
+	private final Map<String, Integer> linkCounts = new ConcurrentHashMap<String, Integer>();
+	private final CopyOnWriteArrayList<NCIPollingListener> listeners = new CopyOnWriteArrayList<NCIPollingListener>();
+	private final Random random = new Random();
+
+	/**
+	 * Creates a scheduler that polls from the given number of threads. A device
+	 * that does not reply holds a thread for the full timeout, so there should
+	 * be enough threads to cover the devices that may be unplugged at once.
+	 *
+	 * @param threads	The number of threads polling devices.
+	 */
+	public NCIPollingScheduler(int threads) {
+		this.executor = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "NCI polling scheduler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Adds a listener, starting the polls if it is the first.
+	 */
+	public void addPollingListener(NCIPollingListener listener) {
+		synchronized (listeners) {
+			listeners.add(listener);
+			if (listeners.size() == 1) {
+				for (Registration registration : registrations.values()) {
+					registration.start();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a listener, stopping the polls if it was the last.
+	 */
+	public void removePollingListener(NCIPollingListener listener) {
+		synchronized (listeners) {
+			if (listeners.remove(listener) && listeners.isEmpty()) {
+				for (Registration registration : registrations.values()) {
+					registration.stop();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts polling a device at {@link #DEFAULT_BAUD_RATE}.
+	 *
+	 * @param name		The name the results are published under.
+	 * @param device	The device to poll.
+	 * @param rate		The rate at which to poll the device.
+	 * @throws NCIException	Thrown if a device is already registered with the name.
+	 */
+	public void register(String name, NCIDevice device, RateClass rate) throws NCIException {
+		register(name, device, rate, DEFAULT_BAUD_RATE);
+	}
+
+	/**
+	 * Starts polling a device at the rate and baud rate in its configuration,
+	 * or {@link RateClass#NORMAL} if it has no poll rate, and with its filters.
+	 * Devices configured with the same commport share its link.
+	 *
+	 * @param device		The device to poll.
+	 * @param configuration	The configuration the device was created from. Results are published under its name.
+	 * @throws NCIException	Thrown if a device is already registered with the name.
+	 */
+	public void register(NCIDevice device, DeviceConfiguration configuration) throws NCIException {
+		RateClass rate = configuration.getPollRate() == null ? RateClass.NORMAL : configuration.getPollRate();
+		register(configuration.getName(), device, rate, configuration.getBaudRate(), configuration.getCommPort(), configuration.createFilter());
+	}
+
+	/**
+	 * Starts polling a device whose link runs at the given baud rate.
+	 *
+	 * @param name		The name the results are published under.
+	 * @param device	The device to poll.
+	 * @param rate		The rate at which to poll the device.
+	 * @param baudRate	The baud rate of the device's serial link.
+	 * @throws NCIException	Thrown if a device is already registered with the name.
+	 */
+	public void register(String name, NCIDevice device, RateClass rate, int baudRate) throws NCIException {
+		register(name, device, rate, baudRate, null);
+	}
+
+	/**
+	 * Starts polling a device whose link runs at the given baud rate,
+	 * filtering its readings before they are published.
+	 *
+	 * @param name		The name the results are published under.
+	 * @param device	The device to poll.
+	 * @param rate		The rate at which to poll the device.
+	 * @param baudRate	The baud rate of the device's serial link.
+	 * @param filter	The filters for the device's readings, or null to publish every reading.
+	 * @throws NCIException	Thrown if a device is already registered with the name.
+	 */
+	public void register(String name, NCIDevice device, RateClass rate, int baudRate, FilterPipeline filter) throws NCIException {
+		register(name, device, rate, baudRate, null, filter);
+	}
+
+	/**
+	 * Starts polling a device whose link may be shared with other devices,
+	 * filtering its readings before they are published. The devices
+	 * registered with the same link are polled no faster, together, than it
+	 * can carry.
+	 *
+	 * @param name		The name the results are published under.
+	 * @param device	The device to poll.
+	 * @param rate		The rate at which to poll the device.
+	 * @param baudRate	The baud rate of the device's serial link.
+	 * @param link		The name of the link, such as its port, or null if the device has a link of its own.
+	 * @param filter	The filters for the device's readings, or null to publish every reading.
+	 * @throws NCIException	Thrown if a device is already registered with the name.
+	 */
+	public void register(String name, NCIDevice device, RateClass rate, int baudRate, String link, FilterPipeline filter) throws NCIException {
+		synchronized (listeners) {
+			if (registrations.containsKey(name)) throw new NCIException("A device is already registered with the name '" + name + "'.");
+			if (link != null) {
+				Integer devices = linkCounts.get(link);
+				linkCounts.put(link, devices == null ? 1 : devices + 1);
+			}
+			long phaseNanos;
+			synchronized (rateCounts) {
+				Integer count = rateCounts.get(rate);
+				int index = count == null ? 0 : count;
+				rateCounts.put(rate, index + 1);
+				double phase = (index * PHASE_STEP) % 1.0;
+				double jitter = random.nextDouble() * MAX_JITTER;
+				phaseNanos = (long) (((phase + jitter) % 1.0) * getPeriodNanos(rate, baudRate, getLinkDevices(link)));
+			}
+			Registration registration = new Registration(name, device, rate, baudRate, link, filter, phaseNanos);
+			registrations.put(name, registration);
+			if (!listeners.isEmpty()) registration.start();
+		}
+	}
+
+	/**
+	 * Stops polling a device. A poll that is already in progress is allowed to
+	 * finish.
+	 *
+	 * @param name	The name the device was registered with.
+	 */
+	public void unregister(String name) {
+		synchronized (listeners) {
+			Registration registration = registrations.remove(name);
+			if (registration == null) return;
+			registration.stop();
+			if (registration.link != null) {
+				int devices = linkCounts.get(registration.link) - 1;
+				if (devices == 0) linkCounts.remove(registration.link);
+				else linkCounts.put(registration.link, devices);
+			}
+			synchronized (rateCounts) {
+				rateCounts.put(registration.rate, rateCounts.get(registration.rate) - 1);
+			}
+		}
+	}
+
+	/**
+	 * Moves a registered device to a different rate class, such as when its
+	 * poll rate changes in a reloaded configuration.
+	 *
+	 * @param name	The name the device was registered with.
+	 * @param rate	The new rate at which to poll the device.
+	 * @throws NCIException	Thrown if no device is registered with the name.
+	 */
+	public void setRateClass(String name, RateClass rate) throws NCIException {
+		synchronized (listeners) {
+			Registration registration = registrations.get(name);
+			if (registration == null) throw new NCIException("No device is registered with the name '" + name + "'.");
+			unregister(name);
+			register(name, registration.device, rate, registration.baudRate, registration.link, registration.filter);
+		}
+	}
+
+	/**
+	 * @return	The rate class the named device is polled at, or null if no device is registered with the name.
+	 */
+	RateClass getRateClass(String name) {
+		Registration registration = registrations.get(name);
+		return registration == null ? null : registration.rate;
+	}
+
+	/**
+	 * @return	The number of devices registered with the link, or one for a device with a link of its own.
+	 */
+	int getLinkDevices(String link) {
+		Integer devices = link == null ? null : linkCounts.get(link);
+		return devices == null ? 1 : devices;
+	}
+
+	/**
+	 * Moves each registered device whose poll rate changed in the reloaded
+	 * configuration to its new rate, or to {@link RateClass#NORMAL} if the
+	 * rate was taken out. A device whose poll rate did not change keeps the
+	 * rate it has, even if that was set some other way.
+	 */
+	@Override
+	public void configurationChanged(NCIConfiguration previous, NCIConfiguration current) {
+		for (String name : registrations.keySet()) {
+			DeviceConfiguration before = previous.getDeviceConfiguration(name);
+			DeviceConfiguration after = current.getDeviceConfiguration(name);
+			if (after == null) continue;
+			RateClass rate = after.getPollRate();
+			if (before != null && before.getPollRate() == rate) continue;
+			if (rate == null) rate = RateClass.NORMAL;
+			if (rate == getRateClass(name)) continue;
+			try {
+				setRateClass(name, rate);
+			} catch (NCIException e) {
+				// The device was unregistered in the meantime.
+			}
+		}
+	}
+
+	@Override
+	public void configurationFailed(NCIException exception) {
+		// The rates of the previous configuration stay in place.
+	}
+
+	/**
+	 * Stops polling every device. The devices are not closed.
+	 */
+	public void shutdown() {
+		synchronized (listeners) {
+			executor.shutdownNow();
+			registrations.clear();
+			linkCounts.clear();
+			synchronized (rateCounts) {
+				rateCounts.clear();
+			}
+		}
+	}
+
+	/**
+	 * The time between polls of a device: the period of its rate class, or
+	 * longer if the link cannot carry that many exchanges.
+	 *
+	 * @param rate		The rate class of the device.
+	 * @param baudRate	The baud rate of the device's serial link.
+	 * @return	The time between polls, in nanoseconds.
+	 */
+	public static long getPeriodNanos(RateClass rate, int baudRate) {
+		return getPeriodNanos(rate, baudRate, 1);
+	}
+
+	/**
+	 * The time between polls of a device whose link is shared: the period of
+	 * its rate class, or longer if the link cannot carry that many exchanges
+	 * for every device on it.
+	 *
+	 * @param rate		The rate class of the device.
+	 * @param baudRate	The baud rate of the shared serial link.
+	 * @param devices	The number of devices polled over the link.
+	 * @return	The time between polls, in nanoseconds.
+	 */
+	public static long getPeriodNanos(RateClass rate, int baudRate, int devices) {
+		long exchangeNanos = TimeUnit.SECONDS.toNanos(1) * (REQUEST_BYTES + REPLY_BYTES) * BITS_PER_BYTE / baudRate;
+		return Math.max(rate.getPeriodNanos(), (long) (exchangeNanos * devices / MAX_LINK_UTILIZATION));
+	}
+
+	/**
+	 * The rate to poll an {@link RateClass#ADAPTIVE} device at next. The
+	 * reading is moving if the scale reports motion or the weight differs from
+	 * the previous poll, and it is held at the fast rate for
+	 * {@link #ADAPTIVE_HOLD_NANOS} after it last moved.
+	 *
+	 * @param weight			The weight just polled.
+	 * @param status			The status just polled, or null if it is not known.
+	 * @param changed			Whether the weight differs from the previous poll.
+	 * @param sinceMovedNanos	The time since the reading last moved, including this poll.
+	 * @return	{@link RateClass#FAST}, {@link RateClass#NORMAL} or {@link RateClass#SLOW}.
+	 */
+	static RateClass getAdaptiveRate(Weight weight, Status status, boolean changed, long sinceMovedNanos) {
+		if (changed || (status != null && status.isInMotion()) || sinceMovedNanos < ADAPTIVE_HOLD_NANOS) return RateClass.FAST;
+		boolean atZero = status != null ? status.isScaleAtZero() : weight.getMicrograms() == 0;
+		return atZero ? RateClass.SLOW : RateClass.NORMAL;
+	}
+
+	/**
+	 * Polls a device and publishes the reading, if the filters pass it. The
+	 * weight is published with the status from the same reply, taken from the
+	 * device's {@link NCIDevice#latestReading()}, or with none if the device
+	 * keeps no readings.
+	 *
+	 * @return	The unfiltered result of the poll, or null if it failed.
+	 */
+	Reading poll(String name, NCIDevice device, FilterPipeline filter) {
+		try {
+			Weight weight = device.getWeight(Priority.BACKGROUND);
+			Reading reading = device.latestReading();
+			if (reading == null) reading = new Reading(weight, null, 0, System.nanoTime());
+			weight = reading.getWeight();
+			Status status = reading.getStatus();
+			Weight published = filter == null ? weight : filter.filter(weight, status, System.nanoTime());
+			if (published != null) {
+				for (NCIPollingListener listener : listeners) {
+					listener.polled(name, published, status);
+				}
+			}
+			return reading;
+		} catch (NCIBusyException e) {
+			// The poll was shed for an interactive command; the next one will be on time.
+		} catch (NCIException e) {
+			for (NCIPollingListener listener : listeners) {
+				listener.pollFailed(name, e);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A registered device and the polls scheduled for it. Each poll schedules
+	 * the next when it finishes: at a fixed rate, one period after the last
+	 * began, or at once if it took longer, so a slow poll is never followed
+	 * by a burst of the polls it held up; adaptively, at the rate its reading
+	 * calls for. Each start begins a new generation, so a poll still running
+	 * from before a stop does not schedule another after a restart.
+	 */
+	private class Registration {
+		private final String name;
+		private final NCIDevice device;
+		private final RateClass rate;
+		private final int baudRate;
+		private final String link;
+		private final FilterPipeline filter;
+		private final long phaseNanos;
+		private ScheduledFuture<?> future;
+		private int generation = 0;
+		private boolean running = false;
+		private Weight lastWeight;
+		private long lastMovedNanos;
+
+		Registration(String name, NCIDevice device, RateClass rate, int baudRate, String link, FilterPipeline filter, long phaseNanos) {
+			this.name = name;
+			this.device = device;
+			this.rate = rate;
+			this.baudRate = baudRate;
+			this.link = link;
+			this.filter = filter;
+			this.phaseNanos = phaseNanos;
+		}
+
+		synchronized void start() {
+			if (running) return;
+			running = true;
+			generation++;
+			lastMovedNanos = System.nanoTime();
+			schedule(phaseNanos);
+		}
+
+		synchronized void stop() {
+			running = false;
+			if (future != null) future.cancel(false);
+			future = null;
+		}
+
+		/**
+		 * Schedules the next poll in the current generation.
+		 */
+		private void schedule(long delayNanos) {
+			final int scheduled = generation;
+			try {
+				future = executor.schedule(new Runnable() {
+					@Override
+					public void run() {
+						if (rate == RateClass.ADAPTIVE) pollAdaptive(scheduled);
+						else pollFixed(scheduled);
+					}
+				}, delayNanos, TimeUnit.NANOSECONDS);
+			} catch (RejectedExecutionException e) {
+				// The scheduler was shut down.
+			}
+		}
+
+		private void pollFixed(int scheduled) {
+			long started = System.nanoTime();
+			poll(name, device, filter);
+			long delay = Math.max(0, getPeriodNanos(rate, baudRate, getLinkDevices(link)) - (System.nanoTime() - started));
+			synchronized (this) {
+				if (running && scheduled == generation) schedule(delay);
+			}
+		}
+
+		private void pollAdaptive(int scheduled) {
+			Reading reading = poll(name, device, filter);
+			long now = System.nanoTime();
+			RateClass next;
+			if (reading == null) {
+				// A failed or shed poll says nothing about motion, so keep a steady pace.
+				next = RateClass.NORMAL;
+			} else {
+				Weight weight = reading.getWeight();
+				boolean changed = lastWeight != null && lastWeight.getMicrograms() != weight.getMicrograms();
+				lastWeight = weight;
+				Status status = reading.getStatus();
+				if (changed || (status != null && status.isInMotion())) lastMovedNanos = now;
+				next = getAdaptiveRate(weight, status, changed, now - lastMovedNanos);
+			}
+			synchronized (this) {
+				if (running && scheduled == generation) schedule(getPeriodNanos(next, baudRate, getLinkDevices(link)));
+			}
+		}
+	}
+}
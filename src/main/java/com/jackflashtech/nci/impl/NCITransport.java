@@ -0,0 +1,39 @@
+package com.jackflashtech.nci.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.jackflashtech.nci.NCIException;
+
+/**
+ * The link {@link NCIDeviceRxtx} speaks the NCI protocol over. The default is
+ * an RXTX serial port, but any byte stream that can announce arriving input
+ * will do, such as the loopback to a
+ * {@link com.jackflashtech.nci.emulator.NCIScaleEmulator}.
+ *
+ * Reads from the input stream must not block: they return the input that has
+ * already arrived, which is 0 bytes from {@link InputStream#read(byte[], int, int)}
+ * or -1 from {@link InputStream#read()} when there is none, the same as an
+ * RXTX port without a receive timeout.
+ */
+public interface NCITransport {
+	InputStream getInputStream() throws IOException;
+
+	OutputStream getOutputStream() throws IOException;
+
+	/**
+	 * Sets the listener to call each time input arrives. A transport has only
+	 * one listener, the device reading from it.
+	 *
+	 * @param listener	The listener to call, or null to stop calling it.
+	 */
+	void setTransportListener(NCITransportListener listener);
+
+	/**
+	 * Releases the link. The listener is not called after this returns.
+	 *
+	 * @throws NCIException	Thrown if the link could not be released cleanly.
+	 */
+	void close() throws NCIException;
+}
@@ -0,0 +1,13 @@
+package com.jackflashtech.nci.impl;
+
+/**
+ * Notified by an {@link NCITransport} when input arrives.
+ */
+public interface NCITransportListener {
+	/**
+	 * Called on the transport's own thread each time input arrives. More than
+	 * one arrival may be read by the same call, so the input stream may be
+	 * empty by the time a later call is made.
+	 */
+	void dataAvailable();
+}
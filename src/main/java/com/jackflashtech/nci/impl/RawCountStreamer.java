@@ -0,0 +1,188 @@
+package com.jackflashtech.nci.impl;
+
+import java.util.concurrent.ThreadFactory;
+
+import com.jackflashtech.nci.NCIBusyException;
+import com.jackflashtech.nci.NCICircuitOpenException;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.NCITimeoutException;
+import com.jackflashtech.nci.NCIUnsupportedException;
+import com.jackflashtech.nci.RawCountListener;
+import com.jackflashtech.nci.data.RawCountBlock;
+import com.jackflashtech.nci.data.Status;
+
+/**
+ * Reads the raw counts of one device continuously while anything is
+ * subscribed to them, and hands each subscriber its own decimation. The
+ * counts are pulled in turns of {@link #TURN} with
+ * {@link NCIDeviceRxtx#pullRawCounts(long[], long[], int)}, releasing the
+ * device between turns so that other commands get through, then decimated
+ * into each subscriber's block. The arrays and blocks are allocated once, so
+ * a stream of hundreds of counts a second makes almost no garbage.
+ *
+ * A turn with a reply that cannot be parsed, such as one corrupted on the
+ * line, or that fails for any other passing reason, is skipped and the next
+ * turn is read. The stream ends, and every subscriber is told, only when the
+ * device stops answering: a reply is late, or its {@link CircuitBreaker} has
+ * opened after enough failed turns. It also ends if the device does not
+ * support raw counts at all.
+ */
+class RawCountStreamer implements Runnable {
+	/**
+	 * The counts read in one turn on the device.
+	 */
+	static final int TURN = 32;
+	/**
+	 * How long to wait before trying again when a turn is shed for an
+	 * interactive command.
+	 */
+	private static final long SHED_BACKOFF_MILLIS = 1;
+	private static final Subscription[] NONE = new Subscription[0];
+
+	private static final ThreadFactory THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "NCI raw counts");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	/**
+	 * One subscriber, with the raw counts it has not yet averaged into a
+	 * sample.
+	 */
+	private static class Subscription {
+		final RawCountListener listener;
+		final int decimation;
+		final RawCountBlock block;
+		long sum = 0;
+		int summed = 0;
+
+		Subscription(RawCountListener listener, int decimation, int blockSize) {
+			this.listener = listener;
+			this.decimation = decimation;
+			this.block = new RawCountBlock(blockSize);
+		}
+
+		void add(long[] counts, long[] nanoTimes, int length, Status status) {
+			for (int i = 0; i < length; i++) {
+				sum += counts[i];
+				if (++summed < decimation) continue;
+				boolean full = block.add((double) sum / decimation, nanoTimes[i]);
+				sum = 0;
+				summed = 0;
+				if (full) {
+					block.setStatus(status);
+					try {
+						listener.receivedRawCounts(block);
+					} catch (RuntimeException e) {
+						// A failing subscriber must not stop the stream for the others.
+					}
+					block.clear();
+				}
+			}
+		}
+	}
+
+	private final NCIDeviceRxtx device;
+	private final long[] counts = new long[TURN];
+	private final long[] nanoTimes = new long[TURN];
+	/**
+	 * Replaced, never changed, so the reading thread can walk it without a lock.
+	 */
+	private volatile Subscription[] subscriptions = NONE;
+	private Thread thread = null;
+
+	RawCountStreamer(NCIDeviceRxtx device) {
+		this.device = device;
+	}
+
+	synchronized void subscribe(RawCountListener listener, int decimation, int blockSize) throws NCIException {
+		if (decimation < 1) throw new IllegalArgumentException("The decimation must be positive, not " + decimation + ".");
+		if (blockSize < 1) throw new IllegalArgumentException("The block size must be positive, not " + blockSize + ".");
+		Subscription[] current = subscriptions;
+		for (Subscription subscription : current) {
+			if (subscription.listener == listener) throw new NCIException("The listener is already subscribed to the raw counts.");
+		}
+		Subscription[] updated = new Subscription[current.length + 1];
+		System.arraycopy(current, 0, updated, 0, current.length);
+		updated[current.length] = new Subscription(listener, decimation, blockSize);
+		subscriptions = updated;
+		if (thread == null) {
+			thread = THREADS.newThread(this);
+			thread.start();
+		}
+	}
+
+	synchronized void unsubscribe(RawCountListener listener) {
+		Subscription[] current = subscriptions;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i].listener != listener) continue;
+			Subscription[] updated = new Subscription[current.length - 1];
+			System.arraycopy(current, 0, updated, 0, i);
+			System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+			subscriptions = updated;
+			return;
+		}
+	}
+
+	/**
+	 * Drops every subscriber, such as when the device is closed. The reading
+	 * thread finishes its turn and ends.
+	 */
+	synchronized void stop() {
+		subscriptions = NONE;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Subscription[] current = subscriptions;
+			if (current.length == 0) {
+				synchronized (this) {
+					if (subscriptions.length == 0) {
+						thread = null;
+						return;
+					}
+				}
+				continue;
+			}
+			Status status;
+			try {
+				status = device.pullRawCounts(counts, nanoTimes, TURN);
+			} catch (NCIBusyException e) {
+				try {
+					Thread.sleep(SHED_BACKOFF_MILLIS);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+				}
+				continue;
+			} catch (NCITimeoutException | NCICircuitOpenException | NCIUnsupportedException e) {
+				fail(e);
+				continue;
+			} catch (NCIException e) {
+				// The counts read so far in the turn are in doubt; the next turn starts afresh.
+				continue;
+			}
+			for (Subscription subscription : subscriptions) {
+				subscription.add(counts, nanoTimes, TURN, status);
+			}
+		}
+	}
+
+	private void fail(NCIException exception) {
+		Subscription[] failed;
+		synchronized (this) {
+			failed = subscriptions;
+			subscriptions = NONE;
+		}
+		for (Subscription subscription : failed) {
+			try {
+				subscription.listener.rawCountsFailed(exception);
+			} catch (RuntimeException e) {
+				// The stream is already stopped.
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.jackflashtech.nci.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.TooManyListenersException;
+
+import com.jackflashtech.nci.NCIException;
+
+import gnu.io.CommPortIdentifier;
+import gnu.io.NoSuchPortException;
+import gnu.io.PortInUseException;
+import gnu.io.SerialPort;
+import gnu.io.SerialPortEvent;
+import gnu.io.SerialPortEventListener;
+import gnu.io.UnsupportedCommOperationException;
+
+/**
+ * An {@link NCITransport} over an RXTX serial port.
+ */
+class RxtxTransport implements NCITransport, SerialPortEventListener {
+	/**
+	 * This is the timeout when waiting to get the COM port.
+	 */
+	static final int COMM_TIMEOUT = 2000;
+
+	private final SerialPort port;
+	private volatile NCITransportListener listener;
+
+	/**
+	 * Takes over an opened port. The port is closed if it cannot be set up.
+	 *
+	 * @param port	The opened port, with its parameters already set.
+	 * @throws NCIException	Thrown if the port will not accept a listener.
+	 */
+	RxtxTransport(SerialPort port) throws NCIException {
+		this.port = port;
+		try {
+			port.setDTR(false);
+			port.setRTS(false);
+			port.addEventListener(this);
+			port.notifyOnDataAvailable(true);
+		} catch (TooManyListenersException e) {
+			port.close();
+			throw new NCIException("The underlying port will not accept more listeners, so this device object will not work.", e);
+		}
+	}
+
+	/**
+	 * Opens a port by name at 8 data bits, 1 stop bit and no parity.
+	 *
+	 * @param portName	The name of the port, such as "COM6" or "/dev/ttyUSB0".
+	 * @param owner		The owner RXTX records for the port.
+	 * @param baudRate	The baud rate to open the port at.
+	 * @return	The opened transport.
+	 * @throws NCIException	Thrown if the port does not exist, is in use, or does not support the baud rate.
+	 */
+	static RxtxTransport open(String portName, String owner, int baudRate) throws NCIException {
+		SerialPort port;
+		try {
+			CommPortIdentifier portId = CommPortIdentifier.getPortIdentifier(portName);
+			port = (SerialPort) portId.open(owner, COMM_TIMEOUT);
+		} catch (NoSuchPortException e) {
+			throw new NCIException("There is no COM port named " + portName + ".", e);
+		} catch (PortInUseException e) {
+			throw new NCIException("COM port named " + portName + " is in use.", e);
+		}
+		try {
+			port.setSerialPortParams(baudRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+		} catch (UnsupportedCommOperationException e) {
+			port.close();
+			throw new NCIException("COM port named " + portName + " does not support a baud rate of " + baudRate + ".", e);
+		}
+		return new RxtxTransport(port);
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return port.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return port.getOutputStream();
+	}
+
+	@Override
+	public void setTransportListener(NCITransportListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void close() {
+		this.listener = null;
+		port.removeEventListener();
+		port.close();
+	}
+
+	@Override
+	public void serialEvent(SerialPortEvent event) {
+		// Only arriving data is of interest; line-state events are not enabled on the port.
+		if (event.getEventType() != SerialPortEvent.DATA_AVAILABLE) return;
+		NCITransportListener listener = this.listener;
+		if (listener != null) listener.dataAvailable();
+	}
+}
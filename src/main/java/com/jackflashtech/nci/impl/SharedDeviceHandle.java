@@ -0,0 +1,185 @@
+package com.jackflashtech.nci.impl;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TooManyListenersException;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import com.jackflashtech.nci.CallOptions;
+import com.jackflashtech.nci.Command;
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIDeviceListener;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Priority;
+import com.jackflashtech.nci.RawCountListener;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.CommandResult;
+import com.jackflashtech.nci.data.Reading;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+
+/**
+ * One caller's handle to a device shared through {@link SharedDevices}. Every
+ * method is passed through to the shared device, except
+ * {@link #closeDevice()}, which only releases this handle; the device is
+ * closed with its last handle. A handle cannot be used once it is closed, and
+ * closing it again does nothing.
+ *
+ * Each handle has its own listener slot, as a device does, and its listener
+ * hears the device's events alongside those of the other handles. Closing the
+ * handle tells its listener the device was closed and stops it hearing any
+ * more, and ends the raw-count subscriptions made through it.
+ */
+class SharedDeviceHandle implements NCIDevice {
+	private final NCIDevice device;
+	private final SharedDevices.Entry entry;
+	private final Set<RawCountListener> subscriptions = new CopyOnWriteArraySet<RawCountListener>();
+	private NCIDeviceListener listener = null;
+	private volatile boolean closed = false;
+
+	SharedDeviceHandle(NCIDevice device, SharedDevices.Entry entry) {
+		this.device = device;
+		this.entry = entry;
+	}
+
+	private NCIDevice getDevice() throws NCIException {
+		if (closed) throw new NCIException("This handle to the device has been closed.");
+		return device;
+	}
+
+	@Override
+	public void addDeviceListener(NCIDeviceListener listener) throws TooManyListenersException {
+		synchronized (this) {
+			if (this.listener != null) throw new TooManyListenersException();
+			if (closed) return;
+			this.listener = listener;
+		}
+		try {
+			SharedDevices.addListener(entry, listener);
+		} catch (TooManyListenersException | RuntimeException e) {
+			synchronized (this) {
+				this.listener = null;
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public Weight getWeight() throws NCIException {
+		return getDevice().getWeight();
+	}
+
+	@Override
+	public Weight getWeight(Priority priority) throws NCIException {
+		return getDevice().getWeight(priority);
+	}
+
+	@Override
+	public Weight getWeight(CallOptions options) throws NCIException {
+		return getDevice().getWeight(options);
+	}
+
+	@Override
+	public Weight getHighResolutionWeight() throws NCIException {
+		return getDevice().getHighResolutionWeight();
+	}
+
+	@Override
+	public Units changeUnitsOfMeasure() throws NCIException {
+		return getDevice().changeUnitsOfMeasure();
+	}
+
+	@Override
+	public long requestMetrologyRawCounts() throws NCIException {
+		return getDevice().requestMetrologyRawCounts();
+	}
+
+	@Override
+	public void subscribeRawCounts(RawCountListener listener, int decimation, int blockSize) throws NCIException {
+		getDevice().subscribeRawCounts(listener, decimation, blockSize);
+		subscriptions.add(listener);
+	}
+
+	@Override
+	public void unsubscribeRawCounts(RawCountListener listener) {
+		subscriptions.remove(listener);
+		device.unsubscribeRawCounts(listener);
+	}
+
+	@Override
+	public void requestAbout() throws NCIException {
+		getDevice().requestAbout();
+	}
+
+	@Override
+	public void requestDiagnostics() throws NCIException {
+		getDevice().requestDiagnostics();
+	}
+
+	@Override
+	public Status requestStatus() throws NCIException {
+		return getDevice().requestStatus();
+	}
+
+	@Override
+	public Status requestStatus(Priority priority) throws NCIException {
+		return getDevice().requestStatus(priority);
+	}
+
+	@Override
+	public Status requestStatus(CallOptions options) throws NCIException {
+		return getDevice().requestStatus(options);
+	}
+
+	@Override
+	public void tare() throws NCIException {
+		getDevice().tare();
+	}
+
+	@Override
+	public void zero() throws NCIException {
+		getDevice().zero();
+	}
+
+	@Override
+	public Status getStatus() {
+		return device.getStatus();
+	}
+
+	@Override
+	public Reading latestReading() {
+		return device.latestReading();
+	}
+
+	@Override
+	public List<CommandResult> executeBatch(List<Command> commands) throws NCIException {
+		return getDevice().executeBatch(commands);
+	}
+
+	@Override
+	public List<CommandResult> executeBatch(List<Command> commands, CallOptions options) throws NCIException {
+		return getDevice().executeBatch(commands, options);
+	}
+
+	@Override
+	public void closeDevice() throws NCIException {
+		NCIDeviceListener listener;
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+			listener = this.listener;
+		}
+		for (RawCountListener subscription : subscriptions) {
+			device.unsubscribeRawCounts(subscription);
+		}
+		subscriptions.clear();
+		if (listener != null && SharedDevices.removeListener(entry, listener)) {
+			try {
+				listener.deviceClosed();
+			} catch (RuntimeException e) {
+				// The handle is closed whatever its listener does.
+			}
+		}
+		SharedDevices.release(entry);
+	}
+}
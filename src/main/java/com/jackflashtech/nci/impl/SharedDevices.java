@@ -0,0 +1,227 @@
+package com.jackflashtech.nci.impl;
+
+import java.util.TooManyListenersException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIDeviceListener;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+import com.jackflashtech.nci.data.ZeroStatistics;
+
+/**
+ * The process-wide registry of open devices behind
+ * {@link NCIFactory#getDevice(String)}. Each device name is opened once, no
+ * matter how many callers ask for it, and every caller gets its own
+ * {@link SharedDeviceHandle} to it. The device is closed when the last handle
+ * is closed.
+ *
+ * A device that is open keeps the settings it was opened with, even if the
+ * configuration is reloaded, until every handle to it is closed.
+ *
+ * A device has room for one listener, so the device's listener is shared:
+ * the first handle to add a listener installs one that passes every event on
+ * to the listeners of all of the handles.
+ */
+class SharedDevices {
+	private static final ConcurrentHashMap<String, Entry> ENTRIES = new ConcurrentHashMap<String, Entry>();
+
+	private SharedDevices() {
+	}
+
+	/**
+	 * Returns a new handle to the named device, opening it if no other handle
+	 * to it is open.
+	 * 
+	 * @param configuration	The settings to open the device with, if it is not already open.
+	 * @return	A new handle to the device.
+	 * @throws NCIException	Thrown if the device had to be opened and could not be.
+	 */
+	static NCIDevice acquire(DeviceConfiguration configuration) throws NCIException {
+		String name = configuration.getName();
+		while (true) {
+			Entry entry = ENTRIES.get(name);
+			if (entry == null) {
+				Entry newEntry = new Entry(name);
+				entry = ENTRIES.putIfAbsent(name, newEntry);
+				if (entry == null) entry = newEntry;
+			}
+			synchronized (entry) {
+				// The last handle was closed between finding the entry and locking it.
+				if (entry.removed) continue;
+				if (entry.device == null) {
+					try {
+						NCIDeviceProvider provider = NCIDeviceProviders.getProvider(configuration);
+						entry.device = configuration.isLazy() ? new LazyDevice(configuration, provider) : provider.createDevice(configuration);
+					} catch (NCIException | RuntimeException e) {
+						entry.removed = true;
+						ENTRIES.remove(name, entry);
+						throw e;
+					}
+				}
+				entry.references++;
+				return new SharedDeviceHandle(entry.device, entry);
+			}
+		}
+	}
+
+	/**
+	 * Releases one handle's reference to a device, closing the device if it was
+	 * the last.
+	 */
+	static void release(Entry entry) throws NCIException {
+		synchronized (entry) {
+			entry.references--;
+			if (entry.references > 0) return;
+			entry.removed = true;
+			ENTRIES.remove(entry.name, entry);
+			entry.device.closeDevice();
+		}
+	}
+
+	/**
+	 * Adds a handle's listener to those the device's events are passed on to,
+	 * installing the shared listener on the device if this is the first.
+	 */
+	static void addListener(Entry entry, NCIDeviceListener listener) throws TooManyListenersException {
+		synchronized (entry) {
+			if (!entry.listening) {
+				entry.device.addDeviceListener(entry.listeners);
+				entry.listening = true;
+			}
+			entry.listeners.listeners.addIfAbsent(listener);
+		}
+	}
+
+	/**
+	 * @return	Whether the listener was still hearing the device's events.
+	 */
+	static boolean removeListener(Entry entry, NCIDeviceListener listener) {
+		return entry.listeners.listeners.remove(listener);
+	}
+
+	/**
+	 * @param name	The name of a device.
+	 * @return	The number of open handles to the device.
+	 */
+	static int getReferenceCount(String name) {
+		Entry entry = ENTRIES.get(name);
+		if (entry == null) return 0;
+		synchronized (entry) {
+			return entry.removed ? 0 : entry.references;
+		}
+	}
+
+	static class Entry {
+		final String name;
+		final Listeners listeners = new Listeners();
+		NCIDevice device = null;
+		int references = 0;
+		boolean removed = false;
+		boolean listening = false;
+
+		Entry(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * The listener installed on a shared device, which passes each event on to
+	 * the listeners of its handles. A listener that throws does not stop the
+	 * others from hearing of the event.
+	 */
+	static class Listeners implements NCIDeviceListener {
+		private final CopyOnWriteArrayList<NCIDeviceListener> listeners = new CopyOnWriteArrayList<NCIDeviceListener>();
+
+		@Override
+		public void deviceClosed() {
+			for (NCIDeviceListener listener : listeners) {
+				try {
+					listener.deviceClosed();
+				} catch (RuntimeException e) {
+					// Keep passing the event on.
+				}
+			}
+		}
+
+		@Override
+		public void receivedWeight(Weight weight) {
+			for (NCIDeviceListener listener : listeners) {
+				try {
+					listener.receivedWeight(weight);
+				} catch (RuntimeException e) {
+					// Keep passing the event on.
+				}
+			}
+		}
+
+		@Override
+		public void receivedAbout() {
+			for (NCIDeviceListener listener : listeners) {
+				try {
+					listener.receivedAbout();
+				} catch (RuntimeException e) {
+					// Keep passing the event on.
+				}
+			}
+		}
+
+		@Override
+		public void receivedDiagnostics() {
+			for (NCIDeviceListener listener : listeners) {
+				try {
+					listener.receivedDiagnostics();
+				} catch (RuntimeException e) {
+					// Keep passing the event on.
+				}
+			}
+		}
+
+		@Override
+		public void receviedMetrologyRawCounts() {
+			for (NCIDeviceListener listener : listeners) {
+				try {
+					listener.receviedMetrologyRawCounts();
+				} catch (RuntimeException e) {
+					// Keep passing the event on.
+				}
+			}
+		}
+
+		@Override
+		public void updatedUnits(Units units) {
+			for (NCIDeviceListener listener : listeners) {
+				try {
+					listener.updatedUnits(units);
+				} catch (RuntimeException e) {
+					// Keep passing the event on.
+				}
+			}
+		}
+
+		@Override
+		public void updatedStatus(Status status) {
+			for (NCIDeviceListener listener : listeners) {
+				try {
+					listener.updatedStatus(status);
+				} catch (RuntimeException e) {
+					// Keep passing the event on.
+				}
+			}
+		}
+
+		@Override
+		public void statisticsAlarm(ZeroStatistics.Alarm alarm, ZeroStatistics statistics) {
+			for (NCIDeviceListener listener : listeners) {
+				try {
+					listener.statisticsAlarm(alarm, statistics);
+				} catch (RuntimeException e) {
+					// Keep passing the event on.
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package com.jackflashtech.nci.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+import com.jackflashtech.nci.data.ZeroStatistics;
+import com.jackflashtech.nci.data.ZeroStatistics.Alarm;
+
+/**
+ * Keeps running statistics of a device's readings while its platter is empty,
+ * in constant memory, and reports when they cross the configured thresholds.
+ *
+ * A reading counts toward the statistics if it is a gross weight and either
+ * the scale reports being at zero or the weight is within the zero band. The
+ * at-zero flag alone covers only a quarter of a division, so a zero band of a
+ * few divisions is needed to follow a drift beyond it. Settled readings feed
+ * two exponentially weighted means, one over about a minute and one over
+ * about ten; the fast one also carries the variance, and the gap between the
+ * two, which for a steady drift is the drift times the difference of their
+ * time constants, gives the drift rate. Readings that go into motion while
+ * empty are counted as flicker, decaying over about a minute. The weights
+ * adapt to the time between readings, so polling faster or slower does not
+ * change what the statistics mean.
+ *
+ * The settings are read from the device's configuration:
+ * <pre>
+ * nci.&lt;name&gt;.zeroband		How far from zero a reading is still empty, in grams. Defaults to 0.
+ * nci.&lt;name&gt;.driftlimit	The drift that raises {@link Alarm#ZERO_DRIFT}, in grams per hour.
+ * nci.&lt;name&gt;.noiselimit	The standard deviation that raises {@link Alarm#ZERO_NOISE}, in grams.
+ * nci.&lt;name&gt;.flickerlimit	The motion flicker that raises {@link Alarm#MOTION_FLICKER}, per minute.
+ * </pre>
+ * An alarm whose limit is not set is never raised.
+ */
+class ZeroDriftMonitor {
+	static final long FAST_TAU_NANOS = TimeUnit.MINUTES.toNanos(1);
+	static final long SLOW_TAU_NANOS = TimeUnit.MINUTES.toNanos(10);
+	/**
+	 * The fewest settled readings at zero before noise or drift is judged.
+	 */
+	static final int MIN_SAMPLES = 20;
+	/**
+	 * The share of its limit a statistic must fall below before its alarm can
+	 * be raised again, so a value hovering at the limit raises it only once.
+	 */
+	private static final double REARM = 0.8;
+	private static final double NANOS_PER_HOUR = TimeUnit.HOURS.toNanos(1);
+	private static final double NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+	private final long zeroBandMicrograms;
+	private final double driftLimit;
+	private final double noiseLimit;
+	private final double flickerLimit;
+	private final Set<Alarm> raised = EnumSet.noneOf(Alarm.class);
+
+	private long samples = 0;
+	private long firstSettledNanos;
+	private long lastSettledNanos;
+	private double fastMean;
+	private double slowMean;
+	private double fastVariance;
+	private boolean seenEmpty = false;
+	private long firstEmptyNanos;
+	private long lastEmptyNanos;
+	private boolean lastInMotion;
+	/**
+	 * Transitions into motion per nanosecond.
+	 */
+	private double flickerRate;
+
+	/**
+	 * A monitor that keeps statistics but raises no alarms.
+	 */
+	ZeroDriftMonitor() {
+		this(0, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @param zeroBandMicrograms	How far from zero a reading is still empty.
+	 * @param driftLimit			The drift that raises an alarm, in micrograms per hour.
+	 * @param noiseLimit			The standard deviation that raises an alarm, in micrograms.
+	 * @param flickerLimit			The transitions into motion that raise an alarm, per minute.
+	 */
+	ZeroDriftMonitor(long zeroBandMicrograms, double driftLimit, double noiseLimit, double flickerLimit) {
+		this.zeroBandMicrograms = zeroBandMicrograms;
+		this.driftLimit = driftLimit;
+		this.noiseLimit = noiseLimit;
+		this.flickerLimit = flickerLimit;
+	}
+
+	static ZeroDriftMonitor fromConfiguration(DeviceConfiguration configuration) {
+		return new ZeroDriftMonitor(Units.G.toMicrograms(configuration.getZeroBand()), configuration.getDriftLimit() * Units.G.toMicrograms(1),
+				configuration.getNoiseLimit() * Units.G.toMicrograms(1), configuration.getFlickerLimit());
+	}
+
+	/**
+	 * Adds a reading to the statistics.
+	 *
+	 * @param weight	The weight read, or null if the exchange had none.
+	 * @param status	The status read with it.
+	 * @param nanoTime	When it was read, from {@link System#nanoTime()}.
+	 * @return	The alarms newly raised by this reading, usually none.
+	 */
+	synchronized List<Alarm> record(Weight weight, Status status, long nanoTime) {
+		if (weight == null || status == null || weight.getUnits() == Units.OTHER) return Collections.emptyList();
+		if (status.getWeightType() == Status.WeightType.NET) return Collections.emptyList();
+		long micrograms = weight.getMicrograms();
+		if (!status.isScaleAtZero() && Math.abs(micrograms) > zeroBandMicrograms) return Collections.emptyList();
+
+		boolean inMotion = status.isInMotion();
+		if (!seenEmpty) {
+			seenEmpty = true;
+			firstEmptyNanos = nanoTime;
+		} else {
+			flickerRate *= Math.exp(-(double) (nanoTime - lastEmptyNanos) / FAST_TAU_NANOS);
+			if (inMotion && !lastInMotion) flickerRate += 1.0 / FAST_TAU_NANOS;
+		}
+		lastEmptyNanos = nanoTime;
+		lastInMotion = inMotion;
+
+		if (!inMotion) {
+			if (samples == 0) {
+				firstSettledNanos = nanoTime;
+				fastMean = micrograms;
+				slowMean = micrograms;
+				fastVariance = 0;
+			} else {
+				double elapsed = nanoTime - lastSettledNanos;
+				double fastAlpha = 1 - Math.exp(-elapsed / FAST_TAU_NANOS);
+				double slowAlpha = 1 - Math.exp(-elapsed / SLOW_TAU_NANOS);
+				double difference = micrograms - fastMean;
+				double increment = fastAlpha * difference;
+				fastMean += increment;
+				fastVariance = (1 - fastAlpha) * (fastVariance + difference * increment);
+				slowMean += slowAlpha * (micrograms - slowMean);
+			}
+			samples++;
+			lastSettledNanos = nanoTime;
+		}
+
+		List<Alarm> alarms = new ArrayList<Alarm>(0);
+		boolean enoughSamples = samples >= MIN_SAMPLES;
+		check(Alarm.ZERO_DRIFT, Math.abs(getDrift()), driftLimit, enoughSamples && nanoTime - firstSettledNanos >= SLOW_TAU_NANOS, alarms);
+		check(Alarm.ZERO_NOISE, Math.sqrt(fastVariance), noiseLimit, enoughSamples && nanoTime - firstSettledNanos >= FAST_TAU_NANOS, alarms);
+		check(Alarm.MOTION_FLICKER, getFlicker(), flickerLimit, nanoTime - firstEmptyNanos >= FAST_TAU_NANOS, alarms);
+		return alarms;
+	}
+
+	private void check(Alarm alarm, double value, double limit, boolean ready, List<Alarm> alarms) {
+		if (!ready) return;
+		if (raised.contains(alarm)) {
+			if (value < limit * REARM) raised.remove(alarm);
+		} else if (value > limit) {
+			raised.add(alarm);
+			alarms.add(alarm);
+		}
+	}
+
+	/**
+	 * @return	The drift in micrograms per hour.
+	 */
+	private double getDrift() {
+		return (fastMean - slowMean) / (SLOW_TAU_NANOS - FAST_TAU_NANOS) * NANOS_PER_HOUR;
+	}
+
+	/**
+	 * @return	The transitions into motion per minute.
+	 */
+	private double getFlicker() {
+		return flickerRate * NANOS_PER_MINUTE;
+	}
+
+	synchronized ZeroStatistics getStatistics() {
+		return new ZeroStatistics(samples, fastMean, Math.sqrt(fastVariance), getDrift(), getFlicker());
+	}
+}
@@ -0,0 +1,94 @@
+package com.jackflashtech.nci;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.TooManyListenersException;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+
+public class NCIDeviceTest {
+
+	/**
+	 * A device written against the first release, implementing none of the
+	 * methods added since.
+	 */
+	private static class PlainDevice implements NCIDevice {
+		@Override
+		public void addDeviceListener(NCIDeviceListener listener) throws TooManyListenersException {
+		}
+
+		@Override
+		public Weight getWeight() throws NCIException {
+			return new Weight(1.0, Units.KG);
+		}
+
+		@Override
+		public Weight getHighResolutionWeight() throws NCIException {
+			return getWeight();
+		}
+
+		@Override
+		public Units changeUnitsOfMeasure() throws NCIException {
+			return Units.KG;
+		}
+
+		@Override
+		public long requestMetrologyRawCounts() throws NCIException {
+			return 0;
+		}
+
+		@Override
+		public void requestAbout() throws NCIException {
+		}
+
+		@Override
+		public void requestDiagnostics() throws NCIException {
+		}
+
+		@Override
+		public Status requestStatus() throws NCIException {
+			return null;
+		}
+
+		@Override
+		public void tare() throws NCIException {
+		}
+
+		@Override
+		public void zero() throws NCIException {
+		}
+
+		@Override
+		public Status getStatus() {
+			return null;
+		}
+
+		@Override
+		public void closeDevice() throws NCIException {
+		}
+	}
+
+	@Test
+	public void testDefaults() throws Exception {
+		NCIDevice device = new PlainDevice();
+		assertEquals(1000000000L, device.getWeight(Priority.BACKGROUND).getMicrograms());
+		assertNull(device.latestReading());
+		device.unsubscribeRawCounts(null);
+		try {
+			device.getWeight(new CallOptions(1000));
+			fail("Ignored the call options.");
+		} catch (NCIUnsupportedException e) {
+			System.out.println(e);
+		}
+		try {
+			device.executeBatch(Collections.singletonList(Command.WEIGHT));
+			fail("Sent a batch to a device that cannot.");
+		} catch (NCIUnsupportedException e) {
+			System.out.println(e);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.jackflashtech.nci.archive;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+
+public class ArchiveTest {
+	private static final int READINGS = 10000;
+
+	/**
+	 * Writes a scale that is loaded, settles and is unloaded again, with a
+	 * little noise, a reading every 100ms.
+	 */
+	private static void write(ArchiveEncoder encoder) throws NCIException {
+		Random random = new Random(42);
+		for (int i = 0; i < READINGS; i++) {
+			long timestamp = 1000000L + i * 100L + random.nextInt(3);
+			boolean loaded = (i / 500) % 2 == 1;
+			boolean moving = i % 500 < 10;
+			long micrograms = (loaded ? 2500000000L : 0) + (moving ? random.nextInt(50000000) : random.nextInt(3) * 1000);
+			Units units = i < READINGS / 2 ? Units.G : Units.LBS_OZ;
+			encoder.append(timestamp, micrograms, units, i == 0 ? -1 : (moving ? 1 : 0));
+		}
+		encoder.close();
+	}
+
+	private static void check(ArchiveBlock block, int first) {
+		Random random = new Random(42);
+		for (int i = 0; i < first; i++) {
+			random.nextInt(3);
+			random.nextInt(i % 500 < 10 ? 50000000 : 3);
+		}
+		for (int j = 0; j < block.size(); j++) {
+			int i = first + j;
+			assertEquals(1000000L + i * 100L + random.nextInt(3), block.getTimestamp(j));
+			boolean loaded = (i / 500) % 2 == 1;
+			boolean moving = i % 500 < 10;
+			assertEquals((loaded ? 2500000000L : 0) + (moving ? random.nextInt(50000000) : random.nextInt(3) * 1000), block.getMicrograms(j));
+			assertEquals(i < READINGS / 2 ? Units.G : Units.LBS_OZ, block.getUnits(j));
+			assertEquals(i == 0 ? -1 : (moving ? 1 : 0), block.getStatusBits(j));
+		}
+	}
+
+	@Test
+	public void testStreaming() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		write(new ArchiveEncoder(bytes, 1000));
+		assertTrue("Expected under 4 bytes a reading, not " + bytes.size() + ".", bytes.size() < READINGS * 4);
+
+		ArchiveDecoder decoder = new ArchiveDecoder(new ByteArrayInputStream(bytes.toByteArray()));
+		int read = 0;
+		for (ArchiveBlock block = decoder.next(); block != null; block = decoder.next()) {
+			check(block, read);
+			read += block.size();
+		}
+		decoder.close();
+		assertEquals(READINGS, read);
+	}
+
+	@Test
+	public void testRandomAccess() throws Exception {
+		File file = File.createTempFile("nci", ".archive");
+		file.deleteOnExit();
+		write(new ArchiveEncoder(new FileOutputStream(file), 1000));
+
+		ArchiveFile archive = new ArchiveFile(file.toPath());
+		assertEquals(10, archive.getBlockCount());
+		long timestamp = 1000000L + 7250 * 100L;
+		int index = archive.findBlock(timestamp);
+		assertEquals(7, index);
+		ArchiveBlock block = archive.readBlock(index);
+		check(block, 7000);
+		int reading = block.indexOf(timestamp);
+		assertTrue(block.getTimestamp(reading) >= timestamp && block.getTimestamp(reading - 1) < timestamp);
+		assertEquals(archive.getBlockCount(), archive.findBlock(Long.MAX_VALUE));
+		archive.close();
+	}
+
+	@Test
+	public void testObjects() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ArchiveEncoder encoder = new ArchiveEncoder(bytes);
+		encoder.append(1, new Weight(2.5, Units.KG), Status.fromBits(0x201));
+		encoder.append(2, new Weight(3, 4.5), null);
+		try {
+			encoder.append(1, new Weight(1, Units.KG), null);
+			fail("Appended a reading out of order.");
+		} catch (NCIException e) {
+			System.out.println(e);
+		}
+		encoder.close();
+
+		ArchiveBlock block = new ArchiveDecoder(new ByteArrayInputStream(bytes.toByteArray())).next();
+		assertEquals(2, block.size());
+		assertEquals(2.5, block.getWeight(0).getWeight(), 0.0001);
+		assertEquals(Units.KG, block.getWeight(0).getUnits());
+		assertEquals(0x201, block.getStatus(0).getBits());
+		assertEquals(3, block.getWeight(1).getLbs());
+		assertEquals(4.5, block.getWeight(1).getOz(), 0.0001);
+		assertNull(block.getStatus(1));
+	}
+}
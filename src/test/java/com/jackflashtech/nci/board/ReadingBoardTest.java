@@ -0,0 +1,144 @@
+package com.jackflashtech.nci.board;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Reading;
+import com.jackflashtech.nci.emulator.NCIScaleEmulator;
+import com.jackflashtech.nci.emulator.SettlingLoad;
+import com.jackflashtech.nci.impl.NCIDeviceRxtx;
+
+public class ReadingBoardTest {
+	private static File boardFile() throws Exception {
+		File file = File.createTempFile("nci", ".board");
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+
+	@Test
+	public void testPublishAndRead() throws Exception {
+		File file = boardFile();
+		ReadingBoard owner = ReadingBoard.create(file.toPath(), 4);
+		assertSame(owner, ReadingBoard.create(file.toPath(), 4));
+		BoardSlot slot = owner.claim("scale1");
+		owner.claim("scale2");
+
+		ReadingBoard reader = ReadingBoard.open(file.toPath());
+		assertEquals(4, reader.getSlotCount());
+		assertNull(reader.find("scale3"));
+		BoardSlot found = reader.find("scale1");
+		assertNull("Nothing has been published.", found.read());
+		assertTrue(found.isOpen());
+
+		slot.publish(Units.KG.toMicrograms(2.5), Units.KG, 0x201, 1, 100);
+		Reading reading = found.read();
+		assertEquals(1, reading.getSequence());
+		assertEquals(2.5, reading.getWeight().getWeight(), 0.0001);
+		assertEquals(0x201, reading.getStatus().getBits());
+		slot.publish(0, Units.KG, -1, 1, 200);
+		assertEquals("An older reading is not published.", 100, found.read().getReceivedNanos());
+		assertTrue(found.getPublishedMillis() > 0);
+
+		slot.close();
+		assertFalse(found.isOpen());
+		assertEquals(1, found.read().getSequence());
+		assertEquals("A restarted owner takes the same slot.", 1, owner.claim("scale1").read().getSequence());
+		owner.claim("scale3");
+		owner.claim("scale4");
+		try {
+			owner.claim("scale5");
+			fail("Claimed a slot on a full board.");
+		} catch (NCIException e) {
+			System.out.println(e);
+		}
+		try {
+			reader.claim("scale1");
+			fail("Claimed a slot on a board opened to read.");
+		} catch (NCIException e) {
+			System.out.println(e);
+		}
+	}
+
+	@Test
+	public void testOneOwnerPerSlot() throws Exception {
+		File file = boardFile();
+		ReadingBoard board = ReadingBoard.create(file.toPath(), 2);
+		BoardSlot slot = board.claim("scale");
+		try {
+			board.claim("scale");
+			fail("Two owners claimed the same slot.");
+		} catch (NCIException e) {
+			assertTrue(e.getMessage().contains("held by another owner"));
+		}
+		slot.publish(1000, Units.G, -1, 1, 1);
+		slot.close();
+		slot.publish(2000, Units.G, -1, 2, 2);
+		BoardSlot again = board.claim("scale");
+		assertEquals("The closed slot published nothing more.", 1, again.read().getSequence());
+		again.publish(3000, Units.G, -1, 2, 3);
+		assertEquals(3000, ReadingBoard.open(file.toPath()).find("scale").read().getWeight().getMicrograms());
+		again.close();
+	}
+
+	@Test
+	public void testReadsAreNeverTorn() throws Exception {
+		File file = boardFile();
+		final BoardSlot slot = ReadingBoard.create(file.toPath(), 1).claim("scale");
+		BoardSlot found = ReadingBoard.open(file.toPath()).find("scale");
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for (long sequence = 1; running.get(); sequence++) {
+					slot.publish(sequence * 1000, Units.G, (int) (sequence & 0x7FF), sequence, sequence * 7);
+				}
+			}
+		};
+		writer.start();
+		try {
+			long last = 0;
+			for (int i = 0; i < 200000; i++) {
+				Reading reading = found.read();
+				if (reading == null) continue;
+				long sequence = reading.getSequence();
+				assertTrue(sequence >= last);
+				assertEquals(sequence * 1000, reading.getWeight().getMicrograms());
+				assertEquals(sequence & 0x7FF, reading.getStatus().getBits());
+				assertEquals(sequence * 7, reading.getReceivedNanos());
+				last = sequence;
+			}
+		} finally {
+			running.set(false);
+			writer.join();
+		}
+	}
+
+	@Test
+	public void testDevicePublishes() throws Exception {
+		File file = boardFile();
+		SettlingLoad load = new SettlingLoad(0, 0, 0, 0);
+		load.place(Units.KG.toMicrograms(3.25));
+		NCIScaleEmulator emulator = new NCIScaleEmulator(load);
+		emulator.setUnits(Units.KG);
+		NCIDeviceRxtx device = new NCIDeviceRxtx(emulator.openLoopback(), true);
+		device.publishTo(ReadingBoard.create(file.toPath(), 2).claim("scale"));
+		BoardSlot found = ReadingBoard.open(file.toPath()).find("scale");
+		try {
+			device.getWeight();
+			Reading reading = found.read();
+			assertEquals(((NCIDevice) device).latestReading().getSequence(), reading.getSequence());
+			assertEquals(3.25, reading.getWeight().getWeight(), 0.001);
+		} finally {
+			device.closeDevice();
+		}
+		assertFalse(found.isOpen());
+	}
+}
@@ -0,0 +1,174 @@
+package com.jackflashtech.nci.checkweigher;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.emulator.NCIScaleEmulator;
+import com.jackflashtech.nci.emulator.SettlingLoad;
+import com.jackflashtech.nci.impl.NCIDeviceRxtx;
+import com.jackflashtech.nci.impl.NCIPollingScheduler;
+import com.jackflashtech.nci.impl.NCIPollingScheduler.RateClass;
+
+public class CheckweigherTest {
+	private static final Product PRODUCT = new Product("500g", Units.G.toMicrograms(500), Units.G.toMicrograms(15), Units.G.toMicrograms(30));
+
+	/**
+	 * Collects the decisions it hears of.
+	 */
+	private static class Collector implements CheckweigherListener {
+		final List<Decision> decisions = new ArrayList<Decision>();
+		final List<Long> weights = new ArrayList<Long>();
+		CheckweigherStatistics last;
+
+		@Override
+		public synchronized void itemClassified(String name, long item, Decision decision, long micrograms, CheckweigherStatistics statistics) {
+			assertEquals(decisions.size() + 1, item);
+			decisions.add(decision);
+			weights.add(micrograms);
+			last = statistics;
+			notifyAll();
+		}
+
+		synchronized void await(int items, long timeoutMillis) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + timeoutMillis;
+			while (decisions.size() < items && System.currentTimeMillis() < deadline) {
+				wait(Math.max(1, deadline - System.currentTimeMillis()));
+			}
+		}
+	}
+
+	private static long g(double grams) {
+		return Units.G.toMicrograms(grams);
+	}
+
+	/**
+	 * Passes an item over the platter: moving on, settled, and off again.
+	 */
+	private static void item(Checkweigher checkweigher, double grams) {
+		checkweigher.reading(g(grams / 3), true, false);
+		checkweigher.reading(g(grams * 1.1), true, false);
+		checkweigher.reading(g(grams), false, false);
+		checkweigher.reading(g(grams + 0.5), false, false);
+		checkweigher.reading(g(grams / 2), true, false);
+		checkweigher.reading(0, false, true);
+	}
+
+	@Test
+	public void testClassification() throws Exception {
+		Checkweigher checkweigher = new Checkweigher("line1", PRODUCT);
+		Collector collector = new Collector();
+		checkweigher.addCheckweigherListener(collector);
+
+		item(checkweigher, 502);
+		item(checkweigher, 484);
+		item(checkweigher, 531);
+		item(checkweigher, 485);
+		checkweigher.reading(g(300), true, false);
+		checkweigher.reading(g(520), true, false);
+		checkweigher.reading(g(100), true, false);
+		checkweigher.reading(g(5), true, false);
+		checkweigher.reading(g(490), false, false);
+		checkweigher.reading(0, false, true);
+
+		assertEquals(Arrays.asList(Decision.ACCEPT, Decision.UNDERWEIGHT, Decision.OVERWEIGHT, Decision.ACCEPT, Decision.UNSETTLED, Decision.ACCEPT), collector.decisions);
+		assertEquals(Arrays.asList(g(502), g(484), g(531), g(485), 0L, g(490)), collector.weights);
+		CheckweigherStatistics statistics = checkweigher.getStatistics();
+		assertEquals(6, statistics.getItems());
+		assertEquals(3, statistics.getRejected());
+		assertEquals(1, statistics.getCount(Decision.UNSETTLED));
+		assertEquals(0.5, statistics.getYield(), 1e-9);
+		assertEquals(g(2 - 15 - 10), statistics.getGiveAwayMicrograms());
+		assertEquals(g(-23 / 3.0), statistics.getMeanGiveAwayMicrograms(), 1);
+		assertEquals(statistics.getItems(), collector.last.getItems());
+
+		checkweigher.setProduct(new Product("250g", g(250), g(9), g(20)));
+		assertEquals(0, checkweigher.getStatistics().getItems());
+		assertEquals(g(120.5), checkweigher.getItemThreshold());
+	}
+
+	/**
+	 * Passes an item over the platter that rings down to its weight, polled
+	 * at 100 Hz with 0.1 g of noise, with motion reported until the swing is
+	 * within 0.5 g.
+	 *
+	 * @return	The time into the item, in milliseconds, that it was decided at, or -1.
+	 */
+	private static long ringingItem(Checkweigher checkweigher, Collector collector, double grams) {
+		Random random = new Random(9);
+		int before = collector.decisions.size();
+		long decided = -1;
+		for (int n = 0; n < 60; n++) {
+			double swing = 30 * Math.exp(-n * 10 / 80.0);
+			long reading = g(grams + swing * Math.cos(2 * Math.PI * 8 * n / 100.0) + random.nextGaussian() * 0.1);
+			checkweigher.reading(reading, swing > 0.5, false, n * 10000000L);
+			if (decided < 0 && collector.decisions.size() > before) decided = n * 10;
+		}
+		checkweigher.reading(0, false, true, 600000000L);
+		return decided;
+	}
+
+	@Test
+	public void testEarlySettle() throws Exception {
+		Checkweigher checkweigher = new Checkweigher("line1", PRODUCT);
+		Collector collector = new Collector();
+		checkweigher.addCheckweigherListener(collector);
+		long waited = ringingItem(checkweigher, collector, 502);
+
+		checkweigher.setEarlySettle(g(1));
+		long early = ringingItem(checkweigher, collector, 502);
+		long border = ringingItem(checkweigher, collector, 485.3);
+		ringingItem(checkweigher, collector, 470);
+		assertTrue(early >= 0 && early < waited / 2);
+		assertTrue("Decided on an estimate that straddles the limit.", border > early);
+
+		assertEquals(Arrays.asList(Decision.ACCEPT, Decision.ACCEPT, Decision.ACCEPT, Decision.UNDERWEIGHT), collector.decisions);
+		for (int i = 0; i < collector.weights.size(); i++) {
+			assertEquals(new double[] {502, 502, 485.3, 470}[i], Units.G.fromMicrograms(collector.weights.get(i)), 0.5);
+		}
+	}
+
+	@Test
+	public void testPolledLine() throws Exception {
+		SettlingLoad load = new SettlingLoad(15, 50000, 500000, 5);
+		NCIScaleEmulator emulator = new NCIScaleEmulator(load);
+		emulator.setUnits(Units.G);
+		emulator.setDecimals(1);
+		NCIDeviceRxtx device = new NCIDeviceRxtx(emulator.openLoopback(), true);
+		Checkweigher checkweigher = new Checkweigher("line1", PRODUCT);
+		Collector collector = new Collector();
+		checkweigher.addCheckweigherListener(collector);
+		NCIPollingScheduler scheduler = new NCIPollingScheduler(1);
+		try {
+			scheduler.register("line1", device, RateClass.FAST);
+			scheduler.addPollingListener(checkweigher);
+			double[] items = {500, 470, 545, 510, 499};
+			for (double grams : items) {
+				load.place(g(grams));
+				Thread.sleep(300);
+				load.place(0);
+				Thread.sleep(200);
+			}
+			collector.await(items.length, 2000);
+		} finally {
+			scheduler.shutdown();
+			device.closeDevice();
+		}
+		assertEquals(Arrays.asList(Decision.ACCEPT, Decision.UNDERWEIGHT, Decision.OVERWEIGHT, Decision.ACCEPT, Decision.ACCEPT), collector.decisions);
+		for (int i = 0; i < collector.weights.size(); i++) {
+			assertEquals(new double[] {500, 470, 545, 510, 499}[i], Units.G.fromMicrograms(collector.weights.get(i)), 1);
+		}
+		CheckweigherStatistics statistics = checkweigher.getStatistics();
+		assertEquals(5, statistics.getItems());
+		assertEquals(3, statistics.getAccepted());
+		assertEquals(2, statistics.getRejected());
+		assertEquals(0.6, statistics.getYield(), 0.0001);
+		assertEquals(9, Units.G.fromMicrograms(statistics.getGiveAwayMicrograms()), 3);
+	}
+}
@@ -0,0 +1,74 @@
+package com.jackflashtech.nci.data;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.Units;
+
+public class WeightTest {
+
+	@Test
+	public void testMicrogramsFromEachUnit() throws Exception {
+		assertEquals(1000000000L, new Weight(1.0, Units.KG).getMicrograms());
+		assertEquals(12500000L, new Weight(12.5, Units.G).getMicrograms());
+		assertEquals(453592370L, new Weight(1.0, Units.LBS).getMicrograms());
+		assertEquals(28349523L, new Weight(1.0, Units.OZ).getMicrograms());
+		assertEquals(-226796185L, new Weight(-0.5, Units.LBS).getMicrograms());
+	}
+
+	@Test
+	public void testMicrogramsLbsOz() throws Exception {
+		Weight weight = new Weight(2, 8.0);
+		assertEquals(Units.LBS.toMicrograms(2.5), weight.getMicrograms());
+		assertEquals(2.5, weight.getWeightIn(Units.LBS), 0.000001);
+	}
+
+	@Test
+	public void testNegativeLbsOz() throws Exception {
+		Weight weight = new Weight(-1, 4.0);
+		assertEquals(Units.LBS.toMicrograms(-1.25), weight.getMicrograms());
+		assertEquals(-4.0, weight.getOz(), 0.000001);
+		assertEquals(weight.getMicrograms(), new Weight(-1, -4.0).getMicrograms());
+		assertEquals(-1, Weight.getLbsPart(weight.getMicrograms()));
+		assertEquals(-4.0, Weight.getOzPart(weight.getMicrograms()), 0.000001);
+
+		Weight underAPound = new Weight(0, -4.0);
+		assertEquals(Units.LBS.toMicrograms(-0.25), underAPound.getMicrograms());
+		assertEquals(0, Weight.getLbsPart(underAPound.getMicrograms()));
+		assertEquals(-4.0, Weight.getOzPart(underAPound.getMicrograms()), 0.000001);
+	}
+
+	@Test
+	public void testMixedUnitSum() throws Exception {
+		Weight[] readings = {
+				new Weight(1.0, Units.LBS),
+				new Weight(0, 16.0),
+				new Weight(16.0, Units.OZ),
+				new Weight(453.59237, Units.G),
+				new Weight(0.45359237, Units.KG)};
+		long total = 0;
+		for (Weight reading : readings) {
+			total += reading.getMicrograms();
+		}
+		assertEquals(5.0, Units.LBS.fromMicrograms(total), 0.000001);
+		assertEquals(5, Weight.getLbsPart(total));
+		assertEquals(0.0, Weight.getOzPart(total), 0.000001);
+	}
+
+	@Test
+	public void testConversionDoesNotThrow() throws Exception {
+		Weight weight = new Weight(1.0, Units.KG);
+		assertEquals(1000.0, weight.getWeightIn(Units.G), 0.000001);
+		assertEquals(35.27396, weight.getWeightIn(Units.OZ), 0.00001);
+		assertEquals(2, Weight.getLbsPart(weight.getMicrograms()));
+		assertEquals(3.27396, Weight.getOzPart(weight.getMicrograms()), 0.00001);
+	}
+
+	@Test
+	public void testOtherUnits() throws Exception {
+		Weight weight = new Weight(3.0, Units.OTHER);
+		assertEquals(0L, weight.getMicrograms());
+		assertTrue(Double.isNaN(weight.getWeightIn(Units.OTHER)));
+	}
+}
@@ -0,0 +1,149 @@
+package com.jackflashtech.nci.emulator;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.emulator.FaultInjectingTransport.Fault;
+import com.jackflashtech.nci.impl.NCIDeviceRxtx;
+
+public class FaultInjectingTransportTest {
+	private static FaultInjectingTransport transport(long seed) throws NCIException {
+		SettlingLoad load = new SettlingLoad(0, 0, 0, 0);
+		load.place(Units.KG.toMicrograms(2));
+		NCIScaleEmulator emulator = new NCIScaleEmulator(load);
+		emulator.setUnits(Units.KG);
+		return new FaultInjectingTransport(emulator.openLoopback(), seed);
+	}
+
+	/**
+	 * Reads the weight the given number of times.
+	 *
+	 * @return	"ok" or the message of the failure, for each read.
+	 */
+	private static List<String> outcomes(NCIDevice device, int reads) {
+		List<String> outcomes = new ArrayList<String>();
+		for (int i = 0; i < reads; i++) {
+			try {
+				assertEquals(2, device.getWeight().getWeight(), 0.001);
+				outcomes.add("ok");
+			} catch (NCIException e) {
+				outcomes.add(e.getMessage());
+			}
+		}
+		return outcomes;
+	}
+
+	@Test
+	public void testParityAndUnsupported() throws Exception {
+		FaultInjectingTransport transport = transport(7);
+		transport.setRate(Fault.PARITY, 0.2);
+		transport.setRate(Fault.UNSUPPORTED, 0.1);
+		NCIDevice device = new NCIDeviceRxtx(transport, true);
+		try {
+			List<String> outcomes = outcomes(device, 200);
+			int parity = 0;
+			int unsupported = 0;
+			for (String outcome : outcomes) {
+				if (outcome.startsWith("Parity failure")) parity++;
+				else if (!outcome.equals("ok")) unsupported++;
+			}
+			assertTrue(transport.getInjected(Fault.PARITY) > 0);
+			assertEquals(transport.getInjected(Fault.PARITY), parity);
+			assertEquals(transport.getInjected(Fault.UNSUPPORTED), unsupported);
+		} finally {
+			device.closeDevice();
+		}
+
+		transport = transport(7);
+		transport.setRate(Fault.PARITY, 1);
+		device = new NCIDeviceRxtx(transport, false);
+		try {
+			assertEquals("Parity is not checked.", Arrays.asList("ok", "ok"), outcomes(device, 2));
+		} finally {
+			device.closeDevice();
+		}
+	}
+
+	@Test
+	public void testReproducible() throws Exception {
+		List<List<String>> runs = new ArrayList<List<String>>();
+		for (int run = 0; run < 2; run++) {
+			FaultInjectingTransport transport = transport(42);
+			transport.setRate(Fault.PARITY, 0.1);
+			transport.setRate(Fault.UNSUPPORTED, 0.1);
+			transport.setLatency(0, 1);
+			NCIDevice device = new NCIDeviceRxtx(transport, true);
+			try {
+				runs.add(outcomes(device, 100));
+			} finally {
+				device.closeDevice();
+			}
+		}
+		assertEquals(runs.get(0), runs.get(1));
+	}
+
+	@Test
+	public void testTimeoutsAndLateReplies() throws Exception {
+		FaultInjectingTransport transport = transport(1);
+		NCIDevice device = new NCIDeviceRxtx(transport, true);
+		try {
+			transport.setRate(Fault.SILENCE, 1);
+			assertFalse(outcomes(device, 1).get(0).equals("ok"));
+			transport.setRate(Fault.SILENCE, 0);
+			assertEquals(Arrays.asList("ok"), outcomes(device, 1));
+
+			transport.setLatency(2500, 0);
+			assertFalse(outcomes(device, 1).get(0).equals("ok"));
+			transport.setLatency(0, 0);
+			Thread.sleep(1000);
+			assertEquals("The late reply was thrown away.", Arrays.asList("ok"), outcomes(device, 1));
+		} finally {
+			device.closeDevice();
+		}
+	}
+
+	@Test
+	public void testLineNoise() throws Exception {
+		FaultInjectingTransport transport = transport(3);
+		transport.setLatency(1, 2);
+		transport.setRate(Fault.SPLIT, 0.05);
+		transport.setRate(Fault.DROP, 0.002);
+		transport.setRate(Fault.DUPLICATE, 0.002);
+		transport.setRate(Fault.PARITY, 0.01);
+		NCIDevice device = new NCIDeviceRxtx(transport, true);
+		try {
+			int reads = 300;
+			long[] nanos = new long[reads];
+			int failures = 0;
+			for (int i = 0; i < reads; i++) {
+				long before = System.nanoTime();
+				try {
+					device.getWeight();
+				} catch (NCIException e) {
+					failures++;
+				}
+				nanos[i] = System.nanoTime() - before;
+			}
+			Arrays.sort(nanos);
+			assertTrue("Most reads failed: " + failures + " of " + reads + ".", failures < reads / 4);
+			assertTrue("The median read took " + nanos[reads / 2] / 1000 + "us.", nanos[reads / 2] < 50000000L);
+			// A corrupted reply fails when it is parsed; only a lost one waits out the device's timeout.
+			assertTrue("More than 1% of reads waited out the timeout.", nanos[reads * 99 / 100] < 1000000000L);
+
+			transport.setLatency(0, 0);
+			for (Fault fault : Fault.values()) transport.setRate(fault, 0);
+			Thread.sleep(100);
+			assertEquals("The device recovers when the line is quiet.", Arrays.asList("ok", "ok"), outcomes(device, 2));
+		} finally {
+			device.closeDevice();
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.jackflashtech.nci.emulator;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.Command;
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Reading;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+import com.jackflashtech.nci.impl.NCIDeviceRxtx;
+
+public class NCIScaleEmulatorTest {
+
+	private static NCIScaleEmulator emulator(double kg) {
+		SettlingLoad load = new SettlingLoad(0, 0, 0, 0);
+		load.place(Units.KG.toMicrograms(kg));
+		NCIScaleEmulator emulator = new NCIScaleEmulator(load);
+		emulator.setUnits(Units.KG, Units.LBS);
+		return emulator;
+	}
+
+	@Test
+	public void testStatusParity() throws Exception {
+		for (int bits = 0; bits < 16; bits++) {
+			byte b = NCIScaleEmulator.statusByte(bits);
+			assertEquals("Status byte " + b + " does not have even parity.", 0, Integer.bitCount(b & 0xff) % 2);
+		}
+	}
+
+	@Test
+	public void testWeightTareAndZero() throws Exception {
+		NCIScaleEmulator emulator = emulator(12.5);
+		NCIDevice device = new NCIDeviceRxtx(emulator.openLoopback(), true);
+		try {
+			Weight weight = device.getWeight();
+			assertEquals(12.5, weight.getWeight(), 0.001);
+			assertEquals(Units.KG, weight.getUnits());
+			assertEquals(Status.WeightType.GROSS, device.getStatus().getWeightType());
+
+			device.tare();
+			assertEquals(0, device.getWeight().getWeight(), 0.001);
+			assertEquals(Status.WeightType.NET, device.getStatus().getWeightType());
+			assertFalse("Zero is of the gross weight, not the net.", device.getStatus().isScaleAtZero());
+
+			device.zero();
+			Status status = device.requestStatus();
+			assertTrue(status.isScaleAtZero());
+			assertEquals(Status.WeightType.GROSS, status.getWeightType());
+
+			assertEquals(Units.LBS, device.changeUnitsOfMeasure());
+			assertEquals(Units.LBS, device.getHighResolutionWeight().getUnits());
+		} finally {
+			device.closeDevice();
+		}
+	}
+
+	@Test
+	public void testLatestReading() throws Exception {
+		NCIDevice device = new NCIDeviceRxtx(emulator(12.5).openLoopback(), true);
+		try {
+			assertNull(device.latestReading());
+			device.getWeight();
+			Reading first = device.latestReading();
+			assertEquals(1, first.getSequence());
+			assertEquals(12.5, first.getWeight().getWeight(), 0.001);
+			assertEquals(Status.WeightType.GROSS, first.getStatus().getWeightType());
+
+			device.tare();
+			assertSame("A status alone is not a reading.", first, device.latestReading());
+			device.getWeight();
+			Reading second = device.latestReading();
+			assertEquals(2, second.getSequence());
+			assertEquals(0, second.getWeight().getWeight(), 0.001);
+			assertEquals(Status.WeightType.NET, second.getStatus().getWeightType());
+			assertTrue(second.getReceivedNanos() - first.getReceivedNanos() > 0);
+		} finally {
+			device.closeDevice();
+		}
+	}
+
+	@Test
+	public void testUnsupportedCommand() throws Exception {
+		NCIScaleEmulator emulator = emulator(1);
+		emulator.setSupportedCommands(Command.WEIGHT, Command.STATUS);
+		NCIDevice device = new NCIDeviceRxtx(emulator.openLoopback(), true);
+		try {
+			assertEquals(1, device.getWeight().getWeight(), 0.001);
+			Status status = device.getStatus();
+			assertNotNull(status);
+			try {
+				device.getHighResolutionWeight();
+				fail("Did not throw an exception.");
+			} catch (NCIException e) {
+				System.out.println(e);
+			}
+			assertSame("A failed exchange cleared the status.", status, device.getStatus());
+			assertSame(status, device.latestReading().getStatus());
+		} finally {
+			device.closeDevice();
+		}
+	}
+
+	@Test
+	public void testMotion() throws Exception {
+		SettlingLoad load = new SettlingLoad(60000, 0, Units.G.toMicrograms(1), 0);
+		NCIScaleEmulator emulator = new NCIScaleEmulator(load);
+		NCIDevice device = new NCIDeviceRxtx(emulator.openLoopback(), true);
+		try {
+			load.place(Units.KG.toMicrograms(5));
+			assertTrue(device.requestStatus().isInMotion());
+		} finally {
+			device.closeDevice();
+		}
+	}
+
+	@Test
+	public void testManyInstances() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(32);
+		List<NCIDevice> devices = new ArrayList<NCIDevice>();
+		try {
+			List<Future<Weight>> weights = new ArrayList<Future<Weight>>();
+			for (int i = 0; i < 200; i++) {
+				NCIScaleEmulator emulator = emulator(i);
+				emulator.setLatency(5, 10);
+				final NCIDevice device = new NCIDeviceRxtx(emulator.openLoopback(), true);
+				devices.add(device);
+				weights.add(executor.submit(new Callable<Weight>() {
+					@Override
+					public Weight call() throws Exception {
+						device.getWeight();
+						return device.getWeight();
+					}
+				}));
+			}
+			for (int i = 0; i < weights.size(); i++) {
+				assertEquals(i, weights.get(i).get().getWeight(), 0.001);
+			}
+		} finally {
+			executor.shutdown();
+			for (NCIDevice device : devices) {
+				device.closeDevice();
+			}
+		}
+	}
+}
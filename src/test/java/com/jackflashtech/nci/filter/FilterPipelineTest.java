@@ -0,0 +1,73 @@
+package com.jackflashtech.nci.filter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+
+public class FilterPipelineTest {
+	private static final Status SETTLED = Status.fromBits(0);
+	private static final Status MOVING = Status.fromBits(1);
+
+	/**
+	 * Runs grams through a pipeline, returning the grams published, or NaN
+	 * where a reading was dropped.
+	 */
+	private static double[] run(FilterPipeline pipeline, Status status, double... grams) {
+		double[] published = new double[grams.length];
+		for (int i = 0; i < grams.length; i++) {
+			Weight weight = pipeline.filter(new Weight(grams[i], Units.G), status, i);
+			published[i] = weight == null ? Double.NaN : weight.getWeightIn(Units.G);
+		}
+		return published;
+	}
+
+	@Test
+	public void testDeadband() throws Exception {
+		double[] published = run(FilterPipeline.parse("deadband:2"), SETTLED, 100, 101, 102, 102.5, 99, 100);
+		assertArrayEquals(new double[] {100, Double.NaN, Double.NaN, 102.5, 99, Double.NaN}, published, 0.001);
+
+		FilterPipeline pipeline = FilterPipeline.parse("deadband:2");
+		assertNotNull(pipeline.filter(new Weight(100, Units.G), SETTLED, 0));
+		assertNotNull("A change of status passes the deadband.", pipeline.filter(new Weight(100, Units.G), MOVING, 1));
+	}
+
+	@Test
+	public void testMedianAndHampel() throws Exception {
+		double[] median = run(FilterPipeline.parse("median:3"), SETTLED, 10, 10, 500, 10, 12, 14);
+		assertArrayEquals(new double[] {10, 10, 10, 10, 12, 12}, median, 0.001);
+
+		double[] hampel = run(FilterPipeline.parse("hampel:5:3"), SETTLED, 10, 11, 10, 12, 500, 11, 13);
+		assertArrayEquals("Only the spike is replaced.", new double[] {10, 11, 10, 12, 11, 11, 13}, hampel, 0.001);
+	}
+
+	@Test
+	public void testDecimationAndStatusEdge() throws Exception {
+		double[] decimated = run(FilterPipeline.parse("decimate:3"), SETTLED, 1, 2, 3, 4, 5, 6, 7);
+		assertArrayEquals(new double[] {1, Double.NaN, Double.NaN, 4, Double.NaN, Double.NaN, 7}, decimated, 0.001);
+
+		FilterPipeline pipeline = FilterPipeline.parse("statusedge");
+		assertNotNull(pipeline.filter(new Weight(1, Units.G), MOVING, 0));
+		assertNull(pipeline.filter(new Weight(2, Units.G), MOVING, 1));
+		assertNotNull(pipeline.filter(new Weight(3, Units.G), SETTLED, 2));
+		assertNull(pipeline.filter(new Weight(3, Units.G), SETTLED, 3));
+	}
+
+	@Test
+	public void testParse() throws Exception {
+		FilterPipeline pipeline = FilterPipeline.parse("median:3, deadband:1");
+		assertEquals(Units.LBS_OZ, pipeline.filter(new Weight(1, 2), SETTLED, 0).getUnits());
+		for (String description : new String[] {"median", "median:x", "median:0", "deadband:-1", "smooth:3", "hampel:5"}) {
+			try {
+				FilterPipeline.parse(description);
+				fail("Parsed '" + description + "'.");
+			} catch (NCIException e) {
+				System.out.println(e);
+			}
+		}
+	}
+}
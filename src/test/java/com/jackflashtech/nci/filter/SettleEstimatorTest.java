@@ -0,0 +1,86 @@
+package com.jackflashtech.nci.filter;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.Units;
+
+public class SettleEstimatorTest {
+	private static final long FINAL = Units.G.toMicrograms(500);
+	private static final long SPACING_NANOS = 10000000;
+
+	private static long g(double grams) {
+		return Units.G.toMicrograms(grams);
+	}
+
+	/**
+	 * Feeds a platter settling to 500 g, polled at 100 Hz, with motion
+	 * reported until the swing is within 0.5 g.
+	 *
+	 * @return	The time, in milliseconds, the estimate first came within the tolerance and held there, or -1.
+	 */
+	private static long settle(SettleEstimator estimator, double frequencyHz, double tauMillis, double noiseGrams, long toleranceMicrograms) {
+		Random random = new Random(5);
+		long confident = -1;
+		for (int n = 0; n < 100; n++) {
+			double t = n * 10.0;
+			double swing = 30 * Math.exp(-t / tauMillis);
+			double reading = swing * Math.cos(2 * Math.PI * frequencyHz * t / 1000) + random.nextGaussian() * noiseGrams;
+			boolean inMotion = swing > 0.5;
+			estimator.add(FINAL + g(reading), inMotion, n * SPACING_NANOS);
+			if (!inMotion) {
+				assertEquals(0, estimator.getOrder());
+				assertEquals(0, estimator.getBoundMicrograms());
+				assertTrue("The estimate came no sooner than the scale was still.", confident < t);
+				return confident;
+			}
+			if (estimator.isWithin(toleranceMicrograms)) {
+				long error = Math.abs(estimator.getEstimateMicrograms() - FINAL);
+				assertTrue("Off by " + error + "ug at " + t + "ms, outside the bound of " + estimator.getBoundMicrograms() + "ug.",
+						error <= estimator.getBoundMicrograms() + g(0.1));
+				if (confident < 0) confident = (long) t;
+			} else {
+				confident = -1;
+			}
+		}
+		return confident;
+	}
+
+	@Test
+	public void testDampedOscillation() {
+		SettleEstimator estimator = new SettleEstimator();
+		long confident = settle(estimator, 8, 80, 0.05, g(1));
+		assertTrue("No estimate before the scale was still.", confident >= 0 && confident < 250);
+		assertEquals("The estimate is the reading once the scale is still.", FINAL, estimator.getEstimateMicrograms(), g(0.5));
+	}
+
+	@Test
+	public void testExponential() {
+		SettleEstimator estimator = new SettleEstimator();
+		long confident = settle(estimator, 0, 60, 0.02, g(1));
+		assertTrue("No estimate before the scale was still.", confident >= 0 && confident < 200);
+	}
+
+	@Test
+	public void testRestarts() {
+		SettleEstimator estimator = new SettleEstimator(8);
+		assertFalse(estimator.isAvailable());
+		long time = 0;
+		for (int n = 0; n < 8; n++) {
+			estimator.add(g(200) + (long) (g(10) * Math.pow(2, -n)), true, time += SPACING_NANOS);
+		}
+		assertTrue(estimator.isAvailable());
+		assertEquals(g(200), estimator.getEstimateMicrograms(), g(0.01));
+		// A missed poll leaves too few samples after it to fit.
+		assertFalse(estimator.add(g(200), true, time += 5 * SPACING_NANOS));
+		assertTrue(estimator.add(g(200), false, time += SPACING_NANOS));
+		assertEquals(g(200), estimator.getEstimateMicrograms());
+		// Motion after the scale was still is a new load.
+		assertFalse(estimator.add(g(400), true, time += SPACING_NANOS));
+		estimator.reset();
+		assertFalse(estimator.isAvailable());
+	}
+}
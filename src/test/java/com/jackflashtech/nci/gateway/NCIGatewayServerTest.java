@@ -0,0 +1,122 @@
+package com.jackflashtech.nci.gateway;
+
+import static org.junit.Assert.*;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.NCIPollingListener;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+import com.jackflashtech.nci.impl.NCIConfiguration;
+import com.jackflashtech.nci.impl.NCIFactory;
+import com.jackflashtech.nci.impl.NCIPollingScheduler.RateClass;
+
+public class NCIGatewayServerTest {
+	private NCIGatewayServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		Properties settings = new Properties();
+		settings.setProperty("nci.scale.implclass", "stub");
+		settings.setProperty("nci.scale.weight", "2.5");
+		server = new NCIGatewayServer(new NCIFactory(NCIConfiguration.parse(settings)), 0);
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	@Test
+	public void testFormatWeight() throws Exception {
+		Status status = new Status(true, false, false, false, false, false, false, false, Status.Range.HIGH, Status.WeightType.NET, false);
+		String line = GatewayProtocol.formatWeight(new Weight(3, 4.5), status);
+		String[] tokens = line.split(" ");
+		Weight weight = GatewayProtocol.parseWeight(tokens, 0);
+		assertEquals(Units.LBS_OZ, weight.getUnits());
+		assertEquals(3, weight.getLbs());
+		assertEquals(4.5, weight.getOz(), 0.0001);
+		assertEquals(new Weight(3, 4.5).getMicrograms(), Long.parseLong(tokens[2]));
+		assertEquals(status.getBits(), GatewayProtocol.parseStatus(tokens[3]).getBits());
+	}
+
+	@Test
+	public void testRequests() throws Exception {
+		NCIGatewayClient first = new NCIGatewayClient(server.getPort());
+		NCIGatewayClient second = new NCIGatewayClient(server.getPort());
+		try {
+			assertEquals(2.5, first.getWeight("scale").getWeight(), 0.001);
+			assertEquals(2.5, second.getWeight("scale").getWeight(), 0.001);
+			try {
+				first.getWeight("missing");
+				fail("Did not throw an exception.");
+			} catch (NCIException e) {
+				System.out.println(e);
+			}
+		} finally {
+			first.close();
+			second.close();
+		}
+	}
+
+	@Test
+	public void testSubscription() throws Exception {
+		NCIGatewayClient client = new NCIGatewayClient(server.getPort());
+		try {
+			final AtomicReference<Weight> polled = new AtomicReference<Weight>();
+			final CountDownLatch latch = new CountDownLatch(3);
+			client.addPollingListener(new NCIPollingListener() {
+				@Override
+				public void polled(String name, Weight weight, Status status) {
+					polled.set(weight);
+					latch.countDown();
+				}
+
+				@Override
+				public void pollFailed(String name, NCIException exception) {
+				}
+			});
+			client.subscribe("scale", RateClass.FAST);
+			assertTrue("The events were not received.", latch.await(5, TimeUnit.SECONDS));
+			assertEquals(2.5, polled.get().getWeight(), 0.001);
+			client.unsubscribe("scale");
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void testRateFollowsSubscribers() throws Exception {
+		NCIGatewayClient first = new NCIGatewayClient(server.getPort());
+		NCIGatewayClient second = new NCIGatewayClient(server.getPort());
+		try {
+			first.subscribe("scale", RateClass.FAST);
+			second.subscribe("scale", RateClass.SLOW);
+			assertEquals(RateClass.FAST, server.getSubscribedRate("scale"));
+			first.unsubscribe("scale");
+			assertEquals("The rate stayed up after the client that asked for it left.", RateClass.SLOW, server.getSubscribedRate("scale"));
+
+			first.subscribe("scale", RateClass.NORMAL);
+			assertEquals(RateClass.NORMAL, server.getSubscribedRate("scale"));
+			first.close();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (server.getSubscribedRate("scale") != RateClass.SLOW && System.nanoTime() < deadline) Thread.sleep(10);
+			assertEquals("The rate stayed up after the client disconnected.", RateClass.SLOW, server.getSubscribedRate("scale"));
+
+			second.unsubscribe("scale");
+			assertNull(server.getSubscribedRate("scale"));
+		} finally {
+			first.close();
+			second.close();
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.jackflashtech.nci.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.NCICancelledException;
+import com.jackflashtech.nci.NCICircuitOpenException;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.emulator.FaultInjectingTransport;
+import com.jackflashtech.nci.emulator.FaultInjectingTransport.Fault;
+import com.jackflashtech.nci.emulator.NCIScaleEmulator;
+import com.jackflashtech.nci.emulator.SettlingLoad;
+
+public class CircuitBreakerTest {
+	/**
+	 * A scale that has been unplugged: nothing can be written to it.
+	 */
+	private static class UnpluggedTransport extends BufferedTransport {
+		int writes = 0;
+
+		@Override
+		protected void send(byte[] b, int off, int len) throws IOException {
+			writes++;
+			throw new IOException("The device is not connected.");
+		}
+	}
+
+	private static FaultInjectingTransport transport() throws NCIException {
+		SettlingLoad load = new SettlingLoad(0, 0, 0, 0);
+		load.place(Units.KG.toMicrograms(2));
+		NCIScaleEmulator emulator = new NCIScaleEmulator(load);
+		emulator.setUnits(Units.KG);
+		return new FaultInjectingTransport(emulator.openLoopback(), 1);
+	}
+
+	@Test
+	public void testOpensOnIOErrors() throws Exception {
+		UnpluggedTransport transport = new UnpluggedTransport();
+		NCIDeviceRxtx device = new NCIDeviceRxtx(transport, true);
+		CircuitBreaker breaker = new CircuitBreaker(3, 200);
+		device.setCircuitBreaker(breaker);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+			try {
+				device.getWeight();
+				fail("Read the weight of an unplugged scale.");
+			} catch (NCICircuitOpenException e) {
+				fail("The breaker opened early.");
+			} catch (NCIException e) {
+				// The write failed.
+			}
+		}
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		try {
+			device.requestStatus();
+			fail("The breaker let a command through.");
+		} catch (NCICircuitOpenException e) {
+			System.out.println(e);
+		}
+		assertEquals("Nothing was sent while the breaker was open.", 3, transport.writes);
+
+		Thread.sleep(250);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		try {
+			device.getWeight();
+			fail("Read the weight of an unplugged scale.");
+		} catch (NCICircuitOpenException e) {
+			fail("The probe was refused.");
+		} catch (NCIException e) {
+			// The probe failed.
+		}
+		assertEquals("A failed probe opens the breaker again.", CircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(4, breaker.getConsecutiveFailures());
+		assertEquals(4, transport.writes);
+	}
+
+	@Test
+	public void testOpensOnTimeoutsAndRecovers() throws Exception {
+		FaultInjectingTransport transport = transport();
+		final NCIDeviceRxtx device = new NCIDeviceRxtx(transport, true);
+		CircuitBreaker breaker = new CircuitBreaker(1, 200);
+		device.setCircuitBreaker(breaker);
+		try {
+			transport.setRate(Fault.UNSUPPORTED, 1);
+			try {
+				device.getWeight();
+				fail("Parsed a weight from \"?\".");
+			} catch (NCIException e) {
+				assertEquals("A device that answers is not dead.", CircuitBreaker.State.CLOSED, breaker.getState());
+			}
+			transport.setRate(Fault.UNSUPPORTED, 0);
+
+			transport.setRate(Fault.SILENCE, 1);
+			final AtomicReference<NCIException> waiting = new AtomicReference<NCIException>();
+			Thread waiter = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(100);
+						device.requestStatus();
+					} catch (NCIException e) {
+						waiting.set(e);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			long start = System.nanoTime();
+			waiter.start();
+			try {
+				device.getWeight();
+				fail("Read the weight of a silent scale.");
+			} catch (NCICircuitOpenException e) {
+				fail("The breaker opened early.");
+			} catch (NCIException e) {
+				// The command timed out.
+			}
+			waiter.join();
+			long elapsedMillis = (System.nanoTime() - start) / 1000000;
+			assertTrue("The waiting command was not refused: " + waiting.get(), waiting.get() instanceof NCICircuitOpenException);
+			assertTrue("The waiting command timed out too, in " + elapsedMillis + "ms.", elapsedMillis < 3000);
+			assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+			transport.setRate(Fault.SILENCE, 0);
+			Thread.sleep(250);
+			assertEquals(2, device.getWeight().getWeight(), 0.001);
+			assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+			assertEquals(0, breaker.getConsecutiveFailures());
+		} finally {
+			device.closeDevice();
+		}
+	}
+
+	@Test
+	public void testInterruptedIsNotAFailure() throws Exception {
+		FaultInjectingTransport transport = transport();
+		transport.setRate(Fault.SILENCE, 1);
+		NCIDeviceRxtx device = new NCIDeviceRxtx(transport, true);
+		CircuitBreaker breaker = new CircuitBreaker(1, 200);
+		device.setCircuitBreaker(breaker);
+		try {
+			final Thread caller = Thread.currentThread();
+			Thread interrupter = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+						return;
+					}
+					caller.interrupt();
+				}
+			};
+			interrupter.start();
+			try {
+				device.getWeight();
+				fail("Read the weight of a silent scale.");
+			} catch (NCICancelledException e) {
+				assertTrue("The interrupt was not kept.", Thread.interrupted());
+			}
+			interrupter.join();
+			assertEquals("A command the caller gave up on is not a failure of the device.", CircuitBreaker.State.CLOSED, breaker.getState());
+			assertEquals(0, breaker.getConsecutiveFailures());
+		} finally {
+			device.closeDevice();
+		}
+	}
+}
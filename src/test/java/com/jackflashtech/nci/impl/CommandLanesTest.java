@@ -0,0 +1,81 @@
+package com.jackflashtech.nci.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.NCIBusyException;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Priority;
+
+public class CommandLanesTest {
+
+	private static Thread acquireLater(final CommandLanes lanes, final Priority priority, final AtomicReference<NCIException> result) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					lanes.acquire(priority, 2000);
+					lanes.release();
+				} catch (NCIException e) {
+					result.set(e);
+				}
+			}
+		};
+		thread.start();
+		return thread;
+	}
+
+	@Test
+	public void testBackgroundShedForInteractive() throws Exception {
+		CommandLanes lanes = new CommandLanes();
+		lanes.acquire(Priority.BACKGROUND, 2000);
+		AtomicReference<NCIException> background = new AtomicReference<NCIException>();
+		AtomicReference<NCIException> interactive = new AtomicReference<NCIException>();
+		Thread backgroundThread = acquireLater(lanes, Priority.BACKGROUND, background);
+		Thread.sleep(100);
+		Thread interactiveThread = acquireLater(lanes, Priority.INTERACTIVE, interactive);
+		Thread.sleep(100);
+		lanes.release();
+		backgroundThread.join();
+		interactiveThread.join();
+		assertTrue("The background command was not shed.", background.get() instanceof NCIBusyException);
+		assertNull("The interactive command failed.", interactive.get());
+	}
+
+	@Test
+	public void testBackgroundShedImmediately() throws Exception {
+		final CommandLanes lanes = new CommandLanes();
+		lanes.acquire(Priority.BACKGROUND, 2000);
+		AtomicReference<NCIException> interactive = new AtomicReference<NCIException>();
+		Thread interactiveThread = acquireLater(lanes, Priority.INTERACTIVE, interactive);
+		Thread.sleep(100);
+		long start = System.currentTimeMillis();
+		try {
+			lanes.acquire(Priority.BACKGROUND, 2000);
+			fail("The background command was not shed.");
+		} catch (NCIBusyException e) {
+			assertTrue(System.currentTimeMillis() - start < 1000);
+		}
+		lanes.release();
+		interactiveThread.join();
+		assertNull(interactive.get());
+	}
+
+	@Test
+	public void testBusyTimeout() throws Exception {
+		CommandLanes lanes = new CommandLanes();
+		lanes.acquire(Priority.INTERACTIVE, 2000);
+		try {
+			lanes.acquire(Priority.INTERACTIVE, 50);
+			fail("Acquired a busy device.");
+		} catch (NCIBusyException e) {
+			System.out.println(e);
+		}
+		lanes.release();
+		lanes.acquire(Priority.BACKGROUND, 50);
+		lanes.release();
+	}
+}
@@ -0,0 +1,157 @@
+package com.jackflashtech.nci.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.CallOptions;
+import com.jackflashtech.nci.Cancellation;
+import com.jackflashtech.nci.NCICancelledException;
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.NCITimeoutException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Weight;
+
+public class LazyDeviceTest {
+	/**
+	 * Opens a stub device after a delay, failing the given number of times
+	 * first.
+	 */
+	private static class SlowProvider implements NCIDeviceProvider {
+		private final long delayMillis;
+		private final AtomicInteger failures;
+		private final AtomicInteger opens = new AtomicInteger();
+
+		SlowProvider(long delayMillis, int failures) {
+			this.delayMillis = delayMillis;
+			this.failures = new AtomicInteger(failures);
+		}
+
+		@Override
+		public Set<String> getImplClassNames() {
+			return null;
+		}
+
+		@Override
+		public Set<String> getConfigurationKeys() {
+			return null;
+		}
+
+		@Override
+		public NCIDevice createDevice(DeviceConfiguration configuration) throws NCIException {
+			opens.incrementAndGet();
+			try {
+				Thread.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				throw new NCIException("Interrupted.", e);
+			}
+			if (failures.getAndDecrement() > 0) throw new NCIException("There is no COM port named COM9.");
+			return StubDevice.weighing(new Weight(2.5, Units.KG), 0);
+		}
+	}
+
+	private static DeviceConfiguration configuration() throws NCIException {
+		Properties settings = new Properties();
+		settings.setProperty("nci.scale.implclass", "stub");
+		settings.setProperty("nci.scale.weight", "2.5");
+		settings.setProperty("nci.scale.lazy", "true");
+		return NCIConfiguration.parse(settings).getDeviceConfiguration("scale");
+	}
+
+	@Test
+	public void testOpensInBackground() throws Exception {
+		long start = System.nanoTime();
+		LazyDevice device = new LazyDevice(configuration(), new SlowProvider(300, 0));
+		assertTrue("Creating the device waited for it to open.", System.nanoTime() - start < 100000000L);
+		assertFalse(device.isOpened());
+		assertNull(device.getStatus());
+		assertEquals(2.5, device.getWeight().getWeight(), 0.001);
+		assertTrue(device.isOpened());
+		device.closeDevice();
+	}
+
+	@Test
+	public void testRetriesFailedOpen() throws Exception {
+		SlowProvider provider = new SlowProvider(200, 1);
+		LazyDevice device = new LazyDevice(configuration(), provider);
+		try {
+			device.getWeight();
+			fail("The failed open was not reported.");
+		} catch (NCIException e) {
+			System.out.println(e);
+		}
+		assertEquals(2.5, device.getWeight().getWeight(), 0.001);
+		assertEquals(2, provider.opens.get());
+		device.closeDevice();
+	}
+
+	@Test
+	public void testRetriesStaleFailure() throws Exception {
+		SlowProvider provider = new SlowProvider(0, 1);
+		LazyDevice device = new LazyDevice(configuration(), provider);
+		long deadline = System.currentTimeMillis() + 2000;
+		while (!device.isOpened() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(device.isOpened());
+		assertEquals("The failure no command waited for was reported.", 2.5, device.getWeight().getWeight(), 0.001);
+		assertEquals(2, provider.opens.get());
+		device.closeDevice();
+	}
+
+	@Test
+	public void testWaitWithinBudget() throws Exception {
+		LazyDevice device = new LazyDevice(configuration(), new SlowProvider(1000, 0));
+		long start = System.nanoTime();
+		try {
+			device.getWeight(new CallOptions(100));
+			fail("The call waited past its budget for the device to open.");
+		} catch (NCITimeoutException e) {
+			assertTrue("The call waited past its budget.", System.nanoTime() - start < 500000000L);
+		}
+
+		final Cancellation cancellation = new Cancellation();
+		CallOptions options = new CallOptions(5000);
+		options.setCancellation(cancellation);
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					// Cancel at once.
+				}
+				cancellation.cancel();
+			}
+		}).start();
+		start = System.nanoTime();
+		try {
+			device.getWeight(options);
+			fail("The cancelled call kept waiting for the device to open.");
+		} catch (NCICancelledException e) {
+			assertTrue("The call was not cancelled promptly.", System.nanoTime() - start < 500000000L);
+		}
+
+		assertEquals("Giving up on the opening stopped it.", 2.5, device.getWeight(new CallOptions(3000)).getWeight(), 0.001);
+		device.closeDevice();
+	}
+
+	@Test
+	public void testFactory() throws Exception {
+		Properties settings = new Properties();
+		settings.setProperty("nci.scale.implclass", "stub");
+		settings.setProperty("nci.scale.weight", "2.5");
+		settings.setProperty("nci.scale.lazy", "true");
+		NCIDevice device = new NCIFactory(NCIConfiguration.parse(settings)).getDevice("scale");
+		try {
+			assertEquals(2.5, device.getWeight().getWeight(), 0.001);
+		} finally {
+			device.closeDevice();
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package com.jackflashtech.nci.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.emulator.NCIScaleEmulator;
+import com.jackflashtech.nci.emulator.SettlingLoad;
+
+public class NCIBusTest {
+	/**
+	 * A line with an emulated scale per address. A command goes to the scale
+	 * its address names, and everything the scales send comes back on the
+	 * line; an address with no scale stays silent.
+	 */
+	private static class Line extends BufferedTransport {
+		private final Map<String, NCITransport> scales = new HashMap<String, NCITransport>();
+
+		void attach(String address, double kg) throws NCIException {
+			attach(address, kg, 2, 3);
+		}
+
+		void attach(String address, double kg, long latencyMillis, long jitterMillis) throws NCIException {
+			SettlingLoad load = new SettlingLoad(0, 0, 0, 0);
+			load.place(Units.KG.toMicrograms(kg));
+			NCIScaleEmulator emulator = new NCIScaleEmulator(load);
+			emulator.setUnits(Units.KG);
+			emulator.setLatency(latencyMillis, jitterMillis);
+			final NCITransport scale = emulator.openLoopback();
+			scale.setTransportListener(new NCITransportListener() {
+				@Override
+				public void dataAvailable() {
+					try {
+						InputStream is = scale.getInputStream();
+						byte[] b = new byte[64];
+						int n;
+						while ((n = is.read(b, 0, b.length)) > 0) deliver(b, 0, n);
+					} catch (IOException e) {
+						// The line is closed.
+					}
+				}
+			});
+			scales.put(address, scale);
+		}
+
+		@Override
+		protected void send(byte[] b, int off, int len) throws IOException {
+			int start = off;
+			for (int i = off; i < off + len; i++) {
+				if (b[i] != 0x0d) continue;
+				NCITransport scale = scales.get(new String(b, start, i - 1 - start, "US-ASCII"));
+				if (scale != null) scale.getOutputStream().write(new byte[] {b[i - 1], b[i]});
+				start = i + 1;
+			}
+		}
+
+		@Override
+		public void close() throws NCIException {
+			super.close();
+			for (NCITransport scale : scales.values()) scale.close();
+		}
+	}
+
+	private Line line;
+	private NCIBus bus;
+
+	@Before
+	public void setUp() throws Exception {
+		line = new Line();
+		line.attach("1", 1);
+		line.attach("2", 2);
+		line.attach("3", 3);
+		bus = new NCIBus(line, 100);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		bus.close();
+	}
+
+	@Test
+	public void testRouting() throws Exception {
+		final List<NCIDevice> devices = new ArrayList<NCIDevice>();
+		for (int i = 1; i <= 3; i++) devices.add(bus.openDevice(Integer.toString(i), true));
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			for (int t = 0; t < 8; t++) {
+				final Random random = new Random(t);
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int j = 0; j < 20; j++) {
+							int i = random.nextInt(3);
+							assertEquals(i + 1, devices.get(i).getWeight().getWeight(), 0.001);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results) result.get();
+		} finally {
+			executor.shutdown();
+			for (NCIDevice device : devices) device.closeDevice();
+		}
+	}
+
+	@Test
+	public void testSilentAddress() throws Exception {
+		final NCIDevice silent = bus.openDevice("9", true);
+		NCIDevice device = bus.openDevice("1", true);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Void> result = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					silent.getWeight();
+					return null;
+				}
+			});
+			Thread.sleep(20);
+			long start = System.nanoTime();
+			assertEquals(1, device.getWeight().getWeight(), 0.001);
+			assertTrue("The silent address held the bus.", System.nanoTime() - start < 1000000000L);
+			try {
+				result.get();
+				fail("The silent address answered.");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof NCIException);
+			}
+		} finally {
+			executor.shutdown();
+			silent.closeDevice();
+			device.closeDevice();
+		}
+	}
+
+	/**
+	 * A reply that comes after its exchange was abandoned, but before the
+	 * next device's, must not be taken for the next device's.
+	 */
+	@Test
+	public void testLateReply() throws Exception {
+		Line line = new Line();
+		line.attach("1", 1, 100, 5);
+		line.attach("4", 4, 300, 5);
+		NCIBus bus = new NCIBus(line, 250, 300);
+		final NCIDevice late = bus.openDevice("4", true);
+		NCIDevice device = bus.openDevice("1", true);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Void> result = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					late.getWeight();
+					return null;
+				}
+			});
+			Thread.sleep(20);
+			assertEquals("The late reply was routed to the next address.", 1, device.getWeight().getWeight(), 0.001);
+			try {
+				result.get();
+				fail("The abandoned exchange was answered.");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof NCIException);
+			}
+		} finally {
+			executor.shutdown();
+			late.closeDevice();
+			device.closeDevice();
+			bus.close();
+		}
+	}
+
+	@Test
+	public void testAddressTaken() throws Exception {
+		NCIDevice device = bus.openDevice("1", true);
+		try {
+			bus.openDevice("1", true);
+			fail("Opened the same address twice.");
+		} catch (NCIException e) {
+			System.out.println(e);
+		}
+		device.closeDevice();
+		bus.openDevice("1", true).closeDevice();
+	}
+}
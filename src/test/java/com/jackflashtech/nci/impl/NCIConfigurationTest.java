@@ -0,0 +1,167 @@
+package com.jackflashtech.nci.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.impl.NCIPollingScheduler.RateClass;
+
+public class NCIConfigurationTest {
+
+	private static Properties settings(String... keysAndValues) {
+		Properties settings = new Properties();
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			settings.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return settings;
+	}
+
+	@Test
+	public void testParseDevices() throws Exception {
+		NCIConfiguration configuration = NCIConfiguration.parse(settings(
+				"nci.front.implclass", "com.jackflashtech.nci.impl.NCIDeviceRxtx",
+				"nci.front.commport", "COM6",
+				"nci.front.checkparity", "false",
+				"nci.front.pollrate", "fast",
+				"nci.back.implclass", "com.jackflashtech.nci.impl.NCIDeviceRxtx",
+				"nci.back.autodiscovery", "true",
+				"nci.back.baudrate", "9600",
+				"unrelated", "value"));
+		assertEquals(2, configuration.getDeviceNames().size());
+		DeviceConfiguration front = configuration.getDeviceConfiguration("front");
+		assertEquals("COM6", front.getCommPort());
+		assertFalse(front.isAutoDiscovery());
+		assertEquals(Boolean.FALSE, front.getCheckParity());
+		assertEquals(RateClass.FAST, front.getPollRate());
+		assertEquals(115200, front.getBaudRate());
+		assertEquals("Only the device's own entries should be kept.", 4, front.getProperties().size());
+		DeviceConfiguration back = configuration.getDeviceConfiguration("back");
+		assertNull(back.getCommPort());
+		assertTrue(back.isAutoDiscovery());
+		assertNull(back.getCheckParity());
+		assertNull(back.getPollRate());
+		assertEquals(9600, back.getBaudRate());
+	}
+
+	@Test
+	public void testParseDeviceSettings() throws Exception {
+		NCIConfiguration configuration = NCIConfiguration.parse(settings(
+				"nci.front.implclass", "x",
+				"nci.front.address", " 3 ",
+				"nci.front.bustimeout", "250",
+				"nci.front.board", "/tmp/board",
+				"nci.front.breakerthreshold", "0",
+				"nci.front.breakercooldown", "1000",
+				"nci.front.zeroband", "0.5",
+				"nci.front.flickerlimit", "6",
+				"nci.back.implclass", "x"));
+		DeviceConfiguration front = configuration.getDeviceConfiguration("front");
+		assertEquals("3", front.getAddress());
+		assertEquals(250, front.getBusTimeout());
+		assertEquals("/tmp/board", front.getBoard());
+		assertEquals(0, front.getBreakerThreshold());
+		assertEquals(1000, front.getBreakerCoolDown());
+		assertEquals(0.5, front.getZeroBand(), 0);
+		assertEquals(Double.POSITIVE_INFINITY, front.getDriftLimit(), 0);
+		assertEquals(6, front.getFlickerLimit(), 0);
+		DeviceConfiguration back = configuration.getDeviceConfiguration("back");
+		assertNull(back.getAddress());
+		assertEquals(NCIBus.DEFAULT_EXCHANGE_TIMEOUT, back.getBusTimeout());
+		assertNull(back.getBoard());
+		assertEquals(CircuitBreaker.DEFAULT_THRESHOLD, back.getBreakerThreshold());
+		assertEquals(CircuitBreaker.DEFAULT_COOL_DOWN_MILLIS, back.getBreakerCoolDown());
+		assertEquals(0, back.getZeroBand(), 0);
+	}
+
+	@Test
+	public void testInvalidSettings() throws Exception {
+		String[][] invalid = {
+				{"nci.front.commport", "COM6"},
+				{"nci.front.implclass", "x", "nci.front.checkparity", "maybe"},
+				{"nci.front.implclass", "x", "nci.front.baudrate", "fast"},
+				{"nci.front.implclass", "x", "nci.front.pollrate", "sometimes"},
+				{"nci.front.implclass", "x", "nci.front.bustimeout", "0"},
+				{"nci.front.implclass", "x", "nci.front.bustimeout", "soon"},
+				{"nci.front.implclass", "x", "nci.front.breakerthreshold", "-1"},
+				{"nci.front.implclass", "x", "nci.front.breakerthreshold", "99999999999"},
+				{"nci.front.implclass", "x", "nci.front.breakercooldown", "1.5"},
+				{"nci.front.implclass", "x", "nci.front.zeroband", "-0.5"},
+				{"nci.front.implclass", "x", "nci.front.driftlimit", "NaN"},
+				{"nci.front.implclass", "x", "nci.front.noiselimit", "loud"}};
+		for (String[] keysAndValues : invalid) {
+			try {
+				NCIConfiguration.parse(settings(keysAndValues));
+				fail("Did not throw an exception.");
+			} catch (NCIException e) {
+				System.out.println(e);
+			}
+		}
+	}
+
+	@Test
+	public void testUnknownDevice() throws Exception {
+		NCIFactory factory = new NCIFactory(NCIConfiguration.parse(new Properties()));
+		try {
+			factory.getDevice("missing");
+			fail("Did not throw an exception.");
+		} catch (NCIException e) {
+			System.out.println(e);
+		}
+	}
+
+	@Test
+	public void testDefaultConfigurationShared() throws Exception {
+		assertSame(new NCIFactory().getConfiguration(), new NCIFactory().getConfiguration());
+		assertNotNull(new NCIFactory().getConfiguration().getDeviceConfiguration("test"));
+	}
+
+	@Test
+	public void testReload() throws Exception {
+		File file = File.createTempFile("nci", ".properties");
+		file.deleteOnExit();
+		write(file, settings("nci.front.implclass", "x"));
+		NCIFactory factory = new NCIFactory(NCIConfiguration.load(file.toPath()));
+		final AtomicReference<NCIConfiguration> changed = new AtomicReference<NCIConfiguration>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		factory.addConfigurationListener(new NCIConfigurationListener() {
+			@Override
+			public void configurationChanged(NCIConfiguration previous, NCIConfiguration current) {
+				if (current.getDeviceConfiguration("back") == null) return;
+				changed.set(current);
+				latch.countDown();
+			}
+
+			@Override
+			public void configurationFailed(NCIException exception) {
+			}
+		});
+		factory.watchConfiguration(file.toPath());
+		try {
+			write(file, settings("nci.front.implclass", "x", "nci.back.implclass", "x", "nci.back.pollrate", "SLOW"));
+			// Some platforms poll for file changes every few seconds.
+			assertTrue("The change was not noticed.", latch.await(30, TimeUnit.SECONDS));
+			assertSame(changed.get(), factory.getConfiguration());
+			assertEquals(RateClass.SLOW, factory.getConfiguration().getDeviceConfiguration("back").getPollRate());
+		} finally {
+			factory.stopWatchingConfiguration();
+		}
+	}
+
+	private static void write(File file, Properties settings) throws Exception {
+		OutputStream os = new FileOutputStream(file);
+		try {
+			settings.store(os, null);
+		} finally {
+			os.close();
+		}
+	}
+}
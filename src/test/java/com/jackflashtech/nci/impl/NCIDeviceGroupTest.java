@@ -0,0 +1,92 @@
+package com.jackflashtech.nci.impl;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.GroupReading;
+import com.jackflashtech.nci.data.Reading;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+
+public class NCIDeviceGroupTest {
+
+	@Test
+	public void testPlatformSum() throws Exception {
+		Map<String, NCIDevice> members = new LinkedHashMap<String, NCIDevice>();
+		members.put("nw", StubDevice.weighing(new Weight(1.0, Units.KG), 0));
+		members.put("ne", StubDevice.weighing(new Weight(500.0, Units.G), 0));
+		members.put("sw", StubDevice.weighing(new Weight(1.0, Units.LBS), 0));
+		members.put("se", StubDevice.weighing(new Weight(0, 8.0), 0));
+		NCIDeviceGroup group = new NCIDeviceGroup(members);
+		GroupReading reading = group.getWeight();
+		assertTrue(reading.isComplete());
+		assertEquals(4, reading.getWeights().size());
+		assertEquals(1500000000L + 453592370L + 226796185L, reading.getTotalMicrograms());
+		assertTrue(reading.getSkewNanos() >= 0);
+		group.closeGroup();
+	}
+
+	@Test
+	public void testMissedAndFailedMembers() throws Exception {
+		Map<String, NCIDevice> members = new LinkedHashMap<String, NCIDevice>();
+		members.put("fast", StubDevice.weighing(new Weight(1.0, Units.KG), 0));
+		members.put("slow", StubDevice.weighing(new Weight(1.0, Units.KG), 5000));
+		members.put("broken", StubDevice.weighing(null, 0));
+		NCIDeviceGroup group = new NCIDeviceGroup(members);
+		long start = System.currentTimeMillis();
+		GroupReading reading = group.getWeight(200);
+		assertTrue("Waited past the deadline.", System.currentTimeMillis() - start < 2000);
+		assertFalse(reading.isComplete());
+		assertEquals(1000000000L, reading.getTotalMicrograms());
+		assertTrue(reading.getMissed().contains("slow"));
+		assertTrue(reading.getFailures().containsKey("broken"));
+		assertEquals(0, reading.getSkewNanos());
+		group.closeGroup();
+	}
+
+	@Test
+	public void testStatusAndTimeFromOwnReply() throws Exception {
+		Status stable = new Status(false, false, false, false, false, false, false, false, Status.Range.LOW, Status.WeightType.GROSS, false);
+		Status moving = new Status(true, false, false, false, false, false, false, false, Status.Range.LOW, Status.WeightType.GROSS, false);
+		Map<String, NCIDevice> members = new LinkedHashMap<String, NCIDevice>();
+		NCIDevice own = StubDevice.reading(new AtomicReference<Weight>(new Weight(1.0, Units.KG)), new AtomicReference<Status>(stable), new AtomicInteger());
+		members.put("own", own);
+		members.put("replaced", replaced(new Weight(1.0, Units.KG), moving));
+		NCIDeviceGroup group = new NCIDeviceGroup(members);
+		GroupReading reading = group.getWeight();
+		assertTrue(reading.isComplete());
+		assertSame(stable, reading.getStatuses().get("own"));
+		assertEquals(own.latestReading().getReceivedNanos(), reading.getTimestamps().get("own").longValue());
+		assertFalse("Paired a weight with another call's status.", reading.getStatuses().containsKey("replaced"));
+		assertEquals(1000000000L, reading.getWeights().get("replaced").getMicrograms());
+		group.closeGroup();
+	}
+
+	/**
+	 * A device whose latest reading is from another call by the time the
+	 * weight is returned, with the same weight and the given status.
+	 */
+	private static NCIDevice replaced(final Weight weight, final Status status) {
+		return (NCIDevice) Proxy.newProxyInstance(NCIDevice.class.getClassLoader(), new Class<?>[] {NCIDevice.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getWeight")) return weight;
+				if (method.getName().equals("latestReading")) {
+					return new Reading(new Weight(weight.getMicrograms() / 1000000.0, Units.G), status, 2, System.nanoTime());
+				}
+				return null;
+			}
+		});
+	}
+}
@@ -0,0 +1,88 @@
+package com.jackflashtech.nci.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Weight;
+
+public class NCIDeviceProvidersTest {
+
+	/**
+	 * Registered in the test resources the way a separate jar would register
+	 * its own implementation.
+	 */
+	public static class StubDeviceProvider implements NCIDeviceProvider {
+		@Override
+		public Set<String> getImplClassNames() {
+			return Collections.singleton("stub");
+		}
+
+		@Override
+		public Set<String> getConfigurationKeys() {
+			return Collections.singleton("weight");
+		}
+
+		@Override
+		public NCIDevice createDevice(DeviceConfiguration configuration) throws NCIException {
+			double weight = Double.parseDouble(configuration.getProperties().getProperty("nci." + configuration.getName() + ".weight"));
+			return StubDevice.weighing(new Weight(weight, Units.KG), 0);
+		}
+	}
+
+	private static DeviceConfiguration configuration(String implClass, String key, String value) throws NCIException {
+		Properties settings = new Properties();
+		settings.setProperty("nci.scale.implclass", implClass);
+		settings.setProperty("nci.scale." + key, value);
+		return NCIConfiguration.parse(settings).getDeviceConfiguration("scale");
+	}
+
+	@Test
+	public void testBuiltInProvider() throws Exception {
+		assertTrue(NCIDeviceProviders.getProvider(configuration("com.jackflashtech.nci.impl.NCIDeviceRxtx", "commport", "COM6")) instanceof NCIDeviceRxtxProvider);
+		assertTrue(NCIDeviceProviders.getProvider(configuration("NCIDeviceRxtx", "checkparity", "true")) instanceof NCIDeviceRxtxProvider);
+	}
+
+	@Test
+	public void testProviderFromServiceLoader() throws Exception {
+		Properties settings = new Properties();
+		settings.setProperty("nci.scale.implclass", "stub");
+		settings.setProperty("nci.scale.weight", "2.5");
+		NCIFactory factory = new NCIFactory(NCIConfiguration.parse(settings));
+		assertEquals(2.5, factory.getDevice("scale").getWeight().getWeight(), 0.001);
+	}
+
+	@Test
+	public void testCommonSettings() throws Exception {
+		for (String key : new String[] {"commport", "autodiscovery", "checkparity"}) {
+			assertTrue(NCIDeviceProviders.getProvider(configuration("stub", key, key.equals("commport") ? "COM6" : "true")) instanceof StubDeviceProvider);
+		}
+	}
+
+	@Test
+	public void testUnrecognizedSetting() throws Exception {
+		try {
+			NCIDeviceProviders.getProvider(configuration("NCIDeviceRxtx", "paritycheck", "false"));
+			fail("Did not throw an exception.");
+		} catch (NCIException e) {
+			System.out.println(e);
+		}
+	}
+
+	@Test
+	public void testUnknownClass() throws Exception {
+		try {
+			NCIDeviceProviders.getProvider(configuration("com.example.NoSuchDevice", "commport", "COM6"));
+			fail("Did not throw an exception.");
+		} catch (NCIException e) {
+			System.out.println(e);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.jackflashtech.nci.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.Command;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.CommandResult;
+
+public class NCIDeviceRxtxBatchTest {
+	private static final byte STATUS_BYTE = 1 << 4 | 1 << 5;
+
+	@Test
+	public void testBatchTareWeightStatus() throws Exception {
+		NCIDeviceRxtx device = new NCIDeviceRxtx(true);
+		NCIDeviceRxtx.BatchTransmissionState state = device.new BatchTransmissionState(
+				Arrays.asList(Command.TARE, Command.WEIGHT, Command.STATUS));
+		byte[] input = {
+				0x0a, STATUS_BYTE, STATUS_BYTE, 0x0d, 0x03,
+				0x0a, '1', '2', '.', '5', 'k', 'g', 0x0d, 0x0a, STATUS_BYTE, STATUS_BYTE, 0x0d, 0x03,
+				0x0a, STATUS_BYTE, STATUS_BYTE, 0x0d, 0x03};
+		state.bufferInput(input, input.length);
+		assertTrue(state.isComplete());
+		assertEquals(3, state.getResults().size());
+
+		CommandResult tare = state.getResults().get(0);
+		assertEquals(Command.TARE, tare.getCommand());
+		assertNull(tare.getWeight());
+		assertNotNull(tare.getStatus());
+
+		CommandResult weight = state.getResults().get(1);
+		assertEquals(Command.WEIGHT, weight.getCommand());
+		assertEquals("Weight was parsed wrong.", 12.5, weight.getWeight().getWeight(), 0.01);
+		assertEquals("Units were parsed wrong.", Units.KG, weight.getWeight().getUnits());
+		assertNotNull(weight.getStatus());
+
+		assertEquals(Command.STATUS, state.getResults().get(2).getCommand());
+	}
+
+	@Test
+	public void testBatchSplitAcrossEvents() throws Exception {
+		NCIDeviceRxtx device = new NCIDeviceRxtx(true);
+		NCIDeviceRxtx.BatchTransmissionState state = device.new BatchTransmissionState(
+				Arrays.asList(Command.STATUS, Command.UNITS));
+		byte[] first = {0x0a, STATUS_BYTE, STATUS_BYTE, 0x0d, 0x03, 0x0a, 'l'};
+		byte[] second = {'b', 0x0d, 0x0a, STATUS_BYTE, STATUS_BYTE, 0x0d, 0x03};
+		state.bufferInput(first, first.length);
+		assertFalse(state.isComplete());
+		assertEquals(1, state.getResults().size());
+		state.bufferInput(second, second.length);
+		assertTrue(state.isComplete());
+		assertEquals(Units.LBS, state.getResults().get(1).getUnits());
+	}
+
+	@Test
+	public void testBatchUnsupportedCommand() throws Exception {
+		NCIDeviceRxtx device = new NCIDeviceRxtx(true);
+		NCIDeviceRxtx.BatchTransmissionState state = device.new BatchTransmissionState(
+				Arrays.asList(Command.STATUS, Command.HIGH_RESOLUTION_WEIGHT));
+		byte[] input = {0x0a, STATUS_BYTE, STATUS_BYTE, 0x0d, 0x03, 0x0a, '?', 0x0d, 0x03};
+		try {
+			state.bufferInput(input, input.length);
+			fail("Did not throw an exception.");
+		} catch (NCIException e) {
+			System.out.println(e);
+		}
+	}
+}
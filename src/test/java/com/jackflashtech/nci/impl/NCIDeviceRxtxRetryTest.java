@@ -0,0 +1,204 @@
+package com.jackflashtech.nci.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.CallOptions;
+import com.jackflashtech.nci.Cancellation;
+import com.jackflashtech.nci.Command;
+import com.jackflashtech.nci.NCICancelledException;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.NCIParseException;
+import com.jackflashtech.nci.NCITimeoutException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.emulator.FaultInjectingTransport;
+import com.jackflashtech.nci.emulator.FaultInjectingTransport.Fault;
+import com.jackflashtech.nci.emulator.NCIScaleEmulator;
+import com.jackflashtech.nci.emulator.SettlingLoad;
+
+public class NCIDeviceRxtxRetryTest {
+	private static NCIScaleEmulator emulator() {
+		SettlingLoad load = new SettlingLoad(0, 0, 0, 0);
+		load.place(Units.KG.toMicrograms(2));
+		NCIScaleEmulator emulator = new NCIScaleEmulator(load);
+		emulator.setUnits(Units.KG, Units.LBS);
+		return emulator;
+	}
+
+	private static FaultInjectingTransport transport(NCIScaleEmulator emulator) throws NCIException {
+		return new FaultInjectingTransport(emulator.openLoopback(), 11);
+	}
+
+	@Test
+	public void testRetriesCorruptedReplies() throws Exception {
+		FaultInjectingTransport transport = transport(emulator());
+		transport.setRate(Fault.PARITY, 0.3);
+		transport.setRate(Fault.SPLIT, 0.3);
+		NCIDeviceRxtx device = new NCIDeviceRxtx(transport, true);
+		try {
+			CallOptions once = new CallOptions(1000);
+			int failures = 0;
+			for (int i = 0; i < 50; i++) {
+				try {
+					assertEquals(2, device.getWeight(once).getWeight(), 0.001);
+				} catch (NCIParseException e) {
+					failures++;
+				}
+			}
+			assertTrue("No reply was corrupted.", failures > 0);
+			assertTrue("Split replies were not reassembled.", transport.getInjected(Fault.SPLIT) > 0);
+
+			CallOptions retried = new CallOptions(1000);
+			retried.setMaxAttempts(8);
+			long parityBefore = transport.getInjected(Fault.PARITY);
+			for (int i = 0; i < 100; i++) {
+				assertEquals(2, device.getWeight(retried).getWeight(), 0.001);
+				assertNotNull(device.requestStatus(retried));
+			}
+			assertTrue(transport.getInjected(Fault.PARITY) > parityBefore);
+		} finally {
+			device.closeDevice();
+		}
+	}
+
+	@Test
+	public void testDeadline() throws Exception {
+		FaultInjectingTransport transport = transport(emulator());
+		transport.setRate(Fault.SILENCE, 1);
+		NCIDeviceRxtx device = new NCIDeviceRxtx(transport, true);
+		try {
+			CallOptions options = new CallOptions(300);
+			options.setMaxAttempts(3);
+			options.setRetryOn(NCIParseException.class, NCITimeoutException.class);
+			long start = System.nanoTime();
+			try {
+				device.getWeight(options);
+				fail("Read the weight of a silent scale.");
+			} catch (NCITimeoutException e) {
+				System.out.println(e);
+			}
+			long elapsedMillis = (System.nanoTime() - start) / 1000000;
+			assertTrue("The call took " + elapsedMillis + "ms.", elapsedMillis >= 290 && elapsedMillis < 1000);
+		} finally {
+			device.closeDevice();
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		FaultInjectingTransport transport = transport(emulator());
+		transport.setLatency(1000, 0);
+		final NCIDeviceRxtx device = new NCIDeviceRxtx(transport, true);
+		try {
+			final Cancellation cancellation = new Cancellation();
+			final CallOptions options = new CallOptions(5000);
+			options.setCancellation(cancellation);
+			final AtomicReference<NCIException> waiting = new AtomicReference<NCIException>();
+			Thread waiter = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(50);
+						device.requestStatus(options);
+					} catch (NCIException e) {
+						waiting.set(e);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			waiter.start();
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(200);
+					} catch (InterruptedException e) {
+						return;
+					}
+					cancellation.cancel();
+				}
+			}.start();
+			long start = System.nanoTime();
+			try {
+				device.getWeight(options);
+				fail("The call was not cancelled.");
+			} catch (NCICancelledException e) {
+				System.out.println(e);
+			}
+			waiter.join();
+			assertTrue((System.nanoTime() - start) / 1000000 < 800);
+			assertTrue("The call waiting for the device was not cancelled.", waiting.get() instanceof NCICancelledException);
+			try {
+				device.getWeight(options);
+				fail("A cancelled call was made.");
+			} catch (NCICancelledException e) {
+				// The cancellation lasts.
+			}
+			assertEquals("Cancelling is not a failure of the device.", 0, device.getCircuitBreaker().getConsecutiveFailures());
+
+			transport.setLatency(0, 0);
+			// Well past the abandoned reply, which shares its delivery thread with every other test.
+			Thread.sleep(2000);
+			assertEquals("The abandoned reply was thrown away.", 2, device.getWeight(new CallOptions(1000)).getWeight(), 0.001);
+		} finally {
+			device.closeDevice();
+		}
+	}
+
+	@Test
+	public void testInterrupt() throws Exception {
+		FaultInjectingTransport transport = transport(emulator());
+		transport.setLatency(500, 0);
+		final NCIDeviceRxtx device = new NCIDeviceRxtx(transport, true);
+		try {
+			final AtomicReference<NCIException> result = new AtomicReference<NCIException>();
+			final AtomicReference<Boolean> interrupted = new AtomicReference<Boolean>();
+			Thread caller = new Thread() {
+				@Override
+				public void run() {
+					try {
+						device.getWeight(new CallOptions(5000));
+					} catch (NCIException e) {
+						result.set(e);
+					}
+					interrupted.set(Thread.currentThread().isInterrupted());
+				}
+			};
+			caller.start();
+			Thread.sleep(100);
+			caller.interrupt();
+			caller.join(1000);
+			assertTrue(result.get() instanceof NCICancelledException);
+			assertTrue("The interrupt was swallowed.", interrupted.get());
+		} finally {
+			device.closeDevice();
+		}
+	}
+
+	@Test
+	public void testChangeOfUnitsIsNotRepeated() throws Exception {
+		NCIScaleEmulator emulator = emulator();
+		FaultInjectingTransport transport = transport(emulator);
+		transport.setRate(Fault.PARITY, 1);
+		NCIDeviceRxtx device = new NCIDeviceRxtx(transport, true);
+		try {
+			CallOptions options = new CallOptions(1000);
+			options.setMaxAttempts(2);
+			try {
+				device.executeBatch(Collections.singletonList(Command.UNITS), options);
+				fail("Parsed a reply with a bad parity bit.");
+			} catch (NCIParseException e) {
+				System.out.println(e);
+			}
+			assertEquals(Units.LBS, emulator.getUnits());
+			assertEquals(1, transport.getInjected(Fault.PARITY));
+		} finally {
+			device.closeDevice();
+		}
+	}
+}
@@ -22,6 +22,20 @@ public class NCIDeviceRxtxWeightTest {
 		assertEquals("Units were parsed wrong.", Units.KG, device.weight.getUnits());
 	}
 	
+	@Test
+	public void testWeightParsingNegativeLbsOz() throws Exception {
+		NCIDeviceRxtx device = new NCIDeviceRxtx(true);
+		NCIDeviceRxtx.WeightTransmissionState state = device.new WeightTransmissionState(null);
+		byte[] inputMessage =
+			{0x0a, '-', '1', 'l', 'b', ' ', '4', '.', '0', 'o', 'z', 0x0d};
+		state.parseInput(12, 0, inputMessage);
+		assertEquals("The ounces did not take the sign of the pounds.", Units.LBS.toMicrograms(-1.25), device.weight.getMicrograms());
+		inputMessage = new byte[]
+			{0x0a, '-', '0', 'l', 'b', ' ', '4', '.', '0', 'o', 'z', 0x0d};
+		state.parseInput(12, 0, inputMessage);
+		assertEquals("The sign of \"-0\" pounds was lost.", Units.LBS.toMicrograms(-0.25), device.weight.getMicrograms());
+	}
+	
 	@Test
 	public void testWeightMissingUnits() throws Exception {
 		NCIDeviceRxtx device = new NCIDeviceRxtx(true);
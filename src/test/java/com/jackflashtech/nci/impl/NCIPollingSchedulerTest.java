@@ -0,0 +1,208 @@
+package com.jackflashtech.nci.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.NCIPollingListener;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+import com.jackflashtech.nci.impl.NCIPollingScheduler.RateClass;
+
+public class NCIPollingSchedulerTest {
+
+	@Test
+	public void testPeriodLimitedByLink() throws Exception {
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(20), NCIPollingScheduler.getPeriodNanos(RateClass.FAST, 115200));
+		assertEquals(TimeUnit.SECONDS.toNanos(1), NCIPollingScheduler.getPeriodNanos(RateClass.SLOW, 9600));
+		assertTrue("A 9600 baud link cannot carry 50 exchanges a second.",
+				NCIPollingScheduler.getPeriodNanos(RateClass.FAST, 9600) > RateClass.FAST.getPeriodNanos());
+		assertEquals(RateClass.FAST.getPeriodNanos(), NCIPollingScheduler.getPeriodNanos(RateClass.FAST, 115200, 8));
+		assertTrue("A 115200 baud link cannot carry 50 exchanges a second for each of 10 devices.",
+				NCIPollingScheduler.getPeriodNanos(RateClass.FAST, 115200, 10) > RateClass.FAST.getPeriodNanos());
+	}
+
+	@Test
+	public void testSharedLinkCounted() throws Exception {
+		NCIPollingScheduler scheduler = new NCIPollingScheduler(1);
+		try {
+			scheduler.register("a", StubDevice.weighing(new Weight(1.0, Units.KG), 0), RateClass.FAST, 115200, "COM1", null);
+			scheduler.register("b", StubDevice.weighing(new Weight(1.0, Units.KG), 0), RateClass.FAST, 115200, "COM1", null);
+			scheduler.register("c", StubDevice.weighing(new Weight(1.0, Units.KG), 0), RateClass.FAST, 115200, null, null);
+			try {
+				scheduler.register("b", StubDevice.weighing(new Weight(1.0, Units.KG), 0), RateClass.FAST, 115200, "COM1", null);
+				fail("Registered the same name twice.");
+			} catch (NCIException e) {
+				System.out.println(e);
+			}
+			assertEquals(2, scheduler.getLinkDevices("COM1"));
+			assertEquals(1, scheduler.getLinkDevices(null));
+			scheduler.setRateClass("a", RateClass.SLOW);
+			assertEquals(2, scheduler.getLinkDevices("COM1"));
+			scheduler.unregister("a");
+			assertEquals(1, scheduler.getLinkDevices("COM1"));
+			scheduler.unregister("b");
+			scheduler.unregister("b");
+			assertEquals(1, scheduler.getLinkDevices("COM1"));
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testPollsPublishedToListeners() throws Exception {
+		final AtomicInteger fastPolls = new AtomicInteger();
+		final AtomicInteger slowPolls = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		NCIPollingScheduler scheduler = new NCIPollingScheduler(2);
+		scheduler.addPollingListener(new NCIPollingListener() {
+			@Override
+			public void polled(String name, Weight weight, Status status) {
+				if (name.equals("fast")) fastPolls.incrementAndGet();
+				if (name.equals("slow")) slowPolls.incrementAndGet();
+			}
+
+			@Override
+			public void pollFailed(String name, NCIException exception) {
+				failures.incrementAndGet();
+			}
+		});
+		scheduler.register("fast", StubDevice.weighing(new Weight(1.0, Units.KG), 0), RateClass.FAST);
+		scheduler.register("slow", StubDevice.weighing(new Weight(1.0, Units.KG), 0), RateClass.SLOW);
+		scheduler.register("broken", StubDevice.weighing(null, 0), RateClass.NORMAL);
+		try {
+			scheduler.register("fast", StubDevice.weighing(null, 0), RateClass.FAST);
+			fail("Registered the same name twice.");
+		} catch (NCIException e) {
+			System.out.println(e);
+		}
+		Thread.sleep(1000);
+		scheduler.shutdown();
+		assertTrue("Fast device polled " + fastPolls.get() + " times.", fastPolls.get() >= 30 && fastPolls.get() <= 55);
+		assertTrue("Slow device polled " + slowPolls.get() + " times.", slowPolls.get() >= 1 && slowPolls.get() <= 2);
+		assertTrue(failures.get() >= 3);
+	}
+
+	@Test
+	public void testNoBurstAfterSlowPoll() throws Exception {
+		AtomicLong stall = new AtomicLong(500);
+		final List<Long> polled = Collections.synchronizedList(new ArrayList<Long>());
+		NCIPollingScheduler scheduler = new NCIPollingScheduler(1);
+		scheduler.addPollingListener(new NCIPollingListener() {
+			@Override
+			public void polled(String name, Weight weight, Status status) {
+				polled.add(System.nanoTime());
+			}
+
+			@Override
+			public void pollFailed(String name, NCIException exception) {
+			}
+		});
+		try {
+			scheduler.register("stalling", StubDevice.stalling(stall), RateClass.FAST);
+			Thread.sleep(800);
+		} finally {
+			scheduler.shutdown();
+		}
+		long end = polled.get(0) + TimeUnit.MILLISECONDS.toNanos(100);
+		int soon = 0;
+		for (long nanos : polled) {
+			if (nanos <= end) soon++;
+		}
+		assertTrue(soon + " polls in the 100ms after the stall.", soon <= 7);
+		assertTrue("Polling did not resume at its rate.", polled.size() >= 10);
+	}
+
+	private static Status status(boolean inMotion, boolean atZero) {
+		return new Status(inMotion, atZero, false, false, false, false, false, false, Status.Range.LOW, Status.WeightType.GROSS, false);
+	}
+
+	@Test
+	public void testPollRateFromConfiguration() throws Exception {
+		Properties settings = new Properties();
+		settings.setProperty("nci.front.implclass", "stub");
+		settings.setProperty("nci.back.implclass", "stub");
+		NCIConfiguration previous = NCIConfiguration.parse(settings);
+		settings.setProperty("nci.front.pollrate", "SLOW");
+		NCIConfiguration current = NCIConfiguration.parse(settings);
+		NCIPollingScheduler scheduler = new NCIPollingScheduler(1);
+		try {
+			scheduler.register("front", StubDevice.weighing(new Weight(1, Units.KG), 0), RateClass.NORMAL);
+			scheduler.register("back", StubDevice.weighing(new Weight(1, Units.KG), 0), RateClass.FAST);
+			scheduler.configurationChanged(previous, current);
+			assertEquals(RateClass.SLOW, scheduler.getRateClass("front"));
+			assertEquals("A rate that did not change in the file was overridden.", RateClass.FAST, scheduler.getRateClass("back"));
+			scheduler.configurationChanged(current, previous);
+			assertEquals(RateClass.NORMAL, scheduler.getRateClass("front"));
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testAdaptiveRate() throws Exception {
+		Weight zero = new Weight(0, Units.KG);
+		Weight loaded = new Weight(2, Units.KG);
+		long held = NCIPollingScheduler.ADAPTIVE_HOLD_NANOS;
+		assertEquals(RateClass.FAST, NCIPollingScheduler.getAdaptiveRate(loaded, status(true, false), false, 0));
+		assertEquals(RateClass.FAST, NCIPollingScheduler.getAdaptiveRate(loaded, status(false, false), true, 0));
+		assertEquals(RateClass.FAST, NCIPollingScheduler.getAdaptiveRate(loaded, status(false, false), false, held / 2));
+		assertEquals(RateClass.NORMAL, NCIPollingScheduler.getAdaptiveRate(loaded, status(false, false), false, held));
+		assertEquals(RateClass.SLOW, NCIPollingScheduler.getAdaptiveRate(zero, status(false, true), false, held));
+		assertEquals(RateClass.SLOW, NCIPollingScheduler.getAdaptiveRate(zero, null, false, held));
+	}
+
+	@Test
+	public void testAdaptivePollingAndDemand() throws Exception {
+		AtomicReference<Weight> weight = new AtomicReference<Weight>(new Weight(0, Units.KG));
+		AtomicReference<Status> status = new AtomicReference<Status>(status(false, true));
+		AtomicInteger reads = new AtomicInteger();
+		NCIPollingScheduler scheduler = new NCIPollingScheduler(1);
+		NCIPollingListener listener = new NCIPollingListener() {
+			@Override
+			public void polled(String name, Weight weight, Status status) {
+			}
+
+			@Override
+			public void pollFailed(String name, NCIException exception) {
+			}
+		};
+		try {
+			scheduler.register("adaptive", StubDevice.reading(weight, status, reads), RateClass.ADAPTIVE);
+			Thread.sleep(300);
+			assertEquals("A device was polled with no listener.", 0, reads.get());
+
+			scheduler.addPollingListener(listener);
+			// Past the hold, an idle scale at zero drops to the heartbeat.
+			Thread.sleep(1500);
+			reads.set(0);
+			Thread.sleep(1000);
+			assertTrue("Idle device polled " + reads.get() + " times.", reads.get() <= 2);
+
+			status.set(status(true, false));
+			Thread.sleep(1000);
+			reads.set(0);
+			Thread.sleep(500);
+			assertTrue("Moving device polled " + reads.get() + " times.", reads.get() >= 15);
+
+			scheduler.removePollingListener(listener);
+			Thread.sleep(100);
+			reads.set(0);
+			Thread.sleep(300);
+			assertEquals("A device was polled after the last listener was removed.", 0, reads.get());
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+}
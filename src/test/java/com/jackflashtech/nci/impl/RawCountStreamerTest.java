@@ -0,0 +1,174 @@
+package com.jackflashtech.nci.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.Command;
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.RawCountListener;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.CommandResult;
+import com.jackflashtech.nci.data.RawCountBlock;
+import com.jackflashtech.nci.emulator.FaultInjectingTransport;
+import com.jackflashtech.nci.emulator.NCIScaleEmulator;
+import com.jackflashtech.nci.emulator.SettlingLoad;
+
+public class RawCountStreamerTest {
+	/**
+	 * The counts the emulator reports for 2kg: 100000 at zero and 10 a gram.
+	 */
+	private static final long COUNTS = 100000 + 20000;
+
+	private static NCIDevice device(NCIScaleEmulator emulator) throws NCIException {
+		return new NCIDeviceRxtx(emulator.openLoopback(), true);
+	}
+
+	private static NCIScaleEmulator emulator() {
+		SettlingLoad load = new SettlingLoad(0, 0, 0, 0);
+		load.place(Units.KG.toMicrograms(2));
+		NCIScaleEmulator emulator = new NCIScaleEmulator(load);
+		emulator.setUnits(Units.KG);
+		return emulator;
+	}
+
+	/**
+	 * Collects copies of the blocks it receives until it has enough.
+	 */
+	private static class Collector implements RawCountListener {
+		final List<double[]> blocks = new ArrayList<double[]>();
+		final List<Long> sequences = new ArrayList<Long>();
+		final CountDownLatch done;
+		volatile NCIException failure;
+
+		Collector(int blocks) {
+			this.done = new CountDownLatch(blocks);
+		}
+
+		@Override
+		public void receivedRawCounts(RawCountBlock block) {
+			if (done.getCount() == 0) return;
+			blocks.add(Arrays.copyOf(block.getCounts(), block.size()));
+			sequences.add(block.getSequence());
+			assertNotNull(block.getStatus());
+			done.countDown();
+		}
+
+		@Override
+		public void rawCountsFailed(NCIException exception) {
+			failure = exception;
+			while (done.getCount() > 0) done.countDown();
+		}
+	}
+
+	@Test
+	public void testRequest() throws Exception {
+		NCIScaleEmulator emulator = emulator();
+		NCIDevice device = device(emulator);
+		try {
+			assertEquals(COUNTS, device.requestMetrologyRawCounts());
+			device.tare();
+			assertEquals("Tare does not change the raw counts.", COUNTS, device.requestMetrologyRawCounts());
+			List<CommandResult> results = device.executeBatch(Arrays.asList(Command.METROLOGY_RAW_COUNTS, Command.STATUS));
+			assertEquals(Long.valueOf(COUNTS), results.get(0).getRawCounts());
+			assertNull(results.get(1).getRawCounts());
+		} finally {
+			device.closeDevice();
+		}
+	}
+
+	@Test
+	public void testParseRawCounts() throws Exception {
+		assertEquals(-1234, NCIDeviceRxtx.parseRawCounts("  -1234 \r".getBytes("US-ASCII"), 0, 8));
+		assertEquals(42, NCIDeviceRxtx.parseRawCounts("+42".getBytes("US-ASCII"), 0, 3));
+		for (String invalid : new String[] {"", " ", "12kg", "1 2", "-"}) {
+			try {
+				NCIDeviceRxtx.parseRawCounts(invalid.getBytes("US-ASCII"), 0, invalid.length());
+				fail("Parsed '" + invalid + "'.");
+			} catch (NCIException e) {
+				System.out.println(e);
+			}
+		}
+	}
+
+	@Test
+	public void testStream() throws Exception {
+		NCIDevice device = device(emulator());
+		Collector raw = new Collector(20);
+		Collector decimated = new Collector(5);
+		try {
+			long start = System.nanoTime();
+			device.subscribeRawCounts(raw, 1, 10);
+			device.subscribeRawCounts(decimated, 4, 10);
+			try {
+				device.subscribeRawCounts(raw, 1, 10);
+				fail("Subscribed twice.");
+			} catch (NCIException e) {
+				System.out.println(e);
+			}
+			assertTrue(raw.done.await(5, TimeUnit.SECONDS));
+			assertTrue(decimated.done.await(5, TimeUnit.SECONDS));
+			// With no latency on the emulator, a stall would be a reply waiting out the device's timeout.
+			assertTrue("The stream stalled.", System.nanoTime() - start < 2000000000L);
+			assertEquals("Other commands still get through.", 2, device.getWeight().getWeight(), 0.001);
+			device.unsubscribeRawCounts(raw);
+			device.unsubscribeRawCounts(decimated);
+
+			assertNull(raw.failure);
+			for (int i = 0; i < raw.blocks.size(); i++) {
+				assertEquals(i, raw.sequences.get(i).longValue());
+				for (double count : raw.blocks.get(i)) assertEquals(COUNTS, count, 0.0001);
+			}
+			for (double[] block : decimated.blocks) {
+				assertEquals(10, block.length);
+				for (double count : block) assertEquals(COUNTS, count, 0.0001);
+			}
+		} finally {
+			device.closeDevice();
+		}
+	}
+
+	@Test
+	public void testSkipsCorruptedTurns() throws Exception {
+		FaultInjectingTransport transport = new FaultInjectingTransport(emulator().openLoopback(), 3);
+		transport.setRate(FaultInjectingTransport.Fault.PARITY, 0.5);
+		NCIDevice device = new NCIDeviceRxtx(transport, true);
+		Collector collector = new Collector(10);
+		try {
+			device.subscribeRawCounts(collector, 1, RawCountStreamer.TURN);
+			assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+			assertNull("A corrupted reply ended the stream.", collector.failure);
+			assertTrue(transport.getInjected(FaultInjectingTransport.Fault.PARITY) > 0);
+			device.unsubscribeRawCounts(collector);
+			for (double[] block : collector.blocks) {
+				for (double count : block) assertEquals(COUNTS, count, 0.0001);
+			}
+		} finally {
+			device.closeDevice();
+		}
+	}
+
+	@Test
+	public void testUnsupported() throws Exception {
+		NCIScaleEmulator emulator = emulator();
+		emulator.setSupportedCommands(Command.WEIGHT, Command.STATUS);
+		NCIDevice device = device(emulator);
+		Collector collector = new Collector(1);
+		try {
+			device.subscribeRawCounts(collector, 1, 10);
+			assertTrue(collector.done.await(5, TimeUnit.SECONDS));
+			assertNotNull(collector.failure);
+			System.out.println(collector.failure);
+			assertEquals(2, device.getWeight().getWeight(), 0.001);
+		} finally {
+			device.closeDevice();
+		}
+	}
+}
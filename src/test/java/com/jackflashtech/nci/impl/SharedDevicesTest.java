@@ -0,0 +1,152 @@
+package com.jackflashtech.nci.impl;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TooManyListenersException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIDeviceListener;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.RawCountListener;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Weight;
+
+public class SharedDevicesTest {
+
+	private static NCIFactory factory() throws NCIException {
+		Properties settings = new Properties();
+		settings.setProperty("nci.shared.implclass", "stub");
+		settings.setProperty("nci.shared.weight", "1.5");
+		return new NCIFactory(NCIConfiguration.parse(settings));
+	}
+
+	@Test
+	public void testReferenceCounting() throws Exception {
+		NCIFactory factory = factory();
+		NCIDevice first = factory.getDevice("shared");
+		NCIDevice second = factory().getDevice("shared");
+		assertNotSame(first, second);
+		assertEquals(2, SharedDevices.getReferenceCount("shared"));
+
+		first.closeDevice();
+		first.closeDevice();
+		assertEquals("Closing a handle twice released it twice.", 1, SharedDevices.getReferenceCount("shared"));
+		assertEquals(1.5, second.getWeight().getWeight(), 0.001);
+		try {
+			first.getWeight();
+			fail("A closed handle was still usable.");
+		} catch (NCIException e) {
+			System.out.println(e);
+		}
+
+		second.closeDevice();
+		assertEquals(0, SharedDevices.getReferenceCount("shared"));
+		NCIDevice reopened = factory.getDevice("shared");
+		assertEquals(1, SharedDevices.getReferenceCount("shared"));
+		reopened.closeDevice();
+	}
+
+	/**
+	 * @return	A listener that counts the events it hears, by the name of the method.
+	 */
+	private static NCIDeviceListener counting(final Map<String, AtomicInteger> events) {
+		return (NCIDeviceListener) Proxy.newProxyInstance(NCIDeviceListener.class.getClassLoader(), new Class<?>[] {NCIDeviceListener.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("equals")) return proxy == args[0];
+				if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+				events.putIfAbsent(method.getName(), new AtomicInteger());
+				events.get(method.getName()).incrementAndGet();
+				return null;
+			}
+		});
+	}
+
+	private static int count(Map<String, AtomicInteger> events, String name) {
+		AtomicInteger count = events.get(name);
+		return count == null ? 0 : count.get();
+	}
+
+	@Test
+	public void testHandlesShareListener() throws Exception {
+		final AtomicReference<NCIDeviceListener> installed = new AtomicReference<NCIDeviceListener>();
+		final List<Object> unsubscribed = new ArrayList<Object>();
+		NCIDevice device = (NCIDevice) Proxy.newProxyInstance(NCIDevice.class.getClassLoader(), new Class<?>[] {NCIDevice.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("addDeviceListener") && !installed.compareAndSet(null, (NCIDeviceListener) args[0])) {
+					throw new TooManyListenersException();
+				}
+				if (method.getName().equals("unsubscribeRawCounts")) unsubscribed.add(args[0]);
+				return null;
+			}
+		});
+		SharedDevices.Entry entry = new SharedDevices.Entry("fanout");
+		entry.device = device;
+		entry.references = 2;
+		NCIDevice first = new SharedDeviceHandle(device, entry);
+		NCIDevice second = new SharedDeviceHandle(device, entry);
+		Map<String, AtomicInteger> firstEvents = new ConcurrentHashMap<String, AtomicInteger>();
+		Map<String, AtomicInteger> secondEvents = new ConcurrentHashMap<String, AtomicInteger>();
+		first.addDeviceListener(counting(firstEvents));
+		second.addDeviceListener(counting(secondEvents));
+		try {
+			first.addDeviceListener(counting(firstEvents));
+			fail("A handle took a second listener.");
+		} catch (TooManyListenersException e) {
+			System.out.println(e);
+		}
+		installed.get().receivedWeight(new Weight(1, Units.KG));
+		assertEquals(1, count(firstEvents, "receivedWeight"));
+		assertEquals(1, count(secondEvents, "receivedWeight"));
+
+		RawCountListener raw = (RawCountListener) Proxy.newProxyInstance(RawCountListener.class.getClassLoader(), new Class<?>[] {RawCountListener.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("equals")) return proxy == args[0];
+				if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+				return null;
+			}
+		});
+		first.subscribeRawCounts(raw, 1, 1);
+		first.closeDevice();
+		assertEquals("The closed handle's subscription was left running.", 1, unsubscribed.size());
+		assertSame(raw, unsubscribed.get(0));
+		assertEquals(1, count(firstEvents, "deviceClosed"));
+		installed.get().receivedWeight(new Weight(2, Units.KG));
+		assertEquals("The closed handle's listener still heard the device.", 1, count(firstEvents, "receivedWeight"));
+		assertEquals(2, count(secondEvents, "receivedWeight"));
+		assertEquals(0, count(secondEvents, "deviceClosed"));
+
+		second.closeDevice();
+		assertEquals(1, count(secondEvents, "deviceClosed"));
+		assertEquals(1, count(firstEvents, "deviceClosed"));
+	}
+
+	@Test
+	public void testFailedOpenNotShared() throws Exception {
+		Properties settings = new Properties();
+		settings.setProperty("nci.broken.implclass", "com.example.NoSuchDevice");
+		NCIFactory factory = new NCIFactory(NCIConfiguration.parse(settings));
+		for (int i = 0; i < 2; i++) {
+			try {
+				factory.getDevice("broken");
+				fail("Did not throw an exception.");
+			} catch (NCIException e) {
+				assertEquals(0, SharedDevices.getReferenceCount("broken"));
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.jackflashtech.nci.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.jackflashtech.nci.NCIDevice;
+import com.jackflashtech.nci.NCIException;
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Reading;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+
+/**
+ * Devices for tests that do not need a port. Every method other than
+ * {@link NCIDevice#getWeight()} returns null.
+ */
+class StubDevice {
+
+	/**
+	 * A device that answers {@link NCIDevice#getWeight()} after a delay, or
+	 * throws if the weight is null.
+	 */
+	static NCIDevice weighing(final Weight weight, final long delayMillis) {
+		return (NCIDevice) Proxy.newProxyInstance(NCIDevice.class.getClassLoader(), new Class<?>[] {NCIDevice.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getWeight")) {
+					Thread.sleep(delayMillis);
+					if (weight == null) throw new NCIException("This function is not supported on this scale.");
+					return weight;
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * A device that weighs 1 kg, stalling on the next read for as long as
+	 * the test sets, as an unplugged device does until it times out.
+	 */
+	static NCIDevice stalling(final AtomicLong stallMillis) {
+		return (NCIDevice) Proxy.newProxyInstance(NCIDevice.class.getClassLoader(), new Class<?>[] {NCIDevice.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getWeight")) {
+					Thread.sleep(stallMillis.getAndSet(0));
+					return new Weight(1.0, Units.KG);
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * A device whose weight and status can be changed by the test, counting
+	 * the weights read from it. Each weight read is also its latest reading.
+	 */
+	static NCIDevice reading(final AtomicReference<Weight> weight, final AtomicReference<Status> status, final AtomicInteger reads) {
+		final AtomicReference<Reading> latest = new AtomicReference<Reading>();
+		return (NCIDevice) Proxy.newProxyInstance(NCIDevice.class.getClassLoader(), new Class<?>[] {NCIDevice.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getWeight")) {
+					latest.set(new Reading(weight.get(), status.get(), reads.incrementAndGet(), System.nanoTime()));
+					return latest.get().getWeight();
+				}
+				if (method.getName().equals("getStatus")) return status.get();
+				if (method.getName().equals("latestReading")) return latest.get();
+				return null;
+			}
+		});
+	}
+}
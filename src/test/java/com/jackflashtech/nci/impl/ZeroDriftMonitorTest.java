@@ -0,0 +1,85 @@
+package com.jackflashtech.nci.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.jackflashtech.nci.Units;
+import com.jackflashtech.nci.data.Status;
+import com.jackflashtech.nci.data.Weight;
+import com.jackflashtech.nci.data.ZeroStatistics;
+import com.jackflashtech.nci.data.ZeroStatistics.Alarm;
+
+public class ZeroDriftMonitorTest {
+	private static final long PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+	private static final long GRAM = Units.G.toMicrograms(1);
+
+	private static Status status(boolean inMotion) {
+		return new Status(inMotion, false, false, false, false, false, false, false, Status.Range.LOW, Status.WeightType.GROSS, false);
+	}
+
+	private static ZeroDriftMonitor monitor() {
+		// A zero band of 100 g, 30 g/h of drift, 2 g of noise and 5 flickers a minute.
+		return new ZeroDriftMonitor(100 * GRAM, 30 * GRAM, 2 * GRAM, 5);
+	}
+
+	@Test
+	public void testQuietScale() throws Exception {
+		ZeroDriftMonitor monitor = monitor();
+		List<Alarm> alarms = new ArrayList<Alarm>();
+		for (long i = 0; i < 20000; i++) {
+			alarms.addAll(monitor.record(new Weight(0.1, Units.G), status(false), i * PERIOD_NANOS));
+		}
+		assertTrue("Alarms were raised: " + alarms, alarms.isEmpty());
+		ZeroStatistics statistics = monitor.getStatistics();
+		assertEquals(20000, statistics.getSamples());
+		assertEquals(0.1 * GRAM, statistics.getMeanMicrograms(), 1);
+		assertEquals(0, statistics.getDriftMicrogramsPerHour(), 1);
+	}
+
+	@Test
+	public void testDrift() throws Exception {
+		ZeroDriftMonitor monitor = monitor();
+		List<Alarm> alarms = new ArrayList<Alarm>();
+		// 1 g a minute is 60 g an hour.
+		long minutes = 40;
+		long readings = TimeUnit.MINUTES.toNanos(minutes) / PERIOD_NANOS;
+		for (long i = 0; i < readings; i++) {
+			long nanoTime = i * PERIOD_NANOS;
+			double grams = (double) nanoTime / TimeUnit.MINUTES.toNanos(1);
+			alarms.addAll(monitor.record(new Weight(grams, Units.G), status(false), nanoTime));
+		}
+		assertEquals(1, alarms.size());
+		assertEquals(Alarm.ZERO_DRIFT, alarms.get(0));
+		assertEquals(60 * GRAM, monitor.getStatistics().getDriftMicrogramsPerHour(), 3 * GRAM);
+	}
+
+	@Test
+	public void testNoiseAndFlicker() throws Exception {
+		ZeroDriftMonitor monitor = monitor();
+		List<Alarm> alarms = new ArrayList<Alarm>();
+		for (long i = 0; i < 1000; i++) {
+			// Alternating readings 5 g either side of zero, and a blip of motion every second.
+			double grams = i % 2 == 0 ? 5 : -5;
+			alarms.addAll(monitor.record(new Weight(grams, Units.G), status(i % 5 == 4), i * PERIOD_NANOS));
+		}
+		assertTrue(alarms.contains(Alarm.ZERO_NOISE));
+		assertTrue(alarms.contains(Alarm.MOTION_FLICKER));
+		assertEquals("Each alarm should be raised once.", 2, alarms.size());
+		assertEquals(5 * GRAM, monitor.getStatistics().getStandardDeviationMicrograms(), 0.5 * GRAM);
+		assertEquals(60, monitor.getStatistics().getMotionFlickerPerMinute(), 6);
+	}
+
+	@Test
+	public void testLoadedReadingsIgnored() throws Exception {
+		ZeroDriftMonitor monitor = monitor();
+		for (long i = 0; i < 1000; i++) {
+			assertTrue(monitor.record(new Weight(i % 2 == 0 ? 5 : 20, Units.KG), status(i % 2 == 0), i * PERIOD_NANOS).isEmpty());
+		}
+		assertEquals(0, monitor.getStatistics().getSamples());
+	}
+}